@@ -8,6 +8,10 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -51,7 +55,15 @@ public class PCQBatchRunner {
 			log.info("Using batch file at: " + batchFile.getAbsolutePath());
 			final File setupPropertiesFile = new File(propertiesFilePath);
 
-			PCQBatchRunner.run(batchFile, setupPropertiesFile, true);
+			int numConcurrentRuns = 1;
+			if (cmd.getOptionValue("n") != null) {
+				numConcurrentRuns = Integer.valueOf(cmd.getOptionValue("n"));
+			}
+			long memoryBudgetInMB = 0l;
+			if (cmd.getOptionValue("m") != null) {
+				memoryBudgetInMB = Long.valueOf(cmd.getOptionValue("m"));
+			}
+			PCQBatchRunner.run(batchFile, setupPropertiesFile, true, numConcurrentRuns, memoryBudgetInMB);
 			System.out.println("Everything finished correctly.");
 			System.exit(0);
 		} catch (final Exception e) {
@@ -70,7 +82,28 @@ public class PCQBatchRunner {
 	 * @throws IOException
 	 */
 	public static void run(File batchFile, File paramaterFile, boolean generateXGMMLFiles) throws IOException {
+		run(batchFile, paramaterFile, generateXGMMLFiles, 1, 0l);
+	}
 
+	/**
+	 * In this case, the batch file is a file containing lines with inputFiles.
+	 * If numConcurrentRuns is greater than 1, each run is performed in its own
+	 * JVM, see {@link PCQRunProcess}, with at most numConcurrentRuns of them at
+	 * the same time.
+	 *
+	 * @param batchFile
+	 * @param paramaterFile
+	 * @param generateXGMMLFiles
+	 * @param numConcurrentRuns  maximum number of runs performed at the same
+	 *                           time
+	 * @param memoryBudgetInMB   if positive, memory shared by the runs performed
+	 *                           at the same time
+	 * @throws IOException
+	 */
+	public static void run(File batchFile, File paramaterFile, boolean generateXGMMLFiles, int numConcurrentRuns,
+			long memoryBudgetInMB) throws IOException {
+		// inputFiles, inputIDFiles and outputSuffix of each run
+		final List<String[]> runs = new ArrayList<String[]>();
 		final List<String> lines = Files.readAllLines(Paths.get(batchFile.toURI()));
 		String inputFilesLine = null;
 		String inputIDFilesLine = null;
@@ -95,7 +128,7 @@ public class PCQBatchRunner {
 					final String value = split[1].trim();
 					if (property.equals("inputFiles")) {
 						if (inputFilesLine != null) {
-							runPCQ(paramaterFile, inputFilesLine, inputIDFilesLine, suffixLine, generateXGMMLFiles);
+							runs.add(new String[] { inputFilesLine, inputIDFilesLine, suffixLine });
 							// reset params
 							inputFilesLine = value;
 							inputIDFilesLine = null;
@@ -117,7 +150,124 @@ public class PCQBatchRunner {
 		}
 
 		if (inputFilesLine != null) {
-			runPCQ(paramaterFile, inputFilesLine, inputIDFilesLine, suffixLine, generateXGMMLFiles);
+			runs.add(new String[] { inputFilesLine, inputIDFilesLine, suffixLine });
+		}
+		if (numConcurrentRuns <= 1) {
+			for (final String[] run : runs) {
+				runPCQ(paramaterFile, run[0], run[1], run[2], generateXGMMLFiles);
+			}
+			return;
+		}
+		final File output = getRunPCQResultingLogFile(paramaterFile);
+		final List<List<String>> runArguments = new ArrayList<List<String>>();
+		final List<File> logFiles = new ArrayList<File>();
+		for (int i = 0; i < runs.size(); i++) {
+			final String[] run = runs.get(i);
+			final List<String> arguments = new ArrayList<String>();
+			arguments.add(paramaterFile.getAbsolutePath());
+			arguments.add(String.valueOf(generateXGMMLFiles));
+			arguments.add(PCQRunProcess.INPUT_FILES + "=" + run[0]);
+			if (run[1] != null) {
+				arguments.add(PCQRunProcess.INPUT_ID_FILES + "=" + run[1]);
+			}
+			if (run[2] != null) {
+				arguments.add(PCQRunProcess.OUTPUT_SUFFIX + "=" + run[2]);
+			}
+			runArguments.add(arguments);
+			String logFileName = "PCQ_batch_run" + (i + 1);
+			if (run[2] != null) {
+				logFileName += "_" + run[2];
+			}
+			logFiles.add(new File(output.getParentFile(), logFileName + ".log"));
+		}
+		final List<List<String>> results = runInOwnJVMs(runArguments, logFiles, numConcurrentRuns,
+				memoryBudgetInMB);
+		// the lines are appended in the order of the batch file
+		final List<File> failedRunLogFiles = new ArrayList<File>();
+		for (int i = 0; i < runs.size(); i++) {
+			if (results.get(i) == null) {
+				failedRunLogFiles.add(logFiles.get(i));
+			} else {
+				appendToResultingLogFile(output, runs.get(i)[2], new File(results.get(i).get(1)));
+			}
+		}
+		if (!failedRunLogFiles.isEmpty()) {
+			throw new IOException(failedRunLogFiles.size() + " out of " + runs.size()
+					+ " PCQ runs failed. See their output at: " + failedRunLogFiles);
+		}
+	}
+
+	/**
+	 * Performs each run in its own JVM by launching a {@link PCQRunProcess} with
+	 * its arguments, with at most numConcurrentRuns processes at the same time.
+	 * The output of each process is written in its log file.
+	 *
+	 * @param runArguments     the arguments of each {@link PCQRunProcess},
+	 *                         after the result file
+	 * @param logFiles
+	 * @param numConcurrentRuns
+	 * @param memoryBudgetInMB if positive, each process is launched with this
+	 *                         memory divided by numConcurrentRuns as maximum
+	 *                         heap
+	 * @return the lines of the result file of each run, in the same order, or
+	 *         null for the runs that failed
+	 * @throws IOException
+	 */
+	private static List<List<String>> runInOwnJVMs(List<List<String>> runArguments, List<File> logFiles,
+			int numConcurrentRuns, long memoryBudgetInMB) throws IOException {
+		final List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		if (memoryBudgetInMB > 0) {
+			command.add("-Xmx" + Math.max(1l, memoryBudgetInMB / numConcurrentRuns) + "m");
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(PCQRunProcess.class.getName());
+		final ExecutorService executor = Executors.newFixedThreadPool(numConcurrentRuns);
+		try {
+			final List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < runArguments.size(); i++) {
+				final File resultFile = File.createTempFile("pcqRun", ".txt");
+				final File logFile = logFiles.get(i);
+				final List<String> runCommand = new ArrayList<String>(command);
+				runCommand.add(resultFile.getAbsolutePath());
+				runCommand.addAll(runArguments.get(i));
+				futures.add(executor.submit(() -> {
+					try {
+						log.info("Running PCQ in a new JVM with output at: " + logFile.getAbsolutePath());
+						final Process process = new ProcessBuilder(runCommand).redirectErrorStream(true)
+								.redirectOutput(logFile).start();
+						try {
+							if (process.waitFor() != 0) {
+								log.error("PCQ run failed. See its output at: " + logFile.getAbsolutePath());
+								return null;
+							}
+						} catch (final InterruptedException e) {
+							process.destroy();
+							throw e;
+						}
+						return Files.readAllLines(resultFile.toPath());
+					} finally {
+						resultFile.delete();
+					}
+				}));
+			}
+			final List<List<String>> results = new ArrayList<List<String>>();
+			for (final Future<List<String>> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (final ExecutionException e) {
+					e.getCause().printStackTrace();
+					log.error("Error running PCQ in a new JVM: " + e.getCause().getMessage());
+					results.add(null);
+				}
+			}
+			return results;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the PCQ runs", e);
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
@@ -160,6 +310,28 @@ public class PCQBatchRunner {
 	 */
 	public static File runPCQ(File parameterFile, String inputFilesLine, String inputIDFilesLine, String suffixLine,
 			boolean generateXGMMLFiles2, File outputFolder) throws IOException {
+		final ProteinClusterQuant pcq = runAnalysis(parameterFile, inputFilesLine, inputIDFilesLine, suffixLine,
+				generateXGMMLFiles2);
+		// append this full path to a file that can be used by PCQ comparator
+		final File output = getRunPCQResultingLogFile(pcq.getParams());
+		appendToResultingLogFile(output, suffixLine, pcq.getFinalPeptideNodeTableFile());
+		return output;
+	}
+
+	/**
+	 * Runs a PCQ run with base parameters from parameterFile and replacing
+	 * inputFiles (IDs and Quants) from parameters, as well as suffix.
+	 *
+	 * @param parameterFile
+	 * @param inputFilesLine
+	 * @param inputIDFilesLine
+	 * @param suffixLine
+	 * @param generateXGMMLFiles2
+	 * @return
+	 * @throws IOException
+	 */
+	static ProteinClusterQuant runAnalysis(File parameterFile, String inputFilesLine, String inputIDFilesLine,
+			String suffixLine, boolean generateXGMMLFiles2) throws IOException {
 		log.info("Running PCQ with:\ninputFiles=" + inputFilesLine + "\ninputIDFiles=" + inputIDFilesLine
 				+ "\noutputSuffix=" + suffixLine + "\ngenerateXGMML=" + generateXGMMLFiles2);
 		// this sets the pcq parameters
@@ -181,10 +353,11 @@ public class PCQBatchRunner {
 		params.setAnalysisRun(true);
 		pcq.setCreateXGMMLFile(generateXGMMLFiles2);
 		pcq.run();
-		final File peptideNodeTableFile = pcq.getFinalPeptideNodeTableFile();
-		// append this full path to a file that can be used by PCQ comparator
-		final File output = new File(params.getOutputFileFolder().getParentFile().getParentFile().getAbsolutePath()
-				+ File.separator + PCQ_BATCH_RESULTING_LOG_FILE);
+		return pcq;
+	}
+
+	private static void appendToResultingLogFile(File output, String suffixLine, File peptideNodeTableFile)
+			throws IOException {
 		final FileWriter fw = new FileWriter(output, true);
 		final String peptideNodeTableFileLine = suffixLine + "\t" + peptideNodeTableFile.getAbsolutePath();
 		if (output.length() > 0l) {
@@ -193,12 +366,14 @@ public class PCQBatchRunner {
 		fw.write(peptideNodeTableFileLine);
 		fw.close();
 		log.info("Added to " + output.getAbsolutePath() + ": '" + peptideNodeTableFileLine + "'");
-		return output;
 	}
 
 	public static File getRunPCQResultingLogFile(File parameterFile) throws IOException {
 		PropertiesReader.readProperties(parameterFile, true);
-		final ProteinClusterQuantParameters params = ProteinClusterQuantParameters.getInstance();
+		return getRunPCQResultingLogFile(ProteinClusterQuantParameters.getInstance());
+	}
+
+	private static File getRunPCQResultingLogFile(ProteinClusterQuantParameters params) {
 		final File output = new File(params.getOutputFileFolder().getParentFile().getParentFile().getAbsolutePath()
 				+ File.separator + PCQ_BATCH_RESULTING_LOG_FILE);
 		return output;
@@ -283,6 +458,50 @@ public class PCQBatchRunner {
 		return outputFolders;
 	}
 
+	/**
+	 * Performs the PCQ runs as {@link #run()}, but each one in its own JVM, see
+	 * {@link PCQRunProcess}, with at most numConcurrentRuns of them at the same
+	 * time. The output of each run is written in a log file next to its
+	 * parameters file.
+	 *
+	 * @param numConcurrentRuns
+	 * @param memoryBudgetInMB  if positive, memory shared by the runs performed
+	 *                          at the same time
+	 * @return the output folders by experiment name
+	 * @throws IOException
+	 */
+	public Map<String, File> runConcurrently(int numConcurrentRuns, long memoryBudgetInMB) throws IOException {
+		final List<String> expNames = new ArrayList<String>(pcqParametersFilesMap.keySet());
+		final List<List<String>> runArguments = new ArrayList<List<String>>();
+		final List<File> logFiles = new ArrayList<File>();
+		for (final String expName : expNames) {
+			final File setupPropertiesFile = pcqParametersFilesMap.get(expName);
+			final List<String> arguments = new ArrayList<String>();
+			arguments.add(setupPropertiesFile.getAbsolutePath());
+			arguments.add(String.valueOf(generateXGMMLFiles));
+			runArguments.add(arguments);
+			logFiles.add(new File(setupPropertiesFile.getAbsoluteFile().getParentFile(), "PCQ_" + expName + ".log"));
+		}
+		log.info("Running " + expNames.size() + " PCQ runs, " + numConcurrentRuns + " at the same time");
+		final List<List<String>> results = runInOwnJVMs(runArguments, logFiles, Math.max(1, numConcurrentRuns),
+				memoryBudgetInMB);
+		final Map<String, File> outputFolders = new THashMap<String, File>();
+		final List<File> failedRunLogFiles = new ArrayList<File>();
+		for (int i = 0; i < expNames.size(); i++) {
+			if (results.get(i) == null) {
+				failedRunLogFiles.add(logFiles.get(i));
+			} else {
+				outputFolders.put(expNames.get(i), new File(results.get(i).get(0)));
+			}
+		}
+		if (!failedRunLogFiles.isEmpty()) {
+			throw new IOException(failedRunLogFiles.size() + " out of " + expNames.size()
+					+ " PCQ runs failed. See their output at: " + failedRunLogFiles);
+		}
+		log.info("All PCQ runs are done with no problems");
+		return outputFolders;
+	}
+
 	public boolean isGenerateXGMMLFiles() {
 		return generateXGMMLFiles;
 	}
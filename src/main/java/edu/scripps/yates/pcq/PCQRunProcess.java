@@ -0,0 +1,81 @@
+package edu.scripps.yates.pcq;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Main class of the JVMs in which {@link PCQBatchRunner} performs the PCQ runs
+ * that are performed at the same time. The parsers, the parameters and the
+ * census quant maps of PCQ are static, so two runs are only isolated when they
+ * are performed in different processes.<br>
+ * Arguments: the result file, the parameters file, whether to create the XGMML
+ * files or not and, for a line of a batch file, its inputFiles=, inputIDFiles=
+ * and outputSuffix= values, that replace the ones in the parameters file.<br>
+ * The output folder and the peptide node table file of the run are written in
+ * the result file, one per line. The process exits with a status different
+ * than 0 if the run fails.
+ *
+ * @author salvador
+ *
+ */
+public class PCQRunProcess {
+	private final static Logger log = Logger.getLogger(PCQRunProcess.class);
+	static final String INPUT_FILES = "inputFiles";
+	static final String INPUT_ID_FILES = "inputIDFiles";
+	static final String OUTPUT_SUFFIX = "outputSuffix";
+
+	public static void main(String[] args) {
+		try {
+			if (args.length < 3) {
+				throw new IllegalArgumentException(
+						"Usage: result_file parameters_file generate_XGMML [inputFiles=...] [inputIDFiles=...] [outputSuffix=...]");
+			}
+			final File resultFile = new File(args[0]);
+			final File parameterFile = new File(args[1]);
+			final boolean generateXGMMLFiles = Boolean.valueOf(args[2]);
+			String inputFilesLine = null;
+			String inputIDFilesLine = null;
+			String suffixLine = null;
+			for (int i = 3; i < args.length; i++) {
+				final int index = args[i].indexOf("=");
+				if (index < 0) {
+					throw new IllegalArgumentException("Invalid argument '" + args[i] + "'");
+				}
+				final String property = args[i].substring(0, index);
+				final String value = args[i].substring(index + 1);
+				if (property.equals(INPUT_FILES)) {
+					inputFilesLine = value;
+				} else if (property.equals(INPUT_ID_FILES)) {
+					inputIDFilesLine = value;
+				} else if (property.equals(OUTPUT_SUFFIX)) {
+					suffixLine = value;
+				} else {
+					throw new IllegalArgumentException("Invalid argument '" + args[i] + "'");
+				}
+			}
+			final ProteinClusterQuant pcq;
+			if (inputFilesLine != null) {
+				pcq = PCQBatchRunner.runAnalysis(parameterFile, inputFilesLine, inputIDFilesLine, suffixLine,
+						generateXGMMLFiles);
+			} else {
+				pcq = new ProteinClusterQuant(parameterFile, true);
+				pcq.setCreateXGMMLFile(generateXGMMLFiles);
+				pcq.run();
+			}
+			// throws the exception of the run, if any
+			pcq.get();
+			final FileWriter fw = new FileWriter(resultFile);
+			fw.write(pcq.getParams().getOutputFileFolder().getAbsolutePath() + "\n");
+			fw.write(pcq.getFinalPeptideNodeTableFile().getAbsolutePath() + "\n");
+			fw.close();
+			log.info("PCQ run finished correctly");
+			System.exit(0);
+		} catch (final Exception e) {
+			e.printStackTrace();
+			log.error("Error in PCQ run: " + e.getMessage());
+		}
+		System.exit(-1);
+	}
+}
@@ -14,7 +14,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.commons.cli.BasicParser;
@@ -25,14 +32,10 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.math3.stat.descriptive.moment.Mean;
 import org.apache.commons.math3.util.CombinatoricsUtils;
 import org.apache.log4j.Logger;
 import org.springframework.core.io.ClassPathResource;
 
-import com.compomics.dbtoolkit.io.implementations.FASTADBLoader;
-import com.compomics.util.protein.Protein;
-
 import edu.scripps.yates.annotations.uniprot.UniprotProteinLocalRetriever;
 import edu.scripps.yates.annotations.uniprot.proteoform.fasta.ProteoFormFastaReader;
 import edu.scripps.yates.census.analysis.QuantAnalysis;
@@ -56,7 +59,6 @@ import edu.scripps.yates.census.read.model.interfaces.QuantifiedPeptideInterface
 import edu.scripps.yates.census.read.model.interfaces.QuantifiedProteinInterface;
 import edu.scripps.yates.census.read.util.QuantUtils;
 import edu.scripps.yates.census.read.util.QuantificationLabel;
-import edu.scripps.yates.dtaselectparser.DTASelectParser;
 import edu.scripps.yates.pcq.cases.Classification2Case;
 import edu.scripps.yates.pcq.compare.ComparisonInput;
 import edu.scripps.yates.pcq.compare.PCQCompare;
@@ -64,8 +66,10 @@ import edu.scripps.yates.pcq.compare.model.QuantifiedSite;
 import edu.scripps.yates.pcq.filter.PCQFilter;
 import edu.scripps.yates.pcq.model.PCQPeptideNode;
 import edu.scripps.yates.pcq.model.PCQProteinNode;
-import edu.scripps.yates.pcq.model.PTM;
+import edu.scripps.yates.pcq.model.ParallelNodeCreator;
+import edu.scripps.yates.pcq.model.ParallelPairClassifier;
 import edu.scripps.yates.pcq.model.ProteinCluster;
+import edu.scripps.yates.pcq.model.ProteinClusterBuilder;
 import edu.scripps.yates.pcq.model.ProteinPair;
 import edu.scripps.yates.pcq.params.PropertiesReader;
 import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
@@ -75,15 +79,22 @@ import edu.scripps.yates.pcq.util.DiscardedPeptide;
 import edu.scripps.yates.pcq.util.DiscardedPeptidesSet;
 import edu.scripps.yates.pcq.util.DiscardedPeptidesSet.DISCARD_REASON;
 import edu.scripps.yates.pcq.util.ExperimentFiles;
+import edu.scripps.yates.pcq.util.IdentificationSnapshot;
 import edu.scripps.yates.pcq.util.NonQuantParser;
+import edu.scripps.yates.pcq.util.ParsedInputCache;
+import edu.scripps.yates.pcq.util.FastaSequenceStore;
 import edu.scripps.yates.pcq.util.PCQUtils;
+import edu.scripps.yates.pcq.util.ParallelTableWriter;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.DoubleColumn;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.IntColumn;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.StringColumn;
+import edu.scripps.yates.pcq.util.PeptideProteinIndex;
+import edu.scripps.yates.pcq.util.ProteinAnnotation;
+import edu.scripps.yates.pcq.util.ProteinAnnotationCache;
 import edu.scripps.yates.pcq.xgmml.XgmmlExporter;
-import edu.scripps.yates.pcq.xgmml.util.AlignedPeptides;
 import edu.scripps.yates.pcq.xgmml.util.AlignmentSet;
 import edu.scripps.yates.pcq.xgmml.util.ProteinNodeLabel;
-import edu.scripps.yates.utilities.alignment.nwalign.NWResult;
-import edu.scripps.yates.utilities.annotations.uniprot.UniprotEntryUtil;
-import edu.scripps.yates.utilities.annotations.uniprot.xml.Entry;
 import edu.scripps.yates.utilities.appversion.AppVersion;
 import edu.scripps.yates.utilities.dates.DatesUtil;
 import edu.scripps.yates.utilities.fasta.Fasta;
@@ -96,11 +107,11 @@ import edu.scripps.yates.utilities.properties.PropertiesUtil;
 import edu.scripps.yates.utilities.proteomicsmodel.Score;
 import edu.scripps.yates.utilities.proteomicsmodel.enums.AggregationLevel;
 import edu.scripps.yates.utilities.proteomicsmodel.enums.CombinationType;
-import edu.scripps.yates.utilities.sequence.PTMInPeptide;
 import edu.scripps.yates.utilities.sequence.PTMInProtein;
 import edu.scripps.yates.utilities.sequence.PositionInPeptide;
 import edu.scripps.yates.utilities.sequence.PositionInProtein;
 import edu.scripps.yates.utilities.strings.StringUtils;
+import edu.scripps.yates.utilities.util.Pair;
 import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.map.hash.THashMap;
 import gnu.trove.set.hash.THashSet;
@@ -118,9 +129,9 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 	private final File setupPropertiesFile;
 	private QuantParser quantParser;
 	private final ProteinClusterQuantParameters params;
-	private Map<String, Entry> annotatedProteins;
+	private Map<String, ProteinAnnotation> annotatedProteins;
 	private final Map<String, Set<String>> nonModifiedToModifiedMap = new THashMap<String, Set<String>>();
-	private DTASelectParser idParser;
+	private IdentificationSnapshot identifications;
 	private Set<ProteinCluster> clusterSet;
 
 	public Set<ProteinCluster> getClusterSet() {
@@ -158,6 +169,10 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 		if (batchMode) {
 			options.addOption("bf", true,
 					"[MANDATORY] Path to the batch file containing lines with inputFiles, inputIDFiles and outputSuffix params per PCQ run");
+			options.addOption("n", true,
+					"[OPTIONAL] Number of PCQ runs performed at the same time, each one in its own JVM (1 by default)");
+			options.addOption("m", true,
+					"[OPTIONAL] Memory in MB shared by the PCQ runs performed at the same time (default maximum heap of each JVM by default)");
 		}
 	}
 
@@ -245,90 +260,107 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 	private void runAnalysis() throws IOException {
 
 		clusterSet = new THashSet<ProteinCluster>();
+		PCQUtils.clearCaches();
 
 		try {
-			// this has to be done when not looking for proteoforms
-			// when looking to proteoforms, the sequences are grabbed at
-			// ProteinCluster.createProteinNodes()
-			// also is done for performing ratio integrations by collapsing by
-			// sites or ptms
-			if (!params.isLookForProteoforms()
-					&& (params.isPerformRatioIntegration() && (params.isCollapseByPTMs() || params.isCollapseBySites())
-							|| (params.isCollapseByPTMs() || params.isCollapseBySites()))) {
-				log.info("PCQ needs the protein sequences in order to assign sites positions");
-				// grab all the protein sequences to then used them in the
-				// creation of peptides nodes, mapping peptides to this proteins
-				// we dont need to create the protein nodes from variants, since
-				// the protein variants should be already included in the
-				// quantifiedProteins
-				if (params.getFastaFile() != null) {
-					// using FAsta file:
-
-					log.info("Reading protein sequences from FASTA file...");
-					final FASTADBLoader loader = new FASTADBLoader();
-					loader.load(params.getFastaFile().getAbsolutePath());
-					Protein protein = null;
-					while ((protein = loader.nextProtein()) != null) {
-						String fastaAccession = FastaParser.getACC(protein.getHeader().getRawHeader()).getAccession();
-						if (!FastaParser.isUniProtACC(fastaAccession) && !FastaParser.isReverse(fastaAccession)
-								&& !FastaParser.isContaminant(fastaAccession)) {
-							fastaAccession = FastaParser.getSPorTRAccession(protein.getHeader().getRawHeader());
+			// the protein sequences loaded here, to index the peptides in them
+			final Map<String, String> proteinSequencesByAcc = new THashMap<String, String>();
+			FastaSequenceStore fastaSequenceStore = null;
+			final Set<String> peptideInclusionList;
+			Map<String, QuantifiedPeptideInterface> pepMap = new THashMap<String, QuantifiedPeptideInterface>();
+			try {
+				// this has to be done when not looking for proteoforms
+				// when looking to proteoforms, the sequences are grabbed at
+				// ProteinCluster.createProteinNodes()
+				// also is done for performing ratio integrations by collapsing by
+				// sites or ptms
+				if (!params.isLookForProteoforms()
+						&& (params.isPerformRatioIntegration() && (params.isCollapseByPTMs() || params.isCollapseBySites())
+								|| (params.isCollapseByPTMs() || params.isCollapseBySites()))) {
+					log.info("PCQ needs the protein sequences in order to assign sites positions");
+					// grab all the protein sequences to then used them in the
+					// creation of peptides nodes, mapping peptides to this proteins
+					// we dont need to create the protein nodes from variants, since
+					// the protein variants should be already included in the
+					// quantifiedProteins
+					if (params.getFastaFile() != null) {
+						// using FAsta file:
+						// the sequences are kept out of the heap, and only the
+						// ones of the proteins in the input files are loaded once
+						// they are parsed
+						log.info("Opening protein sequences from FASTA file...");
+						fastaSequenceStore = FastaSequenceStore.open(params.getFastaFile());
+					} else {
+						log.info(
+								"Retrieving protein sequences from Uniprot. Proteins in input files should have Uniprot Accessions. Otherwise, you will have to provide the FASTA file...");
+						annotatedProteins = getAnnotatedProteins();
+						if (annotatedProteins.isEmpty()) {
+							throw new IllegalArgumentException(
+									"PCQ was not able to retrieve any protein sequence from Uniprot. Please, check that your input files contains Uniprot protein accessions or else, provide the FASTA file.");
 						}
-						// if (inputProteinAccs.contains(fastaAccession)) {
-						PCQUtils.proteinSequences.put(fastaAccession, protein.getSequence().getSequence());
-						// }
-					}
-					log.info(PCQUtils.proteinSequences.size() + " protein sequences read from FASTA file");
-				} else {
-					log.info(
-							"Retrieving protein sequences from Uniprot. Proteins in input files should have Uniprot Accessions. Otherwise, you will have to provide the FASTA file...");
-					annotatedProteins = getAnnotatedProteins();
-					if (annotatedProteins.isEmpty()) {
-						throw new IllegalArgumentException(
-								"PCQ was not able to retrieve any protein sequence from Uniprot. Please, check that your input files contains Uniprot protein accessions or else, provide the FASTA file.");
-					}
-					for (final String acc : annotatedProteins.keySet()) {
-						final Entry uniprotEntry = annotatedProteins.get(acc);
-						final String proteinSequence = UniprotEntryUtil.getProteinSequence(uniprotEntry);
-						if (proteinSequence != null && !"".equals(proteinSequence)) {
-							PCQUtils.proteinSequences.put(acc, proteinSequence);
+						for (final String acc : annotatedProteins.keySet()) {
+							final String proteinSequence = annotatedProteins.get(acc).getSequence();
+							if (proteinSequence != null && !"".equals(proteinSequence)) {
+								PCQUtils.proteinSequences.put(acc, proteinSequence);
+								proteinSequencesByAcc.put(acc, proteinSequence);
+							}
 						}
-					}
-					log.info(PCQUtils.proteinSequences.size() + " protein sequences retrieved from Uniprot");
+						log.info(PCQUtils.proteinSequences.size() + " protein sequences retrieved from Uniprot");
 
+					}
 				}
-			}
 
-			final Set<String> peptideInclusionList = getPeptideInclusionList();
-			final List<Map<QuantCondition, QuantificationLabel>> labelsByConditionsList = getLabelsByconditionsList(
-					params.getNumeratorLabel(), params.getDenominatorLabel());
+				// the input files may have been parsed by a previous run
+				ParsedInputCache.getInstance().setMaxSizeInMB(params.getParsedInputCacheSize());
+				final Set<String> inputProteinAccs = new THashSet<String>();
+				peptideInclusionList = getPeptideInclusionList(inputProteinAccs);
+				if (fastaSequenceStore != null) {
+					// the parsers receive PCQUtils.proteinSequences, so the
+					// sequences of the proteins in the input files are loaded
+					// before creating them
+					loadProteinSequences(fastaSequenceStore, inputProteinAccs, proteinSequencesByAcc);
+				}
+				final List<Map<QuantCondition, QuantificationLabel>> labelsByConditionsList = getLabelsByconditionsList(
+						params.getNumeratorLabel(), params.getDenominatorLabel());
 
-			// try to get an quantParser
-			final boolean useFasta = true;
-			quantParser = PCQUtils.getQuantParser(params, labelsByConditionsList, useFasta, peptideInclusionList);
-			// try to get an dtaSelectParser
-			idParser = PCQUtils.getDTASelectParser(params, useFasta, peptideInclusionList, true);
-			log.info("Reading input files...");
+				// try to get an quantParser
+				final boolean useFasta = true;
+				quantParser = PCQUtils.getQuantParser(params, labelsByConditionsList, useFasta, peptideInclusionList);
+				// try to get the identifications
+				identifications = PCQUtils.getIdentificationSnapshot(params, useFasta, peptideInclusionList);
+				log.info("Reading input files...");
 
-			Map<String, QuantifiedPeptideInterface> pepMap = new THashMap<String, QuantifiedPeptideInterface>();
-			final Set<String> inputProteinAccs = new THashSet<String>();
-			if (quantParser != null) {
-				pepMap.putAll(quantParser.getPeptideMap());
-				inputProteinAccs.addAll(quantParser.getProteinMap().keySet());
-			}
+				if (quantParser != null) {
+					pepMap.putAll(quantParser.getPeptideMap());
+					inputProteinAccs.addAll(quantParser.getProteinMap().keySet());
+				}
 
-			if (idParser != null) {
-				// using static maps, the nonQuantParser will not create new
-				// objects for already created peptides in quant, so I can all
-				// them all to the pepMap
-				final NonQuantParser nonQuantParser = new NonQuantParser(idParser);
-				pepMap.putAll(nonQuantParser.getPeptideMap());
-				inputProteinAccs.addAll(nonQuantParser.getProteinMap().keySet());
-			}
+				if (identifications != null) {
+					// using static maps, the nonQuantParser will not create new
+					// objects for already created peptides in quant, so I can all
+					// them all to the pepMap
+					final NonQuantParser nonQuantParser = PCQUtils.getNonQuantParser(params, identifications, useFasta,
+							peptideInclusionList);
+					pepMap.putAll(nonQuantParser.getPeptideMap());
+					inputProteinAccs.addAll(nonQuantParser.getProteinMap().keySet());
+				}
+				if (fastaSequenceStore != null) {
+					// the proteins of the peptides in the FASTA file may not
+					// be in the input files
+					loadProteinSequences(fastaSequenceStore, inputProteinAccs, proteinSequencesByAcc);
+					log.info(proteinSequencesByAcc.size() + " protein sequences of " + inputProteinAccs.size()
+							+ " proteins read from FASTA file");
+				}
 
-			if (params.isIgnorePTMs()) {
-				// remove modified peptides
-				removePTMPeptides(pepMap);
+				if (params.isIgnorePTMs()) {
+					// remove modified peptides
+					removePTMPeptides(pepMap);
+				}
+				indexPeptidesInProteinSequences(pepMap.values(), proteinSequencesByAcc, fastaSequenceStore);
+			} finally {
+				if (fastaSequenceStore != null) {
+					fastaSequenceStore.close();
+				}
 			}
 
 			// List to hold all peptides
@@ -340,92 +372,27 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 				makePeptideAlignments(peptideList);
 			}
 
-			int numClusters = 0;
-			int i = 0;
-			while (i < 1) {
-				if (!params.isIgnorePTMs() && params.isCreateProteinPTMStates()) {
-					separatePTMProteinsAndPeptides(pepMap);
-				}
-				clusterSet = createClusters(pepMap);
-
-				// filtering clusters
-				final List<PCQFilter> filters = params.getFilters();
-				if (!filters.isEmpty()) {
-					log.info("Filtering " + clusterSet.size() + " clusters");
-					int numFilteredClusters = 0;
-					final Iterator<ProteinCluster> proteinClusterIterator = clusterSet.iterator();
-					while (proteinClusterIterator.hasNext()) {
-						final ProteinCluster cluster = proteinClusterIterator.next();
-						for (final PCQFilter pcqFilter : filters) {
-							pcqFilter.filter(cluster);
-						}
-
-						// check if the cluster still contains peptide nodes and
-						// protein nodes.
-						if (cluster.getPeptideNodes().isEmpty()) {
-							proteinClusterIterator.remove();
-							numFilteredClusters++;
-						} else if (cluster.getProteinNodes().isEmpty()) {
-							proteinClusterIterator.remove();
-							numFilteredClusters++;
-						}
-					}
-					log.info(numFilteredClusters + " clusters were removed.");
-					log.info(PCQFilter.getDiscardedPeptideNodes().size() + " peptide nodes were tagged as discarded");
-					log.info(PCQFilter.getDiscardedProteinNodes().size() + " protein nodes were tagged as discarded");
-				}
+			if (!params.isIgnorePTMs() && params.isCreateProteinPTMStates()) {
+				separatePTMProteinsAndPeptides(pepMap);
+			}
+			clusterSet = createClusters(pepMap);
 
-				if (!filters.isEmpty() && numClusters != clusterSet.size()) {
-					i = 0;
-				} else {
-					i++;
-				}
-				numClusters = clusterSet.size();
-				// get peptide map
-				pepMap = PCQUtils.getPeptideMapFromClusters(clusterSet);
-				// if not remove discarded ones, do not iterate more
-				if (!params.isRemoveFilteredNodes()) {
-					break;
-				}
+			// filtering clusters
+			final List<PCQFilter> filters = params.getFilters();
+			if (!filters.isEmpty()) {
+				clusterSet = filterClusters(clusterSet, filters);
 			}
-			log.info("Final number of clusters after iterations: \t" + clusterSet.size());
+			// get peptide map
+			pepMap = PCQUtils.getPeptideMapFromClusters(clusterSet);
+			log.info("Final number of clusters after filtering: \t" + clusterSet.size());
 
 			if (params.isApplyClassificationsByProteinPair()) {
-				log.info("Identifying protein pairs in " + clusterSet.size() + " clusters...");
-				int numProteinPairs = 0;
-				int loopIndex = 0;
-				int previousPercent = 0;
-				for (final ProteinCluster cluster : clusterSet) {
-					final int percent = (int) ((loopIndex++ * 100.0f) / clusterSet.size());
-					if (previousPercent != percent) {
-						previousPercent = percent;
-						log.info(percent + "% clusters processed (" + loopIndex + "/" + clusterSet.size() + ")");
-					}
-
-					// create protein pairs in the cluster
-					cluster.createPairs(peptideAlignments);
-
-					// count protein pairs
-					numProteinPairs += cluster.getProteinPairs().size();
-				}
-				log.info(numProteinPairs + " protein pairs identified.");
+				// create protein pairs in the clusters
+				new ParallelPairClassifier(params).createPairs(clusterSet, peptideAlignments);
 			}
 			Map<String, SanxotQuantResult> ratioStatsByPeptideNodeKey = null;
 			if (params.isPerformRatioIntegration()) {
-				// calculating ratios up to peptide_exp_rep level
-				SanXotAnalysisResult peptideRepSanxotResult = null;
-				peptideRepSanxotResult = calculatePeptideExperimentReplicateRatios(peptideInclusionList);
-
-				// calculating consensus ratios up to peptide_node_exp_rep
-				final SanXotAnalysisResult peptideNodeRepSanxotResult = calculatePeptideNodeExperimentReplicateRatios(
-						peptideRepSanxotResult, clusterSet);
-				setIntegrationResultsPerReplicateIntoPeptideNodes(clusterSet, peptideNodeRepSanxotResult);
-				// make a custom sanxot analysis from peptide_node_rep to
-				// peptide_node
-				final SanXotAnalysisResult peptideNodeSanxotResult = calculatePeptideNodeRatios(
-						peptideNodeRepSanxotResult, clusterSet);
-
-				ratioStatsByPeptideNodeKey = peptideNodeSanxotResult.getLastIntegrationResults().getOutStatsRatios();
+				ratioStatsByPeptideNodeKey = integrateRatios(peptideInclusionList, clusterSet);
 
 				// set the calculated values as final peptide node ratio values
 				setIntegrationResultsIntoPeptideNodes(clusterSet, ratioStatsByPeptideNodeKey);
@@ -433,36 +400,46 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 			// print statistics and output files
 			classiffyAndPrintStatistics(clusterSet, ratioStatsByPeptideNodeKey);
 
+			// the output tables are written all at the same time
+			final ParallelTableWriter tableWriter = new ParallelTableWriter(getNumTableFormattingThreads());
 			// print integration file
 			// also print it when there is no ratioStats
 			// if (ratioStatsByPeptideNodeKey != null) {
-			printFinalFile(clusterSet, ratioStatsByPeptideNodeKey);
+			addFinalTable(tableWriter, clusterSet, ratioStatsByPeptideNodeKey);
 			// }
 
 			// print PSM with the ratios that were used
-			printPSMRatiosFile();
+			addPSMRatiosTable(tableWriter);
 
 			// print Peptide with the ratios that were used
-			printPeptideRatiosFile();
+			addPeptideRatiosTable(tableWriter);
 
 			// print Peptide Nodes with the ratios that were used
-			printPeptideNodesRatiosFile(clusterSet);
+			addPeptideNodesRatiosTable(tableWriter, clusterSet);
 
 			// print PSEA QUANT files
 			if (params.writePSEAQuantInputFiles()) {
-				printPSEAQuantFiles(clusterSet);
+				addPSEAQuantTables(tableWriter, clusterSet);
+			}
+
+			// export discarded Peptides
+			addDiscardedPeptidesTable(tableWriter);
+			tableWriter.write();
+
+			// binary copy of the peptide node results for the comparators
+			if (params.isWriteBinaryResultsFile()) {
+				writePeptideNodeResultsFile(clusterSet, ratioStatsByPeptideNodeKey);
 			}
 
 			// export to XGMML format
 			if (createXGMMLFile) {
 				exportToXGMML(clusterSet);
 			}
-			// export discarded Peptides
-			printDiscardedPeptides();
 
 			// rename TEMP output folder to output folder
 			moveResultsToFinalFolder();
 			firePropertyChange(FINISHED_ANALYSIS, null, getFinalPeptideNodeTableFile());
+			log.info(PCQUtils.getCacheStatistics());
 			log.info("DONE.");
 		} catch (final FileNotFoundException e) {
 			e.printStackTrace();
@@ -481,42 +458,129 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 		PCQUtils.resetParsers();
 	}
 
-	private void printDiscardedPeptides() {
-		FileWriter out = null;
-		try {
-			final File outputFileFolder = params.getTemporalOutputFolder();
-			final String outputPrefix = params.getOutputPrefix();
-			final String outputSuffix = params.getOutputSuffix();
-			final String fileName = outputPrefix + "_discardedPeptides_" + outputSuffix + ".txt";
-			final DiscardedPeptidesSet discardedPeptideSet = DiscardedPeptidesSet.getInstance();
-			log.info("Printing " + discardedPeptideSet.size() + " discarded peptides at file : '" + fileName + "'");
-			out = new FileWriter(outputFileFolder.getAbsolutePath() + File.separator + fileName);
-
-			// header
-			out.write("Peptide" + "\t" + "Reason" + "\t" + "Additional info\n");
-			// iterate over all of them
-			for (final DiscardedPeptide discardedPeptide : discardedPeptideSet) {
-				out.write(discardedPeptide.getPeptide().getKey() + "\t" + discardedPeptide.getReason());
-				if (discardedPeptide.getAdditionalDescription() != null) {
-					out.write("\t" + discardedPeptide.getAdditionalDescription());
+	/**
+	 *
+	 * @return the number of threads formatting the rows of the output tables,
+	 *         which is 1 when the positions of the sites or PTMs in the proteins
+	 *         are printed, because the {@link UniprotProteinLocalRetriever} and
+	 *         {@link PCQUtils#proteinSequences} are not thread safe
+	 */
+	private int getNumTableFormattingThreads() {
+		if (params.isCollapseBySites() || params.isCollapseByPTMs() || params.isPrintPTMPositionInProtein()) {
+			return 1;
+		}
+		return params.getNumThreads();
+	}
+
+	private void addDiscardedPeptidesTable(ParallelTableWriter tableWriter) {
+		final File outputFileFolder = params.getTemporalOutputFolder();
+		final String outputPrefix = params.getOutputPrefix();
+		final String outputSuffix = params.getOutputSuffix();
+		final String fileName = outputPrefix + "_discardedPeptides_" + outputSuffix + ".txt";
+		final List<DiscardedPeptide> discardedPeptides = new ArrayList<DiscardedPeptide>();
+		discardedPeptides.addAll(DiscardedPeptidesSet.getInstance());
+		log.info("Printing " + discardedPeptides.size() + " discarded peptides at file : '" + fileName + "'");
+		// header
+		final String header = "Peptide" + "\t" + "Reason" + "\t" + "Additional info\n";
+		tableWriter.addTable(new File(outputFileFolder.getAbsolutePath() + File.separator + fileName), header,
+				() -> discardedPeptides, (discardedPeptide, out) -> {
+					out.append(discardedPeptide.getPeptide().getKey() + "\t" + discardedPeptide.getReason());
+					if (discardedPeptide.getAdditionalDescription() != null) {
+						out.append("\t" + discardedPeptide.getAdditionalDescription());
+					}
+					out.append("\n");
+				});
+	}
+
+	/**
+	 * Writes the results of the peptide nodes in a
+	 * {@link PeptideNodeResultsFile}, with the same values than the final table
+	 * and the peptide node table
+	 *
+	 * @param clusterSet
+	 * @param ratioStatsByPeptideNodeKey it can be null
+	 * @throws IOException
+	 */
+	private void writePeptideNodeResultsFile(Set<ProteinCluster> clusterSet,
+			Map<String, SanxotQuantResult> ratioStatsByPeptideNodeKey) throws IOException {
+		final File file = getTEMPPeptideNodeResultsFile();
+		log.info("Printing binary peptide node results at file : '" + file.getAbsolutePath() + "'");
+		final Map<String, ProteinAnnotation> annotatedProteins = getAnnotatedProteins();
+		final PeptideNodeResultsFile.Writer writer = new PeptideNodeResultsFile.Writer();
+		for (final ProteinCluster cluster : clusterSet) {
+			for (final PCQPeptideNode peptideNode : cluster.getPeptideNodes()) {
+				writer.addRow(peptideNode.getKey());
+				writer.set(StringColumn.SEQUENCE, peptideNode.getFullSequence());
+				writer.set(StringColumn.PROTEINS, PCQUtils.getAccessionString(peptideNode.getQuantifiedProteins()));
+				writer.set(StringColumn.GENES, PCQUtils.getGeneNameString(annotatedProteins,
+						peptideNode.getProteinNodes(), null, params.isPrintOnlyFirstGene(), true));
+				writer.set(IntColumn.NUM_PSMS, peptideNode.getQuantifiedPSMs().size());
+				writer.set(IntColumn.NUM_PEPTIDES, peptideNode.getQuantifiedPeptides().size());
+				writer.set(IntColumn.UNIQUE, peptideNode.getProteinNodes().size() == 1);
+				writer.set(IntColumn.FILTERED, peptideNode.isDiscarded());
+				final QuantRatio quantRatio = PCQUtils.getRepresentativeRatioForPeptideNode(peptideNode, cond1,
+						cond2, null, true);
+				if (quantRatio != null) {
+					// as in the peptide node table
+					writer.set(DoubleColumn.LOG2_RATIO, quantRatio.getLog2Ratio(cond1, cond2));
+					writer.set(DoubleColumn.RATIO, quantRatio.getNonLogRatio(cond1, cond2));
+					writer.set(IntColumn.NUM_MEASUREMENTS, quantRatio.getNumMeasurements());
+					writer.set(DoubleColumn.STDEV, quantRatio.getStandardDeviationOfLog2Ratios());
+					final Set<PositionInPeptide> quantifiedSitePositionInPeptide = quantRatio
+							.getQuantifiedSitePositionInPeptide();
+					if (quantifiedSitePositionInPeptide != null && !quantifiedSitePositionInPeptide.isEmpty()) {
+						writer.set(StringColumn.QUANT_POSITIONS_IN_PEPTIDE,
+								QuantUtils.printPositionsInPeptideInOrder(quantifiedSitePositionInPeptide));
+					}
 				}
-				out.write("\n");
-			}
-		} catch (final IOException e) {
-			e.printStackTrace();
-		} finally {
-			if (out != null) {
-				try {
-					out.close();
-				} catch (final IOException e) {
-					e.printStackTrace();
+				SanxotQuantResult sanxotQuantResult = null;
+				if (ratioStatsByPeptideNodeKey != null) {
+					sanxotQuantResult = ratioStatsByPeptideNodeKey.get(peptideNode.getKey());
+				}
+				// as in the final table
+				if (sanxotQuantResult != null) {
+					writer.set(DoubleColumn.FINAL_LOG2_RATIO, sanxotQuantResult.getLog2ratio());
+					writer.set(DoubleColumn.FINAL_RATIO, sanxotQuantResult.getNonLog2ratio());
+					writer.set(DoubleColumn.FDR, sanxotQuantResult.getFdr());
+					writer.set(DoubleColumn.VARIANCE, 1 / sanxotQuantResult.getWeight());
+				} else if (quantRatio != null) {
+					writer.set(DoubleColumn.FINAL_LOG2_RATIO, quantRatio.getLog2Ratio(cond1, cond2));
+					writer.set(DoubleColumn.FINAL_RATIO, quantRatio.getNonLogRatio(cond1, cond2));
 				}
 			}
 		}
+		writer.write(file);
+	}
 
+	/**
+	 * Copies to {@link PCQUtils#proteinSequences} the sequences of the proteins
+	 * that have not been loaded yet
+	 *
+	 * @param fastaSequenceStore
+	 * @param accs
+	 * @param proteinSequencesByAcc the sequences already loaded
+	 */
+	private void loadProteinSequences(FastaSequenceStore fastaSequenceStore, Collection<String> accs,
+			Map<String, String> proteinSequencesByAcc) {
+		for (final String acc : accs) {
+			if (!proteinSequencesByAcc.containsKey(acc)) {
+				final String proteinSequence = fastaSequenceStore.getSequence(acc);
+				if (proteinSequence != null) {
+					PCQUtils.proteinSequences.put(acc, proteinSequence);
+					proteinSequencesByAcc.put(acc, proteinSequence);
+				}
+			}
+		}
 	}
 
-	private Set<String> getPeptideInclusionList() throws IOException {
+	/**
+	 *
+	 * @param inputProteinAccs to be filled with the accessions of the proteins
+	 *                         in the input files
+	 * @return the sequences of the peptides in the input files
+	 * @throws IOException
+	 */
+	private Set<String> getPeptideInclusionList(Set<String> inputProteinAccs) throws IOException {
 		final Set<String> peptideInclusionList = new THashSet<String>();
 		final List<Map<QuantCondition, QuantificationLabel>> labelsByConditionsList = getLabelsByconditionsList(
 				params.getNumeratorLabel(), params.getDenominatorLabel());
@@ -526,187 +590,187 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 		if (quantParserTMP != null) {
 			peptideInclusionList.addAll(quantParserTMP.getPeptideMap().values().parallelStream()
 					.map(peptide -> peptide.getSequence()).collect(Collectors.toSet()));
+			inputProteinAccs.addAll(quantParserTMP.getProteinMap().keySet());
 		}
-		// try to get an dtaSelectParser
-		final DTASelectParser idParserTMP = PCQUtils.getDTASelectParser(params, useFasta, null, true);
-		if (idParserTMP != null) {
-			peptideInclusionList.addAll(idParserTMP.getPSMsByPSMID().values().parallelStream()
-					.map(psm -> psm.getSequence()).collect(Collectors.toSet()));
+		// try to get the identifications
+		final IdentificationSnapshot identificationsTMP = PCQUtils.getIdentificationSnapshot(params, useFasta, null);
+		if (identificationsTMP != null) {
+			peptideInclusionList.addAll(identificationsTMP.getPSMs().parallelStream().map(psm -> psm.getSequence())
+					.collect(Collectors.toSet()));
+			for (final QuantifiedProteinInterface protein : identificationsTMP.getProteins()) {
+				inputProteinAccs.add(protein.getAccession());
+			}
 		}
 		log.info(peptideInclusionList.size() + " different peptides in the input files that will be indexed now...");
 		return peptideInclusionList;
 	}
 
-	private void printPSMRatiosFile() {
-		FileWriter out = null;
+	private void addPSMRatiosTable(ParallelTableWriter tableWriter) {
+		final UniprotProteinLocalRetriever uplr = PCQUtils
+				.getUniprotProteinLocalRetrieverByFolder(params.getUniprotReleasesFolder());
 
-		try {
-			final UniprotProteinLocalRetriever uplr = PCQUtils
-					.getUniprotProteinLocalRetrieverByFolder(params.getUniprotReleasesFolder());
+		final File outputFileFolder = params.getTemporalOutputFolder();
+		final String outputPrefix = params.getOutputPrefix();
+		final String outputSuffix = params.getOutputSuffix();
+		final boolean useProteinGeneName = params.getProteinLabel() == ProteinNodeLabel.GENE;
+		final boolean useProteinID = params.getProteinLabel() == ProteinNodeLabel.ID;
+		final String fileName = outputPrefix + "_psmTable_" + outputSuffix + ".txt";
 
-			final File outputFileFolder = params.getTemporalOutputFolder();
-			final String outputPrefix = params.getOutputPrefix();
-			final String outputSuffix = params.getOutputSuffix();
-			final boolean useProteinGeneName = params.getProteinLabel() == ProteinNodeLabel.GENE;
-			final boolean useProteinID = params.getProteinLabel() == ProteinNodeLabel.ID;
-			final String fileName = outputPrefix + "_psmTable_" + outputSuffix + ".txt";
-
-			log.info("Printing PSM ratios at file : '" + fileName + "'");
-			out = new FileWriter(outputFileFolder.getAbsolutePath() + File.separator + fileName);
-
-			// header
-			out.write("Raw file " + "\t" + "PSM id" + "\t" + "Sequence" + "\t" + "Protein(s)" + "\t" + "Ratio Name"
-					+ "\t" + "Log2Ratio" + "\t" + "Ratio Score name" + "\t" + "Ratio Score value" + "\t"
-					+ "singleton ratio");
-			if (params.isCollapseBySites()) {
-				out.write("\t" + "QuantSitePositionInPeptide" + "\t" + "QuantSitePositionInProtein(s)" + "\t"
-						+ "Quant site");
-			}
-			if (quantParser != null) {
-				final List<QuantifiedPSMInterface> psmList = new ArrayList<QuantifiedPSMInterface>();
-				psmList.addAll(quantParser.getPSMMap().values());
-				// sort list by Peptide sequence and then by psm id
-				Collections.sort(psmList, new Comparator<QuantifiedPSMInterface>() {
-
-					@Override
-					public int compare(QuantifiedPSMInterface o1, QuantifiedPSMInterface o2) {
-						final String sequence = o1.getSequence();
-						final String sequence2 = o2.getSequence();
-						if (!sequence.equals(sequence2)) {
-							return sequence.compareTo(sequence2);
-						} else {
-							return o1.getIdentifier().compareTo(o2.getIdentifier());
-						}
-					}
-				});
-				for (final QuantifiedPSMInterface psm : psmList) {
-					// check if we should ignore the ptm psms
-					if (params.isIgnorePTMs()) {
-						if (psm.getPTMsInPeptide() != null && !psm.getPTMsInPeptide().isEmpty()) {
-							continue;
-						}
-					}
-					out.write("\n");
-					if (psm.isDiscarded()) {
-						out.write("FILTERED\t" + psm.getKey() + "\t" + psm.getFullSequence());
-						continue;
-					}
-					final String accessionString = PCQUtils.getAccessionString(psm.getQuantifiedProteins());
-					final QuantRatio quantRatio = QuantUtils.getRatioByName(psm, PCQUtils.getRatioNameByAnalysisType());
-					String ratioDescription = "";
-					if (quantRatio != null) {
-						ratioDescription = quantRatio.getDescription();
-					}
-					String ratioValue = "";
-					if (quantRatio != null) {
-						ratioValue = PCQUtils.escapeInfinity(quantRatio.getLog2Ratio(cond1, cond2));
-					}
-					out.write(
-							psm.getRawFileNames().iterator().next() + "\t" + psm.getKey() + "\t" + psm.getFullSequence()
-									+ "\t" + accessionString + "\t" + ratioDescription + "\t" + ratioValue);
-					if (quantRatio != null && quantRatio.getAssociatedConfidenceScore() != null) {
-						out.write("\t" + quantRatio.getAssociatedConfidenceScore().getScoreName() + "\t" + PCQUtils
-								.escapeInfinity(Double.valueOf(quantRatio.getAssociatedConfidenceScore().getValue())));
-					} else {
-						out.write("\t\t");
-					}
-					out.write("\t" + psm.isSingleton());
-					if (params.isCollapseBySites()) {
-						Set<PositionInPeptide> quantifiedSitePositionInPeptide = null;
-						if (quantRatio != null) {
-							quantifiedSitePositionInPeptide = quantRatio.getQuantifiedSitePositionInPeptide();
-						}
-						final QuantifiedPeptideInterface quantifiedPeptide = psm.getQuantifiedPeptide();
-						final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptide2Keys = quantifiedPeptide
-								.getProteinKeysByPeptideKeysForQuantifiedAAs(params.getAaQuantified(), uplr,
-										PCQUtils.proteinSequences);
-						final StringBuilder quantifiedSitepositionInProtein = new StringBuilder();
-
-						for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide2Keys.keySet()) {
-
-							if (quantifiedSitePositionInPeptide != null && !quantifiedSitePositionInPeptide.isEmpty()) {
-								if (QuantUtils.containsPosition(quantifiedSitePositionInPeptide,
-										positionInPeptide.getPosition())) {
-									if (!"".equals(quantifiedSitepositionInProtein.toString())) {
-										quantifiedSitepositionInProtein.append(",");
-									}
-									quantifiedSitepositionInProtein.append(QuantUtils.getPositionsInProteinsKey(
-											proteinKeysByPeptide2Keys.get(positionInPeptide), useProteinGeneName,
-											useProteinID, uplr, params.getUniprotVersion()));
-								}
-							} else {
-								if (!"".equals(quantifiedSitepositionInProtein.toString())) {
-									quantifiedSitepositionInProtein.append(",");
-								}
-								quantifiedSitepositionInProtein.append(QuantUtils.getPositionsInProteinsKey(
-										proteinKeysByPeptide2Keys.get(positionInPeptide), useProteinGeneName,
-										useProteinID, uplr, params.getUniprotVersion()));
-							}
-						}
+		log.info("Printing PSM ratios at file : '" + fileName + "'");
 
-						if (quantifiedSitePositionInPeptide == null || quantifiedSitePositionInPeptide.isEmpty()) {
-							out.write("\t");
-							if (!PCQUtils.containsAny(psm.getSequence(), params.getAaQuantified())) {
-								out.write("not found\tnot found");
-							} else if (Double.isNaN(quantRatio.getNonLogRatio(cond1, cond2))) {
-								out.write("-\t" + quantifiedSitepositionInProtein.toString());
-							} else {
-								out.write("ambiguous\t" + quantifiedSitepositionInProtein.toString());
+		// header
+		final StringBuilder header = new StringBuilder();
+		header.append("Raw file " + "\t" + "PSM id" + "\t" + "Sequence" + "\t" + "Protein(s)" + "\t" + "Ratio Name"
+				+ "\t" + "Log2Ratio" + "\t" + "Ratio Score name" + "\t" + "Ratio Score value" + "\t"
+				+ "singleton ratio");
+		if (params.isCollapseBySites()) {
+			header.append("\t" + "QuantSitePositionInPeptide" + "\t" + "QuantSitePositionInProtein(s)" + "\t"
+					+ "Quant site");
+		}
+		tableWriter.addTable(new File(outputFileFolder.getAbsolutePath() + File.separator + fileName),
+				header.toString(), () -> {
+					final List<QuantifiedPSMInterface> psmList = new ArrayList<QuantifiedPSMInterface>();
+					if (quantParser != null) {
+						psmList.addAll(quantParser.getPSMMap().values());
+						// sort list by Peptide sequence and then by psm id
+						Collections.sort(psmList, new Comparator<QuantifiedPSMInterface>() {
+
+							@Override
+							public int compare(QuantifiedPSMInterface o1, QuantifiedPSMInterface o2) {
+								final String sequence = o1.getSequence();
+								final String sequence2 = o2.getSequence();
+								if (!sequence.equals(sequence2)) {
+									return sequence.compareTo(sequence2);
+								} else {
+									return o1.getIdentifier().compareTo(o2.getIdentifier());
+								}
 							}
-							out.write(
-									"\t" + StringUtils.getSeparatedValueStringFromChars(params.getAaQuantified(), ","));
-						} else {
-							out.write("\t" + QuantUtils.printPositionsInPeptideInOrder(quantifiedSitePositionInPeptide)
-									+ "\t" + quantifiedSitepositionInProtein.toString() + "\t"
-									+ quantRatio.getQuantifiedAA());
-						}
+						});
 					}
+					return psmList;
+				}, (psm, out) -> appendPSMRatiosRow(psm, uplr, useProteinGeneName, useProteinID, out));
+	}
 
-				}
+	private void appendPSMRatiosRow(QuantifiedPSMInterface psm, UniprotProteinLocalRetriever uplr,
+			boolean useProteinGeneName, boolean useProteinID, StringBuilder out) {
+		// check if we should ignore the ptm psms
+		if (params.isIgnorePTMs()) {
+			if (psm.getPTMsInPeptide() != null && !psm.getPTMsInPeptide().isEmpty()) {
+				return;
 			}
-		} catch (
-
-		final IOException e) {
-			e.printStackTrace();
-		} finally {
-			if (out != null) {
-				try {
-					out.close();
-				} catch (final IOException e) {
-					e.printStackTrace();
+		}
+		out.append("\n");
+		if (psm.isDiscarded()) {
+			out.append("FILTERED\t" + psm.getKey() + "\t" + psm.getFullSequence());
+			return;
+		}
+		final String accessionString = PCQUtils.getAccessionString(psm.getQuantifiedProteins());
+		final QuantRatio quantRatio = QuantUtils.getRatioByName(psm, PCQUtils.getRatioNameByAnalysisType());
+		String ratioDescription = "";
+		if (quantRatio != null) {
+			ratioDescription = quantRatio.getDescription();
+		}
+		String ratioValue = "";
+		if (quantRatio != null) {
+			ratioValue = PCQUtils.escapeInfinity(quantRatio.getLog2Ratio(cond1, cond2));
+		}
+		out.append(psm.getRawFileNames().iterator().next() + "\t" + psm.getKey() + "\t" + psm.getFullSequence() + "\t"
+				+ accessionString + "\t" + ratioDescription + "\t" + ratioValue);
+		if (quantRatio != null && quantRatio.getAssociatedConfidenceScore() != null) {
+			out.append("\t" + quantRatio.getAssociatedConfidenceScore().getScoreName() + "\t"
+					+ PCQUtils.escapeInfinity(Double.valueOf(quantRatio.getAssociatedConfidenceScore().getValue())));
+		} else {
+			out.append("\t\t");
+		}
+		out.append("\t" + psm.isSingleton());
+		if (params.isCollapseBySites()) {
+			Set<PositionInPeptide> quantifiedSitePositionInPeptide = null;
+			if (quantRatio != null) {
+				quantifiedSitePositionInPeptide = quantRatio.getQuantifiedSitePositionInPeptide();
+			}
+			final QuantifiedPeptideInterface quantifiedPeptide = psm.getQuantifiedPeptide();
+			final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptide2Keys = PCQUtils
+					.getPositionsInProteinsForQuantifiedAAs(quantifiedPeptide, params.getAaQuantified(), uplr);
+			final String quantifiedSitepositionInProtein = getQuantifiedSitePositionsInProtein(
+					quantifiedSitePositionInPeptide, proteinKeysByPeptide2Keys, uplr, useProteinGeneName,
+					useProteinID);
+
+			if (quantifiedSitePositionInPeptide == null || quantifiedSitePositionInPeptide.isEmpty()) {
+				out.append("\t");
+				if (!PCQUtils.containsAny(psm.getSequence(), params.getAaQuantified())) {
+					out.append("not found\tnot found");
+				} else if (Double.isNaN(quantRatio.getNonLogRatio(cond1, cond2))) {
+					out.append("-\t" + quantifiedSitepositionInProtein);
+				} else {
+					out.append("ambiguous\t" + quantifiedSitepositionInProtein);
 				}
+				out.append("\t" + StringUtils.getSeparatedValueStringFromChars(params.getAaQuantified(), ","));
+			} else {
+				out.append("\t" + QuantUtils.printPositionsInPeptideInOrder(quantifiedSitePositionInPeptide) + "\t"
+						+ quantifiedSitepositionInProtein + "\t" + quantRatio.getQuantifiedAA());
 			}
 		}
-
 	}
 
-	private void printPeptideNodesRatiosFile(Set<ProteinCluster> clusterSet) {
-		FileWriter out = null;
+	/**
+	 *
+	 * @param quantifiedSitePositionInPeptide
+	 * @param proteinKeysByPeptide2Keys
+	 * @param uplr
+	 * @param useProteinGeneName
+	 * @param useProteinID
+	 * @return the comma separated positions in the proteins of the quantified
+	 *         sites, or of all the sites if there is no quantified site
+	 */
+	private String getQuantifiedSitePositionsInProtein(Set<PositionInPeptide> quantifiedSitePositionInPeptide,
+			Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptide2Keys,
+			UniprotProteinLocalRetriever uplr, boolean useProteinGeneName, boolean useProteinID) {
+		final StringBuilder quantifiedSitepositionInProtein = new StringBuilder();
 
-		try {
+		for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide2Keys.keySet()) {
 
-			final File file = getTEMPPeptideNodeTableFile();
-			final boolean useProteinGeneName = params.getProteinLabel() == ProteinNodeLabel.GENE;
-			final boolean useProteinID = params.getProteinLabel() == ProteinNodeLabel.ID;
-			log.info("Printing Peptide Node ratios at file : '" + file.getAbsolutePath() + "'");
-			out = new FileWriter(file);
-
-			// header
-			out.write(QuantifiedSite.NODE_KEY + "\t" + "Raw file " + "\t" + "Unique" + "\t"
-					+ QuantifiedSite.NUMMEASUREMENTS + "\t" + QuantifiedSite.NUMPSMS + "\t" + QuantifiedSite.NUMPEPTIDES
-					+ "\t" + QuantifiedSite.SEQUENCE + "\t" + "Protein(s)" + "\t" + "Genes" + "\t" + "Species" + "\t"
-					+ "Ratio Name" + "\t" + QuantifiedSite.LOG2RATIO + "\t" + QuantifiedSite.STDEV + "\t"
-					+ "Ratio Score Name" + "\t" + QuantifiedSite.RATIOSCOREVALUE);
-			if (params.isCollapseBySites()) {
-				out.write("\t" + "QuantSitePositionInPeptide" + "\t" + "QuantSitePositionInProtein(s)" + "\t"
-						+ "Quant site");
-			} else if (params.isCollapseByPTMs()) {
-				out.write("\t" + "QuantPTMPositionInPeptide" + "\t" + "QuantPTMPositionInProtein(s)");
+			if (quantifiedSitePositionInPeptide != null && !quantifiedSitePositionInPeptide.isEmpty()
+					&& !QuantUtils.containsPosition(quantifiedSitePositionInPeptide, positionInPeptide.getPosition())) {
+				continue;
 			}
-			if (params.isPrintPTMPositionInProtein()) {
-				out.write("\t" + "PTMPositionInPeptide" + "\t" + "PTMPositionInProtein(s)");
+			if (quantifiedSitepositionInProtein.length() > 0) {
+				quantifiedSitepositionInProtein.append(",");
 			}
+			quantifiedSitepositionInProtein
+					.append(QuantUtils.getPositionsInProteinsKey(proteinKeysByPeptide2Keys.get(positionInPeptide),
+							useProteinGeneName, useProteinID, uplr, params.getUniprotVersion()));
+		}
+		return quantifiedSitepositionInProtein.toString();
+	}
+
+	private void addPeptideNodesRatiosTable(ParallelTableWriter tableWriter, Set<ProteinCluster> clusterSet) {
+		final File file = getTEMPPeptideNodeTableFile();
+		final boolean useProteinGeneName = params.getProteinLabel() == ProteinNodeLabel.GENE;
+		final boolean useProteinID = params.getProteinLabel() == ProteinNodeLabel.ID;
+		log.info("Printing Peptide Node ratios at file : '" + file.getAbsolutePath() + "'");
+
+		// header
+		final StringBuilder header = new StringBuilder();
+		header.append(QuantifiedSite.NODE_KEY + "\t" + "Raw file " + "\t" + "Unique" + "\t"
+				+ QuantifiedSite.NUMMEASUREMENTS + "\t" + QuantifiedSite.NUMPSMS + "\t" + QuantifiedSite.NUMPEPTIDES
+				+ "\t" + QuantifiedSite.SEQUENCE + "\t" + "Protein(s)" + "\t" + "Genes" + "\t" + "Species" + "\t"
+				+ "Ratio Name" + "\t" + QuantifiedSite.LOG2RATIO + "\t" + QuantifiedSite.STDEV + "\t"
+				+ "Ratio Score Name" + "\t" + QuantifiedSite.RATIOSCOREVALUE);
+		if (params.isCollapseBySites()) {
+			header.append("\t" + "QuantSitePositionInPeptide" + "\t" + "QuantSitePositionInProtein(s)" + "\t"
+					+ "Quant site");
+		} else if (params.isCollapseByPTMs()) {
+			header.append("\t" + "QuantPTMPositionInPeptide" + "\t" + "QuantPTMPositionInProtein(s)");
+		}
+		if (params.isPrintPTMPositionInProtein()) {
+			header.append("\t" + "PTMPositionInPeptide" + "\t" + "PTMPositionInProtein(s)");
+		}
+		final UniprotProteinLocalRetriever uplr = params.isCollapseBySites() || params.isCollapseByPTMs()
+				|| params.isPrintPTMPositionInProtein()
+						? PCQUtils.getUniprotProteinLocalRetrieverByFolder(params.getUniprotReleasesFolder())
+						: null;
 
+		tableWriter.addTable(file, header.toString(), () -> {
 			final List<PCQPeptideNode> peptideNodeList = new ArrayList<PCQPeptideNode>();
 			for (final ProteinCluster cluster : clusterSet) {
 				peptideNodeList.addAll(cluster.getPeptideNodes());
@@ -723,267 +787,323 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 
 				}
 			});
-			for (final PCQPeptideNode peptideNode : peptideNodeList) {
-				out.write("\n");
-				out.write(peptideNode.getKey() + "\t");
-				if (peptideNode.isDiscarded()) {
-					out.write("FILTERED\t" + "\t" + "\t" + "\t" + peptideNode.getFullSequence());
-					continue;
-				}
-				final String accessionString = PCQUtils.getAccessionString(peptideNode.getQuantifiedProteins());
-
-				final String geneNameString = PCQUtils.getGeneNameString(annotatedProteins,
-						peptideNode.getProteinNodes(), null, params.isPrintOnlyFirstGene(), true);
-
-				final String speciesString = PCQUtils.getSpeciesString(annotatedProteins, peptideNode.getProteinNodes(),
-						null, true);
-				final QuantRatio quantRatio = PCQUtils.getRepresentativeRatioForPeptideNode(peptideNode, cond1, cond2,
-						null, true);
-				final int numMeasurements = quantRatio.getNumMeasurements();
-				// if (numMeasurements>0 && numMeasurements !=
-				// peptideNode.getQuantifiedPSMs().size()) {
-				// log.info(numMeasurements + "\t" +
-				// quantRatio.getNonLogRatio(cond1, cond2) + "\tnum PSMs: "
-				// + peptideNode.getQuantifiedPSMs().size());
-				// }
-				final boolean unique = peptideNode.getProteinNodes().size() == 1;
-				final String rawFiles = StringUtils
-						.getSortedSeparatedValueStringFromChars(peptideNode.getRawFileNames(), ",");
-				out.write(rawFiles + "\t" + unique + "\t" + numMeasurements + "\t"
-						+ peptideNode.getQuantifiedPSMs().size() + "\t" + peptideNode.getQuantifiedPeptides().size()
-						+ "\t" + peptideNode.getFullSequence() + "\t" + accessionString + "\t" + geneNameString + "\t"
-						+ speciesString + "\t" + quantRatio.getDescription() + "\t"
-						+ PCQUtils.escapeInfinity(quantRatio.getLog2Ratio(cond1, cond2)) + "\t");
-				// STDEV of the ratio
-				out.write(quantRatio.getStandardDeviationOfLog2Ratios() + "\t");
-
-				// score of the ratio
-				if (quantRatio.getAssociatedConfidenceScore() != null) {
-					out.write(quantRatio.getAssociatedConfidenceScore().getScoreName() + "\t" + PCQUtils
-							.escapeInfinity(Double.valueOf(quantRatio.getAssociatedConfidenceScore().getValue())));
+			return peptideNodeList;
+		}, (peptideNode, out) -> appendPeptideNodeRatiosRow(peptideNode, uplr, useProteinGeneName, useProteinID, out));
+	}
+
+	private void appendPeptideNodeRatiosRow(PCQPeptideNode peptideNode, UniprotProteinLocalRetriever uplr,
+			boolean useProteinGeneName, boolean useProteinID, StringBuilder out) {
+		out.append("\n");
+		out.append(peptideNode.getKey() + "\t");
+		if (peptideNode.isDiscarded()) {
+			out.append("FILTERED\t" + "\t" + "\t" + "\t" + peptideNode.getFullSequence());
+			return;
+		}
+		final String accessionString = PCQUtils.getAccessionString(peptideNode.getQuantifiedProteins());
+
+		final String geneNameString = PCQUtils.getGeneNameString(annotatedProteins, peptideNode.getProteinNodes(),
+				null, params.isPrintOnlyFirstGene(), true);
+
+		final String speciesString = PCQUtils.getSpeciesString(annotatedProteins, peptideNode.getProteinNodes(), null,
+				true);
+		final QuantRatio quantRatio = PCQUtils.getRepresentativeRatioForPeptideNode(peptideNode, cond1, cond2, null,
+				true);
+		final int numMeasurements = quantRatio.getNumMeasurements();
+		final boolean unique = peptideNode.getProteinNodes().size() == 1;
+		final String rawFiles = StringUtils.getSortedSeparatedValueStringFromChars(peptideNode.getRawFileNames(),
+				",");
+		out.append(rawFiles + "\t" + unique + "\t" + numMeasurements + "\t" + peptideNode.getQuantifiedPSMs().size()
+				+ "\t" + peptideNode.getQuantifiedPeptides().size() + "\t" + peptideNode.getFullSequence() + "\t"
+				+ accessionString + "\t" + geneNameString + "\t" + speciesString + "\t" + quantRatio.getDescription()
+				+ "\t" + PCQUtils.escapeInfinity(quantRatio.getLog2Ratio(cond1, cond2)) + "\t");
+		// STDEV of the ratio
+		out.append(quantRatio.getStandardDeviationOfLog2Ratios() + "\t");
+
+		// score of the ratio
+		if (quantRatio.getAssociatedConfidenceScore() != null) {
+			out.append(quantRatio.getAssociatedConfidenceScore().getScoreName() + "\t"
+					+ PCQUtils.escapeInfinity(Double.valueOf(quantRatio.getAssociatedConfidenceScore().getValue())));
+		} else {
+			out.append("\t");
+		}
+		if (params.isCollapseBySites() || params.isCollapseByPTMs() || params.isPrintPTMPositionInProtein()) {
+
+			final Set<PositionInPeptide> quantifiedSitePositionInPeptide = quantRatio
+					.getQuantifiedSitePositionInPeptide();
+			final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeys = new THashMap<PositionInPeptide, List<PositionInProtein>>();
+			final List<PositionInProtein> positionsInProteins = new ArrayList<PositionInProtein>();
+			for (final QuantifiedPeptideInterface peptide : peptideNode.getItemsInNode()) {
+				if (params.isCollapseBySites()) {
+					final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeysForQuantifiedAAs = PCQUtils
+							.getPositionsInProteinsForQuantifiedAAs(peptide, params.getAaQuantified(), uplr);
+					proteinKeysByPeptideKeys.putAll(proteinKeysByPeptideKeysForQuantifiedAAs);
+					for (final List<PositionInProtein> positionInProteins2 : proteinKeysByPeptideKeysForQuantifiedAAs
+							.values()) {
+						positionsInProteins.addAll(positionInProteins2);
+					}
 				} else {
-					out.write("\t");
+					final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeysForPTMs = peptide
+							.getProteinKeysByPeptideKeysForPTMs(uplr, PCQUtils.proteinSequences);
+					proteinKeysByPeptideKeys.putAll(proteinKeysByPeptideKeysForPTMs);
+					for (final List<PositionInProtein> positionInProteins2 : proteinKeysByPeptideKeysForPTMs
+							.values()) {
+						positionsInProteins.addAll(positionInProteins2);
+					}
 				}
-				if (params.isCollapseBySites() || params.isCollapseByPTMs() || params.isPrintPTMPositionInProtein()) {
+			}
 
-					/////////////////////////////
-					// out.write("\t" + peptideNode.getKey());
-					// if (params.isCollapseBySites()) {
-					// out.write("\t" + quantRatio.getQuantifiedAA());
-					// }
-					/////////////////////////////
-					final UniprotProteinLocalRetriever uplr = PCQUtils
-							.getUniprotProteinLocalRetrieverByFolder(params.getUniprotReleasesFolder());
-					final Set<PositionInPeptide> quantifiedSitePositionInPeptide = quantRatio
-							.getQuantifiedSitePositionInPeptide();
-					final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeys = new THashMap<PositionInPeptide, List<PositionInProtein>>();
-					final List<PositionInProtein> positionsInProteins = new ArrayList<PositionInProtein>();
-					for (final QuantifiedPeptideInterface peptide : peptideNode.getItemsInNode()) {
-						if (params.isCollapseBySites()) {
-							final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeysForQuantifiedAAs = peptide
-									.getProteinKeysByPeptideKeysForQuantifiedAAs(params.getAaQuantified(), uplr,
-											PCQUtils.proteinSequences);
-							proteinKeysByPeptideKeys.putAll(proteinKeysByPeptideKeysForQuantifiedAAs);
-							for (final List<PositionInProtein> positionInProteins2 : proteinKeysByPeptideKeysForQuantifiedAAs
-									.values()) {
-								positionsInProteins.addAll(positionInProteins2);
-							}
-						} else {
-							final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeysForPTMs = peptide
-									.getProteinKeysByPeptideKeysForPTMs(uplr, PCQUtils.proteinSequences);
-							proteinKeysByPeptideKeys.putAll(proteinKeysByPeptideKeysForPTMs);
-							for (final List<PositionInProtein> positionInProteins2 : proteinKeysByPeptideKeysForPTMs
-									.values()) {
-								positionsInProteins.addAll(positionInProteins2);
-							}
+			final String quantifiedSitepositionInProtein = PCQUtils.getPositionsInProteinsString(positionsInProteins,
+					useProteinGeneName, useProteinID, uplr, params.getUniprotVersion());
+			final String ptmPositionInPeptide = PCQUtils
+					.getPTMPositionsInPeptideString(proteinKeysByPeptideKeys.keySet());
+
+			if (params.isCollapseBySites() || params.isCollapseByPTMs()) {
+				if (quantifiedSitePositionInPeptide == null || quantifiedSitePositionInPeptide.isEmpty()) {
+					out.append("\t");
+					if (params.isCollapseBySites() && !PCQUtils.containsAny(
+							peptideNode.getItemsInNode().iterator().next().getSequence(), params.getAaQuantified())) {
+						out.append("not found\tnot found");
+					} else if (params.isCollapseByPTMs()) {
+						if (peptideNode.getItemsInNode().iterator().next().getPTMsInPeptide().isEmpty()) {
+							out.append("not found\tnot found");
 						}
-					}
-
-					final String quantifiedSitepositionInProtein = PCQUtils.getPositionsInProteinsString(
-							positionsInProteins, useProteinGeneName, useProteinID, uplr, params.getUniprotVersion());
-					final String ptmPositionInPeptide = PCQUtils
-							.getPTMPositionsInPeptideString(proteinKeysByPeptideKeys.keySet());
-
-					if (params.isCollapseBySites() || params.isCollapseByPTMs()) {
-						if (quantifiedSitePositionInPeptide == null || quantifiedSitePositionInPeptide.isEmpty()) {
-							out.write("\t");
-							if (params.isCollapseBySites() && !PCQUtils.containsAny(
-									peptideNode.getItemsInNode().iterator().next().getSequence(),
-									params.getAaQuantified())) {
-								out.write("not found\tnot found");
-							} else if (params.isCollapseByPTMs()) {
-								if (peptideNode.getItemsInNode().iterator().next().getPTMsInPeptide().isEmpty()) {
-									out.write("not found\tnot found");
-								}
 
-							} else {
-								out.write("ambiguous\t" + quantifiedSitepositionInProtein.toString());
-							}
-							if (params.isCollapseBySites()) {
-								out.write("\t"
-										+ StringUtils.getSeparatedValueStringFromChars(params.getAaQuantified(), ","));
-							}
-						} else {
-							out.write("\t" + QuantUtils.printPositionsInPeptideInOrder(quantifiedSitePositionInPeptide)
-									+ "\t" + quantifiedSitepositionInProtein.toString());
-							if (params.isCollapseBySites()) {
-								out.write("\t" + quantRatio.getQuantifiedAA());
-							}
-						}
+					} else {
+						out.append("ambiguous\t" + quantifiedSitepositionInProtein);
 					}
-					if (params.isPrintPTMPositionInProtein()) {
-						out.write(ptmPositionInPeptide);
-						out.write("\t" + quantifiedSitepositionInProtein);
+					if (params.isCollapseBySites()) {
+						out.append("\t" + StringUtils.getSeparatedValueStringFromChars(params.getAaQuantified(), ","));
+					}
+				} else {
+					out.append("\t" + QuantUtils.printPositionsInPeptideInOrder(quantifiedSitePositionInPeptide) + "\t"
+							+ quantifiedSitepositionInProtein);
+					if (params.isCollapseBySites()) {
+						out.append("\t" + quantRatio.getQuantifiedAA());
 					}
 				}
-
 			}
-
-		} catch (final IOException e) {
-			e.printStackTrace();
-		} finally {
-			if (out != null) {
-				try {
-					out.close();
-				} catch (final IOException e) {
-					e.printStackTrace();
-				}
+			if (params.isPrintPTMPositionInProtein()) {
+				out.append(ptmPositionInPeptide);
+				out.append("\t" + quantifiedSitepositionInProtein);
 			}
 		}
-
 	}
 
-	private void printPeptideRatiosFile() {
-		FileWriter out = null;
-
-		try {
-			final UniprotProteinLocalRetriever uplr = PCQUtils
-					.getUniprotProteinLocalRetrieverByFolder(params.getUniprotReleasesFolder());
+	private void addPeptideRatiosTable(ParallelTableWriter tableWriter) {
+		final UniprotProteinLocalRetriever uplr = PCQUtils
+				.getUniprotProteinLocalRetrieverByFolder(params.getUniprotReleasesFolder());
 
-			final File outputFileFolder = params.getTemporalOutputFolder();
-			final String outputPrefix = params.getOutputPrefix();
-			final String outputSuffix = params.getOutputSuffix();
-			final String fileName = outputPrefix + "_peptideTable_" + outputSuffix + ".txt";
-			final boolean useProteinGeneName = params.getProteinLabel() == ProteinNodeLabel.GENE;
-			final boolean useProteinID = params.getProteinLabel() == ProteinNodeLabel.ID;
-			log.info("Printing Peptide ratios at file : '" + fileName + "'");
-			out = new FileWriter(outputFileFolder.getAbsolutePath() + File.separator + fileName);
-
-			// header
-			out.write("Raw file " + "\t" + "Num PSMs" + "\t" + "Sequence" + "\t" + "Protein(s)" + "\t" + "Ratio Name"
-					+ "\t" + "Log2Ratio" + "\t" + "Ratio Score Name" + "\t" + "Ratio Score Value");
-			if (params.isCollapseBySites()) {
-				out.write("\t" + "QuantSitePositionInPeptide" + "\t" + "QuantSitePositionInProtein(s)" + "\t"
-						+ "Quant site");
-			}
-			if (quantParser != null) {
-				final List<QuantifiedPeptideInterface> peptideList = new ArrayList<QuantifiedPeptideInterface>();
-				peptideList.addAll(quantParser.getPeptideMap().values());
-				// sort list by Peptide sequence and then by psm id
-				Collections.sort(peptideList, new Comparator<QuantifiedPeptideInterface>() {
-
-					@Override
-					public int compare(QuantifiedPeptideInterface o1, QuantifiedPeptideInterface o2) {
-						final String sequence = o1.getSequence();
-						final String sequence2 = o2.getSequence();
-						return sequence.compareTo(sequence2);
+		final File outputFileFolder = params.getTemporalOutputFolder();
+		final String outputPrefix = params.getOutputPrefix();
+		final String outputSuffix = params.getOutputSuffix();
+		final String fileName = outputPrefix + "_peptideTable_" + outputSuffix + ".txt";
+		final boolean useProteinGeneName = params.getProteinLabel() == ProteinNodeLabel.GENE;
+		final boolean useProteinID = params.getProteinLabel() == ProteinNodeLabel.ID;
+		log.info("Printing Peptide ratios at file : '" + fileName + "'");
+
+		// header
+		final StringBuilder header = new StringBuilder();
+		header.append("Raw file " + "\t" + "Num PSMs" + "\t" + "Sequence" + "\t" + "Protein(s)" + "\t" + "Ratio Name"
+				+ "\t" + "Log2Ratio" + "\t" + "Ratio Score Name" + "\t" + "Ratio Score Value");
+		if (params.isCollapseBySites()) {
+			header.append("\t" + "QuantSitePositionInPeptide" + "\t" + "QuantSitePositionInProtein(s)" + "\t"
+					+ "Quant site");
+		}
+		tableWriter.addTable(new File(outputFileFolder.getAbsolutePath() + File.separator + fileName),
+				header.toString(), () -> {
+					final List<QuantifiedPeptideInterface> peptideList = new ArrayList<QuantifiedPeptideInterface>();
+					if (quantParser != null) {
+						peptideList.addAll(quantParser.getPeptideMap().values());
+						// sort list by Peptide sequence and then by psm id
+						Collections.sort(peptideList, new Comparator<QuantifiedPeptideInterface>() {
+
+							@Override
+							public int compare(QuantifiedPeptideInterface o1, QuantifiedPeptideInterface o2) {
+								final String sequence = o1.getSequence();
+								final String sequence2 = o2.getSequence();
+								return sequence.compareTo(sequence2);
 
-					}
-				});
-				for (final QuantifiedPeptideInterface peptide : peptideList) {
-					// check if we should ignore the ptm psms
-					if (params.isIgnorePTMs()) {
-						if (peptide.getPTMsInPeptide() != null && !peptide.getPTMsInPeptide().isEmpty()) {
-							continue;
-						}
-					}
-					out.write("\n");
-					if (peptide.isDiscarded()) {
-						// ignore if it is marked as discarded because the, it
-						// can fail when getRawFileNames()
-						out.write("FILTERED\t" + "\t" + peptide.getFullSequence());
-						continue;
-					}
-					final String accessionString = PCQUtils.getAccessionString(peptide.getQuantifiedProteins());
-					final QuantRatio quantRatio = peptide.getConsensusRatio(cond1, cond2);
-					try {
-						final String rawFilesNames = StringUtils
-								.getSortedSeparatedValueStringFromChars(peptide.getRawFileNames(), ",");
-						out.write(rawFilesNames + "\t" + peptide.getQuantifiedPSMs().size() + "\t"
-								+ peptide.getFullSequence() + "\t" + accessionString + "\t"
-								+ quantRatio.getDescription() + "\t"
-								+ PCQUtils.escapeInfinity(quantRatio.getLog2Ratio(cond1, cond2)));
-					} catch (final Exception e) {
-						e.printStackTrace();
-					}
-					if (quantRatio.getAssociatedConfidenceScore() != null) {
-						out.write("\t" + quantRatio.getAssociatedConfidenceScore().getScoreName() + "\t" + PCQUtils
-								.escapeInfinity(Double.valueOf(quantRatio.getAssociatedConfidenceScore().getValue())));
-					} else {
-						out.write("\t\t");
-					}
-					if (params.isCollapseBySites()) {
-						final Set<PositionInPeptide> quantifiedSitePositionInPeptide = quantRatio
-								.getQuantifiedSitePositionInPeptide();
-						final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptide2Keys = peptide
-								.getProteinKeysByPeptideKeysForQuantifiedAAs(params.getAaQuantified(), uplr,
-										PCQUtils.proteinSequences);
-						final StringBuilder quantifiedSitepositionInProtein = new StringBuilder();
-
-						for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide2Keys.keySet()) {
-
-							if (quantifiedSitePositionInPeptide != null && !quantifiedSitePositionInPeptide.isEmpty()) {
-								if (QuantUtils.containsPosition(quantifiedSitePositionInPeptide,
-										positionInPeptide.getPosition())) {
-									if (!"".equals(quantifiedSitepositionInProtein.toString())) {
-										quantifiedSitepositionInProtein.append(",");
-									}
-									quantifiedSitepositionInProtein.append(QuantUtils.getPositionsInProteinsKey(
-											proteinKeysByPeptide2Keys.get(positionInPeptide), useProteinGeneName,
-											useProteinID, uplr, params.getUniprotVersion()));
-								}
-							} else {
-								if (!"".equals(quantifiedSitepositionInProtein.toString())) {
-									quantifiedSitepositionInProtein.append(",");
-								}
-								quantifiedSitepositionInProtein.append(QuantUtils.getPositionsInProteinsKey(
-										proteinKeysByPeptide2Keys.get(positionInPeptide), useProteinGeneName,
-										useProteinID, uplr, params.getUniprotVersion()));
 							}
-						}
-
-						if (quantifiedSitePositionInPeptide == null || quantifiedSitePositionInPeptide.isEmpty()) {
-							out.write("\t");
-							if (!PCQUtils.containsAny(peptide.getSequence(), params.getAaQuantified())) {
-								out.write("not found\tnot found");
-							} else if (Double.isNaN(quantRatio.getNonLogRatio(cond1, cond2))) {
-								out.write("-\t" + quantifiedSitepositionInProtein.toString());
-							} else {
-								out.write("ambiguous\t" + quantifiedSitepositionInProtein.toString());
-							}
-							out.write(
-									"\t" + StringUtils.getSeparatedValueStringFromChars(params.getAaQuantified(), ","));
-						} else {
-							out.write("\t" + QuantUtils.printPositionsInPeptideInOrder(quantifiedSitePositionInPeptide)
-									+ "\t" + quantifiedSitepositionInProtein.toString() + "\t"
-									+ quantRatio.getQuantifiedAA());
-						}
+						});
 					}
+					return peptideList;
+				}, (peptide, out) -> appendPeptideRatiosRow(peptide, uplr, useProteinGeneName, useProteinID, out));
+	}
 
-				}
+	private void appendPeptideRatiosRow(QuantifiedPeptideInterface peptide, UniprotProteinLocalRetriever uplr,
+			boolean useProteinGeneName, boolean useProteinID, StringBuilder out) {
+		// check if we should ignore the ptm psms
+		if (params.isIgnorePTMs()) {
+			if (peptide.getPTMsInPeptide() != null && !peptide.getPTMsInPeptide().isEmpty()) {
+				return;
 			}
-		} catch (final IOException e) {
+		}
+		out.append("\n");
+		if (peptide.isDiscarded()) {
+			// ignore if it is marked as discarded because the, it
+			// can fail when getRawFileNames()
+			out.append("FILTERED\t" + "\t" + peptide.getFullSequence());
+			return;
+		}
+		final String accessionString = PCQUtils.getAccessionString(peptide.getQuantifiedProteins());
+		final QuantRatio quantRatio = peptide.getConsensusRatio(cond1, cond2);
+		try {
+			final String rawFilesNames = StringUtils.getSortedSeparatedValueStringFromChars(peptide.getRawFileNames(),
+					",");
+			out.append(rawFilesNames + "\t" + peptide.getQuantifiedPSMs().size() + "\t" + peptide.getFullSequence()
+					+ "\t" + accessionString + "\t" + quantRatio.getDescription() + "\t"
+					+ PCQUtils.escapeInfinity(quantRatio.getLog2Ratio(cond1, cond2)));
+		} catch (final Exception e) {
 			e.printStackTrace();
-		} finally {
-			if (out != null) {
-				try {
-					out.close();
-				} catch (final IOException e) {
-					e.printStackTrace();
+		}
+		if (quantRatio.getAssociatedConfidenceScore() != null) {
+			out.append("\t" + quantRatio.getAssociatedConfidenceScore().getScoreName() + "\t"
+					+ PCQUtils.escapeInfinity(Double.valueOf(quantRatio.getAssociatedConfidenceScore().getValue())));
+		} else {
+			out.append("\t\t");
+		}
+		if (params.isCollapseBySites()) {
+			final Set<PositionInPeptide> quantifiedSitePositionInPeptide = quantRatio
+					.getQuantifiedSitePositionInPeptide();
+			final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptide2Keys = PCQUtils
+					.getPositionsInProteinsForQuantifiedAAs(peptide, params.getAaQuantified(), uplr);
+			final String quantifiedSitepositionInProtein = getQuantifiedSitePositionsInProtein(
+					quantifiedSitePositionInPeptide, proteinKeysByPeptide2Keys, uplr, useProteinGeneName,
+					useProteinID);
+
+			if (quantifiedSitePositionInPeptide == null || quantifiedSitePositionInPeptide.isEmpty()) {
+				out.append("\t");
+				if (!PCQUtils.containsAny(peptide.getSequence(), params.getAaQuantified())) {
+					out.append("not found\tnot found");
+				} else if (Double.isNaN(quantRatio.getNonLogRatio(cond1, cond2))) {
+					out.append("-\t" + quantifiedSitepositionInProtein);
+				} else {
+					out.append("ambiguous\t" + quantifiedSitepositionInProtein);
+				}
+				out.append("\t" + StringUtils.getSeparatedValueStringFromChars(params.getAaQuantified(), ","));
+			} else {
+				out.append("\t" + QuantUtils.printPositionsInPeptideInOrder(quantifiedSitePositionInPeptide) + "\t"
+						+ quantifiedSitepositionInProtein + "\t" + quantRatio.getQuantifiedAA());
+			}
+		}
+	}
+
+	/**
+	 * Finds the positions of the peptides in the protein sequences, in a single
+	 * pass over the sequences, reusing the ones stored in
+	 * {@link ProteinClusterQuantParameters#getProteinSequenceIndexFile()} if
+	 * provided. The positions are then used to create the peptide nodes by
+	 * sites or PTMs.<br>
+	 * When the sequences come from a FASTA file and the index is stored, all its
+	 * proteins are indexed, so that the stored index is valid for any run with
+	 * the same FASTA file. Otherwise, only the proteins of the input files are
+	 * indexed.
+	 *
+	 * @param peptides
+	 * @param proteinSequencesByAcc the sequences of the proteins of the input
+	 *                              files
+	 * @param fastaSequenceStore    the sequences of the FASTA file, or null
+	 * @throws IOException
+	 */
+	private void indexPeptidesInProteinSequences(Collection<QuantifiedPeptideInterface> peptides,
+			Map<String, String> proteinSequencesByAcc, FastaSequenceStore fastaSequenceStore) throws IOException {
+		if (proteinSequencesByAcc.isEmpty()) {
+			PCQUtils.setPeptideProteinIndex(null);
+			return;
+		}
+		final long t0 = System.currentTimeMillis();
+		final File indexFile = params.getProteinSequenceIndexFile();
+		final Collection<String> proteinAccs;
+		final Function<String, String> sequencesByAcc;
+		String checksum = null;
+		if (fastaSequenceStore != null && indexFile != null) {
+			proteinAccs = fastaSequenceStore.getAccessions();
+			sequencesByAcc = fastaSequenceStore::getSequence;
+			checksum = PeptideProteinIndex.getChecksum(params.getFastaFile());
+		} else {
+			proteinAccs = proteinSequencesByAcc.keySet();
+			sequencesByAcc = proteinSequencesByAcc::get;
+			if (indexFile != null) {
+				checksum = PeptideProteinIndex.getChecksum(proteinSequencesByAcc);
+			}
+		}
+		final PeptideProteinIndex index = indexFile != null
+				? PeptideProteinIndex.load(indexFile, proteinAccs, sequencesByAcc, checksum)
+				: new PeptideProteinIndex(proteinAccs, sequencesByAcc, checksum);
+		final Set<String> sequences = new THashSet<String>();
+		for (final QuantifiedPeptideInterface peptide : peptides) {
+			sequences.add(peptide.getSequence());
+		}
+		index.index(sequences);
+		if (indexFile != null && index.isModified()) {
+			index.save(indexFile);
+		}
+		PCQUtils.setPeptideProteinIndex(index);
+		log.info("Peptides indexed in protein sequences in "
+				+ DatesUtil.getDescriptiveTimeFromMillisecs(System.currentTimeMillis() - t0));
+	}
+
+	/**
+	 * Applies the filters to the clusters. If the filtered nodes are removed,
+	 * the clusters from which something is removed may be split or may need to
+	 * collapse their nodes differently, so only their remaining peptides are
+	 * clustered again, and the new clusters are filtered again, until no
+	 * cluster changes.
+	 *
+	 * @param clusters
+	 * @param filters
+	 * @return the clusters that still have peptide and protein nodes
+	 * @throws IOException
+	 */
+	private Set<ProteinCluster> filterClusters(Set<ProteinCluster> clusters, List<PCQFilter> filters)
+			throws IOException {
+		final Set<ProteinCluster> ret = new THashSet<ProteinCluster>();
+		Set<ProteinCluster> clustersToFilter = clusters;
+		while (!clustersToFilter.isEmpty()) {
+			log.info("Filtering " + clustersToFilter.size() + " clusters");
+			int numFilteredClusters = 0;
+			final Set<ProteinCluster> changedClusters = new THashSet<ProteinCluster>();
+			for (final ProteinCluster cluster : clustersToFilter) {
+				final int size = getClusterSize(cluster);
+				PCQFilter.filter(cluster, filters);
+
+				// check if the cluster still contains peptide nodes and
+				// protein nodes.
+				if (cluster.getPeptideNodes().isEmpty() || cluster.getProteinNodes().isEmpty()) {
+					numFilteredClusters++;
+				} else if (params.isRemoveFilteredNodes() && getClusterSize(cluster) != size) {
+					changedClusters.add(cluster);
+				} else {
+					ret.add(cluster);
 				}
 			}
+			log.info(numFilteredClusters + " clusters were removed.");
+			if (changedClusters.isEmpty()) {
+				break;
+			}
+			final Map<String, QuantifiedPeptideInterface> pepMap = PCQUtils.getPeptideMapFromClusters(changedClusters);
+			log.info("Clustering again the " + pepMap.size() + " peptides of " + changedClusters.size()
+					+ " clusters that changed after filtering");
+			if (!params.isIgnorePTMs() && params.isCreateProteinPTMStates()) {
+				separatePTMProteinsAndPeptides(pepMap);
+			}
+			clustersToFilter = createClusters(pepMap);
 		}
+		log.info(PCQFilter.getDiscardedPeptideNodes().size() + " peptide nodes were tagged as discarded");
+		log.info(PCQFilter.getDiscardedProteinNodes().size() + " protein nodes were tagged as discarded");
+		return ret;
+	}
 
+	/**
+	 * The filters only remove elements from the clusters, so this only stays
+	 * the same if the filters don't change the cluster
+	 *
+	 * @param cluster
+	 * @return
+	 */
+	private static int getClusterSize(ProteinCluster cluster) {
+		return cluster.getPeptideNodes().size() + cluster.getProteinNodes().size() + cluster.getPeptideSet().size()
+				+ cluster.getProteinSet().size();
 	}
 
 	private void removePTMPeptides(Map<String, QuantifiedPeptideInterface> pepMap) {
@@ -1016,8 +1136,9 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 	}
 
 	/**
-	 * Writes a file with a line per each peptide node, sorted by FDR.
+	 * Adds the table with a line per each peptide node, sorted by FDR.
 	 *
+	 * @param tableWriter
 	 * @param clusterSet
 	 * @param ratioStatsByPeptideNodeKey a map containing {@link SanxotQuantResult}
 	 *                                   by each peptideNodeKey. Note that it can be
@@ -1025,74 +1146,48 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 	 *                                   not have the FDR column
 	 * @throws IOException
 	 */
-	private void printFinalFile(Set<ProteinCluster> clusterSet,
+	private void addFinalTable(ParallelTableWriter tableWriter, Set<ProteinCluster> clusterSet,
 			Map<String, SanxotQuantResult> ratioStatsByPeptideNodeKey) throws IOException {
 
-		final Map<String, PCQPeptideNode> peptideNodesByNodeID = new THashMap<String, PCQPeptideNode>();
-		for (final ProteinCluster cluster : clusterSet) {
-			final Set<String> peptideNodeKeys = cluster.getPeptideNodeKeys();
-			for (final String peptideNodeID : peptideNodeKeys) {
-				peptideNodesByNodeID.put(peptideNodeID, cluster.getPeptideNodeByKey(peptideNodeID));
-			}
-		}
-
-		final Map<String, Entry> annotatedProteins = getAnnotatedProteins();
-
-		FileWriter outputIntegrationFinalFile = null;
+		final Map<String, ProteinAnnotation> annotatedProteins = getAnnotatedProteins();
 
-		try {
-			final File outputFileFolder = params.getTemporalOutputFolder();
-			final String outputPrefix = params.getOutputPrefix();
-			final String outputSuffix = params.getOutputSuffix();
-			final String fileName = outputPrefix + "_finalTable_" + outputSuffix + ".txt";
-			log.info("Printing final data table in file at '" + fileName + "'");
-			outputIntegrationFinalFile = new FileWriter(outputFileFolder.getAbsolutePath() + File.separator + fileName);
-
-			outputIntegrationFinalFile.write(getPeptideNodeHeaderLine() + "\n");
-			// sort peptide Nodes by FDR
-			List<PCQPeptideNode> sortedPeptideNodes = null;
-
-			if (params.isCollapseBySites()) {
-				// when collapsing by site, the peptide node ids are actually
-				// the protein accessions and the sites, therefore, this will be
-				// equivalent to sort by node id
-				sortedPeptideNodes = getPeptideNodesSortedByNodeID(peptideNodesByNodeID);
-			} else {
-				sortedPeptideNodes = getPeptideNodesSortedByFDROrConsensusRatio(peptideNodesByNodeID,
-						ratioStatsByPeptideNodeKey, peptideNodesByNodeID.keySet());
-			}
-			for (final PCQPeptideNode peptideNode : sortedPeptideNodes) {
-				final String geneNameString = PCQUtils.getGeneNameString(annotatedProteins,
-						peptideNode.getProteinNodes(), null, params.isPrintOnlyFirstGene(), true);
-
-				final String speciesString = PCQUtils.getSpeciesString(annotatedProteins, peptideNode.getProteinNodes(),
-						null, true);
-				SanxotQuantResult sanxotQuantResult = null;
-				if (ratioStatsByPeptideNodeKey != null) {
-					sanxotQuantResult = ratioStatsByPeptideNodeKey.get(peptideNode.getKey());
-				}
-
-				final String peptideNodeLine = getPeptideNodeLine(peptideNode, geneNameString, speciesString,
-						sanxotQuantResult);
-
-				outputIntegrationFinalFile.write(peptideNodeLine + "\n");
-				outputIntegrationFinalFile.flush();
-			}
-
-			log.info("Final data table writen into file");
-
-		} catch (
-
-		final IOException e) {
-			log.error(e.getMessage());
-		} finally {
-			try {
-				if (outputIntegrationFinalFile != null)
-					outputIntegrationFinalFile.close();
-			} catch (final IOException e) {
-				log.error(e.getMessage());
-			}
-		}
+		final File outputFileFolder = params.getTemporalOutputFolder();
+		final String outputPrefix = params.getOutputPrefix();
+		final String outputSuffix = params.getOutputSuffix();
+		final String fileName = outputPrefix + "_finalTable_" + outputSuffix + ".txt";
+		log.info("Printing final data table in file at '" + fileName + "'");
+		tableWriter.addTable(new File(outputFileFolder.getAbsolutePath() + File.separator + fileName),
+				getPeptideNodeHeaderLine() + "\n", () -> {
+					final Map<String, PCQPeptideNode> peptideNodesByNodeID = new THashMap<String, PCQPeptideNode>();
+					for (final ProteinCluster cluster : clusterSet) {
+						final Set<String> peptideNodeKeys = cluster.getPeptideNodeKeys();
+						for (final String peptideNodeID : peptideNodeKeys) {
+							peptideNodesByNodeID.put(peptideNodeID, cluster.getPeptideNodeByKey(peptideNodeID));
+						}
+					}
+					// sort peptide Nodes by FDR
+					if (params.isCollapseBySites()) {
+						// when collapsing by site, the peptide node ids are
+						// actually the protein accessions and the sites,
+						// therefore, this will be equivalent to sort by node id
+						return getPeptideNodesSortedByNodeID(peptideNodesByNodeID);
+					}
+					return getPeptideNodesSortedByFDROrConsensusRatio(peptideNodesByNodeID,
+							ratioStatsByPeptideNodeKey, peptideNodesByNodeID.keySet());
+				}, (peptideNode, out) -> {
+					final String geneNameString = PCQUtils.getGeneNameString(annotatedProteins,
+							peptideNode.getProteinNodes(), null, params.isPrintOnlyFirstGene(), true);
+
+					final String speciesString = PCQUtils.getSpeciesString(annotatedProteins,
+							peptideNode.getProteinNodes(), null, true);
+					SanxotQuantResult sanxotQuantResult = null;
+					if (ratioStatsByPeptideNodeKey != null) {
+						sanxotQuantResult = ratioStatsByPeptideNodeKey.get(peptideNode.getKey());
+					}
+
+					out.append(getPeptideNodeLine(peptideNode, geneNameString, speciesString, sanxotQuantResult));
+					out.append("\n");
+				});
 	}
 
 	private List<PCQPeptideNode> getPeptideNodesSortedByNodeID(Map<String, PCQPeptideNode> peptideNodesByNodeID) {
@@ -1109,6 +1204,10 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 	public static final String CLUSTER_ID_COLUMN_HEADER = "clusterID";
 	public static final String PEPTIDE_NODE_ID_COLUMN_HEADER = "peptideNodeID";
 	public static final String LOG2RATIO_COLUMN_HEADER = "log2Ratio";
+	public static final String GENES_COLUMN_HEADER = "genes";
+	public static final String NUM_PSMS_COLUMN_HEADER = "numPSMs";
+	public static final String FDR_COLUMN_HEADER = "FDR";
+	public static final String VARIANCE_COLUMN_HEADER = "variance";
 	public static final String FINISHED_ANALYSIS = "Finished analysis";
 
 	private String getPeptideNodeHeaderLine() {
@@ -1121,7 +1220,7 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 		sb.append(CLUSTER_ID_COLUMN_HEADER);
 		sb.append(sep);
 		// geneNameString
-		sb.append("genes");
+		sb.append(GENES_COLUMN_HEADER);
 		sb.append(sep);
 		// protein accessions
 		sb.append("ACCs");
@@ -1136,7 +1235,7 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 		sb.append("numPeptideSequences");
 		sb.append(sep);
 		// num psms
-		sb.append("numPSMs");
+		sb.append(NUM_PSMS_COLUMN_HEADER);
 		sb.append(sep);
 		// num ms runs
 		sb.append("numRUNs");
@@ -1154,13 +1253,13 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 		sb.append("normZRatio");
 		sb.append(sep);
 		// FDR
-		sb.append("FDR");
+		sb.append(FDR_COLUMN_HEADER);
 		sb.append(sep);
 		// weight
 		sb.append("weight");
 		sb.append(sep);
 		// variance
-		sb.append("variance");
+		sb.append(VARIANCE_COLUMN_HEADER);
 		sb.append(sep);
 		// isIonCountRatio
 		sb.append("isIonCountRatio");
@@ -1430,13 +1529,72 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 		return ret;
 	}
 
-	private SanXotAnalysisResult calculatePeptideNodeRatios(SanXotAnalysisResult peptideNodeRepSanxotResult,
+	/**
+	 * Integrates the ratios from peptides in each replicate up to peptide
+	 * nodes.<br>
+	 * The three levels of integration are scheduled as a graph of
+	 * {@link CompletableFuture}s in a pool of
+	 * {@link ProteinClusterQuantParameters#getNumThreads()} threads, so that the
+	 * relationship files are written at the same time, before the ratios of the
+	 * first level are integrated, and the experiments are integrated
+	 * concurrently in the second level.
+	 *
+	 * @param peptideInclusionList
+	 * @param clusterSet
+	 * @return the ratios of the peptide nodes by their keys
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private Map<String, SanxotQuantResult> integrateRatios(Set<String> peptideInclusionList,
 			Set<ProteinCluster> clusterSet) throws IOException, InterruptedException, ExecutionException {
+		final ExecutorService executor = Executors.newFixedThreadPool(params.getNumThreads());
+		try {
+			// the relationship files only depend on the clusters
+			final CompletableFuture<File> peptideExpRepToPeptideNodeExpRepRelat = SanxotRunner
+					.supplyAsync(() -> writeRelationshipFileFromPeptideExpRepToPeptideNodeExpRep(clusterSet), executor);
+			final CompletableFuture<File> peptideNodeExpRepToPeptideNodeExpRelat = SanxotRunner.supplyAsync(
+					() -> writeRelationshipFileFromPeptideNodeExpRepToPeptideNodeExp(clusterSet), executor);
+			final CompletableFuture<File> peptideExpNodeToPeptideNodeRelat = SanxotRunner
+					.supplyAsync(() -> writeRelationshipFileFromPeptideExpNodeToPeptideNode(clusterSet), executor);
+			// calculating ratios up to peptide_exp_rep level, once the
+			// relationship files are written
+			final CompletableFuture<SanXotAnalysisResult> peptideRepSanxotResult = CompletableFuture
+					.allOf(peptideExpRepToPeptideNodeExpRepRelat, peptideNodeExpRepToPeptideNodeExpRelat,
+							peptideExpNodeToPeptideNodeRelat)
+					.thenApplyAsync(v -> SanxotRunner
+							.call(() -> calculatePeptideExperimentReplicateRatios(peptideInclusionList)), executor);
+
+			// calculating consensus ratios up to peptide_node_exp_rep
+			final CompletableFuture<SanXotAnalysisResult> peptideNodeRepSanxotResult = CompletableFuture
+					.allOf(peptideRepSanxotResult, peptideExpRepToPeptideNodeExpRepRelat,
+							peptideNodeExpRepToPeptideNodeExpRelat)
+					.thenCompose(v -> SanxotRunner.call(() -> calculatePeptideNodeExperimentReplicateRatios(
+							peptideRepSanxotResult.join(), peptideExpRepToPeptideNodeExpRepRelat.join(),
+							peptideNodeExpRepToPeptideNodeExpRelat.join(), executor)));
+			final CompletableFuture<Void> resultsPerReplicateSet = peptideNodeRepSanxotResult.thenAcceptAsync(
+					result -> setIntegrationResultsPerReplicateIntoPeptideNodes(clusterSet, result), executor);
+			// make a custom sanxot analysis from peptide_node_rep to
+			// peptide_node
+			final CompletableFuture<SanXotAnalysisResult> peptideNodeSanxotResult = peptideNodeRepSanxotResult
+					.thenCombineAsync(peptideExpNodeToPeptideNodeRelat,
+							(result, relationshipFile) -> SanxotRunner
+									.call(() -> calculatePeptideNodeRatios(result, relationshipFile)),
+							executor);
+
+			SanxotRunner.get(resultsPerReplicateSet);
+			return SanxotRunner.get(peptideNodeSanxotResult).getLastIntegrationResults().getOutStatsRatios();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private SanXotAnalysisResult calculatePeptideNodeRatios(SanXotAnalysisResult peptideNodeRepSanxotResult,
+			File relationshipFile) throws IOException, InterruptedException, ExecutionException {
 		final Map<String, IntegrationResultWrapper> experimentIntegrationResults = peptideNodeRepSanxotResult
 				.getExperimentIntegrationResults();
 		final File workingFolder = QuantAnalysis.createWorkingFolder(params.getTemporalOutputFolder(),
 				ANALYSIS_LEVEL_OUTCOME.PEPTIDE);
-		File relationshipFile = writeRelationshipFileFromPeptideExpNodeToPeptideNode(clusterSet);
 		final List<File> files = new ArrayList<File>();
 		for (final String experimentName : experimentIntegrationResults.keySet()) {
 			files.add(experimentIntegrationResults.get(experimentName).getHigherLevelDataFile());
@@ -1543,92 +1701,144 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 
 	/**
 	 * Make a custom sanxot analysis from peptide_rep to peptide_node_rep, that is
-	 * from peptides in each replicate to peptide nodes in each replicate.
+	 * from peptides in each replicate to peptide nodes in each replicate.<br>
+	 * When the outliers are removed, the relationship file without the outliers
+	 * of the replicates of an experiment is the one used for the replicates of
+	 * the next experiment, so the replicates are integrated one experiment after
+	 * the other. The integration of each experiment from its replicates runs in a
+	 * different task of the executor, and the results are added in the order of
+	 * the experiments.
 	 *
 	 * @param peptideRepSanxotResult
-	 * @param clusterSet
+	 * @param relationshipFile       relationship file from peptide_exp_rep to
+	 *                               peptide_node_exp_rep
+	 * @param relationshipFile2      relationship file from peptide_node_exp_rep
+	 *                               to peptide_node_exp
+	 * @param executor
 	 * @return
-	 * @throws ExecutionException
-	 * @throws InterruptedException
+	 * @throws IOException
 	 */
-	private SanXotAnalysisResult calculatePeptideNodeExperimentReplicateRatios(
-			SanXotAnalysisResult peptideRepSanxotResult, Set<ProteinCluster> clusterSet)
-			throws IOException, InterruptedException, ExecutionException {
-		File relationshipFile = writeRelationshipFileFromPeptideExpRepToPeptideNodeExpRep(clusterSet);
+	private CompletableFuture<SanXotAnalysisResult> calculatePeptideNodeExperimentReplicateRatios(
+			SanXotAnalysisResult peptideRepSanxotResult, File relationshipFile, File relationshipFile2,
+			Executor executor) throws IOException {
 		final boolean relationnshipFileIsValid = SanXotInterfaze.checkAnyDifferentRelationShip(relationshipFile);
 
 		final File workingFolder = QuantAnalysis.createWorkingFolder(params.getTemporalOutputFolder(),
 				ANALYSIS_LEVEL_OUTCOME.PEPTIDE);
-		final SanXotAnalysisResult ret = new SanXotAnalysisResult(null);
 		final Map<String, List<String>> replicateNamesByExperimentNameMap = params
 				.getReplicateNamesByExperimentNameMap();
 
-		String experimentKey = "";
-		for (final String experimentName : replicateNamesByExperimentNameMap.keySet()) {
-			if (replicateNamesByExperimentNameMap.size() > 1) {
-				experimentKey = experimentName;
-			}
-			final Map<String, IntegrationResultWrapper> replicateIntegrations = peptideRepSanxotResult
-					.getReplicateIntegrationResultsByExperiment().get(experimentName);
-			final List<File> dataFiles = new ArrayList<File>();
-			String replicateKey = "";
-			IntegrationResultWrapper replicateIntegrationResult = null;
-			for (final String replicateName : replicateIntegrations.keySet()) {
-				if (replicateIntegrations.size() > 1) {
-					replicateKey = replicateName;
+		final List<String> experimentNames = new ArrayList<String>(replicateNamesByExperimentNameMap.keySet());
+		final List<CompletableFuture<ExperimentIntegration>> experimentIntegrations = new ArrayList<CompletableFuture<ExperimentIntegration>>();
+		CompletableFuture<File> chainedRelationshipFile = CompletableFuture.completedFuture(relationshipFile);
+		for (final String experimentName : experimentNames) {
+			final String experimentKey = replicateNamesByExperimentNameMap.size() > 1 ? experimentName : "";
+			final CompletableFuture<ExperimentIntegration> replicateIntegrations = chainedRelationshipFile
+					.thenApplyAsync(file -> SanxotRunner.call(() -> integratePeptideNodeReplicates(peptideRepSanxotResult,
+							experimentName, experimentKey, file, relationnshipFileIsValid, workingFolder)), executor);
+			chainedRelationshipFile = replicateIntegrations.thenApply(integration -> integration.relationshipFile);
+			experimentIntegrations.add(replicateIntegrations.thenApplyAsync(integration -> SanxotRunner
+					.call(() -> integratePeptideNodeExperiment(integration, experimentKey, relationshipFile2, workingFolder)),
+					executor));
+		}
+		return CompletableFuture.allOf(experimentIntegrations.toArray(new CompletableFuture[0])).thenApply(v -> {
+			final SanXotAnalysisResult ret = new SanXotAnalysisResult(null);
+			for (int i = 0; i < experimentNames.size(); i++) {
+				final String experimentName = experimentNames.get(i);
+				final ExperimentIntegration experimentIntegration = experimentIntegrations.get(i).join();
+				for (int j = 0; j < experimentIntegration.replicateNames.size(); j++) {
+					ret.addReplicateExperimentIntegrationResult(experimentIntegration.replicateResults.get(j),
+							experimentName, experimentIntegration.replicateNames.get(j));
 				}
-				File infoFile = null;
-				final IntegrationResultWrapper integrationResultForReplicate = replicateIntegrations.get(replicateName);
-				if (relationnshipFileIsValid) {
+				ret.addExperimentIntegrationResult(experimentIntegration.experimentResult, experimentName);
+			}
+			return ret;
+		});
+	}
+
+	/**
+	 * The integrations of the replicates of an experiment and the integration
+	 * of the experiment
+	 *
+	 * @author salvador
+	 *
+	 */
+	private static class ExperimentIntegration {
+		private final List<String> replicateNames = new ArrayList<String>();
+		private final List<IntegrationResultWrapper> replicateResults = new ArrayList<IntegrationResultWrapper>();
+		private final List<File> dataFiles = new ArrayList<File>();
+		// the relationship file after removing the outliers of the replicates
+		private File relationshipFile;
+		private IntegrationResultWrapper experimentResult;
+	}
+
+	private ExperimentIntegration integratePeptideNodeReplicates(SanXotAnalysisResult peptideRepSanxotResult,
+			String experimentName, String experimentKey, File relationshipFile, boolean relationnshipFileIsValid,
+			File workingFolder) throws IOException, InterruptedException, ExecutionException {
+		final ExperimentIntegration ret = new ExperimentIntegration();
+		final Map<String, IntegrationResultWrapper> replicateIntegrations = peptideRepSanxotResult
+				.getReplicateIntegrationResultsByExperiment().get(experimentName);
+		String replicateKey = "";
+		IntegrationResultWrapper replicateIntegrationResult = null;
+		for (final String replicateName : replicateIntegrations.keySet()) {
+			if (replicateIntegrations.size() > 1) {
+				replicateKey = replicateName;
+			}
+			File infoFile = null;
+			final IntegrationResultWrapper integrationResultForReplicate = replicateIntegrations.get(replicateName);
+			if (relationnshipFileIsValid) {
+
+				final String prefix = "PeptideExpRep2PeptideNodeExpRep_" + experimentKey + replicateKey;
+				final boolean checkRelationshipValidity = params.getFilters().isEmpty();
+				replicateIntegrationResult = SanxotRunner.integrate(relationshipFile,
+						integrationResultForReplicate.getHigherLevelDataFile(), infoFile, prefix, null, workingFolder,
+						checkRelationshipValidity, params.getQuantParameters());
 
-					final String prefix = "PeptideExpRep2PeptideNodeExpRep_" + experimentKey + replicateKey;
-					final boolean checkRelationshipValidity = params.getFilters().isEmpty();
-					replicateIntegrationResult = SanxotRunner.integrate(relationshipFile,
-							integrationResultForReplicate.getHigherLevelDataFile(), infoFile, prefix, null,
-							workingFolder, checkRelationshipValidity, params.getQuantParameters());
-
-					if (isRemoveOutliers()) {
-						infoFile = replicateIntegrationResult.getInfoFile();
-						final String outliersPrefix = "outliers_removed_" + prefix;
-						final OutlierRemovalResultWrapper removeOutliers = SanxotRunner.removeOutliers(relationshipFile,
-								integrationResultForReplicate.getHigherLevelDataFile(), infoFile, outliersPrefix,
-								workingFolder, params.getQuantParameters());
-						relationshipFile = removeOutliers.getRelatFile();
-						replicateIntegrationResult = SanxotRunner.integrate(relationshipFile,
-								integrationResultForReplicate.getHigherLevelDataFile(), null, prefix, null,
-								workingFolder, false, params.getQuantParameters());
-					}
-				} else {
-					replicateIntegrationResult = integrationResultForReplicate;
-				}
-				dataFiles.add(replicateIntegrationResult.getHigherLevelDataFile());
-				ret.addReplicateExperimentIntegrationResult(replicateIntegrationResult, experimentName, replicateName);
-			}
-			if (dataFiles.size() > 1) {
-				File relationshipFile2 = writeRelationshipFileFromPeptideNodeExpRepToPeptideNodeExp(clusterSet);
-				final File mergedFile = new File(workingFolder.getAbsolutePath() + File.separator
-						+ "PeptideRep2PeptideNodeExpRep_" + experimentKey + ".xls");
-				// append the results files
-				edu.scripps.yates.utilities.files.FileUtils.mergeFiles(dataFiles, mergedFile, true);
-				final String prefixExperiment = "PeptideNodeExpRep2PeptideNodeExp_" + experimentKey;
-				IntegrationResultWrapper experimentIntegrationResult = SanxotRunner.integrate(relationshipFile2,
-						mergedFile, null, prefixExperiment, null, workingFolder, true, params.getQuantParameters());
 				if (isRemoveOutliers()) {
-					final File infoFile = experimentIntegrationResult.getInfoFile();
-					final String outliersPrefix = "outliers_removed_" + prefixExperiment;
-					final OutlierRemovalResultWrapper removeOutliers = SanxotRunner.removeOutliers(relationshipFile2,
-							mergedFile, infoFile, outliersPrefix, workingFolder, params.getQuantParameters());
-					relationshipFile2 = removeOutliers.getRelatFile();
-					experimentIntegrationResult = SanxotRunner.integrate(relationshipFile2, mergedFile, null,
-							prefixExperiment, null, workingFolder, false, params.getQuantParameters());
+					infoFile = replicateIntegrationResult.getInfoFile();
+					final String outliersPrefix = "outliers_removed_" + prefix;
+					final OutlierRemovalResultWrapper removeOutliers = SanxotRunner.removeOutliers(relationshipFile,
+							integrationResultForReplicate.getHigherLevelDataFile(), infoFile, outliersPrefix,
+							workingFolder, params.getQuantParameters());
+					relationshipFile = removeOutliers.getRelatFile();
+					replicateIntegrationResult = SanxotRunner.integrate(relationshipFile,
+							integrationResultForReplicate.getHigherLevelDataFile(), null, prefix, null, workingFolder,
+							false, params.getQuantParameters());
 				}
-				ret.addExperimentIntegrationResult(experimentIntegrationResult, experimentName);
 			} else {
-				ret.addExperimentIntegrationResult(replicateIntegrationResult, experimentName);
+				replicateIntegrationResult = integrationResultForReplicate;
 			}
-
+			ret.dataFiles.add(replicateIntegrationResult.getHigherLevelDataFile());
+			ret.replicateNames.add(replicateName);
+			ret.replicateResults.add(replicateIntegrationResult);
 		}
+		ret.relationshipFile = relationshipFile;
+		return ret;
+	}
 
+	private ExperimentIntegration integratePeptideNodeExperiment(ExperimentIntegration ret, String experimentKey,
+			File relationshipFile2, File workingFolder) throws IOException, InterruptedException, ExecutionException {
+		final List<File> dataFiles = ret.dataFiles;
+		if (dataFiles.size() > 1) {
+			final File mergedFile = new File(workingFolder.getAbsolutePath() + File.separator
+					+ "PeptideRep2PeptideNodeExpRep_" + experimentKey + ".xls");
+			// append the results files
+			edu.scripps.yates.utilities.files.FileUtils.mergeFiles(dataFiles, mergedFile, true);
+			final String prefixExperiment = "PeptideNodeExpRep2PeptideNodeExp_" + experimentKey;
+			IntegrationResultWrapper experimentIntegrationResult = SanxotRunner.integrate(relationshipFile2,
+					mergedFile, null, prefixExperiment, null, workingFolder, true, params.getQuantParameters());
+			if (isRemoveOutliers()) {
+				final File infoFile = experimentIntegrationResult.getInfoFile();
+				final String outliersPrefix = "outliers_removed_" + prefixExperiment;
+				final OutlierRemovalResultWrapper removeOutliers = SanxotRunner.removeOutliers(relationshipFile2,
+						mergedFile, infoFile, outliersPrefix, workingFolder, params.getQuantParameters());
+				experimentIntegrationResult = SanxotRunner.integrate(removeOutliers.getRelatFile(), mergedFile, null,
+						prefixExperiment, null, workingFolder, false, params.getQuantParameters());
+			}
+			ret.experimentResult = experimentIntegrationResult;
+		} else if (!ret.replicateResults.isEmpty()) {
+			ret.experimentResult = ret.replicateResults.get(ret.replicateResults.size() - 1);
+		}
 		return ret;
 	}
 
@@ -1856,7 +2066,7 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 	}
 
 	private void exportToXGMML(Set<ProteinCluster> clusterSet) throws IOException {
-		final Map<String, Entry> annotatedProteins = getAnnotatedProteins();
+		final Map<String, ProteinAnnotation> annotatedProteins = getAnnotatedProteins();
 		final XgmmlExporter exporter = new XgmmlExporter();
 		exporter.exportToXGMMLUsingNodes(clusterSet, annotatedProteins, cond1, cond2);
 	}
@@ -1939,182 +2149,29 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 
 	/**
 	 * creates a set of {@link ProteinCluster} from the input peptides by iterating
-	 * over the peptides and walking over the proteins and peptides connections
+	 * over the peptides and walking over the proteins and peptides connections,
+	 * which are resolved by a {@link ProteinClusterBuilder}
 	 * 
 	 * @param peptideMap
 	 * @return
 	 * @throws IOException
 	 */
 	private Set<ProteinCluster> createClusters(Map<String, QuantifiedPeptideInterface> peptideMap) throws IOException {
-		final Map<String, ProteinCluster> clustersByPeptideSequence = new THashMap<String, ProteinCluster>();
-		final Set<ProteinCluster> clusterSet = new THashSet<ProteinCluster>();
-		final Set<String> proteinACCs = new THashSet<String>();
 		log.info("Starting clustering " + peptideMap.size() + " peptides...");
 		long t0 = System.currentTimeMillis();
 		final ProgressCounter counter = new ProgressCounter(peptideMap.values().size(),
 				ProgressPrintingType.PERCENTAGE_STEPS, 0);
+		final ProteinClusterBuilder clusterBuilder = new ProteinClusterBuilder(params, peptideAlignments);
 		for (final QuantifiedPeptideInterface peptide : peptideMap.values()) {
 			counter.increment();
 			final String printIfNecessary = counter.printIfNecessary();
 			if (!"".equals(printIfNecessary)) {
 				log.info(printIfNecessary + " peptides clustered");
 			}
-			if (peptide.getSequence().equals("TNVPWNSSW")
-					|| peptide.getFullSequence().equals("TNVPWN(203.079373)SSW")) {
-				log.info("asdf");
-			}
-			// discard if contains ptms and we want to ignore them
-			if (params.isIgnorePTMs() && peptide.containsPTMs()) {
-				DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.CONTAINING_PTM);
-				log.info(peptide.getKey() + " discarded for containing a PTM");
-				continue;
-			}
-			// discard it if it is not connected to any protein
-			if (peptide.getQuantifiedProteins().isEmpty()) {
-				DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.PEPTIDE_WITH_NO_PROTEIN);
-
-				log.warn(peptide.getSequence() + " peptide ignored because it is not connected to any protein");
-				continue;
-			}
-			// discard it if we collapse by PTMs and it doesn't contain any PTMs from the
-			// ones quantified
-			if (params.isCollapseByPTMs()) {
-				final List<PTM> quantifiedPTMs = params.getPTMsQuantified();
-				final List<PTMInPeptide> ptmsInPeptide = peptide.getPTMsInPeptide();
-				boolean valid = false;
-				for (final PTMInPeptide ptmInPeptide : ptmsInPeptide) {
-					for (final PTM quantifiedPTM : quantifiedPTMs) {
-						if (quantifiedPTM.isEquivalent(ptmInPeptide)) {
-							valid = true;
-							break;
-						}
-					}
-				}
-				if (!valid) {
-					DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.NOT_CONTAINING_PTM);
-					log.warn(peptide.getSequence() + " peptide ignored because it doesn't contain quantified PTMs");
-					continue;
-				}
-			}
-
-			final String fullSequence1 = peptide.getFullSequence();
-			ProteinCluster cluster = null;
-
-			// if peptide has a cluster associated
-			if (clustersByPeptideSequence.containsKey(fullSequence1)) {
-				// grab it
-				cluster = clustersByPeptideSequence.get(fullSequence1);
-			} else {
-				cluster = new ProteinCluster();
-				// adds cluster to cluster set
-				clusterSet.add(cluster);
-				// Map<String, protCluster> <- cluster (key = sequence)
-				clustersByPeptideSequence.put(fullSequence1, cluster);
-			}
-			// put peptide in cluster
-			final boolean added = cluster.addIndividualQuantifiedPeptide(peptide);
-			// in case of having peptide alignments done
-			if (peptideAlignments != null && !peptideAlignments.getAlignmentsForPeptide(peptide).isEmpty()) {
-				final Set<AlignedPeptides> alignments = peptideAlignments.getAlignmentsForPeptide(peptide);
-				for (final AlignedPeptides alignment : alignments) {
-					final NWResult alignResult = alignment.getAlignmentResult();
-					if (alignResult.getFinalAlignmentScore() >= params.getFinalAlignmentScore()
-							&& alignResult.getSequenceIdentity() >= params.getSequenceIdentity()
-							&& alignResult.getMaxConsecutiveIdenticalAlignment() >= params
-									.getMinConsecutiveIdenticalAlignment()) {
-
-						final QuantifiedPeptideInterface peptide2 = alignment.getPeptideAligned(peptide);
-
-						// Set<String> modifiedPeptideSeqs =
-						// nonModifiedToModifiedMap.get(peptide2.getSequence());
-						// for (String modifiedPeptideSeq : modifiedPeptideSeqs)
-						// {
-						//
-						// QuantifiedPeptideInterface pep2 =
-						// peptideMap.get(modifiedPeptideSeq);
-
-						// checking to see if peptide 2 is already in a
-						// cluster
-						if (peptide2 != null) {
-							final String fullSequence2 = peptide2.getFullSequence();
-							if (clustersByPeptideSequence.containsKey(fullSequence2)) {
-								final ProteinCluster cluster2 = clustersByPeptideSequence.get(fullSequence2);
-								if (!cluster.equals(cluster2)) {
-									// merges the clusters with similar
-									// peptides
-									cluster = PCQUtils.mergeClusters(cluster, cluster2);
-									clusterSet.remove(cluster2);
-									for (final QuantifiedPeptideInterface quantifiedPeptide : cluster.getPeptideSet()) {
-										clustersByPeptideSequence.put(quantifiedPeptide.getFullSequence(), cluster);
-									}
-								}
-
-								// Add (Quant pep2, hisProtein) to Cluster)
-								cluster.addIndividualQuantifiedPeptide(peptide2);
-								clustersByPeptideSequence.put(fullSequence2, cluster);
-							}
-							// add alignment to the cluster
-							cluster.addAlignment(alignment);
-						}
-						// }
-					}
-				}
-			}
-			// get proteins of the peptide and add them to the cluster
-			final Set<QuantifiedProteinInterface> proteinSet = peptide.getQuantifiedProteins();
-			for (final QuantifiedProteinInterface protein : proteinSet) {
-				proteinACCs.add(protein.getAccession());
-				if (protein.getAccession().equals("P04836")) {
-					log.info("asdf");
-				}
-				// put protein in cluster
-				cluster.addIndividualQuantifiedProtein(protein);
-
-				// peptide 2 <- protein
-				for (final QuantifiedPeptideInterface peptide2 : protein.getQuantifiedPeptides()) {
-
-					if (params.isCollapseByPTMs()) {
-						final List<PTM> quantifiedPTMs = params.getPTMsQuantified();
-						final List<PTMInPeptide> ptmsInPeptide = peptide2.getPTMsInPeptide();
-						boolean valid = false;
-						for (final PTMInPeptide ptmInPeptide : ptmsInPeptide) {
-							for (final PTM quantifiedPTM : quantifiedPTMs) {
-								if (quantifiedPTM.isEquivalent(ptmInPeptide)) {
-									valid = true;
-									break;
-								}
-							}
-						}
-						if (!valid) {
-							DiscardedPeptidesSet.getInstance().add(peptide2, DISCARD_REASON.NOT_CONTAINING_PTM);
-							log.warn(peptide2.getFullSequence()
-									+ " peptide ignored because it doesn't contain quantified PTMs");
-							continue;
-						}
-					}
-					// checking to see if peptide 2 is already in a
-					// cluster
-					final String fullSequence2 = peptide2.getFullSequence();
-					if (clustersByPeptideSequence.containsKey(fullSequence2)) {
-						final ProteinCluster cluster2 = clustersByPeptideSequence.get(fullSequence2);
-						if (!cluster.equals(cluster2)) {
-							// merge the clusters
-							cluster = PCQUtils.mergeClusters(cluster, cluster2);
-							clusterSet.remove(cluster2);
-							for (final QuantifiedPeptideInterface quantifiedPeptide : cluster.getPeptideSet()) {
-								clustersByPeptideSequence.put(quantifiedPeptide.getFullSequence(), cluster);
-							}
-						}
-					}
-
-					// add new peptide 2 to cluster
-					cluster.addIndividualQuantifiedPeptide(peptide2);
-
-					// Map <- peptide, cluster
-					clustersByPeptideSequence.put(fullSequence2, cluster);
-				}
-			}
+			clusterBuilder.addPeptide(peptide);
 		}
+		final Set<ProteinCluster> clusterSet = clusterBuilder.buildClusters();
+		final Set<String> proteinACCs = clusterBuilder.getProteinACCs();
 		double time = System.currentTimeMillis() - t0;
 		loadProteinSequencesForProteoforms(proteinACCs);
 		log.info(clusterSet.size() + " clusters created in " + DatesUtil.getDescriptiveTimeFromMillisecs(time));
@@ -2124,10 +2181,10 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 			log.info("Collapsing peptides in peptide nodes per quantified site");
 		}
 		t0 = System.currentTimeMillis();
+		new ParallelNodeCreator(params).createNodes(clusterSet, getAnnotatedProteins());
 		int numProteinNodes = 0;
 		int numPeptideNodes = 0;
 		for (final ProteinCluster proteinCluster : clusterSet) {
-			proteinCluster.createNodes(getAnnotatedProteins());
 			numProteinNodes += proteinCluster.getProteinNodes().size();
 			numPeptideNodes += proteinCluster.getPeptideNodes().size();
 		}
@@ -2207,8 +2264,8 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 			final Set<PTMInProtein> modifiedPositionsInProtein = new THashSet<PTMInProtein>();
 			for (final QuantifiedPeptideInterface peptide : protein.getQuantifiedPeptides()) {
 				if (peptide.containsPTMs()) {
-					final List<PTMInProtein> proteinKeysByPeptideKeysForPTMs = peptide.getPTMsInProtein(uplr,
-							PCQUtils.proteinSequences);
+					final List<PTMInProtein> proteinKeysByPeptideKeysForPTMs = PCQUtils.getPTMsInProteins(peptide,
+							uplr);
 					modifiedPositionsInProtein.addAll(proteinKeysByPeptideKeysForPTMs);
 				}
 			}
@@ -2330,147 +2387,138 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 
 	}
 
-	private void printPSEAQuantFiles(Set<ProteinCluster> clusterSet) throws IOException {
+	private void addPSEAQuantTables(ParallelTableWriter tableWriter, Set<ProteinCluster> clusterSet)
+			throws IOException {
 
-		final Map<String, Entry> annotatedProteins = getAnnotatedProteins();
+		final Map<String, ProteinAnnotation> annotatedProteins = getAnnotatedProteins();
 
 		if (params.writePSEAQuantInputFiles() && params.getQuantInputFileNamesArray() != null
 				&& params.getQuantInputFileNamesArray().length > 0
 				&& !"".equals(params.getQuantInputFileNamesArray()[0])) {
 			log.info("Replicate names are empty. PSEA-Quant files will contain a column for each original RAW file");
 
-			FileWriter outputPSEAQuant = null;
-			FileWriter outputPSEAQuant_inv = null;
+			final File outputFileFolder = params.getTemporalOutputFolder();
+			final String outputPrefix = params.getOutputPrefix();
+			final String outputSuffix = params.getOutputSuffix();
+			final String fileName1 = outputPrefix + "_pseaQuant_" + outputSuffix + ".txt";
+			final String fileName2 = outputPrefix + "_pseaQuant_inv_" + outputSuffix + ".txt";
+			log.info("Printing PSEA-Quant input files at '" + fileName1 + "' and '" + fileName2 + "'");
+			// the gene names and ratio means of the clusters are calculated
+			// once for both files
+			final FutureTask<List<Pair<String, List<Double>>>> rows = new FutureTask<List<Pair<String, List<Double>>>>(
+					() -> getPSEAQuantRows(annotatedProteins, clusterSet));
+			final Callable<List<Pair<String, List<Double>>>> rowsGetter = () -> {
+				rows.run();
+				return rows.get();
+			};
+			tableWriter.addTable(new File(outputFileFolder.getAbsolutePath() + File.separator + fileName1), "",
+					rowsGetter, (row, out) -> appendPSEAQuantRow(row, false, out));
+			tableWriter.addTable(new File(outputFileFolder.getAbsolutePath() + File.separator + fileName2), "",
+					rowsGetter, (row, out) -> appendPSEAQuantRow(row, true, out));
+		} else {
+			log.info("PSEA-Quant intput files will NOT be created");
+		}
+	}
 
-			try {
-				final File outputFileFolder = params.getTemporalOutputFolder();
-				final String outputPrefix = params.getOutputPrefix();
-				final String outputSuffix = params.getOutputSuffix();
-				final String fileName1 = outputPrefix + "_pseaQuant_" + outputSuffix + ".txt";
-				outputPSEAQuant = new FileWriter(outputFileFolder.getAbsolutePath() + File.separator + fileName1);
-				final String fileName2 = outputPrefix + "_pseaQuant_inv_" + outputSuffix + ".txt";
-				outputPSEAQuant_inv = new FileWriter(outputFileFolder.getAbsolutePath() + File.separator + fileName2);
-				log.info("Printing PSEA-Quant input files at '" + fileName1 + "' and '" + fileName2 + "'");
-				final Mean meanCalculator = new Mean();
-				final List<String> replicateNameList = new ArrayList<String>();
-				final Set<String> replicateNames = new THashSet<String>();
-				for (final ProteinCluster cluster : clusterSet) {
-					final Set<QuantifiedPeptideInterface> peptideSet = cluster.getPeptideSet();
-					replicateNames.addAll(getReplicateNamesFromPeptides(peptideSet));
+	/**
+	 *
+	 * @param annotatedProteins
+	 * @param clusterSet
+	 * @return the gene names of the clusters that are included in the PSEA-Quant
+	 *         files, with the ratio means of each replicate, null if there is no
+	 *         valid ratio in the replicate
+	 */
+	private List<Pair<String, List<Double>>> getPSEAQuantRows(Map<String, ProteinAnnotation> annotatedProteins,
+			Set<ProteinCluster> clusterSet) {
+		final List<Pair<String, List<Double>>> ret = new ArrayList<Pair<String, List<Double>>>();
+		final List<String> replicateNameList = new ArrayList<String>();
+		final Set<String> replicateNames = new THashSet<String>();
+		for (final ProteinCluster cluster : clusterSet) {
+			final Set<QuantifiedPeptideInterface> peptideSet = cluster.getPeptideSet();
+			replicateNames.addAll(getReplicateNamesFromPeptides(peptideSet));
 
-				}
+		}
 
-				replicateNameList.addAll(replicateNames);
-				Collections.sort(replicateNameList);
-				int numClustersSkippedNotHavingGeneName = 0;
-				int numClustersSkippedNotHavingGoodRatios = 0;
-
-				// do not include simulans and virilis in PSEA Quant output
-				final Set<String> validTaxonomies = new THashSet<String>();
-				validTaxonomies.add("melanogaster");
-				validTaxonomies.add("human");
-				validTaxonomies.add("homo");
-				validTaxonomies.add("musculus");
-				validTaxonomies.add("cerevisiae");
-				for (final ProteinCluster cluster : clusterSet) {
-
-					final String geneNameString = PCQUtils.getGeneNameString(annotatedProteins, cluster,
-							validTaxonomies, params.isPrintOnlyFirstGene(), true);
-					// if (geneNameString.contains("Dsim")) {
-					// log.info(PCQUtils.getGeneNameString(annotatedProteins,
-					// cluster, validTaxonomies,
-					// params.isPrintOnlyFirstGene(), true));
-					// }
-					if ("".equals(geneNameString)) {
-						numClustersSkippedNotHavingGeneName++;
-						continue;
-					}
-					final List<Double> ratioMeans = new ArrayList<Double>();
+		replicateNameList.addAll(replicateNames);
+		Collections.sort(replicateNameList);
+		int numClustersSkippedNotHavingGeneName = 0;
+		int numClustersSkippedNotHavingGoodRatios = 0;
+
+		// do not include simulans and virilis in PSEA Quant output
+		final Set<String> validTaxonomies = new THashSet<String>();
+		validTaxonomies.add("melanogaster");
+		validTaxonomies.add("human");
+		validTaxonomies.add("homo");
+		validTaxonomies.add("musculus");
+		validTaxonomies.add("cerevisiae");
+		for (final ProteinCluster cluster : clusterSet) {
 
-					// according to the manuscript, it is the average of the
-					// ratios of the peptide nodes.
+			final String geneNameString = PCQUtils.getGeneNameString(annotatedProteins, cluster, validTaxonomies,
+					params.isPrintOnlyFirstGene(), true);
+			if ("".equals(geneNameString)) {
+				numClustersSkippedNotHavingGeneName++;
+				continue;
+			}
+			final List<Double> ratioMeans = new ArrayList<Double>();
 
-					for (final String replicateName : replicateNameList) {
-						final TDoubleArrayList ratioValues = new TDoubleArrayList();
+			// according to the manuscript, it is the average of the
+			// ratios of the peptide nodes.
 
-						final QuantRatio pepRatio = PCQUtils.getRepresentativeRatioForPeptideNodes(
-								cluster.getPeptideNodes(), cond1, cond2, replicateName, true);
-						if (pepRatio != null) {
-							final Double ratioValue = pepRatio.getNonLogRatio(cond1, cond2);
-							if (ratioValue != null && !Double.isNaN(ratioValue) && !Double.isInfinite(ratioValue)) {
-								ratioValues.add(ratioValue);
-							}
-						}
+			for (final String replicateName : replicateNameList) {
+				final TDoubleArrayList ratioValues = new TDoubleArrayList();
 
-						Double ratioMean = null;
-						if (ratioValues.isEmpty()) {
-							numClustersSkippedNotHavingGoodRatios++;
-						} else {
-							ratioMean = ratioValues.sum() / ratioValues.size();
-						}
-						ratioMeans.add(ratioMean);
-					}
-					boolean validCluster = false;
-					for (final Double ratioMean : ratioMeans) {
-						if (ratioMean != null) {
-							validCluster = true;
-							break;
-						}
-					}
-					if (!validCluster) {
-						numClustersSkippedNotHavingGoodRatios++;
-						continue;
-					}
-					outputPSEAQuant.write(geneNameString + "\t");
-					outputPSEAQuant_inv.write(geneNameString + "\t");
-					for (final Double ratioMean : ratioMeans) {
-						if (ratioMean != null) {
-							outputPSEAQuant.write(String.valueOf(ratioMean));
-							outputPSEAQuant_inv.write(String.valueOf(1.0 / ratioMean));
-						}
-						outputPSEAQuant.write("\t");
-						outputPSEAQuant_inv.write("\t");
+				final QuantRatio pepRatio = PCQUtils.getRepresentativeRatioForPeptideNodes(cluster.getPeptideNodes(),
+						cond1, cond2, replicateName, true);
+				if (pepRatio != null) {
+					final Double ratioValue = pepRatio.getNonLogRatio(cond1, cond2);
+					if (ratioValue != null && !Double.isNaN(ratioValue) && !Double.isInfinite(ratioValue)) {
+						ratioValues.add(ratioValue);
 					}
-					outputPSEAQuant.write("\n");
-					outputPSEAQuant.flush();
-					outputPSEAQuant_inv.write("\n");
-					outputPSEAQuant_inv.flush();
-
 				}
-				if (numClustersSkippedNotHavingGeneName > 0) {
-					log.info("Clusters skipped due to not having appropiate gene name: "
-							+ numClustersSkippedNotHavingGeneName);
+
+				Double ratioMean = null;
+				if (ratioValues.isEmpty()) {
+					numClustersSkippedNotHavingGoodRatios++;
+				} else {
+					ratioMean = ratioValues.sum() / ratioValues.size();
 				}
-				if (numClustersSkippedNotHavingGoodRatios > 0) {
-					log.info("Clusters skipped due to not having at least one valid ratio: "
-							+ numClustersSkippedNotHavingGoodRatios);
+				ratioMeans.add(ratioMean);
+			}
+			boolean validCluster = false;
+			for (final Double ratioMean : ratioMeans) {
+				if (ratioMean != null) {
+					validCluster = true;
+					break;
 				}
-				log.info("PSEA-Quant files writen");
-
-			} catch (
-
-			final IOException e)
+			}
+			if (!validCluster) {
+				numClustersSkippedNotHavingGoodRatios++;
+				continue;
+			}
+			ret.add(new Pair<String, List<Double>>(geneNameString, ratioMeans));
+		}
+		if (numClustersSkippedNotHavingGeneName > 0) {
+			log.info("Clusters skipped due to not having appropiate gene name: " + numClustersSkippedNotHavingGeneName);
+		}
+		if (numClustersSkippedNotHavingGoodRatios > 0) {
+			log.info("Clusters skipped due to not having at least one valid ratio: "
+					+ numClustersSkippedNotHavingGoodRatios);
+		}
+		return ret;
+	}
 
-			{
-				log.error(e.getMessage());
-			} finally
-
-			{
-				try {
-					if (outputPSEAQuant != null)
-						outputPSEAQuant.close();
-					if (outputPSEAQuant_inv != null)
-						outputPSEAQuant_inv.close();
-				} catch (final IOException e) {
-					log.error(e.getMessage());
-				}
+	private void appendPSEAQuantRow(Pair<String, List<Double>> row, boolean inverse, StringBuilder out) {
+		out.append(row.getFirstelement() + "\t");
+		for (final Double ratioMean : row.getSecondElement()) {
+			if (ratioMean != null) {
+				out.append(String.valueOf(inverse ? 1.0 / ratioMean : ratioMean));
 			}
-		} else {
-			log.info("PSEA-Quant intput files will NOT be created");
+			out.append("\t");
 		}
+		out.append("\n");
 	}
 
-	public Map<String, Entry> getAnnotatedProteins() throws IOException {
+	public Map<String, ProteinAnnotation> getAnnotatedProteins() throws IOException {
 		if (annotatedProteins == null) {
 			if (params.getUniprotReleasesFolder() != null) {
 
@@ -2481,12 +2529,13 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 				if (quantParser != null) {
 					uniprotAccSet.addAll(quantParser.getUniprotAccSet());
 				}
-				if (idParser != null) {
-					uniprotAccSet.addAll(idParser.getUniprotAccSet());
+				if (identifications != null) {
+					uniprotAccSet.addAll(identifications.getUniprotAccSet());
 				}
 				log.info("Getting UniprotKB annotations for " + uniprotAccSet.size() + " proteins");
 
-				annotatedProteins = uplr.getAnnotatedProteins(params.getUniprotVersion(), uniprotAccSet);
+				annotatedProteins = ProteinAnnotationCache.getAnnotations(uplr, params.getUniprotReleasesFolder(),
+						params.getUniprotVersion(), uniprotAccSet);
 				log.info(annotatedProteins.size() + " annotations retrieved out of " + uniprotAccSet.size()
 						+ " proteins");
 			}
@@ -2675,6 +2724,10 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 					numSignificantClusters++;
 				}
 			}
+			if (params.isApplyClassificationsByProteinPair() && params.isCollapseIndistinguishablePeptides()
+					&& params.isCollapseIndistinguishableProteins()) {
+				new ParallelPairClassifier(params).classifyPairs(clusterSet, cond1, cond2);
+			}
 			counter = new ProgressCounter(clusterSet.size(), ProgressPrintingType.PERCENTAGE_STEPS, 1);
 
 			// iterate over cluster set (for each cluster)
@@ -2690,12 +2743,6 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 
 					numProteinPairs++;
 					numNonUniqueProteinPairs += proteinPair.getNumSharedNodes();
-					if (params.isApplyClassificationsByProteinPair()) {
-						if (params.isCollapseIndistinguishablePeptides()
-								&& params.isCollapseIndistinguishableProteins()) {
-							proteinPair.proteinPairAnalysis(cond1, cond2);
-						}
-					}
 
 					// print proteinPair summary
 					for (final String summaryLine : proteinPair.getSummaryLines(cond1, cond2)) {
@@ -2987,6 +3034,15 @@ public class ProteinClusterQuant extends javax.swing.SwingWorker<ProteinClusterQ
 		return new File(outputFileFolder + File.separator + fileName);
 	}
 
+	public File getTEMPPeptideNodeResultsFile() {
+		final File outputFileFolder = params.getTemporalOutputFolder();
+		final String outputPrefix = params.getOutputPrefix();
+		final String outputSuffix = params.getOutputSuffix();
+		final String fileName = outputPrefix + "_peptideNodeResults_" + outputSuffix
+				+ PeptideNodeResultsFile.EXTENSION;
+		return new File(outputFileFolder + File.separator + fileName);
+	}
+
 	/**
 	 * Gets the peptide node table file that has been transferred to a not TEMP
 	 * folder
@@ -1,14 +1,18 @@
 package edu.scripps.yates.pcq.compare;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.Date;
 import java.util.Set;
 
+import edu.scripps.yates.pcq.ProteinClusterQuant;
 import edu.scripps.yates.pcq.compare.ComparisonInput.ComparisonType;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.DoubleColumn;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.IntColumn;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.StringColumn;
+import edu.scripps.yates.pcq.util.TsvReader;
 import edu.scripps.yates.utilities.venndata.ContainsMultipleKeys;
 import edu.scripps.yates.utilities.venndata.VennDataForLists;
 import gnu.trove.set.hash.THashSet;
@@ -35,52 +39,82 @@ public class PCQCompare {
 	}
 
 	private Set<ContainsMultipleKeys> readPeptideNodesFromDataFile(File file, double fdrThreshol) throws IOException {
-		return readFromDataFile(file, "_", 0, fdrThreshol);
+		if (file != null && PeptideNodeResultsFile.isPeptideNodeResultsFile(file)) {
+			return readFromResultsFile(file, StringColumn.NODE_KEY, "_", fdrThreshol);
+		}
+		return readFromDataFile(file, "_", ProteinClusterQuant.PEPTIDE_NODE_ID_COLUMN_HEADER, fdrThreshol);
 	}
 
 	private Set<ContainsMultipleKeys> readProteinNodesFromDataFile(File file, double fdrThreshol) throws IOException {
-		return readFromDataFile(file, ",", 2, fdrThreshol);
+		if (file != null && PeptideNodeResultsFile.isPeptideNodeResultsFile(file)) {
+			return readFromResultsFile(file, StringColumn.GENES, ",", fdrThreshol);
+		}
+		return readFromDataFile(file, ",", ProteinClusterQuant.GENES_COLUMN_HEADER, fdrThreshol);
+	}
+
+	/**
+	 * Reads the peptide nodes with FDR of a {@link PeptideNodeResultsFile}
+	 *
+	 * @param file
+	 * @param column      the column with the keys of the items
+	 * @param separator   the separator of the keys in the column
+	 * @param fdrThreshol
+	 * @return
+	 * @throws IOException
+	 */
+	private Set<ContainsMultipleKeys> readFromResultsFile(File file, StringColumn column, String separator,
+			double fdrThreshol) throws IOException {
+		final Set<ContainsMultipleKeys> set = new THashSet<ContainsMultipleKeys>();
+		try (PeptideNodeResultsFile results = PeptideNodeResultsFile.open(file)) {
+			for (int row = 0; row < results.getNumRows(); row++) {
+				final String string = results.getString(column, row);
+				if (string == null || "".equals(string.trim())) {
+					continue;
+				}
+				final double fdr = results.getDouble(DoubleColumn.FDR, row);
+				if (!Double.isNaN(fdr) && fdr <= fdrThreshol) {
+					set.add(new ContainsFDRAndRatioItem(string.trim(), separator, fdr,
+							results.getDouble(DoubleColumn.FINAL_LOG2_RATIO, row),
+							results.getDouble(DoubleColumn.VARIANCE, row), results.getInt(IntColumn.NUM_PSMS, row)));
+				}
+			}
+		}
+		return set;
 	}
 
-	private Set<ContainsMultipleKeys> readFromDataFile(File file, String separator, int colIndex, double fdrThreshol)
-			throws IOException {
+	/**
+	 * Reads the peptide nodes with FDR of a final table of PCQ, splitting each
+	 * line only once
+	 *
+	 * @param file
+	 * @param separator   the separator of the keys in the column
+	 * @param keyHeader   the header of the column with the keys of the items
+	 * @param fdrThreshol
+	 * @return
+	 * @throws IOException
+	 */
+	private Set<ContainsMultipleKeys> readFromDataFile(File file, String separator, String keyHeader,
+			double fdrThreshol) throws IOException {
 		if (file == null) {
 			return null;
 		}
-		Set<ContainsMultipleKeys> set = new THashSet<ContainsMultipleKeys>();
-		BufferedReader in = null;
-		try {
-			in = new BufferedReader(new FileReader(file));
-
-			String line = null;
-			boolean firstLine = true;
-			while ((line = in.readLine()) != null) {
-				if (firstLine) {
-					firstLine = false;
-					continue;
-				}
-				line = line.trim();
-				// System.out.println(line);
-				String string = line.split("\t")[colIndex].trim();
-
-				if (!"".equals(string)) {
-					final String fdrString = line.split("\t")[12];
-					if (!"".equals(fdrString)) {
-						Double fdr = Double.valueOf(fdrString);
-						Double ratio = Double.valueOf(line.split("\t")[9]);
-						Double variance = Double.valueOf(line.split("\t")[14]);
-						int numPSMs = Integer.valueOf(line.split("\t")[6]);
-						if (fdr <= fdrThreshol) {
-							set.add(new ContainsFDRAndRatioItem(string, separator, fdr, ratio, variance, numPSMs));
-						}
+		final Set<ContainsMultipleKeys> set = new THashSet<ContainsMultipleKeys>();
+		try (TsvReader reader = new TsvReader(file)) {
+			final int keyIndex = reader.getRequiredColumnIndex(keyHeader);
+			final int fdrIndex = reader.getRequiredColumnIndex(ProteinClusterQuant.FDR_COLUMN_HEADER);
+			final int ratioIndex = reader.getRequiredColumnIndex(ProteinClusterQuant.LOG2RATIO_COLUMN_HEADER);
+			final int varianceIndex = reader.getRequiredColumnIndex(ProteinClusterQuant.VARIANCE_COLUMN_HEADER);
+			final int numPSMsIndex = reader.getRequiredColumnIndex(ProteinClusterQuant.NUM_PSMS_COLUMN_HEADER);
+			reader.forEachRow(row -> {
+				final String string = row.getString(keyIndex).trim();
+				if (!"".equals(string) && !row.isEmpty(fdrIndex)) {
+					final double fdr = row.getDouble(fdrIndex);
+					if (fdr <= fdrThreshol) {
+						set.add(new ContainsFDRAndRatioItem(string, separator, fdr, row.getDouble(ratioIndex),
+								row.getDouble(varianceIndex), row.getInt(numPSMsIndex)));
 					}
 				}
-
-			}
-		} finally {
-			if (in != null) {
-				in.close();
-			}
+			});
 		}
 		return set;
 	}
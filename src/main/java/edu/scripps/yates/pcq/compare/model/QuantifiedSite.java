@@ -7,6 +7,10 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.DoubleColumn;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.IntColumn;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.StringColumn;
 import edu.scripps.yates.utilities.sequence.PositionInPeptide;
 import edu.scripps.yates.utilities.sequence.PositionInProtein;
 import gnu.trove.list.array.TDoubleArrayList;
@@ -120,6 +124,31 @@ public class QuantifiedSite {
 		genes = split[indexesByHeaders.get(GENES)];
 	}
 
+	/**
+	 * Create a {@link QuantifiedSite} from a row of a
+	 * {@link PeptideNodeResultsFile}
+	 * 
+	 * @param results
+	 * @param row
+	 * @param sampleName
+	 */
+	public QuantifiedSite(PeptideNodeResultsFile results, int row, String sampleName) {
+		nodeKey = results.getString(StringColumn.NODE_KEY, row);
+		positionInProteinList = PositionInProtein.parseStringToPositionInProtein(nodeKey, "-");
+		sequence = results.getString(StringColumn.SEQUENCE, row);
+		addLog2Ratio(results.getDouble(DoubleColumn.LOG2_RATIO, row), sampleName);
+		ratioStdevs.add(results.getDouble(DoubleColumn.STDEV, row));
+		numPSMs.add(results.getInt(IntColumn.NUM_PSMS, row));
+		numPeptides.add(results.getInt(IntColumn.NUM_PEPTIDES, row));
+		numMeasurements.add(results.getInt(IntColumn.NUM_MEASUREMENTS, row));
+		final String positionsInPeptideString = results.getString(StringColumn.QUANT_POSITIONS_IN_PEPTIDE, row);
+		if (positionsInPeptideString != null) {
+			positionsInPeptide.addAll(PositionInPeptide.parseStringToPositionInPeptide(positionsInPeptideString, "-"));
+		}
+		proteins = results.getString(StringColumn.PROTEINS, row);
+		genes = results.getString(StringColumn.GENES, row);
+	}
+
 	public List<PositionInPeptide> getPositionsInPeptide() {
 		final List<PositionInPeptide> list = new ArrayList<PositionInPeptide>();
 		list.addAll(positionsInPeptide);
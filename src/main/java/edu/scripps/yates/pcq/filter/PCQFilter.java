@@ -1,6 +1,9 @@
 package edu.scripps.yates.pcq.filter;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -14,6 +17,7 @@ import edu.scripps.yates.pcq.model.ProteinCluster;
 import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
 import edu.scripps.yates.pcq.util.DiscardedPeptidesSet;
 import edu.scripps.yates.pcq.util.DiscardedPeptidesSet.DISCARD_REASON;
+import edu.scripps.yates.pcq.util.PCQUtils;
 import gnu.trove.set.hash.THashSet;
 
 public abstract class PCQFilter {
@@ -22,6 +26,63 @@ public abstract class PCQFilter {
 	private static Set<PCQProteinNode> staticDiscardedProteinNodesForStatistics = new THashSet<PCQProteinNode>();
 
 	public void filter(ProteinCluster cluster) {
+		filter(cluster, Collections.singletonList(this));
+	}
+
+	/**
+	 * Applies some filters to a cluster. The peptide nodes are evaluated in a
+	 * single pass, with the {@link PeptideNodePredicate}s of all the filters
+	 * over the {@link PeptideNodeStatistics} of the nodes of the cluster, which
+	 * are computed only once.
+	 *
+	 * @param cluster
+	 * @param filters
+	 */
+	public static void filter(ProteinCluster cluster, List<PCQFilter> filters) {
+		for (final PCQFilter filter : filters) {
+			filter.filterProteinNodes(cluster);
+		}
+		final boolean removeFilteredNodes = ProteinClusterQuantParameters.getInstance().isRemoveFilteredNodes();
+		final PeptideNodeStatistics statistics = new PeptideNodeStatistics(
+				new ArrayList<PCQPeptideNode>(cluster.getPeptideNodes()));
+		final PeptideNodePredicate[] predicates = new PeptideNodePredicate[filters.size()];
+		final boolean[] filterNonQuantifiedNodes = new boolean[filters.size()];
+		final List<Set<PCQPeptideNode>> discardedPeptideNodesByFilter = new ArrayList<Set<PCQPeptideNode>>();
+		for (int i = 0; i < predicates.length; i++) {
+			predicates[i] = filters.get(i).getPeptideNodePredicate();
+			filterNonQuantifiedNodes[i] = filters.get(i).filterNonQuantifiedNodes();
+			discardedPeptideNodesByFilter.add(new THashSet<PCQPeptideNode>());
+		}
+		for (int node = 0; node < statistics.size(); node++) {
+			for (int i = 0; i < predicates.length; i++) {
+				if (!filterNonQuantifiedNodes[i] && !statistics.isQuantified(node)) {
+					continue;
+				}
+				if (!predicates[i].test(statistics, node)) {
+					final PCQPeptideNode pcqPeptideNode = statistics.getPeptideNode(node);
+					pcqPeptideNode.setDiscarded(true);
+					getDiscardedPeptideNodes().add(pcqPeptideNode);
+					if (removeFilteredNodes) {
+						// remove peptide node from cluster
+						cluster.getPeptideNodes().remove(pcqPeptideNode);
+						discardedPeptideNodesByFilter.get(i).add(pcqPeptideNode);
+					}
+					// the first filter not passed discards it
+					break;
+				}
+			}
+		}
+		// this is only populated if params.isRemoveFilteredNodes() is true
+		for (int i = 0; i < predicates.length; i++) {
+			filters.get(i).removePeptideNodes(cluster, discardedPeptideNodesByFilter.get(i));
+		}
+
+		// check if all the individual proteins have psms or not
+		// if so, remove those proteins
+		cluster.removeIndividualProteinsWithNoPSMs();
+	}
+
+	private void filterProteinNodes(ProteinCluster cluster) {
 		final Set<PCQProteinNode> proteinNodes = cluster.getProteinNodes();
 		final Iterator<PCQProteinNode> proteinNodesIterator = proteinNodes.iterator();
 		final Set<PCQProteinNode> discardedProteinNodes = new THashSet<PCQProteinNode>();
@@ -35,7 +96,7 @@ public abstract class PCQFilter {
 			final boolean valid = filter(pcqProteinNode);
 			if (!valid) {
 				pcqProteinNode.setDiscarded(true);
-				staticDiscardedProteinNodesForStatistics.add(pcqProteinNode);
+				getDiscardedProteinNodes().add(pcqProteinNode);
 				if (ProteinClusterQuantParameters.getInstance().isRemoveFilteredNodes()) {
 					proteinNodesIterator.remove();
 					discardedProteinNodes.add(pcqProteinNode);
@@ -50,6 +111,9 @@ public abstract class PCQFilter {
 			for (final QuantifiedProteinInterface protein : individualProteins) {
 				cluster.getProteinSet().remove(protein);
 			}
+			for (final PCQPeptideNode peptideNode : pcqProteinNode.getPeptideNodes()) {
+				PCQUtils.invalidateCaches(peptideNode);
+			}
 			pcqProteinNode.removeProteinsFromPeptidesInNode();
 		}
 
@@ -57,29 +121,18 @@ public abstract class PCQFilter {
 		// log.info(originalSize - cluster.getProteinNodes().size() + " protein
 		// nodes where discarded");
 		// }
-		final Set<PCQPeptideNode> discardedPeptideNodes = new THashSet<PCQPeptideNode>();
-		final Iterator<PCQPeptideNode> peptideNodesIterator = cluster.getPeptideNodes().iterator();
-		// final int originalSize2 = cluster.getPeptideNodes().size();
-		// log.debug("Filtering " + originalSize2 + " peptide nodes");
-		while (peptideNodesIterator.hasNext()) {
-			final PCQPeptideNode pcqPeptideNode = peptideNodesIterator.next();
-			if (!filterNonQuantifiedNodes() && !pcqPeptideNode.isQuantified()) {
-				continue;
-			}
-			final boolean valid = filter(pcqPeptideNode);
-			if (!valid) {
-				pcqPeptideNode.setDiscarded(true);
-				staticDiscardedPeptideNodesForStatistics.add(pcqPeptideNode);
-				if (ProteinClusterQuantParameters.getInstance().isRemoveFilteredNodes()) {
-					// remove peptide node from cluster
-					peptideNodesIterator.remove();
-					discardedPeptideNodes.add(pcqPeptideNode);
-				}
-			}
-		}
+	}
 
-		// this is only populated if params.isRemoveFilteredNodes() is true
+	/**
+	 * Removes the peptide nodes discarded by this filter, their peptides and
+	 * PSMs from the cluster, and the proteins that are left without PSMs
+	 *
+	 * @param cluster
+	 * @param discardedPeptideNodes
+	 */
+	private void removePeptideNodes(ProteinCluster cluster, Set<PCQPeptideNode> discardedPeptideNodes) {
 		for (final PCQPeptideNode peptideNode : discardedPeptideNodes) {
+			PCQUtils.invalidateCaches(peptideNode);
 			// remove individual peptides from cluster
 			final Iterator<QuantifiedPeptideInterface> peptidesFromPeptideNode = peptideNode.getQuantifiedPeptides()
 					.iterator();
@@ -102,26 +155,7 @@ public abstract class PCQFilter {
 						// and remove it from its protein node
 						if (protein.getQuantifiedPSMs().isEmpty()) {
 							cluster.getProteinSet().remove(protein);
-							final Iterator<PCQProteinNode> proteinNodesFromCluster = cluster.getProteinNodes()
-									.iterator();
-							while (proteinNodesFromCluster.hasNext()) {
-								final PCQProteinNode proteinNode = proteinNodesFromCluster.next();
-								// remove protein from protein node
-								proteinNode.getItemsInNode().remove(protein);
-								// remove the link between protein and protein
-								// node in the cluster
-								cluster.getProteinNodesByProteinKey().remove(protein.getKey());
-								// remove peptide node from protein node
-								proteinNode.getPeptideNodes().remove(peptideNode);
-								// remove protein node from peptide node
-								peptideNode.getProteinNodes().remove(proteinNode);
-								// if protein node has no proteins, remove it
-								// from cluster
-								if (proteinNode.getItemsInNode().isEmpty()) {
-									proteinNodesFromCluster.remove();
-								}
-							}
-
+							removeProteinFromProteinNodes(cluster, protein, peptideNode);
 						}
 					}
 					// remove psm from its peptide
@@ -157,10 +191,53 @@ public abstract class PCQFilter {
 			// pcqPeptideNode.removePeptidesFromProteinsInNode();
 			// }
 		}
+	}
 
-		// check if all the individual proteins have psms or not
-		// if so, remove those proteins
-		cluster.removeIndividualProteinsWithNoPSMs();
+	/**
+	 * Removes a protein with no PSMs from its protein node, removing the protein
+	 * node from the cluster if it has no more proteins, and unlinks the peptide
+	 * node being removed from its protein nodes.<br>
+	 * The protein node of the protein is found with the index of protein nodes
+	 * by protein key of the cluster, and the protein nodes of the peptide node
+	 * with its links, instead of iterating over all the protein nodes of the
+	 * cluster.
+	 *
+	 * @param cluster
+	 * @param protein
+	 * @param peptideNode
+	 */
+	private void removeProteinFromProteinNodes(ProteinCluster cluster, QuantifiedProteinInterface protein,
+			PCQPeptideNode peptideNode) {
+		// remove the link between protein and protein node in the cluster
+		final PCQProteinNode indexedProteinNode = cluster.getProteinNodesByProteinKey().remove(protein.getKey());
+		if (indexedProteinNode != null && indexedProteinNode.getItemsInNode().contains(protein)) {
+			removeProteinFromProteinNode(cluster, protein, indexedProteinNode);
+		} else {
+			// not indexed
+			for (final PCQProteinNode proteinNode : new ArrayList<PCQProteinNode>(cluster.getProteinNodes())) {
+				removeProteinFromProteinNode(cluster, protein, proteinNode);
+			}
+		}
+		for (final PCQProteinNode proteinNode : new ArrayList<PCQProteinNode>(peptideNode.getProteinNodes())) {
+			// remove peptide node from protein node
+			proteinNode.getPeptideNodes().remove(peptideNode);
+			// remove protein node from peptide node
+			peptideNode.getProteinNodes().remove(proteinNode);
+		}
+	}
+
+	private void removeProteinFromProteinNode(ProteinCluster cluster, QuantifiedProteinInterface protein,
+			PCQProteinNode proteinNode) {
+		// remove protein from protein node
+		if (proteinNode.getItemsInNode().remove(protein)) {
+			for (final PCQPeptideNode peptideNode : proteinNode.getPeptideNodes()) {
+				PCQUtils.invalidateCaches(peptideNode);
+			}
+		}
+		// if protein node has no proteins, remove it from cluster
+		if (proteinNode.getItemsInNode().isEmpty()) {
+			cluster.getProteinNodes().remove(proteinNode);
+		}
 	}
 
 	/**
@@ -188,6 +265,17 @@ public abstract class PCQFilter {
 	 */
 	protected abstract boolean filter(PCQPeptideNode peptideNode);
 
+	/**
+	 * Gets the condition that the peptide nodes have to meet to pass the
+	 * filter, evaluated over their {@link PeptideNodeStatistics}. By default,
+	 * it calls to {@link #filter(PCQPeptideNode)}
+	 *
+	 * @return
+	 */
+	protected PeptideNodePredicate getPeptideNodePredicate() {
+		return (statistics, node) -> filter(statistics.getPeptideNode(node));
+	}
+
 	/**
 	 * Get discardedPeptideNodes (for statistics)
 	 *
@@ -26,6 +26,11 @@ public class PCQFilterByIonCount extends PCQFilter {
 		return false;
 	}
 
+	@Override
+	protected PeptideNodePredicate getPeptideNodePredicate() {
+		return (statistics, node) -> statistics.getIonCount(node) >= minIonCountPerNode;
+	}
+
 	@Override
 	protected boolean filterNonQuantifiedNodes() {
 		return false;
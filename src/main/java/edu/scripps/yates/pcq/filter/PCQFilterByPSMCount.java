@@ -29,6 +29,11 @@ public class PCQFilterByPSMCount extends PCQFilter {
 		return false;
 	}
 
+	@Override
+	protected PeptideNodePredicate getPeptideNodePredicate() {
+		return (statistics, node) -> statistics.getPSMCount(node) >= minPSMCountPerNode;
+	}
+
 	@Override
 	protected boolean filterNonQuantifiedNodes() {
 		return false;
@@ -31,6 +31,11 @@ public class PCQFilterByReplicateCount extends PCQFilter {
 		return false;
 	}
 
+	@Override
+	protected PeptideNodePredicate getPeptideNodePredicate() {
+		return (statistics, node) -> statistics.getReplicateCount(node) >= minReplicatesPerNode;
+	}
+
 	@Override
 	protected boolean filterNonQuantifiedNodes() {
 		return false;
@@ -0,0 +1,19 @@
+package edu.scripps.yates.pcq.filter;
+
+/**
+ * Condition that a peptide node has to meet to pass a {@link PCQFilter},
+ * evaluated over the {@link PeptideNodeStatistics} of the node
+ *
+ * @author salvador
+ *
+ */
+@FunctionalInterface
+public interface PeptideNodePredicate {
+	/**
+	 *
+	 * @param statistics
+	 * @param node       the index of the node in the statistics
+	 * @return true if the node passes the filter
+	 */
+	boolean test(PeptideNodeStatistics statistics, int node);
+}
@@ -0,0 +1,106 @@
+package edu.scripps.yates.pcq.filter;
+
+import java.util.List;
+import java.util.Set;
+
+import edu.scripps.yates.census.read.model.interfaces.QuantifiedPSMInterface;
+import edu.scripps.yates.census.read.util.QuantUtils;
+import edu.scripps.yates.census.read.util.QuantificationLabel;
+import edu.scripps.yates.pcq.model.PCQPeptideNode;
+
+/**
+ * Table of the statistics used by the {@link PCQFilter}s of some peptide nodes,
+ * computed once from the PSMs of the nodes and stored by columns, so that the
+ * filters can be evaluated over primitive arrays.
+ *
+ * @author salvador
+ *
+ */
+public class PeptideNodeStatistics {
+	private static final QuantificationLabel[] LABELS = QuantificationLabel.values();
+	private final List<PCQPeptideNode> peptideNodes;
+	private final int[] psmCounts;
+	private final int[] ionCounts;
+	// by label and node
+	private final int[][] ionCountsByLabel;
+	private final int[] replicateCounts;
+	private final boolean[] quantified;
+	private final boolean[] discarded;
+
+	public PeptideNodeStatistics(List<PCQPeptideNode> peptideNodes) {
+		this.peptideNodes = peptideNodes;
+		final int size = peptideNodes.size();
+		psmCounts = new int[size];
+		ionCounts = new int[size];
+		ionCountsByLabel = new int[LABELS.length][size];
+		replicateCounts = new int[size];
+		quantified = new boolean[size];
+		discarded = new boolean[size];
+		for (int node = 0; node < size; node++) {
+			final PCQPeptideNode peptideNode = peptideNodes.get(node);
+			final Set<QuantifiedPSMInterface> psms = peptideNode.getQuantifiedPSMs();
+			psmCounts[node] = psms.size();
+			for (final QuantifiedPSMInterface psm : psms) {
+				for (int label = 0; label < LABELS.length; label++) {
+					final int ionCount = QuantUtils.getIonCount(psm, LABELS[label]);
+					ionCountsByLabel[label][node] += ionCount;
+					ionCounts[node] += ionCount;
+				}
+			}
+			replicateCounts[node] = peptideNode.getFileNames().size();
+			quantified[node] = peptideNode.isQuantified();
+			discarded[node] = peptideNode.isDiscarded();
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of peptide nodes in the table
+	 */
+	public int size() {
+		return psmCounts.length;
+	}
+
+	public PCQPeptideNode getPeptideNode(int node) {
+		return peptideNodes.get(node);
+	}
+
+	public int getPSMCount(int node) {
+		return psmCounts[node];
+	}
+
+	/**
+	 *
+	 * @param node
+	 * @return the number of ions of all the labels
+	 */
+	public int getIonCount(int node) {
+		return ionCounts[node];
+	}
+
+	public int getIonCount(int node, QuantificationLabel label) {
+		return ionCountsByLabel[label.ordinal()][node];
+	}
+
+	/**
+	 *
+	 * @param node
+	 * @return the number of input files in which the node is found
+	 */
+	public int getReplicateCount(int node) {
+		return replicateCounts[node];
+	}
+
+	public boolean isQuantified(int node) {
+		return quantified[node];
+	}
+
+	/**
+	 *
+	 * @param node
+	 * @return whether the node was discarded when the table was created
+	 */
+	public boolean isDiscarded(int node) {
+		return discarded[node];
+	}
+}
@@ -1,6 +1,7 @@
 package edu.scripps.yates.pcq.model;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -9,41 +10,59 @@ import edu.scripps.yates.census.analysis.QuantCondition;
 import edu.scripps.yates.census.read.model.CensusRatio;
 import edu.scripps.yates.census.read.model.QuantifiedPSM;
 import edu.scripps.yates.census.read.model.interfaces.QuantRatio;
+import edu.scripps.yates.pcq.util.IdentificationSnapshot.PSMRecord;
 import edu.scripps.yates.utilities.proteomicsmodel.Amount;
-import edu.scripps.yates.utilities.proteomicsmodel.PSM;
 import edu.scripps.yates.utilities.proteomicsmodel.enums.AggregationLevel;
 import edu.scripps.yates.utilities.sequence.PTMInPeptide;
 
+/**
+ * A {@link QuantifiedPSM} without ratios, with the values of an identified PSM
+ * of a {@link PSMRecord}, that may be shared with other runs
+ *
+ * @author salvador
+ *
+ */
 public class NonQuantifiedPSM extends QuantifiedPSM {
-	private final PSM psm;
-
-	public NonQuantifiedPSM(PSM psm, boolean distinguishModifiedSequence, boolean chargeStateSensible)
+	private final Float calcMH;
+	private final Float experimentalMH;
+	private final boolean containsPTMs;
+	private final List<PTMInPeptide> ptmsInPeptide;
+	private final Float deltaCn;
+	private final Float xCorr;
+
+	public NonQuantifiedPSM(PSMRecord psm, boolean distinguishModifiedSequence, boolean chargeStateSensible)
 			throws NumberFormatException, IOException {
-		super(psm.getFullSequence(), null, null, Integer.valueOf(psm.getScanNumber()), psm.getChargeState(),
-				psm.getMSRun().getRunId(), false, distinguishModifiedSequence, chargeStateSensible);
-		this.psm = psm;
+		super(psm.getFullSequence(), null, null, psm.getScanNumber(), psm.getChargeState(), psm.getRunId(), false,
+				distinguishModifiedSequence, chargeStateSensible);
+		calcMH = psm.getCalcMH();
+		experimentalMH = psm.getExperimentalMH();
+		containsPTMs = psm.containsPTMs();
+		final List<PTMInPeptide> ptmsInPeptide = psm.getPTMsInPeptide();
+		this.ptmsInPeptide = ptmsInPeptide != null ? new ArrayList<PTMInPeptide>(ptmsInPeptide) : null;
+		deltaCn = psm.getDeltaCn();
+		xCorr = psm.getXCorr();
 	}
 
 	@Override
 	public Float getCalcMH() {
 
-		return psm.getCalcMH();
+		return calcMH;
 	}
 
 	@Override
 	public Float getExperimentalMH() {
 
-		return psm.getExperimentalMH();
+		return experimentalMH;
 	}
 
 	@Override
 	public boolean containsPTMs() {
-		return psm.containsPTMs();
+		return containsPTMs;
 	}
 
 	@Override
 	public List<PTMInPeptide> getPTMsInPeptide() {
-		return psm.getPTMsInPeptide();
+		return ptmsInPeptide;
 	}
 
 	@Override
@@ -94,12 +113,12 @@ public class NonQuantifiedPSM extends QuantifiedPSM {
 
 	@Override
 	public Float getDeltaCn() {
-		return psm.getDeltaCn();
+		return deltaCn;
 	}
 
 	@Override
 	public Float getXCorr() {
-		return psm.getXCorr();
+		return xCorr;
 	}
 
 	@Override
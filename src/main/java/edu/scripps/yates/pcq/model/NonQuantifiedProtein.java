@@ -13,13 +13,18 @@ import edu.scripps.yates.utilities.proteomicsmodel.Protein;
 import edu.scripps.yates.utilities.proteomicsmodel.Ratio;
 import edu.scripps.yates.utilities.proteomicsmodel.enums.AggregationLevel;
 
+/**
+ * A {@link QuantifiedProtein} without ratios, with the values of an identified
+ * {@link Protein}, that is not kept, since it may be shared with other runs
+ *
+ * @author salvador
+ *
+ */
 public class NonQuantifiedProtein extends QuantifiedProtein {
-	private final Protein protein;
 
 	public NonQuantifiedProtein(Protein protein, boolean ignoreTaxonomies) {
 		super(protein.getAccession(), ignoreTaxonomies);
 		mergeWithProtein(protein);
-		this.protein = protein;
 	}
 
 	@Override
@@ -76,22 +81,6 @@ public class NonQuantifiedProtein extends QuantifiedProtein {
 
 	}
 
-	@Override
-	public String getDescription() {
-		if (super.getDescription() == null) {
-			setDescription(protein.getDescription());
-		}
-		return super.getDescription();
-	}
-
-	@Override
-	public Integer getLength() {
-		if (super.getLength() == null) {
-			setLength(protein.getLength());
-		}
-		return super.getLength();
-	}
-
 	/*
 	 * (non-Javadoc)
 	 * 
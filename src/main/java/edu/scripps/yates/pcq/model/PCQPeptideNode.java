@@ -53,7 +53,8 @@ public class PCQPeptideNode extends AbstractNode<QuantifiedPeptideInterface> {
 
 	private final Map<QuantifiedPeptideInterface, List<PositionInPeptide>> positionInPeptideByPeptide = new THashMap<QuantifiedPeptideInterface, List<PositionInPeptide>>();
 
-	private Set<QuantifiedPSMInterface> quantPSMs;
+	// built once and read by the threads writing the output tables
+	private volatile Set<QuantifiedPSMInterface> quantPSMs;
 
 	public PCQPeptideNode(ProteinCluster proteinCluster, Collection<QuantifiedPeptideInterface> peptideCollection) {
 		peptideSet.addAll(peptideCollection);
@@ -209,13 +210,16 @@ public class PCQPeptideNode extends AbstractNode<QuantifiedPeptideInterface> {
 
 	@Override
 	public Set<QuantifiedPSMInterface> getQuantifiedPSMs() {
-		if (quantPSMs == null) {
-			quantPSMs = new THashSet<QuantifiedPSMInterface>();
+		Set<QuantifiedPSMInterface> ret = quantPSMs;
+		if (ret == null) {
+			// filled before being published
+			ret = new THashSet<QuantifiedPSMInterface>();
 			for (final QuantifiedPeptideInterface peptide : getQuantifiedPeptides()) {
-				quantPSMs.addAll(peptide.getQuantifiedPSMs());
+				ret.addAll(peptide.getQuantifiedPSMs());
 			}
+			quantPSMs = ret;
 		}
-		return quantPSMs;
+		return ret;
 	}
 
 	@Override
@@ -14,8 +14,7 @@ import edu.scripps.yates.census.read.model.interfaces.QuantifiedProteinInterface
 import edu.scripps.yates.census.read.util.QuantUtils;
 import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
 import edu.scripps.yates.pcq.util.PCQUtils;
-import edu.scripps.yates.utilities.annotations.uniprot.UniprotEntryUtil;
-import edu.scripps.yates.utilities.annotations.uniprot.xml.Entry;
+import edu.scripps.yates.pcq.util.ProteinAnnotation;
 import gnu.trove.set.hash.THashSet;
 
 /**
@@ -92,18 +91,18 @@ public class PCQProteinNode extends AbstractNode<QuantifiedProteinInterface> {
 	 * 
 	 * @param annotatedProteins
 	 */
-	public void annotateProteins(Map<String, Entry> annotatedProteins) {
+	public void annotateProteins(Map<String, ProteinAnnotation> annotatedProteins) {
 		for (final QuantifiedProteinInterface protein : proteinSet) {
 			if (annotatedProteins.containsKey(protein.getAccession())) {
 
-				final Entry entry = annotatedProteins.get(protein.getAccession());
+				final ProteinAnnotation annotation = annotatedProteins.get(protein.getAccession());
 				// if (protein.getDescription() == null ||
 				// "".equals(protein.getDescription())) {
-				protein.setDescription(UniprotEntryUtil.getProteinDescription(entry));
+				protein.setDescription(annotation.getDescription());
 				// }
 				// if (protein.getTaxonomies() == null ||
 				// protein.getTaxonomies().isEmpty()) {
-				protein.addTaxonomy(UniprotEntryUtil.getTaxonomyName(entry));
+				protein.addTaxonomy(annotation.getTaxonomy());
 				// }
 
 			}
@@ -0,0 +1,21 @@
+package edu.scripps.yates.pcq.model;
+
+import gnu.trove.list.array.TDoubleArrayList;
+
+/**
+ * The log2 ratio values used by {@link ProteinPair#proteinPairAnalysis}, kept
+ * in primitive lists that are reused from one {@link ProteinPair} to the next
+ * one by the same thread.
+ *
+ * @author salvador
+ *
+ */
+class PairClassificationBuffers {
+	// ratios of unique to 1, shared and unique to 2 peptide nodes
+	final double[] threeCombined = new double[3];
+	final TDoubleArrayList pepRatProt1 = new TDoubleArrayList();
+	final TDoubleArrayList pepRatShared = new TDoubleArrayList();
+	final TDoubleArrayList pepRatProt2 = new TDoubleArrayList();
+	// population of the outlier tests
+	final TDoubleArrayList population = new TDoubleArrayList();
+}
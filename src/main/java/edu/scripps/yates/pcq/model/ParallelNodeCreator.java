@@ -0,0 +1,103 @@
+package edu.scripps.yates.pcq.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
+import edu.scripps.yates.pcq.util.DiscardedPeptidesSet;
+import edu.scripps.yates.pcq.util.ProteinAnnotation;
+
+/**
+ * Calls to {@link ProteinCluster#createNodes(Map)} for a collection of
+ * clusters in a {@link ForkJoinPool} of
+ * {@link ProteinClusterQuantParameters#getNumThreads()} threads.<br>
+ * The peptides discarded while creating the nodes of each cluster are buffered
+ * and added to the {@link DiscardedPeptidesSet} in the order of the clusters in
+ * the collection, so that the result is the same than the one of a single
+ * threaded run.
+ *
+ * @author salvador
+ *
+ */
+public class ParallelNodeCreator {
+	private final static Logger log = Logger.getLogger(ParallelNodeCreator.class);
+	private final ProteinClusterQuantParameters params;
+
+	public ParallelNodeCreator(ProteinClusterQuantParameters params) {
+		this.params = params;
+	}
+
+	public void createNodes(Collection<ProteinCluster> clusters, Map<String, ProteinAnnotation> annotatedProteins)
+			throws IOException {
+		final int numThreads = getNumThreads();
+		if (numThreads <= 1 || clusters.size() <= 1) {
+			for (final ProteinCluster proteinCluster : clusters) {
+				proteinCluster.createNodes(annotatedProteins);
+			}
+			return;
+		}
+		log.info("Creating nodes of " + clusters.size() + " clusters using " + numThreads + " threads");
+		final ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			final List<Future<DiscardedPeptidesSet>> futures = new ArrayList<Future<DiscardedPeptidesSet>>();
+			for (final ProteinCluster proteinCluster : clusters) {
+				futures.add(pool.submit(() -> {
+					final DiscardedPeptidesSet buffer = DiscardedPeptidesSet.startBuffering();
+					try {
+						proteinCluster.createNodes(annotatedProteins);
+					} catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					} finally {
+						DiscardedPeptidesSet.stopBuffering();
+					}
+					return buffer;
+				}));
+			}
+			// keep the order of the clusters
+			for (final Future<DiscardedPeptidesSet> future : futures) {
+				DiscardedPeptidesSet.addBuffer(future.get());
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while creating the nodes of the clusters", e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Error while creating the nodes of the clusters", cause);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * The nodes collapsed by sites or by PTMs are created mapping the peptides
+	 * to the protein sequences using the UniprotKB retriever and the protein
+	 * sequences map, that are not thread safe, so in that case a single thread
+	 * is used.
+	 *
+	 * @return
+	 */
+	private int getNumThreads() {
+		if (params.isCollapseBySites() || params.isCollapseByPTMs()) {
+			if (params.getNumThreads() > 1) {
+				log.info("Nodes collapsed by sites or PTMs are created using a single thread");
+			}
+			return 1;
+		}
+		return params.getNumThreads();
+	}
+}
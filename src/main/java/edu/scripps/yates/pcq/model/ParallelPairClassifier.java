@@ -0,0 +1,140 @@
+package edu.scripps.yates.pcq.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import edu.scripps.yates.census.analysis.QuantCondition;
+import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
+import edu.scripps.yates.pcq.xgmml.util.AlignmentSet;
+
+/**
+ * Creates the {@link ProteinPair}s of a collection of clusters and performs
+ * their {@link ProteinPair#proteinPairAnalysis(QuantCondition, QuantCondition)}
+ * in a {@link ForkJoinPool} of
+ * {@link ProteinClusterQuantParameters#getNumThreads()} threads.<br>
+ * Each cluster is processed by a single thread and the pairs of a cluster only
+ * depend on the nodes of the cluster, so the result is the same regardless of
+ * the number of threads. Each thread reuses the same
+ * {@link PairClassificationBuffers} for all the pairs it classifies.
+ *
+ * @author salvador
+ *
+ */
+public class ParallelPairClassifier {
+	private final static Logger log = Logger.getLogger(ParallelPairClassifier.class);
+	private final ProteinClusterQuantParameters params;
+	private final ThreadLocal<PairClassificationBuffers> buffers = ThreadLocal
+			.withInitial(PairClassificationBuffers::new);
+
+	@FunctionalInterface
+	private interface ClusterTask {
+		/**
+		 *
+		 * @param cluster
+		 * @return the number of protein pairs processed
+		 * @throws IOException
+		 */
+		int run(ProteinCluster cluster) throws IOException;
+	}
+
+	public ParallelPairClassifier(ProteinClusterQuantParameters params) {
+		this.params = params;
+	}
+
+	/**
+	 * Calls to {@link ProteinCluster#createPairs(AlignmentSet)} for all the
+	 * clusters
+	 *
+	 * @param clusters
+	 * @param peptideAlignments
+	 * @return the number of protein pairs created, not counting the ones with
+	 *         discarded protein nodes
+	 * @throws IOException
+	 */
+	public int createPairs(Collection<ProteinCluster> clusters, AlignmentSet peptideAlignments) throws IOException {
+		log.info("Identifying protein pairs in " + clusters.size() + " clusters...");
+		return run(clusters, "identified", cluster -> {
+			cluster.createPairs(peptideAlignments);
+			return cluster.getProteinPairs().size();
+		});
+	}
+
+	/**
+	 * Performs the
+	 * {@link ProteinPair#proteinPairAnalysis(QuantCondition, QuantCondition)} of
+	 * the protein pairs of all the clusters, not including the ones with
+	 * discarded protein nodes
+	 *
+	 * @param clusters
+	 * @param cond1
+	 * @param cond2
+	 * @return the number of protein pairs classified
+	 * @throws IOException
+	 */
+	public int classifyPairs(Collection<ProteinCluster> clusters, QuantCondition cond1, QuantCondition cond2)
+			throws IOException {
+		log.info("Classifying protein pairs of " + clusters.size() + " clusters...");
+		return run(clusters, "classified", cluster -> {
+			final PairClassificationBuffers threadBuffers = buffers.get();
+			for (final ProteinPair proteinPair : cluster.getProteinPairs()) {
+				proteinPair.proteinPairAnalysis(cond1, cond2, threadBuffers);
+			}
+			return cluster.getProteinPairs().size();
+		});
+	}
+
+	private int run(Collection<ProteinCluster> clusters, String action, ClusterTask task) throws IOException {
+		final long t1 = System.currentTimeMillis();
+		int numPairs = 0;
+		final int numThreads = params.getNumThreads();
+		if (numThreads <= 1 || clusters.size() <= 1) {
+			for (final ProteinCluster cluster : clusters) {
+				numPairs += task.run(cluster);
+			}
+		} else {
+			final ForkJoinPool pool = new ForkJoinPool(numThreads);
+			try {
+				final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+				for (final ProteinCluster cluster : clusters) {
+					futures.add(pool.submit(() -> {
+						try {
+							return task.run(cluster);
+						} catch (final IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}));
+				}
+				for (final Future<Integer> future : futures) {
+					numPairs += future.get();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while processing the protein pairs", e);
+			} catch (final ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) cause).getCause();
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new IOException("Error while processing the protein pairs", cause);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		final long time = System.currentTimeMillis() - t1;
+		final double pairsPerSecond = time > 0 ? numPairs * 1000.0 / time : numPairs;
+		log.info(numPairs + " protein pairs " + action + " in " + time + " ms using " + Math.max(1, numThreads)
+				+ " threads (" + String.format("%.1f", pairsPerSecond) + " pairs/s)");
+		return numPairs;
+	}
+}
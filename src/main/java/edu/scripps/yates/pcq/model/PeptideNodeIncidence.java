@@ -0,0 +1,262 @@
+package edu.scripps.yates.pcq.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.scripps.yates.pcq.util.PCQUtils;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.THashSet;
+
+/**
+ * Incidence matrix between the {@link PCQProteinNode}s and the
+ * {@link PCQPeptideNode}s of a {@link ProteinCluster}, stored as a bitset of
+ * peptide nodes per protein node and a bitset of protein nodes per peptide
+ * node, so that the shared and unique peptide nodes of a pair of protein nodes
+ * are computed with bitwise operations.<br>
+ * It is a snapshot of the cluster when it is created, including which nodes are
+ * discarded, so it has to be created again if the cluster changes.
+ *
+ * @author salvador
+ *
+ */
+public class PeptideNodeIncidence {
+	private final List<PCQProteinNode> proteinNodes = new ArrayList<PCQProteinNode>();
+	private final List<PCQPeptideNode> peptideNodes = new ArrayList<PCQPeptideNode>();
+	private final TObjectIntHashMap<PCQProteinNode> indexesByProteinNode = new TObjectIntHashMap<PCQProteinNode>(10,
+			0.5f, -1);
+	private final TObjectIntHashMap<PCQPeptideNode> indexesByPeptideNode = new TObjectIntHashMap<PCQPeptideNode>(10,
+			0.5f, -1);
+	// peptide nodes by protein node
+	private final BitSet[] peptideNodesByProteinNode;
+	// protein nodes by peptide node
+	private final BitSet[] proteinNodesByPeptideNode;
+	private final BitSet discardedPeptideNodes = new BitSet();
+	private final BitSet discardedProteinNodes = new BitSet();
+	// peptide nodes with only one protein node
+	private final BitSet uniquePeptideNodes = new BitSet();
+	// lazily created keys of the protein nodes of each peptide node
+	private final String[] proteinNodeAccessionStrings;
+
+	public PeptideNodeIncidence(Collection<PCQProteinNode> proteinNodes) {
+		for (final PCQProteinNode proteinNode : proteinNodes) {
+			indexesByProteinNode.put(proteinNode, this.proteinNodes.size());
+			this.proteinNodes.add(proteinNode);
+			for (final PCQPeptideNode peptideNode : proteinNode.getPeptideNodes()) {
+				if (!indexesByPeptideNode.containsKey(peptideNode)) {
+					indexesByPeptideNode.put(peptideNode, peptideNodes.size());
+					peptideNodes.add(peptideNode);
+				}
+			}
+		}
+		peptideNodesByProteinNode = new BitSet[this.proteinNodes.size()];
+		for (int proteinIndex = 0; proteinIndex < this.proteinNodes.size(); proteinIndex++) {
+			final PCQProteinNode proteinNode = this.proteinNodes.get(proteinIndex);
+			final BitSet bits = new BitSet(peptideNodes.size());
+			for (final PCQPeptideNode peptideNode : proteinNode.getPeptideNodes()) {
+				bits.set(indexesByPeptideNode.get(peptideNode));
+			}
+			peptideNodesByProteinNode[proteinIndex] = bits;
+			if (proteinNode.isDiscarded()) {
+				discardedProteinNodes.set(proteinIndex);
+			}
+		}
+		proteinNodesByPeptideNode = new BitSet[peptideNodes.size()];
+		for (int peptideIndex = 0; peptideIndex < peptideNodes.size(); peptideIndex++) {
+			final PCQPeptideNode peptideNode = peptideNodes.get(peptideIndex);
+			final BitSet bits = new BitSet(this.proteinNodes.size());
+			for (final PCQProteinNode proteinNode : peptideNode.getProteinNodes()) {
+				final int proteinIndex = indexesByProteinNode.get(proteinNode);
+				if (proteinIndex >= 0) {
+					bits.set(proteinIndex);
+				}
+			}
+			proteinNodesByPeptideNode[peptideIndex] = bits;
+			if (peptideNode.isDiscarded()) {
+				discardedPeptideNodes.set(peptideIndex);
+			}
+			if (peptideNode.getProteinNodes().size() == 1) {
+				uniquePeptideNodes.set(peptideIndex);
+			}
+		}
+		proteinNodeAccessionStrings = new String[peptideNodes.size()];
+	}
+
+	public int getNumProteinNodes() {
+		return proteinNodes.size();
+	}
+
+	public PCQProteinNode getProteinNode(int proteinIndex) {
+		return proteinNodes.get(proteinIndex);
+	}
+
+	/**
+	 *
+	 * @param proteinIndex
+	 * @return the indexes of the protein nodes that share at least one peptide
+	 *         node with the protein node, including itself
+	 */
+	public BitSet getCoOccurringProteinNodes(int proteinIndex) {
+		final BitSet ret = new BitSet(proteinNodes.size());
+		final BitSet peptideBits = peptideNodesByProteinNode[proteinIndex];
+		for (int peptideIndex = peptideBits.nextSetBit(0); peptideIndex >= 0; peptideIndex = peptideBits
+				.nextSetBit(peptideIndex + 1)) {
+			ret.or(proteinNodesByPeptideNode[peptideIndex]);
+		}
+		return ret;
+	}
+
+	/**
+	 * Same as
+	 * {@link PCQUtils#getUniquePeptideNodes(PCQProteinNode, PCQProteinNode, boolean, boolean)}
+	 *
+	 * @param proteinNode1
+	 * @param proteinNode2
+	 * @param uniquePepOnly
+	 * @param skipDiscarded
+	 * @return
+	 */
+	public Set<PCQPeptideNode> getUniquePeptideNodes(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean uniquePepOnly, boolean skipDiscarded) {
+		return getPeptideNodes(getUniquePeptideNodeBits(proteinNode1, proteinNode2, uniquePepOnly, skipDiscarded));
+	}
+
+	public boolean hasUniquePeptideNodes(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean uniquePepOnly, boolean skipDiscarded) {
+		return !getUniquePeptideNodeBits(proteinNode1, proteinNode2, uniquePepOnly, skipDiscarded).isEmpty();
+	}
+
+	private BitSet getUniquePeptideNodeBits(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean uniquePepOnly, boolean skipDiscarded) {
+		final BitSet bits = (BitSet) getPeptideNodeBits(proteinNode1).clone();
+		if (skipDiscarded) {
+			bits.andNot(discardedPeptideNodes);
+		}
+		if (uniquePepOnly) {
+			bits.and(uniquePeptideNodes);
+		} else {
+			bits.andNot(getPeptideNodeBits(proteinNode2));
+		}
+		return bits;
+	}
+
+	private BitSet getSharedPeptideNodeBits(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean onlySharedByTheseTwoProteins, boolean skipDiscarded) {
+		final BitSet bits = (BitSet) getPeptideNodeBits(proteinNode1).clone();
+		bits.and(getPeptideNodeBits(proteinNode2));
+		if (skipDiscarded) {
+			bits.andNot(discardedPeptideNodes);
+		}
+		if (onlySharedByTheseTwoProteins) {
+			for (int peptideIndex = bits.nextSetBit(0); peptideIndex >= 0; peptideIndex = bits
+					.nextSetBit(peptideIndex + 1)) {
+				if (peptideNodes.get(peptideIndex).getProteinNodes().size() != 2) {
+					bits.clear(peptideIndex);
+				}
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Same as
+	 * {@link PCQUtils#getSharedPeptideNodeSet(PCQProteinNode, PCQProteinNode, boolean, boolean)}
+	 *
+	 * @param proteinNode1
+	 * @param proteinNode2
+	 * @param onlySharedByTheseTwoProteins
+	 * @param skipDiscarded
+	 * @return
+	 */
+	public Set<PCQPeptideNode> getSharedPeptideNodeSet(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean onlySharedByTheseTwoProteins, boolean skipDiscarded) {
+		return getPeptideNodes(
+				getSharedPeptideNodeBits(proteinNode1, proteinNode2, onlySharedByTheseTwoProteins, skipDiscarded));
+	}
+
+	/**
+	 * Same as
+	 * {@link PCQUtils#getSharedPeptideNodesMap(PCQProteinNode, PCQProteinNode, boolean, boolean)}
+	 *
+	 * @param proteinNode1
+	 * @param proteinNode2
+	 * @param onlySharedByTheseTwoProteins
+	 * @param skipDiscarded
+	 * @return
+	 */
+	public Map<String, Set<PCQPeptideNode>> getSharedPeptideNodesMap(PCQProteinNode proteinNode1,
+			PCQProteinNode proteinNode2, boolean onlySharedByTheseTwoProteins, boolean skipDiscarded) {
+		final Map<String, Set<PCQPeptideNode>> map = new THashMap<String, Set<PCQPeptideNode>>();
+		if (proteinNode1 == null || proteinNode2 == null) {
+			return map;
+		}
+		final BitSet bits = getSharedPeptideNodeBits(proteinNode1, proteinNode2, onlySharedByTheseTwoProteins,
+				skipDiscarded);
+		for (int peptideIndex = bits.nextSetBit(0); peptideIndex >= 0; peptideIndex = bits
+				.nextSetBit(peptideIndex + 1)) {
+			final String proteinAccKey = getProteinNodeAccessionString(peptideIndex);
+			if (map.containsKey(proteinAccKey)) {
+				map.get(proteinAccKey).add(peptideNodes.get(peptideIndex));
+			} else {
+				final Set<PCQPeptideNode> set = new THashSet<PCQPeptideNode>();
+				set.add(peptideNodes.get(peptideIndex));
+				map.put(proteinAccKey, set);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Same as
+	 * {@link PCQUtils#getNumSharedPeptideNodesByProteinNode(PCQProteinNode, PCQProteinNode, boolean, boolean)}
+	 *
+	 * @param proteinNode1
+	 * @param proteinNode2
+	 * @param onlySharedByTheseTwoProteins
+	 * @param skipDiscarded
+	 * @return
+	 */
+	public int getNumSharedPeptideNodesByProteinNode(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean onlySharedByTheseTwoProteins, boolean skipDiscarded) {
+		final BitSet bits = getSharedPeptideNodeBits(proteinNode1, proteinNode2, onlySharedByTheseTwoProteins,
+				skipDiscarded);
+		final BitSet proteinBits = new BitSet(proteinNodes.size());
+		for (int peptideIndex = bits.nextSetBit(0); peptideIndex >= 0; peptideIndex = bits
+				.nextSetBit(peptideIndex + 1)) {
+			proteinBits.or(proteinNodesByPeptideNode[peptideIndex]);
+		}
+		if (skipDiscarded) {
+			proteinBits.andNot(discardedProteinNodes);
+		}
+		return proteinBits.cardinality();
+	}
+
+	private BitSet getPeptideNodeBits(PCQProteinNode proteinNode) {
+		final int proteinIndex = indexesByProteinNode.get(proteinNode);
+		if (proteinIndex < 0) {
+			throw new IllegalArgumentException(proteinNode.getKey() + " is not in the incidence matrix");
+		}
+		return peptideNodesByProteinNode[proteinIndex];
+	}
+
+	private Set<PCQPeptideNode> getPeptideNodes(BitSet bits) {
+		final Set<PCQPeptideNode> ret = new THashSet<PCQPeptideNode>();
+		for (int peptideIndex = bits.nextSetBit(0); peptideIndex >= 0; peptideIndex = bits
+				.nextSetBit(peptideIndex + 1)) {
+			ret.add(peptideNodes.get(peptideIndex));
+		}
+		return ret;
+	}
+
+	private String getProteinNodeAccessionString(int peptideIndex) {
+		if (proteinNodeAccessionStrings[peptideIndex] == null) {
+			proteinNodeAccessionStrings[peptideIndex] = PCQUtils
+					.getProteinNodeAccessionString(peptideNodes.get(peptideIndex).getProteinNodes());
+		}
+		return proteinNodeAccessionStrings[peptideIndex];
+	}
+}
@@ -2,6 +2,7 @@ package edu.scripps.yates.pcq.model;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -20,21 +21,24 @@ import edu.scripps.yates.census.read.model.interfaces.QuantifiedProteinInterface
 import edu.scripps.yates.census.read.util.QuantUtils;
 import edu.scripps.yates.pcq.filter.PCQFilter;
 import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
+import edu.scripps.yates.pcq.util.DisjointSet;
 import edu.scripps.yates.pcq.util.DiscardedPeptidesSet;
 import edu.scripps.yates.pcq.util.DiscardedPeptidesSet.DISCARD_REASON;
 import edu.scripps.yates.pcq.util.PCQUtils;
+import edu.scripps.yates.pcq.util.ProteinAnnotation;
 import edu.scripps.yates.pcq.xgmml.util.AlignedPeptides;
 import edu.scripps.yates.pcq.xgmml.util.AlignmentSet;
 import edu.scripps.yates.pcq.xgmml.util.ProteinNodeLabel;
 import edu.scripps.yates.utilities.alignment.nwalign.NWAlign;
 import edu.scripps.yates.utilities.alignment.nwalign.NWResult;
-import edu.scripps.yates.utilities.annotations.uniprot.xml.Entry;
 import edu.scripps.yates.utilities.sequence.PTMInProtein;
 import edu.scripps.yates.utilities.sequence.PositionInPeptide;
 import edu.scripps.yates.utilities.sequence.PositionInProtein;
 import edu.scripps.yates.utilities.strings.StringUtils;
 import edu.scripps.yates.utilities.util.Pair;
 import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import gnu.trove.set.hash.THashSet;
 
 public class ProteinCluster {
@@ -74,7 +78,7 @@ public class ProteinCluster {
 	 * 
 	 * @throws IOException
 	 */
-	public void createNodes(Map<String, Entry> annotatedProteins) throws IOException {
+	public void createNodes(Map<String, ProteinAnnotation> annotatedProteins) throws IOException {
 		// reset nodes
 		// removes all nodes in the cluster and clear all maps
 		resetNodes();
@@ -136,15 +140,19 @@ public class ProteinCluster {
 
 	}
 
+	/**
+	 * Creates the peptide nodes of the cluster. If indistinguishable peptides
+	 * are collapsed, the peptides are grouped in one pass by the signature of
+	 * their proteins (see
+	 * {@link PCQUtils#getProteinKeysSignature(QuantifiedPeptideInterface)}),
+	 * creating a peptide node per group.
+	 */
 	private void createPeptideNodes() {
 		// log.debug("Creating peptide nodes in cluster");
 		final List<QuantifiedPeptideInterface> peptides = new ArrayList<QuantifiedPeptideInterface>();
 		peptides.addAll(individualQuantifiedPeptideSet);
 		final Set<String> set = new THashSet<String>();
 		for (final QuantifiedPeptideInterface pep : peptides) {
-			if (pep.getSequence().equals("FEELCSDLFR")) {
-				log.info(pep);
-			}
 			if (set.contains(pep.getKey())) {
 				log.info("Inconsistency error. 2 peptides with the same key cannot exist!");
 			} else {
@@ -152,73 +160,29 @@ public class ProteinCluster {
 			}
 		}
 		if (peptides.size() > 1) {
-			for (int i = 0; i < peptides.size(); i++) {
-				final QuantifiedPeptideInterface peptide1 = peptides.get(i);
-				if (peptide1.getSequence().equals("FEELCSDLFR")) {
-					log.info(peptide1);
-				}
-				for (int j = i + 1; j < peptides.size(); j++) {
-					final QuantifiedPeptideInterface peptide2 = peptides.get(j);
-					if (getParams().isCollapseIndistinguishablePeptides()
-							&& PCQUtils.peptidesShareAllProteins(peptide1, peptide2)) {
-
-						PCQPeptideNode peptideNode = null;
-						PCQPeptideNode peptideNode2 = null;
-						// if the protein was already associated with some
-						// protein
-						// node
-						if (peptideNodesByPeptideNodeKey.containsKey(peptide1.getKey())) {
-							peptideNode = peptideNodesByPeptideNodeKey.get(peptide1.getKey());
-						}
-						if (peptideNodesByPeptideNodeKey.containsKey(peptide2.getKey())) {
-							peptideNode2 = peptideNodesByPeptideNodeKey.get(peptide2.getKey());
-						}
-						if (peptideNode == null && peptideNode2 == null) {
-							peptideNode = new PCQPeptideNode(this, peptide1, peptide2);
-						} else {
-							if (peptideNode != null && peptideNode2 != null) {
-								// remove both nodes from set
-								peptideNodes.remove(peptideNode);
-								peptideNodes.remove(peptideNode2);
-								// merge nodes into peptideNode
-								peptideNode = PCQUtils.mergePeptideNodes(peptideNode, peptideNode2);
-							} else if (peptideNode == null && peptideNode2 != null) {
-								peptideNode = peptideNode2;
-							}
-						}
-						// add the two peptides to the peptide node
-						peptideNode.addQuantifiedPeptide(peptide1);
-						peptideNode.addQuantifiedPeptide(peptide2);
-						// add to the set of nodes
+			if (getParams().isCollapseIndistinguishablePeptides()) {
+				final Map<String, PCQPeptideNode> peptideNodesBySignature = new THashMap<String, PCQPeptideNode>();
+				for (final QuantifiedPeptideInterface peptide : peptides) {
+					final String signature = PCQUtils.getProteinKeysSignature(peptide);
+					PCQPeptideNode peptideNode = peptideNodesBySignature.get(signature);
+					if (peptideNode == null) {
+						peptideNode = new PCQPeptideNode(this, peptide);
+						peptideNodesBySignature.put(signature, peptideNode);
 						peptideNodes.add(peptideNode);
-						// add to the map
-						peptideNodesByPeptideNodeKey.put(peptide1.getKey(), peptideNode);
-						peptideNodesByPeptideNodeKey.put(peptide2.getKey(), peptideNode);
-
-					} else {
-						// create a peptide node for each peptide separated
-						// peptide node for psm1
-						PCQPeptideNode peptideNode = null;
-						if (peptideNodesByPeptideNodeKey.containsKey(peptide1.getKey())) {
-							peptideNode = peptideNodesByPeptideNodeKey.get(peptide1.getKey());
-						} else {
-							peptideNode = new PCQPeptideNode(this, peptide1);
-						}
-						peptideNode.addQuantifiedPeptide(peptide1);
-						peptideNodes.add(peptideNode);
-						peptideNodesByPeptideNodeKey.put(peptide1.getKey(), peptideNode);
-
-						// protein node for protein2
-						PCQPeptideNode peptideNode2 = null;
-						if (peptideNodesByPeptideNodeKey.containsKey(peptide2.getKey())) {
-							peptideNode2 = peptideNodesByPeptideNodeKey.get(peptide2.getKey());
-						} else {
-							peptideNode2 = new PCQPeptideNode(this, peptide2);
-						}
-						peptideNode2.addQuantifiedPeptide(peptide2);
-						peptideNodes.add(peptideNode2);
-						peptideNodesByPeptideNodeKey.put(peptide2.getKey(), peptideNode2);
 					}
+					peptideNode.addQuantifiedPeptide(peptide);
+					peptideNodesByPeptideNodeKey.put(peptide.getKey(), peptideNode);
+				}
+				if (getParams().isCheckNodesCollapsing()) {
+					checkPeptideNodesCollapsing(peptides);
+				}
+			} else {
+				// create a peptide node for each peptide separated
+				for (final QuantifiedPeptideInterface peptide : peptides) {
+					final PCQPeptideNode peptideNode = new PCQPeptideNode(this, peptide);
+					peptideNode.addQuantifiedPeptide(peptide);
+					peptideNodes.add(peptideNode);
+					peptideNodesByPeptideNodeKey.put(peptide.getKey(), peptideNode);
 				}
 			}
 		} else {
@@ -232,6 +196,43 @@ public class ProteinCluster {
 
 	}
 
+	/**
+	 * Compares every pair of peptides with
+	 * {@link PCQUtils#peptidesShareAllProteins(QuantifiedPeptideInterface, QuantifiedPeptideInterface)}
+	 * and checks that two peptides are in the same peptide node if and only if
+	 * they share all their proteins.
+	 * 
+	 * @param peptides
+	 * @throws IllegalStateException if the peptide nodes are not the expected
+	 *                               ones
+	 */
+	private void checkPeptideNodesCollapsing(List<QuantifiedPeptideInterface> peptides) {
+		final DisjointSet disjointSet = new DisjointSet(peptides.size());
+		for (int i = 0; i < peptides.size(); i++) {
+			disjointSet.makeSet();
+		}
+		for (int i = 0; i < peptides.size(); i++) {
+			for (int j = i + 1; j < peptides.size(); j++) {
+				if (PCQUtils.peptidesShareAllProteins(peptides.get(i), peptides.get(j))) {
+					disjointSet.union(i, j);
+				}
+			}
+		}
+		for (int i = 0; i < peptides.size(); i++) {
+			final QuantifiedPeptideInterface peptide1 = peptides.get(i);
+			final PCQPeptideNode peptideNode1 = peptideNodesByPeptideNodeKey.get(peptide1.getKey());
+			for (int j = i + 1; j < peptides.size(); j++) {
+				final QuantifiedPeptideInterface peptide2 = peptides.get(j);
+				final PCQPeptideNode peptideNode2 = peptideNodesByPeptideNodeKey.get(peptide2.getKey());
+				if (disjointSet.connected(i, j) != (peptideNode1 == peptideNode2)) {
+					throw new IllegalStateException("Peptide nodes of cluster " + clusterID
+							+ " are different from the ones of the pairwise comparison of peptides: "
+							+ peptide1.getKey() + " and " + peptide2.getKey());
+				}
+			}
+		}
+	}
+
 	/**
 	 * Iterates all peptides in the cluster over all others and creates a node for
 	 * all peptides that have the same key, which, in this case is the position of
@@ -259,37 +260,36 @@ public class ProteinCluster {
 				set.add(pep.getKey());
 			}
 		}
-		// to not include the same peptide in different peptide nodes
-		final Map<QuantifiedPeptideInterface, PCQPeptideNode> peptideNodesByPeptides = new THashMap<QuantifiedPeptideInterface, PCQPeptideNode>();
 		final Set<String> peptideSequencesDiscarded = new THashSet<String>();
 		if (peptides.size() > 1) {
-			for (int i = 0; i < peptides.size(); i++) {
-				final QuantifiedPeptideInterface peptide1 = peptides.get(i);
-				final String sequence1 = peptide1.getSequence();
+			// the keys of each peptide are calculated only once, and the
+			// peptides are grouped in peptide nodes by them
+			for (final QuantifiedPeptideInterface peptide : peptides) {
+				final String sequence = peptide.getSequence();
 				// discard if it doesn't contain any quantified aa
-				if (getParams().isRemoveFilteredNodes() && !PCQUtils.containsAny(sequence1, quantifiedAAs)) {
-					if (!peptideSequencesDiscarded.contains(sequence1)) {
-						DiscardedPeptidesSet.getInstance().add(peptide1, DISCARD_REASON.PEPTIDE_WITH_NO_QUANT_SITE,
+				if (getParams().isRemoveFilteredNodes() && !PCQUtils.containsAny(sequence, quantifiedAAs)) {
+					if (!peptideSequencesDiscarded.contains(sequence)) {
+						DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.PEPTIDE_WITH_NO_QUANT_SITE,
 								"quant site(s): " + quantifiedAAsString);
-						peptideSequencesDiscarded.add(sequence1);
-						log.warn(sequence1 + " discarded for not having one quantitation sites from '"
+						peptideSequencesDiscarded.add(sequence);
+						log.warn(sequence + " discarded for not having one quantitation sites from '"
 								+ StringUtils.getSeparatedValueStringFromChars(quantifiedAAs, ",") + "'");
 					}
-					individualQuantifiedPeptideSet.remove(peptide1);
+					individualQuantifiedPeptideSet.remove(peptide);
 					continue;
 				}
 				// if it is not isobaric peptide and it has more than one
 				// quantified site, it cannot be distinguish, so we discard it.
-				if (getParams().isRemoveFilteredNodes() && !(peptide1 instanceof IsobaricQuantifiedPeptide)
-						&& PCQUtils.howManyContains(sequence1, quantifiedAAs) > 1) {
-					if (!peptideSequencesDiscarded.contains(sequence1)) {
-						peptideSequencesDiscarded.add(sequence1);
-						DiscardedPeptidesSet.getInstance().add(peptide1, DISCARD_REASON.AMBIGUOS_QUANT,
+				if (getParams().isRemoveFilteredNodes() && !(peptide instanceof IsobaricQuantifiedPeptide)
+						&& PCQUtils.howManyContains(sequence, quantifiedAAs) > 1) {
+					if (!peptideSequencesDiscarded.contains(sequence)) {
+						peptideSequencesDiscarded.add(sequence);
+						DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.AMBIGUOS_QUANT,
 								"quant site(s): " + quantifiedAAsString);
-						log.warn(sequence1 + " discarded for having ambiguous quantitation sites from "
+						log.warn(sequence + " discarded for having ambiguous quantitation sites from "
 								+ StringUtils.getSeparatedValueStringFromChars(quantifiedAAs, ",") + "'");
 					}
-					individualQuantifiedPeptideSet.remove(peptide1);
+					individualQuantifiedPeptideSet.remove(peptide);
 					continue;
 				}
 
@@ -299,300 +299,53 @@ public class ProteinCluster {
 				// - it could be shared by more than one protein
 				// - it could have more than one quantified aminoacid in its
 				// sequence
-				final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptide1Keys = peptide1
-						.getProteinKeysByPeptideKeysForQuantifiedAAs(quantifiedAAs, uplr, PCQUtils.proteinSequences);
-				if (proteinKeysByPeptide1Keys.isEmpty()) {
+				final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeys = PCQUtils
+						.getPositionsInProteinsForQuantifiedAAs(peptide, quantifiedAAs, uplr);
+				if (proteinKeysByPeptideKeys.isEmpty()) {
 
 					if (getParams().isRemoveFilteredNodes() || getParams().isCollapseBySites()) {
 						// peptides without a site mapped to a protein are discarded
-						if (!peptideSequencesDiscarded.contains(sequence1)) {
-							peptideSequencesDiscarded.add(sequence1);
-							DiscardedPeptidesSet.getInstance().add(peptide1, DISCARD_REASON.PEPTIDE_WITH_NO_PROTEIN);
-							log.warn("Peptide '" + sequence1
+						if (!peptideSequencesDiscarded.contains(sequence)) {
+							peptideSequencesDiscarded.add(sequence);
+							DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.PEPTIDE_WITH_NO_PROTEIN);
+							log.warn("Peptide '" + sequence
 									+ "' cannot be mapped to any protein sequence and it will be ignored");
 						}
-						individualQuantifiedPeptideSet.remove(peptide1);
+						individualQuantifiedPeptideSet.remove(peptide);
 						continue;
 					} else {
-						log.warn("Peptide '" + peptide1.getSequence() + "' cannot be mapped to any protein sequence");
+						log.warn("Peptide '" + sequence + "' cannot be mapped to any protein sequence");
 					}
 				}
-				for (int j = i + 1; j < peptides.size(); j++) {
-					final QuantifiedPeptideInterface peptide2 = peptides.get(j);
-					final String sequence2 = peptide2.getSequence();
-
-					// discard if it doesn't contain any quantified aa
-					if (getParams().isRemoveFilteredNodes() && !PCQUtils.containsAny(sequence2, quantifiedAAs)) {
-						if (!peptideSequencesDiscarded.contains(sequence2)) {
-							DiscardedPeptidesSet.getInstance().add(peptide2, DISCARD_REASON.PEPTIDE_WITH_NO_QUANT_SITE,
-									"quant site(s): " + quantifiedAAsString);
-
-							peptideSequencesDiscarded.add(sequence2);
-							log.warn(sequence2 + " discarded for not having one quantitation sites from '"
-									+ StringUtils.getSeparatedValueStringFromChars(quantifiedAAs, ",") + "'");
-						}
-						individualQuantifiedPeptideSet.remove(peptide2);
-						continue;
-					}
-					// if it is not isobaric peptide and it has more than one
-					// quantified site, it cannot be distinguish, so we discard
-					// it.
-					if (getParams().isRemoveFilteredNodes() && !(peptide2 instanceof IsobaricQuantifiedPeptide)
-							&& PCQUtils.howManyContains(sequence2, quantifiedAAs) > 1) {
-						if (!peptideSequencesDiscarded.contains(sequence2)) {
-							DiscardedPeptidesSet.getInstance().add(peptide2, DISCARD_REASON.AMBIGUOS_QUANT,
-									"quant site(s): " + quantifiedAAsString);
-							peptideSequencesDiscarded.add(sequence2);
-							log.warn(sequence2 + " discarded for having ambiguous quantitation sites from '"
-									+ StringUtils.getSeparatedValueStringFromChars(quantifiedAAs, ",") + "'");
-						}
-						individualQuantifiedPeptideSet.remove(peptide2);
-						continue;
-					}
-					// get the keys from the peptide.
-					// not that the peptide could have more than one key because
-					// 2
-					// reasons:
-					// - it could be shared by more than one protein
-					// - it could have more than one quantified aminoacid in its
-					// sequence
-
-					final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptide2Keys = peptide2
-							.getProteinKeysByPeptideKeysForQuantifiedAAs(quantifiedAAs, uplr,
-									PCQUtils.proteinSequences);
-					if (proteinKeysByPeptide2Keys.isEmpty()) {
-						if (getParams().isRemoveFilteredNodes() || getParams().isCollapseBySites()) {
-							if (!peptideSequencesDiscarded.contains(sequence2)) {
-								DiscardedPeptidesSet.getInstance().add(peptide2,
-										DISCARD_REASON.PEPTIDE_WITH_NO_PROTEIN);
-								peptideSequencesDiscarded.add(sequence2);
-								// peptides without a site mapped to a protein are
-								// discarded
-								log.warn("Peptide '" + sequence2
-										+ "' cannot be mapped to any protein sequence and it will be ignored");
-							}
-							individualQuantifiedPeptideSet.remove(peptide2);
-							continue;
-						} else {
-							log.warn("Peptide '" + peptide2.getSequence()
-									+ "' cannot be mapped to any protein sequence");
-
-						}
+				// if we have isobaric isotopologues, we could have several
+				// ratios in a single peptide with multiple quantified
+				// sites<br>Otherwise, we have to consider the
+				// positionsInPeptides all together per peptide, because each
+				// peptide will only have one ratio and if that peptide has more
+				// than one position quantified, it will be an ambiguous one
+				if (peptide instanceof IsobaricQuantifiedPeptide) {
+					for (final PositionInPeptide positionInPeptide : proteinKeysByPeptideKeys.keySet()) {
+						final String key = QuantUtils.getPositionsInProteinsKey(
+								proteinKeysByPeptideKeys.get(positionInPeptide), useProteinGeneName, useProteinID, uplr,
+								getParams().getUniprotVersion());
+						addToPeptideNode(key, peptide, Collections.singletonList(positionInPeptide));
 					}
-					// if we have isobaric isotopologues, we could have several
-					// ratios in a single peptide with multiple quantified
-					// sites<br>Otherwise, we have to consider the
-					// positionsInPeptides all together per peptide
-					if (peptide1 instanceof IsobaricQuantifiedPeptide
-							&& peptide2 instanceof IsobaricQuantifiedPeptide) {
-						// iterate over all the keys
-						for (final PositionInPeptide positionInPeptide1 : proteinKeysByPeptide1Keys.keySet()) {
-							final List<PositionInProtein> proteinKeysFromPeptide1 = proteinKeysByPeptide1Keys
-									.get(positionInPeptide1);
-							for (final PositionInPeptide positionInPeptide2 : proteinKeysByPeptide2Keys.keySet()) {
-								final List<PositionInProtein> proteinKeysFromPeptide2 = proteinKeysByPeptide2Keys
-										.get(positionInPeptide2);
-
-								final String key1 = QuantUtils.getPositionsInProteinsKey(proteinKeysFromPeptide1,
-										useProteinGeneName, useProteinID, uplr, getParams().getUniprotVersion());
-								final String key2 = QuantUtils.getPositionsInProteinsKey(proteinKeysFromPeptide2,
-										useProteinGeneName, useProteinID, uplr, getParams().getUniprotVersion());
-								// now I compare the two list of keys
-								// if they are equal, that means, if they share
-								// the
-								// same sites of the same proteins
-								if (PCQUtils.areEquals(proteinKeysFromPeptide1, proteinKeysFromPeptide2)) {
-
-									// key1 and key2 should be the same
-
-									// collapsed in the same peptide node
-									PCQPeptideNode peptideNode = null;
-									// if the protein was already associated
-									// with
-									// some protein node
-									if (peptideNodesByPeptideNodeKey.containsKey(key1)) {
-										peptideNode = peptideNodesByPeptideNodeKey.get(key1);
-									} else {
-										peptideNode = new PCQPeptideNode(this, key1,
-												new Pair<QuantifiedPeptideInterface, PositionInPeptide>(peptide1,
-														positionInPeptide1),
-												new Pair<QuantifiedPeptideInterface, PositionInPeptide>(peptide2,
-														positionInPeptide2));
-									}
-									peptideNodesByPeptides.put(peptide1, peptideNode);
-									peptideNodesByPeptides.put(peptide2, peptideNode);
-									// add the two peptides to the peptide node
-									peptideNode.addQuantifiedPeptide(peptide1, positionInPeptide1);
-									peptideNode.addQuantifiedPeptide(peptide2, positionInPeptide2);
-									if (!peptideNode.getItemsInNode().isEmpty()) {
-										// add to the set of nodes
-										peptideNodes.add(peptideNode);
-										// add to the map
-										peptideNodesByPeptideNodeKey.put(key1, peptideNode);
-									}
-
-								} else {
-									// they dont share any key create a peptide
-									// node
-									// for each peptide separated peptide node
-									// for
-									// psm1
-									PCQPeptideNode peptideNode = null;
-									if (peptideNodesByPeptideNodeKey.containsKey(key1)) {
-										peptideNode = peptideNodesByPeptideNodeKey.get(key1);
-									} else {
-										peptideNode = new PCQPeptideNode(this, key1,
-												new Pair<QuantifiedPeptideInterface, PositionInPeptide>(peptide1,
-														positionInPeptide1));
-									}
-									peptideNodesByPeptides.put(peptide1, peptideNode);
-									// add the two peptides to the peptide node
-									peptideNode.addQuantifiedPeptide(peptide1, positionInPeptide1);
-									if (!peptideNode.getItemsInNode().isEmpty()) {
-
-										peptideNodes.add(peptideNode);
-										peptideNodesByPeptideNodeKey.put(key1, peptideNode);
-									}
-									// protein node for protein2
-									PCQPeptideNode peptideNode2 = null;
-									if (peptideNodesByPeptideNodeKey.containsKey(key2)) {
-										peptideNode2 = peptideNodesByPeptideNodeKey.get(key2);
-									} else {
-										peptideNode2 = new PCQPeptideNode(this, key2,
-												new Pair<QuantifiedPeptideInterface, PositionInPeptide>(peptide2,
-														positionInPeptide2));
-									}
-									peptideNodesByPeptides.put(peptide2, peptideNode2);
-
-									peptideNode2.addQuantifiedPeptide(peptide2, positionInPeptide2);
-									if (!peptideNode2.getItemsInNode().isEmpty()) {
-
-										peptideNodes.add(peptideNode2);
-										peptideNodesByPeptideNodeKey.put(key2, peptideNode2);
-									}
-								}
-							}
-						}
-					} else {
-						// in this case, it is not isobaric isotopologues, so we
-						// have to take all the positionsInPeptide together
-						// because each peptide will only have one ratio and if
-						// that peptide has more than one position quantified,
-						// it will be an ambiguous one
-						// iterate over all the keys
-						final List<PositionInProtein> proteinKeysFromPeptide1 = new ArrayList<PositionInProtein>();
-						final List<PositionInProtein> proteinKeysFromPeptide2 = new ArrayList<PositionInProtein>();
-						for (final PositionInPeptide positionInPeptide1 : proteinKeysByPeptide1Keys.keySet()) {
-							proteinKeysFromPeptide1.addAll(proteinKeysByPeptide1Keys.get(positionInPeptide1));
-						}
-						for (final PositionInPeptide positionInPeptide2 : proteinKeysByPeptide2Keys.keySet()) {
-							proteinKeysFromPeptide2.addAll(proteinKeysByPeptide2Keys.get(positionInPeptide2));
-						}
-						final String key1 = QuantUtils.getPositionsInProteinsKey(proteinKeysFromPeptide1,
-								useProteinGeneName, useProteinID, uplr, getParams().getUniprotVersion());
-						final String key2 = QuantUtils.getPositionsInProteinsKey(proteinKeysFromPeptide2,
-								useProteinGeneName, useProteinID, uplr, getParams().getUniprotVersion());
-
-						// now I compare the two list of keys
-						// if they are equal, that means, if they share
-						// the
-						// same sites of the same proteins
-						if (PCQUtils.areEquals(proteinKeysFromPeptide1, proteinKeysFromPeptide2)) {
-
-							// key1 and key2 should be the same
-
-							// collapsed in the same peptide node
-							PCQPeptideNode peptideNode = null;
-							// if the protein was already associated
-							// with
-							// some protein node
-							if (peptideNodesByPeptideNodeKey.containsKey(key1)) {
-								peptideNode = peptideNodesByPeptideNodeKey.get(key1);
-							} else {
-								peptideNode = new PCQPeptideNode(this, key1);
-								if (proteinKeysByPeptide1Keys.isEmpty()) {
-									log.info("asdf");
-								}
-								for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide1Keys.keySet()) {
-									peptideNode.addQuantifiedPeptide(peptide1, positionInPeptide);
-								}
-								if (proteinKeysByPeptide2Keys.isEmpty()) {
-									log.info("asdf");
-								}
-								for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide2Keys.keySet()) {
-									peptideNode.addQuantifiedPeptide(peptide2, positionInPeptide);
-								}
-							}
-							peptideNodesByPeptides.put(peptide1, peptideNode);
-							peptideNodesByPeptides.put(peptide2, peptideNode);
-							// add the two peptides to the peptide node
-							for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide1Keys.keySet()) {
-								peptideNode.addQuantifiedPeptide(peptide1, positionInPeptide);
-							}
-							for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide2Keys.keySet()) {
-								peptideNode.addQuantifiedPeptide(peptide2, positionInPeptide);
-							}
-							if (!peptideNode.getItemsInNode().isEmpty()) {
-
-								// add to the set of nodes
-								peptideNodes.add(peptideNode);
-								// add to the map
-								peptideNodesByPeptideNodeKey.put(key1, peptideNode);
-							}
-
-						} else {
-							// they dont share any key create a peptide node for
-							// each peptide separated peptide node for psm1
-							PCQPeptideNode peptideNode = null;
-							if (peptideNodesByPeptideNodeKey.containsKey(key1)) {
-								peptideNode = peptideNodesByPeptideNodeKey.get(key1);
-							} else {
-								peptideNode = new PCQPeptideNode(this, key1);
-								for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide1Keys.keySet()) {
-									peptideNode.addQuantifiedPeptide(peptide1, positionInPeptide);
-								}
-							}
-							peptideNodesByPeptides.put(peptide1, peptideNode);
-							// add the two peptides to the peptide node
-							for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide1Keys.keySet()) {
-								peptideNode.addQuantifiedPeptide(peptide1, positionInPeptide);
-							}
-							if (!peptideNode.getItemsInNode().isEmpty()) {
-
-								peptideNodes.add(peptideNode);
-								peptideNodesByPeptideNodeKey.put(key1, peptideNode);
-							}
-							// protein node for protein2
-							PCQPeptideNode peptideNode2 = null;
-							if (peptideNodesByPeptideNodeKey.containsKey(key2)) {
-								peptideNode2 = peptideNodesByPeptideNodeKey.get(key2);
-							} else {
-								peptideNode2 = new PCQPeptideNode(this, key2);
-								for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide2Keys.keySet()) {
-									peptideNode2.addQuantifiedPeptide(peptide2, positionInPeptide);
-								}
-							}
-							peptideNodesByPeptides.put(peptide2, peptideNode2);
-
-							for (final PositionInPeptide positionInPeptide : proteinKeysByPeptide2Keys.keySet()) {
-								peptideNode2.addQuantifiedPeptide(peptide2, positionInPeptide);
-							}
-							if (!peptideNode2.getItemsInNode().isEmpty()) {
-
-								peptideNodes.add(peptideNode2);
-								peptideNodesByPeptideNodeKey.put(key2, peptideNode2);
-							}
-						}
+				} else {
+					final List<PositionInProtein> proteinKeysFromPeptide = new ArrayList<PositionInProtein>();
+					for (final List<PositionInProtein> positionsInProtein : proteinKeysByPeptideKeys.values()) {
+						proteinKeysFromPeptide.addAll(positionsInProtein);
 					}
+					final String key = QuantUtils.getPositionsInProteinsKey(proteinKeysFromPeptide, useProteinGeneName,
+							useProteinID, uplr, getParams().getUniprotVersion());
+					addToPeptideNode(key, peptide, proteinKeysByPeptideKeys.keySet());
 				}
-
 			}
 		} else {
 			// only one peptide
 			// create a peptide node for each position in the peptide
 			final QuantifiedPeptideInterface peptide = peptides.iterator().next();
-			final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeys = peptide
-					.getProteinKeysByPeptideKeysForQuantifiedAAs(quantifiedAAs, uplr, PCQUtils.proteinSequences);
+			final Map<PositionInPeptide, List<PositionInProtein>> proteinKeysByPeptideKeys = PCQUtils
+					.getPositionsInProteinsForQuantifiedAAs(peptide, quantifiedAAs, uplr);
 
 			for (final PositionInPeptide positionInPeptide : proteinKeysByPeptideKeys.keySet()) {
 				final List<PositionInProtein> positionsInProtein = proteinKeysByPeptideKeys.get(positionInPeptide);
@@ -617,6 +370,29 @@ public class ProteinCluster {
 
 	}
 
+	/**
+	 * Adds the peptide with some positions to the peptide node with the key,
+	 * creating it if it doesn't exist
+	 *
+	 * @param key
+	 * @param peptide
+	 * @param positionsInPeptide
+	 */
+	private void addToPeptideNode(String key, QuantifiedPeptideInterface peptide,
+			Collection<PositionInPeptide> positionsInPeptide) {
+		PCQPeptideNode peptideNode = peptideNodesByPeptideNodeKey.get(key);
+		if (peptideNode == null) {
+			peptideNode = new PCQPeptideNode(this, key);
+		}
+		for (final PositionInPeptide positionInPeptide : positionsInPeptide) {
+			peptideNode.addQuantifiedPeptide(peptide, positionInPeptide);
+		}
+		if (!peptideNode.getItemsInNode().isEmpty()) {
+			peptideNodes.add(peptideNode);
+			peptideNodesByPeptideNodeKey.put(key, peptideNode);
+		}
+	}
+
 	/**
 	 * Iterates all peptides in the cluster over all others and creates a node for
 	 * all peptides that have the same key, which, in this case is the position of
@@ -641,126 +417,25 @@ public class ProteinCluster {
 				set.add(pep.getKey());
 			}
 		}
-		// to not include the same peptide in different peptide nodes
-		final Map<QuantifiedPeptideInterface, PCQPeptideNode> peptideNodesByPeptides = new THashMap<QuantifiedPeptideInterface, PCQPeptideNode>();
-		if (peptides.size() > 1) {
-			for (int i = 0; i < peptides.size(); i++) {
-				final QuantifiedPeptideInterface peptide1 = peptides.get(i);
-
-				// get the keys from the peptide.
-				// not that the peptide could have more than one key because 2
-				// reasons:
-				// - it could be shared by more than one protein
-				// - it could have more than one quantified aminoacid in its
-				// sequence
-				final List<PTMInProtein> ptmsInProteinFromPeptide1 = filterPTMsOfInterest(
-						peptide1.getPTMsInProtein(uplr, PCQUtils.proteinSequences));
-
-				final String key1 = PCQUtils.getPTMPositionsInProteinsKey(ptmsInProteinFromPeptide1, useProteinGeneName,
-						useProteinID, uplr, getParams().getUniprotVersion());
-				if ("".equals(key1)) {
-//					key1 = peptide1.getKey();
-					peptide1.setDiscarded(true);
-					continue;
-				}
-				for (int j = i + 1; j < peptides.size(); j++) {
-					final QuantifiedPeptideInterface peptide2 = peptides.get(j);
-					// get the keys from the peptide.
-					// not that the peptide could have more than one key because
-					// 2
-					// reasons:
-					// - it could be shared by more than one protein
-					// - it could have more than one quantified aminoacid in its
-					// sequence
-
-					final List<PTMInProtein> ptmsInProteinFromPeptide2 = filterPTMsOfInterest(
-							peptide2.getPTMsInProtein(uplr, PCQUtils.proteinSequences));
-
-					// iterate over all the keys
-					final String key2 = PCQUtils.getPTMPositionsInProteinsKey(ptmsInProteinFromPeptide2,
-							useProteinGeneName, useProteinID, uplr, getParams().getUniprotVersion());
-					if ("".equals(key2)) {
-//						key2 = peptide2.getKey();
-						peptide2.setDiscarded(true);
-						continue;
-					}
-
-					// now I compare the two list of keys
-					// if they are equal, that means, if they share the
-					// same sites of the same proteins
-					if (PCQUtils.areEquals(QuantUtils.getAsPositionInProtein(ptmsInProteinFromPeptide1),
-							QuantUtils.getAsPositionInProtein(ptmsInProteinFromPeptide2)) && //
-							key1.equals(key2)) {
-
-						// key1 and key2 should be the same
-
-						// collapsed in the same peptide node
-						PCQPeptideNode peptideNode = null;
-						// if the protein was already associated with
-						// some protein node
-						if (peptideNodesByPeptideNodeKey.containsKey(key1)) {
-							peptideNode = peptideNodesByPeptideNodeKey.get(key1);
-						} else {
-							peptideNode = new PCQPeptideNode(this, key1);
-						}
-						peptideNodesByPeptides.put(peptide1, peptideNode);
-						peptideNodesByPeptides.put(peptide2, peptideNode);
-						// add the two peptides to the peptide node
-						peptideNode.addQuantifiedPeptide(peptide1);
-						peptideNode.addQuantifiedPeptide(peptide2);
-
-						// add to the set of nodes
-						peptideNodes.add(peptideNode);
-						// add to the map
-						peptideNodesByPeptideNodeKey.put(key1, peptideNode);
-
-					} else {
-						// they dont share any key create a peptide node
-						// for each peptide separated peptide node for
-						// psm1
-						PCQPeptideNode peptideNode = null;
-						if (peptideNodesByPeptideNodeKey.containsKey(key1)) {
-							peptideNode = peptideNodesByPeptideNodeKey.get(key1);
-						} else {
-							peptideNode = new PCQPeptideNode(this, key1);
-						}
-						peptideNodesByPeptides.put(peptide1, peptideNode);
-						// add the two peptides to the peptide node
-						peptideNode.addQuantifiedPeptide(peptide1);
-
-						peptideNodes.add(peptideNode);
-						peptideNodesByPeptideNodeKey.put(key1, peptideNode);
-
-						// protein node for protein2
-						PCQPeptideNode peptideNode2 = null;
-						if (peptideNodesByPeptideNodeKey.containsKey(key2)) {
-							peptideNode2 = peptideNodesByPeptideNodeKey.get(key2);
-						} else {
-							peptideNode2 = new PCQPeptideNode(this, key2);
-						}
-						peptideNodesByPeptides.put(peptide2, peptideNode2);
-						peptideNode2.addQuantifiedPeptide(peptide2);
-
-						peptideNodes.add(peptideNode2);
-						peptideNodesByPeptideNodeKey.put(key2, peptideNode2);
-					}
-				}
-			}
-
-		} else {
-			// only one peptide
-			// create a peptide node for each position in the peptide
-			final QuantifiedPeptideInterface peptide = peptides.iterator().next();
-			final List<PTMInProtein> ptmsInProtein = filterPTMsOfInterest(
-					peptide.getPTMsInProtein(uplr, PCQUtils.proteinSequences));
+		// the keys of each peptide are calculated only once, and the peptides
+		// are grouped in peptide nodes by them
+		for (final QuantifiedPeptideInterface peptide : peptides) {
+			// get the keys from the peptide.
+			// not that the peptide could have more than one key because 2
+			// reasons:
+			// - it could be shared by more than one protein
+			// - it could have more than one quantified aminoacid in its
+			// sequence
+			final List<PTMInProtein> ptmsInProtein = filterPTMsOfInterest(PCQUtils.getPTMsInProteins(peptide, uplr));
 
 			final String key = PCQUtils.getPTMPositionsInProteinsKey(ptmsInProtein, useProteinGeneName, useProteinID,
 					uplr, getParams().getUniprotVersion());
 			if ("".equals(key)) {
-//				key = peptide.getKey();
 				peptide.setDiscarded(true);
-				return;
+				continue;
 			}
+			// peptides sharing the same sites of the same proteins are
+			// collapsed in the same peptide node
 			PCQPeptideNode peptideNode = null;
 			if (peptideNodesByPeptideNodeKey.containsKey(key)) {
 				peptideNode = peptideNodesByPeptideNodeKey.get(key);
@@ -771,7 +446,6 @@ public class ProteinCluster {
 
 			peptideNodes.add(peptideNode);
 			peptideNodesByPeptideNodeKey.put(key, peptideNode);
-
 		}
 
 	}
@@ -831,94 +505,38 @@ public class ProteinCluster {
 		final List<String> keyList = new ArrayList<String>();
 		keyList.addAll(proteinMapByKey.keySet());
 		if (proteinMapByKey.size() > 1) {
+			// proteins with the same peptides are joined in the same set, and a
+			// protein node is created per set
+			final DisjointSet disjointSet = new DisjointSet(keyList.size());
+			final TObjectIntHashMap<String> indexesBySignature = new TObjectIntHashMap<String>();
 			for (int i = 0; i < keyList.size(); i++) {
-				final String key1 = keyList.get(i);
-				final Set<QuantifiedProteinInterface> proteins1 = proteinMapByKey.get(key1);
-				for (int j = i + 1; j < keyList.size(); j++) {
-					final String key2 = keyList.get(j);
-					final Set<QuantifiedProteinInterface> proteins2 = proteinMapByKey.get(key2);
-
-					if (getParams().isCollapseIndistinguishableProteins()
-							&& PCQUtils.proteinsShareAllPeptides(proteins1, proteins2)) {
-						PCQProteinNode proteinNode = null;
-						PCQProteinNode proteinNode2 = null;
-						// if the protein was already associated with some
-						// protein node
-						if (proteinNodesByProteinKey.containsKey(key1)) {
-							proteinNode = proteinNodesByProteinKey.get(key1);
-						}
-						if (proteinNodesByProteinKey.containsKey(key2)) {
-							proteinNode2 = proteinNodesByProteinKey.get(key2);
-						}
-						if (proteinNode == null && proteinNode2 == null) {
-							// if non of the proteins are in any protein node
-							// yet, create a new one
-							proteinNode = new PCQProteinNode(this, proteins1, proteins2);
-						} else {
-							// some of the proteins are assigned to some protein
-							// node already
-							if (proteinNode != null && proteinNode2 != null) {
-								// both proteins are assigned to a node
-								if (!proteinNode.equals(proteinNode2)) {
-									// if each protein is assigned to a
-									// different protein node
-									// remove the second node
-									proteinNodes.remove(proteinNode2);
-
-									// merge protein nodes in the first protein
-									// node
-									PCQUtils.mergeProteinNodes(proteinNode, proteinNode2);
-
-									// look for any other protein pointing to
-									// proteinNode2 and assign it to
-									// proteinNode1
-									for (final String key : proteinNodesByProteinKey.keySet()) {
-										if (proteinNodesByProteinKey.get(key).equals(proteinNode2)) {
-											proteinNodesByProteinKey.put(key, proteinNode);
-										}
-									}
-								}
-							} else if (proteinNode == null && proteinNode2 != null) {
-								// protein 2 is assigned to a protein node, but
-								// protein 1 is not. Use that node.
-								proteinNode = proteinNode2;
-							}
-						}
-						// add the two proteins to the protein node
-						proteinNode.addProteins(proteins1);
-						proteinNode.addProteins(proteins2);
-
-						// add to the set of nodes
-						proteinNodes.add(proteinNode);
-						// add to the map
-						proteinNodesByProteinKey.put(key1, proteinNode);
-						proteinNodesByProteinKey.put(key2, proteinNode);
-
+				disjointSet.makeSet();
+				if (getParams().isCollapseIndistinguishableProteins()) {
+					final String signature = PCQUtils.getPeptideKeysSignature(proteinMapByKey.get(keyList.get(i)));
+					if (indexesBySignature.containsKey(signature)) {
+						disjointSet.union(indexesBySignature.get(signature), i);
 					} else {
-						// create a protein node for each protein separated
-						// protein node for protein1
-						PCQProteinNode proteinNode = null;
-						if (proteinNodesByProteinKey.containsKey(key1)) {
-							proteinNode = proteinNodesByProteinKey.get(key1);
-						} else {
-							proteinNode = new PCQProteinNode(this, proteins1);
-						}
-						proteinNodes.add(proteinNode);
-						proteinNodesByProteinKey.put(key1, proteinNode);
-
-						// protein node for protein2
-						PCQProteinNode proteinNode2 = null;
-						if (proteinNodesByProteinKey.containsKey(key2)) {
-							proteinNode2 = proteinNodesByProteinKey.get(key2);
-						} else {
-							proteinNode2 = new PCQProteinNode(this, proteins2);
-						}
-						proteinNodes.add(proteinNode2);
-						proteinNodesByProteinKey.put(key2, proteinNode2);
-
+						indexesBySignature.put(signature, i);
 					}
 				}
 			}
+			final TIntObjectHashMap<PCQProteinNode> proteinNodesByRoot = new TIntObjectHashMap<PCQProteinNode>();
+			for (int i = 0; i < keyList.size(); i++) {
+				final String key = keyList.get(i);
+				final int root = disjointSet.find(i);
+				PCQProteinNode proteinNode = proteinNodesByRoot.get(root);
+				if (proteinNode == null) {
+					proteinNode = new PCQProteinNode(this, proteinMapByKey.get(key));
+					proteinNodesByRoot.put(root, proteinNode);
+					proteinNodes.add(proteinNode);
+				} else {
+					proteinNode.addProteins(proteinMapByKey.get(key));
+				}
+				proteinNodesByProteinKey.put(key, proteinNode);
+			}
+			if (getParams().isCollapseIndistinguishableProteins() && getParams().isCheckNodesCollapsing()) {
+				checkProteinNodesCollapsing(keyList, proteinMapByKey);
+			}
 		} else {
 			// only one protein
 			// create a protein node for the protein
@@ -939,6 +557,36 @@ public class ProteinCluster {
 
 	}
 
+	/**
+	 * Compares every pair of proteins with
+	 * {@link PCQUtils#proteinsShareAllPeptides(Collection, Collection)} and
+	 * checks that two proteins are in the same protein node if and only if they
+	 * share all their peptides.
+	 * 
+	 * @param keyList
+	 * @param proteinMapByKey
+	 * @throws IllegalStateException if the protein nodes are not the expected
+	 *                               ones
+	 */
+	private void checkProteinNodesCollapsing(List<String> keyList,
+			Map<String, Set<QuantifiedProteinInterface>> proteinMapByKey) {
+		for (int i = 0; i < keyList.size(); i++) {
+			final String key1 = keyList.get(i);
+			final PCQProteinNode proteinNode1 = proteinNodesByProteinKey.get(key1);
+			for (int j = i + 1; j < keyList.size(); j++) {
+				final String key2 = keyList.get(j);
+				final PCQProteinNode proteinNode2 = proteinNodesByProteinKey.get(key2);
+				final boolean shareAllPeptides = PCQUtils.proteinsShareAllPeptides(proteinMapByKey.get(key1),
+						proteinMapByKey.get(key2));
+				if (shareAllPeptides != (proteinNode1 == proteinNode2)) {
+					throw new IllegalStateException("Protein nodes of cluster " + clusterID
+							+ " are different from the ones of the pairwise comparison of proteins: " + key1 + " and "
+							+ key2);
+				}
+			}
+		}
+	}
+
 	/**
 	 * removes any node stored in the object
 	 */
@@ -1034,28 +682,37 @@ public class ProteinCluster {
 
 	private void createProteinPairs(AlignmentSet peptideAlignments) {
 
-		final List<PCQProteinNode> proteinNodeList = new ArrayList<PCQProteinNode>();
-		proteinNodeList.addAll(proteinNodes);
-
-		for (int i = 0; i < proteinNodeList.size(); i++) {
-			for (int j = i + 1; j < proteinNodeList.size(); j++) {
-				final PCQProteinNode proteinNode1 = proteinNodeList.get(i);
-
-				final PCQProteinNode proteinNode2 = proteinNodeList.get(j);
-				if (PCQUtils.shareAtLeastOnePeptideNode(proteinNode1, proteinNode2, false)
-						|| (peptideAlignments != null && PCQUtils.shareAtLeastOnePeptideBySimilarity(proteinNode1,
-								proteinNode2, peptideAlignments, false))) {
-					final ProteinPair pair = new ProteinPair(proteinNode1, proteinNode2);
-					if (pair.isContainsDiscardedProteinNode()) {
-						discardedProteinPairs.add(pair);
-					} else {
-						proteinPairs.add(pair);
+		final PeptideNodeIncidence incidence = new PeptideNodeIncidence(proteinNodes);
+		final int numProteinNodes = incidence.getNumProteinNodes();
+		for (int i = 0; i < numProteinNodes; i++) {
+			final PCQProteinNode proteinNode1 = incidence.getProteinNode(i);
+			final BitSet coOccurringProteinNodes = incidence.getCoOccurringProteinNodes(i);
+			if (peptideAlignments == null) {
+				// only visit the protein nodes sharing a peptide node
+				for (int j = coOccurringProteinNodes.nextSetBit(i + 1); j >= 0; j = coOccurringProteinNodes
+						.nextSetBit(j + 1)) {
+					addProteinPair(new ProteinPair(proteinNode1, incidence.getProteinNode(j), incidence));
+				}
+			} else {
+				for (int j = i + 1; j < numProteinNodes; j++) {
+					final PCQProteinNode proteinNode2 = incidence.getProteinNode(j);
+					if (coOccurringProteinNodes.get(j) || PCQUtils.shareAtLeastOnePeptideBySimilarity(proteinNode1,
+							proteinNode2, peptideAlignments, false)) {
+						addProteinPair(new ProteinPair(proteinNode1, proteinNode2, incidence));
 					}
 				}
 			}
 		}
 	}
 
+	private void addProteinPair(ProteinPair pair) {
+		if (pair.isContainsDiscardedProteinNode()) {
+			discardedProteinPairs.add(pair);
+		} else {
+			proteinPairs.add(pair);
+		}
+	}
+
 	public Set<ProteinPair> getProteinPairs() {
 		return proteinPairs;
 	}
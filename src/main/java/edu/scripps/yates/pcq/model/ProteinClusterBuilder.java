@@ -0,0 +1,201 @@
+package edu.scripps.yates.pcq.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.scripps.yates.census.read.model.interfaces.QuantifiedPeptideInterface;
+import edu.scripps.yates.census.read.model.interfaces.QuantifiedProteinInterface;
+import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
+import edu.scripps.yates.pcq.util.DisjointSet;
+import edu.scripps.yates.pcq.util.DiscardedPeptidesSet;
+import edu.scripps.yates.pcq.util.DiscardedPeptidesSet.DISCARD_REASON;
+import edu.scripps.yates.pcq.xgmml.util.AlignedPeptides;
+import edu.scripps.yates.pcq.xgmml.util.AlignmentSet;
+import edu.scripps.yates.utilities.alignment.nwalign.NWResult;
+import edu.scripps.yates.utilities.sequence.PTMInPeptide;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.THashSet;
+
+/**
+ * Builds the {@link ProteinCluster}s from the input peptides using a
+ * {@link DisjointSet} over integer ids assigned to the peptides (by full
+ * sequence) and to the proteins.<br>
+ * The peptides are walked in the same way than the iterative merging of
+ * clusters did, but the connections are just unions of ids, so that each
+ * {@link ProteinCluster} is created only once, in {@link #buildClusters()},
+ * after all the unions are done.
+ *
+ * @author salvador
+ *
+ */
+public class ProteinClusterBuilder {
+	private final static Logger log = Logger.getLogger(ProteinClusterBuilder.class);
+	private final ProteinClusterQuantParameters params;
+	private final AlignmentSet peptideAlignments;
+	private final DisjointSet disjointSet = new DisjointSet(1024);
+	private final TObjectIntHashMap<String> idsByPeptideFullSequence = new TObjectIntHashMap<String>();
+	private final TObjectIntHashMap<QuantifiedProteinInterface> idsByProtein = new TObjectIntHashMap<QuantifiedProteinInterface>();
+	private final Set<QuantifiedPeptideInterface> peptides = new THashSet<QuantifiedPeptideInterface>();
+	// alignments are added to the cluster of the peptide from which they were
+	// found
+	private final List<AlignedPeptides> alignments = new ArrayList<AlignedPeptides>();
+	private final TIntArrayList alignmentPeptideIds = new TIntArrayList();
+	private final Set<String> proteinACCs = new THashSet<String>();
+
+	public ProteinClusterBuilder(ProteinClusterQuantParameters params, AlignmentSet peptideAlignments) {
+		this.params = params;
+		this.peptideAlignments = peptideAlignments;
+	}
+
+	/**
+	 * Adds a peptide, connecting it to its proteins, to the other peptides of
+	 * these proteins and to the peptides aligned to it
+	 *
+	 * @param peptide
+	 * @return false if the peptide was discarded
+	 */
+	public boolean addPeptide(QuantifiedPeptideInterface peptide) {
+		// discard if contains ptms and we want to ignore them
+		if (params.isIgnorePTMs() && peptide.containsPTMs()) {
+			DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.CONTAINING_PTM);
+			log.info(peptide.getKey() + " discarded for containing a PTM");
+			return false;
+		}
+		// discard it if it is not connected to any protein
+		if (peptide.getQuantifiedProteins().isEmpty()) {
+			DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.PEPTIDE_WITH_NO_PROTEIN);
+
+			log.warn(peptide.getSequence() + " peptide ignored because it is not connected to any protein");
+			return false;
+		}
+		// discard it if we collapse by PTMs and it doesn't contain any PTMs from the
+		// ones quantified
+		if (params.isCollapseByPTMs() && !containsQuantifiedPTM(peptide)) {
+			DiscardedPeptidesSet.getInstance().add(peptide, DISCARD_REASON.NOT_CONTAINING_PTM);
+			log.warn(peptide.getSequence() + " peptide ignored because it doesn't contain quantified PTMs");
+			return false;
+		}
+
+		final int peptideId = getOrCreatePeptideId(peptide);
+
+		// in case of having peptide alignments done
+		if (peptideAlignments != null) {
+			for (final AlignedPeptides alignment : peptideAlignments.getAlignmentsForPeptide(peptide)) {
+				final NWResult alignResult = alignment.getAlignmentResult();
+				if (alignResult.getFinalAlignmentScore() >= params.getFinalAlignmentScore()
+						&& alignResult.getSequenceIdentity() >= params.getSequenceIdentity()
+						&& alignResult.getMaxConsecutiveIdenticalAlignment() >= params
+								.getMinConsecutiveIdenticalAlignment()) {
+
+					final QuantifiedPeptideInterface peptide2 = alignment.getPeptideAligned(peptide);
+					if (peptide2 != null) {
+						// only connected if peptide 2 is already in a cluster
+						final String fullSequence2 = peptide2.getFullSequence();
+						if (idsByPeptideFullSequence.containsKey(fullSequence2)) {
+							disjointSet.union(peptideId, idsByPeptideFullSequence.get(fullSequence2));
+							peptides.add(peptide2);
+						}
+						// add alignment to the cluster
+						alignments.add(alignment);
+						alignmentPeptideIds.add(peptideId);
+					}
+				}
+			}
+		}
+		// get proteins of the peptide and connect them to the peptide
+		for (final QuantifiedProteinInterface protein : peptide.getQuantifiedProteins()) {
+			proteinACCs.add(protein.getAccession());
+			disjointSet.union(peptideId, getOrCreateProteinId(protein));
+
+			// peptide 2 <- protein
+			for (final QuantifiedPeptideInterface peptide2 : protein.getQuantifiedPeptides()) {
+				if (params.isCollapseByPTMs() && !containsQuantifiedPTM(peptide2)) {
+					DiscardedPeptidesSet.getInstance().add(peptide2, DISCARD_REASON.NOT_CONTAINING_PTM);
+					log.warn(peptide2.getFullSequence() + " peptide ignored because it doesn't contain quantified PTMs");
+					continue;
+				}
+				disjointSet.union(peptideId, getOrCreatePeptideId(peptide2));
+			}
+		}
+		return true;
+	}
+
+	private boolean containsQuantifiedPTM(QuantifiedPeptideInterface peptide) {
+		final List<PTM> quantifiedPTMs = params.getPTMsQuantified();
+		for (final PTMInPeptide ptmInPeptide : peptide.getPTMsInPeptide()) {
+			for (final PTM quantifiedPTM : quantifiedPTMs) {
+				if (quantifiedPTM.isEquivalent(ptmInPeptide)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private int getOrCreatePeptideId(QuantifiedPeptideInterface peptide) {
+		peptides.add(peptide);
+		final String fullSequence = peptide.getFullSequence();
+		if (idsByPeptideFullSequence.containsKey(fullSequence)) {
+			return idsByPeptideFullSequence.get(fullSequence);
+		}
+		final int id = disjointSet.makeSet();
+		idsByPeptideFullSequence.put(fullSequence, id);
+		return id;
+	}
+
+	private int getOrCreateProteinId(QuantifiedProteinInterface protein) {
+		if (idsByProtein.containsKey(protein)) {
+			return idsByProtein.get(protein);
+		}
+		final int id = disjointSet.makeSet();
+		idsByProtein.put(protein, id);
+		return id;
+	}
+
+	/**
+	 * Creates one {@link ProteinCluster} per disjoint set of connected peptides
+	 * and proteins
+	 *
+	 * @return
+	 */
+	public Set<ProteinCluster> buildClusters() {
+		final TIntObjectHashMap<ProteinCluster> clustersByRoot = new TIntObjectHashMap<ProteinCluster>();
+		for (final QuantifiedPeptideInterface peptide : peptides) {
+			final int root = disjointSet.find(idsByPeptideFullSequence.get(peptide.getFullSequence()));
+			getCluster(clustersByRoot, root).addIndividualQuantifiedPeptide(peptide);
+		}
+		for (final QuantifiedProteinInterface protein : idsByProtein.keySet()) {
+			final int root = disjointSet.find(idsByProtein.get(protein));
+			getCluster(clustersByRoot, root).addIndividualQuantifiedProtein(protein);
+		}
+		for (int i = 0; i < alignments.size(); i++) {
+			final int root = disjointSet.find(alignmentPeptideIds.get(i));
+			getCluster(clustersByRoot, root).addAlignment(alignments.get(i));
+		}
+		final Set<ProteinCluster> ret = new THashSet<ProteinCluster>();
+		ret.addAll(clustersByRoot.valueCollection());
+		return ret;
+	}
+
+	private ProteinCluster getCluster(TIntObjectHashMap<ProteinCluster> clustersByRoot, int root) {
+		ProteinCluster cluster = clustersByRoot.get(root);
+		if (cluster == null) {
+			cluster = new ProteinCluster();
+			clustersByRoot.put(root, cluster);
+		}
+		return cluster;
+	}
+
+	/**
+	 *
+	 * @return the accessions of the proteins connected to the peptides added
+	 */
+	public Set<String> getProteinACCs() {
+		return proteinACCs;
+	}
+}
@@ -2,7 +2,6 @@ package edu.scripps.yates.pcq.model;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +17,7 @@ import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
 import edu.scripps.yates.pcq.util.PCQUtils;
 import edu.scripps.yates.pcq.util.ProteinPairPValue;
 import edu.scripps.yates.utilities.maths.Maths;
+import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.map.hash.THashMap;
 
 public class ProteinPair {
@@ -28,6 +28,7 @@ public class ProteinPair {
 	private boolean uniquePeptidesProt2Inconsistent = false;
 	private boolean sharedPeptidesInconsistent = false;
 	private final boolean containsDiscardedProteinNode;
+	private final PeptideNodeIncidence incidence;
 	private final Map<String, Classification2Case> classification2Cases = new THashMap<String, Classification2Case>();
 	private final Map<String, Classification1Case> classification1Cases = new THashMap<String, Classification1Case>();
 	ProteinPairPValue firstCase;
@@ -36,15 +37,28 @@ public class ProteinPair {
 	private final static int MIN_RATIOS_TO_TEST = 10;
 
 	public ProteinPair(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2) {
+		this(proteinNode1, proteinNode2, null);
+	}
+
+	/**
+	 *
+	 * @param proteinNode1
+	 * @param proteinNode2
+	 * @param incidence    the {@link PeptideNodeIncidence} of the cluster of the
+	 *                     protein nodes, used to get their shared and unique
+	 *                     peptide nodes. If null, they are got from the nodes.
+	 */
+	public ProteinPair(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2, PeptideNodeIncidence incidence) {
+		this.incidence = incidence;
 		// sort consistently the protein pairs in order to show the proteinNode1
 		// as the node with a unique peptide node and sort them alphabetically
 		boolean protein1HasUniquePeptides = false;
 		boolean protein2HasUniquePeptides = false;
 
-		if (!PCQUtils.getUniquePeptideNodes(proteinNode1, proteinNode2, false, true).isEmpty()) {
+		if (hasUniquePeptideNodes(proteinNode1, proteinNode2)) {
 			protein1HasUniquePeptides = true;
 		}
-		if (!PCQUtils.getUniquePeptideNodes(proteinNode2, proteinNode1, false, true).isEmpty()) {
+		if (hasUniquePeptideNodes(proteinNode2, proteinNode1)) {
 			protein2HasUniquePeptides = true;
 		}
 		if (protein1HasUniquePeptides && !protein2HasUniquePeptides) {
@@ -80,46 +94,61 @@ public class ProteinPair {
 	}
 
 	public void proteinPairAnalysis(QuantCondition cond1, QuantCondition cond2) throws IOException {
-		final Double[] threeCombined = new Double[3];
+		proteinPairAnalysis(cond1, cond2, new PairClassificationBuffers());
+	}
+
+	/**
+	 * Same as {@link #proteinPairAnalysis(QuantCondition, QuantCondition)} using
+	 * the buffers of the calling thread for the ratio values
+	 *
+	 * @param cond1
+	 * @param cond2
+	 * @param buffers
+	 * @throws IOException
+	 */
+	void proteinPairAnalysis(QuantCondition cond1, QuantCondition cond2, PairClassificationBuffers buffers)
+			throws IOException {
+		// null ratios are stored as NaN
+		final double[] threeCombined = buffers.threeCombined;
 		// Protein 1's unique peptides
 		// has only ratios or inf
-		final Set<PCQPeptideNode> uniqueTo1PeptideNodes = PCQUtils.getUniquePeptideNodes(proteinNode1, proteinNode2,
+		final Set<PCQPeptideNode> uniqueTo1PeptideNodes = getUniquePeptideNodes(proteinNode1, proteinNode2,
 				params.isUniquePepOnly(), true);
-		final Double ratioValueUniqueTo1 = PCQUtils
-				.getRepresentativeRatioForPeptideNodes(uniqueTo1PeptideNodes, cond1, cond2, null, true)
-				.getLog2Ratio(cond1, cond2);
-		threeCombined[0] = ratioValueUniqueTo1;
+		threeCombined[0] = getLog2Ratio(
+				PCQUtils.getRepresentativeRatioForPeptideNodes(uniqueTo1PeptideNodes, cond1, cond2, null, true), cond1,
+				cond2);
 
-		final List<Double> pepRatProt1 = PCQUtils
-				.getIndividualRepresentativeLog2ValuesForEachPeptideForProteinPairAnalysis(uniqueTo1PeptideNodes, cond1,
-						cond2, true);
+		final TDoubleArrayList pepRatProt1 = buffers.pepRatProt1;
+		pepRatProt1.resetQuick();
+		PCQUtils.addIndividualRepresentativeLog2ValuesForEachPeptideForProteinPairAnalysis(uniqueTo1PeptideNodes,
+				cond1, cond2, true, pepRatProt1);
 
 		// protein 2's peptides
-		final Set<PCQPeptideNode> uniqueTo2PeptideNodes = PCQUtils.getUniquePeptideNodes(proteinNode2, proteinNode1,
+		final Set<PCQPeptideNode> uniqueTo2PeptideNodes = getUniquePeptideNodes(proteinNode2, proteinNode1,
 				params.isUniquePepOnly(), true);
-		final Double ratioValueUniqueTo2 = PCQUtils
-				.getRepresentativeRatioForPeptideNodes(uniqueTo2PeptideNodes, cond1, cond2, null, true)
-				.getLog2Ratio(cond1, cond2);
-		threeCombined[2] = ratioValueUniqueTo2;
-		final List<Double> pepRatProt2 = PCQUtils
-				.getIndividualRepresentativeLog2ValuesForEachPeptideForProteinPairAnalysis(uniqueTo2PeptideNodes, cond1,
-						cond2, true);
-
-		final Map<String, Set<PCQPeptideNode>> sharedPeptidesMap = PCQUtils.getSharedPeptideNodesMap(proteinNode1,
+		threeCombined[2] = getLog2Ratio(
+				PCQUtils.getRepresentativeRatioForPeptideNodes(uniqueTo2PeptideNodes, cond1, cond2, null, true), cond1,
+				cond2);
+		final TDoubleArrayList pepRatProt2 = buffers.pepRatProt2;
+		pepRatProt2.resetQuick();
+		PCQUtils.addIndividualRepresentativeLog2ValuesForEachPeptideForProteinPairAnalysis(uniqueTo2PeptideNodes,
+				cond1, cond2, true, pepRatProt2);
+
+		final Map<String, Set<PCQPeptideNode>> sharedPeptidesMap = getSharedPeptideNodesMap(proteinNode1,
 				proteinNode2, false, true);
 		for (final String sharedPeptidesProteinKey : sharedPeptidesMap.keySet()) {
 			final Set<PCQPeptideNode> sharedPeptideNodes = sharedPeptidesMap.get(sharedPeptidesProteinKey);
 
-			final QuantRatio representativeRatioForPeptideNodes = PCQUtils
-					.getRepresentativeRatioForPeptideNodes(sharedPeptideNodes, cond1, cond2, null, true);
-			final Double ratioValueShared = representativeRatioForPeptideNodes.getLog2Ratio(cond1, cond2);
-			threeCombined[1] = ratioValueShared;
-			final List<Double> pepRatShared = PCQUtils
-					.getIndividualRepresentativeLog2ValuesForEachPeptideForProteinPairAnalysis(sharedPeptideNodes,
-							cond1, cond2, true);
+			threeCombined[1] = getLog2Ratio(
+					PCQUtils.getRepresentativeRatioForPeptideNodes(sharedPeptideNodes, cond1, cond2, null, true), cond1,
+					cond2);
+			final TDoubleArrayList pepRatShared = buffers.pepRatShared;
+			pepRatShared.resetQuick();
+			PCQUtils.addIndividualRepresentativeLog2ValuesForEachPeptideForProteinPairAnalysis(sharedPeptideNodes,
+					cond1, cond2, true, pepRatShared);
 
-			classifyPairByClassification2(params.getThresholdForSignificance(), Arrays.asList(threeCombined),
-					sharedPeptidesProteinKey, cond1, cond2, pepRatProt1, pepRatShared, pepRatProt2);
+			classifyPairByClassification2(params.getThresholdForSignificance(), threeCombined,
+					sharedPeptidesProteinKey, cond1, cond2, pepRatProt1, pepRatShared, pepRatProt2, buffers.population);
 
 			// classifyPairByclassification1(Arrays.asList(threeCombined),
 			// pepRatProt1, pepRatShared, pepRatProt2,
@@ -128,6 +157,14 @@ public class ProteinPair {
 
 	}
 
+	private static double getLog2Ratio(QuantRatio ratio, QuantCondition cond1, QuantCondition cond2) {
+		final Double log2Ratio = ratio.getLog2Ratio(cond1, cond2);
+		if (log2Ratio == null) {
+			return Double.NaN;
+		}
+		return log2Ratio;
+	}
+
 	/**
 	 * Classifies all three ratios into the three different cases based on
 	 * infinities and using a user defined foldchange threshold when possible.
@@ -141,22 +178,18 @@ public class ProteinPair {
 	 * @param cond2
 	 * @throws IOException
 	 */
-	private void classifyPairByClassification2(double foldChange, List<Double> threeCombinedOriginal,
-			String sharedPeptidesProteinKey, QuantCondition cond1, QuantCondition cond2, List<Double> pepRatProt1,
-			List<Double> pepRatShared, List<Double> pepRatProt2) throws IOException {
-
-		double firstUnique = 0;
-		double secondUnique = 0;
-		// copy in another array, otherwise it may get swapped
-		final List<Double> threeCombined = new ArrayList<Double>();
-		threeCombined.addAll(threeCombinedOriginal);
+	private void classifyPairByClassification2(double foldChange, double[] threeCombined,
+			String sharedPeptidesProteinKey, QuantCondition cond1, QuantCondition cond2, TDoubleArrayList pepRatProt1,
+			TDoubleArrayList pepRatShared, TDoubleArrayList pepRatProt2, TDoubleArrayList population)
+			throws IOException {
+
 		// DO pair-wise comparison of ratios; the two unique and the shared
 		final double log2ThresholdFoldChange = Math.log(foldChange) / Math.log(2);
 		// ratios with threshold or 2* standard deviation
 
 		// use value defined in thresholdForSignificance
 
-		if (threeCombined.contains(null) || threeCombined.contains(Double.NaN)) {
+		if (containsNaN(threeCombined)) {
 			// unclassified
 			classification2Cases.put(sharedPeptidesProteinKey, Classification2Case.CASE6);
 			// System.out.println("unclassified");
@@ -164,18 +197,17 @@ public class ProteinPair {
 		// make sure the unique1 is larger or equal to unique2
 		else {
 
+			// not swapped in the array, since the original order is used by
+			// the classification1
 			boolean swapped = false;
-			if (Double.compare(threeCombined.get(0), threeCombined.get(2)) > 0) {
+			double unique1Ratio = threeCombined[0];
+			final double sharedRatio = threeCombined[1];
+			double unique2Ratio = threeCombined[2];
+			if (Double.compare(unique1Ratio, unique2Ratio) > 0) {
 				swapped = true;
-				firstUnique = threeCombined.get(2);
-				secondUnique = threeCombined.get(0);
-
-				threeCombined.set(0, firstUnique);
-				threeCombined.set(2, secondUnique);
+				unique1Ratio = threeCombined[2];
+				unique2Ratio = threeCombined[0];
 			}
-			final Double unique1Ratio = threeCombined.get(0);
-			final Double sharedRatio = threeCombined.get(1);
-			final Double unique2Ratio = threeCombined.get(2);
 			// perform classification
 
 			final StringBuilder logString = new StringBuilder();
@@ -200,8 +232,8 @@ public class ProteinPair {
 					if (Double.compare(distanceBetweenRatio1Ratio2, log2ThresholdFoldChange) > 0) {
 						if (params.isStatisticalTestForProteinPairApplied()) {
 							try {
-								classifyPairByclassification1(threeCombinedOriginal, pepRatProt1, pepRatShared,
-										pepRatProt2, sharedPeptidesProteinKey, cond1, cond2);
+								classifyPairByclassification1(threeCombined, pepRatProt1, pepRatShared, pepRatProt2,
+										population, sharedPeptidesProteinKey, cond1, cond2);
 								final Classification1Case case1 = classification1Cases.get(sharedPeptidesProteinKey);
 								if (case1 == Classification1Case.CASE3 || case1 == Classification1Case.CASE6
 										|| case1 == Classification1Case.CASE7) {
@@ -248,14 +280,14 @@ public class ProteinPair {
 									uniquePeptidesProt2Inconsistent = true;
 								}
 							}
-							if (unique1Ratio.isInfinite()) {
+							if (Double.isInfinite(unique1Ratio)) {
 								if (swapped) {
 									uniquePeptidesProt2Inconsistent = true;
 								} else {
 									uniquePeptidesProt1Inconsistent = true;
 								}
 							}
-							if (unique2Ratio.isInfinite()) {
+							if (Double.isInfinite(unique2Ratio)) {
 								if (swapped) {
 									uniquePeptidesProt1Inconsistent = true;
 								} else {
@@ -291,8 +323,8 @@ public class ProteinPair {
 					} else {
 						if (params.isStatisticalTestForProteinPairApplied()) {
 							try {
-								classifyPairByclassification1(threeCombinedOriginal, pepRatProt1, pepRatShared,
-										pepRatProt2, sharedPeptidesProteinKey, cond1, cond2);
+								classifyPairByclassification1(threeCombined, pepRatProt1, pepRatShared, pepRatProt2,
+										population, sharedPeptidesProteinKey, cond1, cond2);
 								final Classification1Case case1 = classification1Cases.get(sharedPeptidesProteinKey);
 								if (case1 == Classification1Case.CASE3 || case1 == Classification1Case.CASE6
 										|| case1 == Classification1Case.CASE7) {
@@ -344,35 +376,37 @@ public class ProteinPair {
 	 * infinities and using an statistical test when possible
 	 *
 	 * @param threeCombined
-	 * @param pepRatProt2
-	 * @param pepRatShared
 	 * @param pepRatProt1
-	 * @param minRatiosToTest
-	 * @param gAM
+	 * @param pepRatShared
+	 * @param pepRatProt2
+	 * @param population      buffer for the population of the outlier tests
+	 * @param sharedPeptidesProteinKey
+	 * @param cond1
+	 * @param cond2
 	 * @throws IOException
 	 */
-	private void classifyPairByclassification1(List<Double> threeCombined, List<Double> pepRatProt1,
-			List<Double> pepRatShared, List<Double> pepRatProt2, String sharedPeptidesProteinKey, QuantCondition cond1,
-			QuantCondition cond2) throws IOException, NotEnoughMeasurementsException {
+	private void classifyPairByclassification1(double[] threeCombined, TDoubleArrayList pepRatProt1,
+			TDoubleArrayList pepRatShared, TDoubleArrayList pepRatProt2, TDoubleArrayList population,
+			String sharedPeptidesProteinKey, QuantCondition cond1, QuantCondition cond2)
+			throws IOException, NotEnoughMeasurementsException {
 
-		final boolean hasRatiosAndINF = PCQUtils.hasRatiosAndINF(threeCombined);
+		final TDoubleArrayList threeCombinedList = TDoubleArrayList.wrap(threeCombined);
+		final boolean hasRatiosAndINF = PCQUtils.hasRatiosAndINF(threeCombinedList);
 		Classification1Case classification1Case = Classification1Case.CASE4;
 
-		if (threeCombined.contains(null) || threeCombined.contains(Double.NaN)) {
+		if (containsNaN(threeCombined)) {
 			classification1Case = Classification1Case.CASE5;
 		} else if (hasRatiosAndINF) {
 			classification1Case = Classification1Case.CASE2;
 
 		} else {
 			// at this point we have INF OR RATIOS, not both
-			final List<Double> INFRatios = PCQUtils.getINFRatiosValues(threeCombined);
-			final List<Double> nonINFRatios = PCQUtils.getNonINFRatiosValues(threeCombined);
 
 			// if we only have RATIO :
-			if (!nonINFRatios.isEmpty()) {
+			if (!Double.isInfinite(threeCombined[0])) {
 				final int uniquePeptideOutlier = outlierTestUniquePeptides(threeCombined, pepRatProt1, pepRatShared,
-						pepRatProt2);
-				boolean sharedPeptideOutlier = outlierTest(threeCombined.get(1), pepRatProt1, pepRatProt2);
+						pepRatProt2, population);
+				boolean sharedPeptideOutlier = outlierTest(threeCombined[1], pepRatProt1, pepRatProt2, population);
 				if (uniquePeptideOutlier != 0) { // there are some outliers
 					if (uniquePeptideOutlier == 1 || uniquePeptideOutlier == 3) {
 						uniquePeptidesProt1Inconsistent = true;
@@ -403,8 +437,8 @@ public class ProteinPair {
 
 			}
 			// if we only have INF or -INF:
-			else if (!INFRatios.isEmpty()) {
-				final Double infinities = PCQUtils.areAllINFValuesSame(INFRatios);
+			else {
+				final Double infinities = PCQUtils.areAllINFValuesSame(threeCombinedList);
 				if (infinities == null) {
 					classification1Case = Classification1Case.CASE1;
 					uniquePeptidesProt1Inconsistent = true;
@@ -422,7 +456,7 @@ public class ProteinPair {
 
 	private boolean isSharedPeptideNodeSharedByOtherProteinNodeOutOfThePair(QuantCondition cond1,
 			QuantCondition cond2) {
-		final int sharedPeptides = PCQUtils.getNumSharedPeptideNodesByProteinNode(proteinNode1, proteinNode2, false,
+		final int sharedPeptides = getNumSharedPeptideNodesByProteinNode(proteinNode1, proteinNode2, false,
 				true);
 		if (sharedPeptides > 2) {
 			return true;
@@ -439,28 +473,29 @@ public class ProteinPair {
 	 * @param pepRatProt1
 	 * @param pepRatShared
 	 * @param pepRatProt2
+	 * @param population
 	 * @return 1 if unique peptides of protein1 are outliers, 0 if there is no
 	 *         outliers and 2 if unique peptides of protein2 are outliers, or 3
 	 *         if both unique peptides are outliers
 	 * @throws NotEnoughMeasurementsException
 	 */
-	private int outlierTestUniquePeptides(List<Double> threeCombined, List<Double> pepRatProt1,
-			List<Double> pepRatShared, List<Double> pepRatProt2) throws NotEnoughMeasurementsException {
-		final List<Double> populationValues = new ArrayList<Double>();
+	private int outlierTestUniquePeptides(double[] threeCombined, TDoubleArrayList pepRatProt1,
+			TDoubleArrayList pepRatShared, TDoubleArrayList pepRatProt2, TDoubleArrayList population)
+			throws NotEnoughMeasurementsException {
 		double valueToTest;
 		int ret = 0;
 		// first case
-		valueToTest = threeCombined.get(0);
-		if (outlierTest(valueToTest, pepRatShared, pepRatProt2)) {
-			final double pValueFirstCase = Maths.iglewiczHoaglinTest(valueToTest, convertingList(populationValues));
+		valueToTest = threeCombined[0];
+		if (outlierTest(valueToTest, pepRatShared, pepRatProt2, population)) {
+			final double pValueFirstCase = Maths.iglewiczHoaglinTest(valueToTest, population.toArray());
 			firstCase = new ProteinPairPValue(pValueFirstCase, this);
 			ret = 1;
 		}
 
 		// third case
-		valueToTest = threeCombined.get(2);
-		if (outlierTest(valueToTest, pepRatProt1, pepRatShared)) {
-			final double pValueSecondCase = Maths.iglewiczHoaglinTest(valueToTest, convertingList(populationValues));
+		valueToTest = threeCombined[2];
+		if (outlierTest(valueToTest, pepRatProt1, pepRatShared, population)) {
+			final double pValueSecondCase = Maths.iglewiczHoaglinTest(valueToTest, population.toArray());
 			secondCase = new ProteinPairPValue(pValueSecondCase, this);
 			if (ret == 1) {
 				ret = 3;
@@ -473,33 +508,29 @@ public class ProteinPair {
 
 	/**
 	 * A generic function to pass the needed values for an outlier test.<br>
-	 * Note that the parameter populationSets with "..." means that you can pass
-	 * as many List<Double> lists as you want.
+	 * The population of the test is the value to test and the finite values of
+	 * the two population sets, and it is left in the population buffer.
 	 *
 	 * @param valueToTest
-	 * @param populationSets
+	 * @param populationSet1
+	 * @param populationSet2
+	 * @param population
 	 * @return
 	 * @throws NotEnoughMeasurementsException
 	 */
+	private boolean outlierTest(double valueToTest, TDoubleArrayList populationSet1, TDoubleArrayList populationSet2,
+			TDoubleArrayList population) throws NotEnoughMeasurementsException {
 
-	final private boolean outlierTest(Double valueToTest, List<Double>... populationSets)
-			throws NotEnoughMeasurementsException {
-
-		final List<Double> populationValues = new ArrayList<Double>();
 		boolean outlier = false;
 
-		populationValues.clear();
-		populationValues.add(valueToTest);
-		for (final List<Double> populationSet : populationSets) {
-			for (final Double value : populationSet) {
-				if (value != null && !Double.isInfinite(value) && !Double.isNaN(value)) {
-					populationValues.add(value);
-				}
-			}
-		}
-		if (populationValues.size() >= MIN_RATIOS_TO_TEST) {
-			final double iglewiczHoaglinTest = Maths.iglewiczHoaglinTest(valueToTest, convertingList(populationValues));
-			if (iglewiczHoaglinTest >= ProteinClusterQuantParameters.getInstance().getIglewiczHoaglinTestThreshold()) {
+		population.resetQuick();
+		population.add(valueToTest);
+		addFiniteValues(populationSet1, population);
+		addFiniteValues(populationSet2, population);
+		if (population.size() >= MIN_RATIOS_TO_TEST) {
+			// Maths needs an array with the exact number of values
+			final double iglewiczHoaglinTest = Maths.iglewiczHoaglinTest(valueToTest, population.toArray());
+			if (iglewiczHoaglinTest >= params.getIglewiczHoaglinTestThreshold()) {
 				outlier = true;
 			}
 		} else {
@@ -508,12 +539,22 @@ public class ProteinPair {
 		return outlier;
 	}
 
-	private double[] convertingList(List<Double> toBeConverted) {
-		final double[] ret = new double[toBeConverted.size()];
-		for (int i = 0; i < toBeConverted.size(); i++) {
-			ret[i] = toBeConverted.get(i);
+	private static void addFiniteValues(TDoubleArrayList values, TDoubleArrayList to) {
+		for (int i = 0; i < values.size(); i++) {
+			final double value = values.getQuick(i);
+			if (!Double.isInfinite(value) && !Double.isNaN(value)) {
+				to.add(value);
+			}
 		}
-		return ret;
+	}
+
+	private static boolean containsNaN(double[] values) {
+		for (final double value : values) {
+			if (Double.isNaN(value)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -539,7 +580,7 @@ public class ProteinPair {
 		final StringBuilder sb = new StringBuilder();
 		// protein1
 		final List<PCQPeptideNode> uniquePeptideNodes1 = PCQUtils.getSortedPeptideNodesBySequence(
-				PCQUtils.getUniquePeptideNodes(proteinNode1, proteinNode2, params.isUniquePepOnly(), true));
+				getUniquePeptideNodes(proteinNode1, proteinNode2, params.isUniquePepOnly(), true));
 		final StringBuilder sb1 = new StringBuilder();
 		for (final PCQPeptideNode quantifiedPeptideNode : uniquePeptideNodes1) {
 			if (!"".equals(sb1.toString())) {
@@ -551,11 +592,11 @@ public class ProteinPair {
 		// shared
 		// protein1
 		final String shared = PCQUtils.getPeptideNodesSequenceString(
-				PCQUtils.getSharedPeptideNodeSet(proteinNode1, proteinNode2, false, true));
+				getSharedPeptideNodeSet(proteinNode1, proteinNode2, false, true));
 		sb.append("[SHARED: " + shared + "] ");
 		// protein2
 		final List<PCQPeptideNode> uniquePeptideNodes2 = PCQUtils.getSortedPeptideNodesBySequence(
-				PCQUtils.getUniquePeptideNodes(proteinNode2, proteinNode1, params.isUniquePepOnly(), true));
+				getUniquePeptideNodes(proteinNode2, proteinNode1, params.isUniquePepOnly(), true));
 		final StringBuilder sb2 = new StringBuilder();
 		for (final PCQPeptideNode peptideNode : uniquePeptideNodes2) {
 			if (!"".equals(sb2.toString())) {
@@ -622,7 +663,7 @@ public class ProteinPair {
 	 */
 	public List<String> getSummaryLines(QuantCondition cond1, QuantCondition cond2) {
 		final List<String> ret = new ArrayList<String>();
-		final Map<String, Set<PCQPeptideNode>> sharedPeptidesMap = PCQUtils.getSharedPeptideNodesMap(proteinNode1,
+		final Map<String, Set<PCQPeptideNode>> sharedPeptidesMap = getSharedPeptideNodesMap(proteinNode1,
 				proteinNode2, false, true);
 		final String taxonomy1 = PCQUtils.getTaxonomyString(proteinNode1);
 
@@ -632,7 +673,7 @@ public class ProteinPair {
 
 			final StringBuilder sb = new StringBuilder();
 			// UniquePep1
-			final Set<PCQPeptideNode> uniquePeptideNodes1 = PCQUtils.getUniquePeptideNodes(proteinNode1, proteinNode2,
+			final Set<PCQPeptideNode> uniquePeptideNodes1 = getUniquePeptideNodes(proteinNode1, proteinNode2,
 					true, true);
 			sb.append(PCQUtils.getPeptideNodesSequenceString(uniquePeptideNodes1) + "\t");
 			// RatioU1
@@ -668,7 +709,7 @@ public class ProteinPair {
 			// taxonomy of protein 2
 			sb.append(taxonomy2 + "\t");
 			// UniquePep2
-			final Set<PCQPeptideNode> uniquePeptideNodes2 = PCQUtils.getUniquePeptideNodes(proteinNode2, proteinNode1,
+			final Set<PCQPeptideNode> uniquePeptideNodes2 = getUniquePeptideNodes(proteinNode2, proteinNode1,
 					true, true);
 			sb.append(PCQUtils.getPeptideNodesSequenceString(uniquePeptideNodes2) + "\t");
 			// RatioU2
@@ -728,8 +769,53 @@ public class ProteinPair {
 		return sb.toString();
 	}
 
+	private boolean hasUniquePeptideNodes(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2) {
+		if (incidence != null) {
+			return incidence.hasUniquePeptideNodes(proteinNode1, proteinNode2, false, true);
+		}
+		return !PCQUtils.getUniquePeptideNodes(proteinNode1, proteinNode2, false, true).isEmpty();
+	}
+
+	private Set<PCQPeptideNode> getUniquePeptideNodes(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean uniquePepOnly, boolean skipDiscarded) {
+		if (incidence != null) {
+			return incidence.getUniquePeptideNodes(proteinNode1, proteinNode2, uniquePepOnly, skipDiscarded);
+		}
+		return PCQUtils.getUniquePeptideNodes(proteinNode1, proteinNode2, uniquePepOnly, skipDiscarded);
+	}
+
+	private Set<PCQPeptideNode> getSharedPeptideNodeSet(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean onlySharedByTheseTwoProteins, boolean skipDiscarded) {
+		if (incidence != null) {
+			return incidence.getSharedPeptideNodeSet(proteinNode1, proteinNode2, onlySharedByTheseTwoProteins,
+					skipDiscarded);
+		}
+		return PCQUtils.getSharedPeptideNodeSet(proteinNode1, proteinNode2, onlySharedByTheseTwoProteins,
+				skipDiscarded);
+	}
+
+	private Map<String, Set<PCQPeptideNode>> getSharedPeptideNodesMap(PCQProteinNode proteinNode1,
+			PCQProteinNode proteinNode2, boolean onlySharedByTheseTwoProteins, boolean skipDiscarded) {
+		if (incidence != null) {
+			return incidence.getSharedPeptideNodesMap(proteinNode1, proteinNode2, onlySharedByTheseTwoProteins,
+					skipDiscarded);
+		}
+		return PCQUtils.getSharedPeptideNodesMap(proteinNode1, proteinNode2, onlySharedByTheseTwoProteins,
+				skipDiscarded);
+	}
+
+	private int getNumSharedPeptideNodesByProteinNode(PCQProteinNode proteinNode1, PCQProteinNode proteinNode2,
+			boolean onlySharedByTheseTwoProteins, boolean skipDiscarded) {
+		if (incidence != null) {
+			return incidence.getNumSharedPeptideNodesByProteinNode(proteinNode1, proteinNode2,
+					onlySharedByTheseTwoProteins, skipDiscarded);
+		}
+		return PCQUtils.getNumSharedPeptideNodesByProteinNode(proteinNode1, proteinNode2,
+				onlySharedByTheseTwoProteins, skipDiscarded);
+	}
+
 	public int getNumSharedNodes() {
-		return PCQUtils.getNumSharedPeptideNodesByProteinNode(proteinNode1, proteinNode2, false, true);
+		return getNumSharedPeptideNodesByProteinNode(proteinNode1, proteinNode2, false, true);
 		// return PCQUtils.getSharedPeptideNodesByProteinNode(proteinNode1,
 		// proteinNode2, false, true).size();
 	}
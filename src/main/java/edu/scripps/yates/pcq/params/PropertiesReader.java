@@ -17,6 +17,7 @@ import org.apache.commons.io.FilenameUtils;
 
 import edu.scripps.yates.census.read.util.QuantificationLabel;
 import edu.scripps.yates.pcq.model.IsobaricRatioType;
+import edu.scripps.yates.pcq.sanxot.IntegrationEngine;
 import edu.scripps.yates.pcq.util.AnalysisInputType;
 import edu.scripps.yates.pcq.util.ExperimentFiles;
 import edu.scripps.yates.pcq.xgmml.util.ColorManager;
@@ -462,6 +463,10 @@ public class PropertiesReader {
 			if (minConsecutiveIdenticalAlignment != null) {
 				params.setMinConsecutiveIdenticalAlignment(Integer.valueOf(minConsecutiveIdenticalAlignment));
 			}
+			final String alignmentCacheFile = properties.getProperty("alignmentCacheFile", false);
+			if (alignmentCacheFile != null && !"".equals(alignmentCacheFile)) {
+				params.setAlignmentCacheFile(new File(alignmentCacheFile));
+			}
 		}
 		if (properties.containsKey("proteinLabel")) {
 			final ProteinNodeLabel proteinLabel = ProteinNodeLabel
@@ -538,6 +543,15 @@ public class PropertiesReader {
 					System.getProperty("user.dir") + File.separator + "SanXot");
 			final File scriptsPath = new File(sanxotPath);
 			params.setSanXotPath(scriptsPath);
+			if (properties.containsKey("integrationEngine")) {
+				final String property = properties.getProperty("integrationEngine", false);
+				try {
+					params.setIntegrationEngine(IntegrationEngine.valueOf(property.trim().toUpperCase()));
+				} catch (final Exception e) {
+					throw new IllegalArgumentException("integrationEngine is not recognized as '" + property
+							+ "'. Posible values are " + IntegrationEngine.getPossibleValues());
+				}
+			}
 			try {
 				if (properties.containsKey("outliersRemovalFDR")) {
 					final double outlierRemovalFDR = Double
@@ -604,6 +618,48 @@ public class PropertiesReader {
 				.valueOf(properties.getProperty("writePSEAQuantInputFiles", "true"));
 		params.setWritePSEAQuantInputFiles(writePSEAQuantInputFiles);
 
+		// number of threads for the parallel stages
+		final String numThreadsString = properties.getProperty("numThreads", "1");
+		try {
+			final int numThreads = Integer.valueOf(numThreadsString);
+			if (numThreads < 1) {
+				throw new Exception();
+			}
+			params.setNumThreads(numThreads);
+		} catch (final Exception e) {
+			throw new IllegalArgumentException("numThreads is not recognized as '" + numThreadsString
+					+ "'. Posible values are positive integers");
+		}
+
+		final boolean checkNodesCollapsing = Boolean
+				.valueOf(properties.getProperty("checkNodesCollapsing", "false"));
+		params.setCheckNodesCollapsing(checkNodesCollapsing);
+
+		final String parsedInputCacheSizeString = properties.getProperty("parsedInputCacheSize", "0");
+		try {
+			final int parsedInputCacheSize = Integer.valueOf(parsedInputCacheSizeString);
+			if (parsedInputCacheSize < 0) {
+				throw new Exception();
+			}
+			params.setParsedInputCacheSize(parsedInputCacheSize);
+		} catch (final Exception e) {
+			throw new IllegalArgumentException("parsedInputCacheSize is not recognized as '"
+					+ parsedInputCacheSizeString + "'. Posible values are positive integers or 0");
+		}
+
+		final String proteinSequenceIndexFile = properties.getProperty("proteinSequenceIndexFile", false);
+		if (proteinSequenceIndexFile != null && !"".equals(proteinSequenceIndexFile)) {
+			params.setProteinSequenceIndexFile(new File(proteinSequenceIndexFile));
+		}
+
+		final boolean singlePassXGMMLExport = Boolean
+				.valueOf(properties.getProperty("singlePassXGMMLExport", "false"));
+		params.setSinglePassXGMMLExport(singlePassXGMMLExport);
+
+		final boolean writeBinaryResultsFile = Boolean
+				.valueOf(properties.getProperty("writeBinaryResultsFile", "false"));
+		params.setWriteBinaryResultsFile(writeBinaryResultsFile);
+
 		// check errors
 		checkErrorsInParameters(params);
 	}
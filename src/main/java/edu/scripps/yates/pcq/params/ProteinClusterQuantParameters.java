@@ -18,6 +18,7 @@ import edu.scripps.yates.pcq.filter.PCQFilterByPSMCount;
 import edu.scripps.yates.pcq.filter.PCQFilterByReplicateCount;
 import edu.scripps.yates.pcq.model.IsobaricRatioType;
 import edu.scripps.yates.pcq.model.PTM;
+import edu.scripps.yates.pcq.sanxot.IntegrationEngine;
 import edu.scripps.yates.pcq.sanxot.SanxotRunner;
 import edu.scripps.yates.pcq.util.AnalysisInputType;
 import edu.scripps.yates.pcq.util.ExperimentFiles;
@@ -63,7 +64,7 @@ public class ProteinClusterQuantParameters {
 	private double sequenceIdentity;
 	private int minConsecutiveIdenticalAlignment;
 	private File temporalOutputFolder;
-	private static ProteinClusterQuantParameters instance;
+	private static volatile ProteinClusterQuantParameters instance;
 	private ProteinNodeLabel proteinLabel;
 	private int proteinNodeWidth;
 	private int proteinNodeHeight;
@@ -119,6 +120,14 @@ public class ProteinClusterQuantParameters {
 	private boolean writePSEAQuantInputFiles;
 	private boolean forceCreationOfNewParser = false;// by default
 	private boolean createProteinPTMStates;
+	private int numThreads = 1;
+	private boolean checkNodesCollapsing = false;
+	private File alignmentCacheFile;
+	private IntegrationEngine integrationEngine = IntegrationEngine.SANXOT;
+	private int parsedInputCacheSize = 0;
+	private File proteinSequenceIndexFile;
+	private boolean singlePassXGMMLExport = false;
+	private boolean writeBinaryResultsFile = false;
 
 	private ProteinClusterQuantParameters() {
 		quantParameters = new QuantParameters();
@@ -127,7 +136,11 @@ public class ProteinClusterQuantParameters {
 
 	public static ProteinClusterQuantParameters getInstance() {
 		if (instance == null) {
-			instance = new ProteinClusterQuantParameters();
+			synchronized (ProteinClusterQuantParameters.class) {
+				if (instance == null) {
+					instance = new ProteinClusterQuantParameters();
+				}
+			}
 		}
 		return instance;
 	}
@@ -778,7 +791,8 @@ public class ProteinClusterQuantParameters {
 				+ mongoMassDBName + ", ignoreNotFoundPeptidesInDB=" + ignoreNotFoundPeptidesInDB + ", inputType="
 				+ analysisInputType + ", outliersRemovalFDR=" + quantParameters.getOutlierRemovalFDR()
 				+ ", significantFDRThreshold=" + significantFDRThreshold + ", removeFilteredNodes="
-				+ removeFilteredNodes + " ]";
+				+ removeFilteredNodes + ", numThreads=" + numThreads + ", checkNodesCollapsing="
+				+ checkNodesCollapsing + " ]";
 	}
 
 	public String[] getQuantInputFileNamesArray() {
@@ -1280,4 +1294,107 @@ public class ProteinClusterQuantParameters {
 	public boolean isChargeStateSensible() {
 		return DEFAULT_CHARGE_STATE_SENSIBLE;
 	}
+
+	/**
+	 * 
+	 * @return the number of threads used in the parallel stages of the analysis
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * 
+	 * @return whether the collapsing of the nodes is checked against the
+	 *         pairwise comparison of the peptides and proteins of each cluster
+	 */
+	public boolean isCheckNodesCollapsing() {
+		return checkNodesCollapsing;
+	}
+
+	public void setCheckNodesCollapsing(boolean checkNodesCollapsing) {
+		this.checkNodesCollapsing = checkNodesCollapsing;
+	}
+
+	/**
+	 * 
+	 * @return the file in which the alignments passing the thresholds are
+	 *         stored, or null if they are not stored
+	 */
+	public File getAlignmentCacheFile() {
+		return alignmentCacheFile;
+	}
+
+	public void setAlignmentCacheFile(File alignmentCacheFile) {
+		this.alignmentCacheFile = alignmentCacheFile;
+	}
+
+	/**
+	 * 
+	 * @return the engine used to integrate the ratios
+	 */
+	public IntegrationEngine getIntegrationEngine() {
+		return integrationEngine;
+	}
+
+	public void setIntegrationEngine(IntegrationEngine integrationEngine) {
+		this.integrationEngine = integrationEngine;
+	}
+
+	/**
+	 * 
+	 * @return the size in MB of the cache of parsed input files shared by the
+	 *         runs of the same process, or 0 if they are not cached
+	 */
+	public int getParsedInputCacheSize() {
+		return parsedInputCacheSize;
+	}
+
+	public void setParsedInputCacheSize(int parsedInputCacheSize) {
+		this.parsedInputCacheSize = parsedInputCacheSize;
+	}
+
+	/**
+	 * 
+	 * @return the file in which the positions of the peptides in the protein
+	 *         sequences are stored, or null if they are not stored
+	 */
+	public File getProteinSequenceIndexFile() {
+		return proteinSequenceIndexFile;
+	}
+
+	public void setProteinSequenceIndexFile(File proteinSequenceIndexFile) {
+		this.proteinSequenceIndexFile = proteinSequenceIndexFile;
+	}
+
+	/**
+	 * 
+	 * @return true if all the XGMML files are written in a single traversal of
+	 *         the clusters
+	 */
+	public boolean isSinglePassXGMMLExport() {
+		return singlePassXGMMLExport;
+	}
+
+	public void setSinglePassXGMMLExport(boolean singlePassXGMMLExport) {
+		this.singlePassXGMMLExport = singlePassXGMMLExport;
+	}
+
+	/**
+	 * 
+	 * @return true if the results of the peptide nodes are also written in a
+	 *         binary file that can be read by the comparators without parsing
+	 *         the text tables
+	 */
+	public boolean isWriteBinaryResultsFile() {
+		return writeBinaryResultsFile;
+	}
+
+	public void setWriteBinaryResultsFile(boolean writeBinaryResultsFile) {
+		this.writeBinaryResultsFile = writeBinaryResultsFile;
+	}
 }
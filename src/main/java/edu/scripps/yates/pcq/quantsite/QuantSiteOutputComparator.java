@@ -36,6 +36,7 @@ import edu.scripps.yates.pcq.compare.model.QuantifiedSiteSet;
 import edu.scripps.yates.pcq.compare.model.TTestMatrix;
 import edu.scripps.yates.pcq.quantsite.groups.QuantSiteComparisonByGroups;
 import edu.scripps.yates.pcq.quantsite.tmt.TMTPairWisePCQInputParametersGenerator;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile;
 import edu.scripps.yates.utilities.appversion.AppVersion;
 import edu.scripps.yates.utilities.files.FileUtils;
 import edu.scripps.yates.utilities.maths.Maths;
@@ -1330,6 +1331,9 @@ public class QuantSiteOutputComparator {
 	 * @param b
 	 */
 	private QuantifiedSiteSet readPCQOutputFile(File inputFile, boolean swapRatio) throws IOException {
+		if (PeptideNodeResultsFile.isPeptideNodeResultsFile(inputFile)) {
+			return readPCQResultsFile(inputFile, swapRatio);
+		}
 		int numLine = 1;
 		String line = null;
 		try {
@@ -1369,6 +1373,33 @@ public class QuantSiteOutputComparator {
 		}
 	}
 
+	/**
+	 * Reads a PCQ binary peptide node results file
+	 * 
+	 * @param inputFile
+	 * @param swapRatio
+	 * @return
+	 * @throws IOException
+	 */
+	private QuantifiedSiteSet readPCQResultsFile(File inputFile, boolean swapRatio) throws IOException {
+		log.info("Reading input file: '" + inputFile.getAbsolutePath() + "'");
+		final QuantifiedSiteSet ret = new QuantifiedSiteSet();
+		final String sampleName = getSampleNameByFile(inputFile);
+		try (PeptideNodeResultsFile results = PeptideNodeResultsFile.open(inputFile)) {
+			for (int row = 0; row < results.getNumRows(); row++) {
+				final QuantifiedSite quantSite = new QuantifiedSite(results, row, sampleName);
+				if (swapRatio) {
+					final double swappedRatio = 1 / quantSite.getLog2Ratio(0);
+					quantSite.setLog2Ratio(0, swappedRatio);
+				}
+				ret.add(quantSite);
+			}
+		}
+		log.info(ret.getQuantifiedSitesByKey().size() + " quantified sites read from input file '"
+				+ inputFile.getAbsolutePath() + "'");
+		return ret;
+	}
+
 	private static void setupCommandLineOptions() {
 		// create Options object
 		options = new Options();
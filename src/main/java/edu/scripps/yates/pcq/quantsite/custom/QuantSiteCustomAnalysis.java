@@ -25,6 +25,7 @@ import edu.scripps.yates.pcq.params.PropertiesReader;
 import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
 import edu.scripps.yates.pcq.quantsite.QuantSiteOutputComparator;
 import edu.scripps.yates.pcq.quantsite.groups.GroupComparison;
+import edu.scripps.yates.pcq.util.TsvReader;
 import edu.scripps.yates.utilities.appversion.AppVersion;
 import edu.scripps.yates.utilities.maths.Maths;
 import edu.scripps.yates.utilities.maths.PValueCorrectionType;
@@ -183,28 +184,9 @@ public class QuantSiteCustomAnalysis {
 			// now, read output file of the comparator,
 			final File qvalueTableFile = new File(
 					outputComparator.getOutputFolder() + File.separator + outputFileName + ".tsv");
-			final List<String> lines = Files.readAllLines(qvalueTableFile.toPath());
-			final String[] header = lines.get(0).split("\t");
-			int numDiscoveriesIndex = -1;
-			for (int index = 0; index < header.length; index++) {
-				if (header[index].contains("# discoveries")) {
-					numDiscoveriesIndex = index;
-					break;
-				}
-			}
-			if (numDiscoveriesIndex == -1) {
-				throw new IllegalArgumentException(
-						"'# discoveries' column has not found in output file " + qvalueTableFile.getAbsolutePath());
-			}
 			// now keep all lines with qvalue<threshold
-			final List<String> linesToKeep = new ArrayList<String>();
-			for (int i = 1; i < lines.size(); i++) {
-				final String line = lines.get(i);
-				final int numDiscoveries = Integer.valueOf(line.split("\t")[numDiscoveriesIndex]);
-				if (numDiscoveries >= minNumberOfDiscoveries) {
-					linesToKeep.add(line);
-				}
-			}
+			final List<String> linesToKeep = getLinesWithMinimumDiscoveries(qvalueTableFile,
+					minNumberOfDiscoveries);
 			final int numSignificantSites = linesToKeep.size();
 			log.info(numSignificantSites + " sites where significantly changing in " + outputFileName);
 
@@ -285,28 +267,9 @@ public class QuantSiteCustomAnalysis {
 			// now, read output file of the comparator,
 			final File qvalueTableFile = new File(
 					outputComparator.getOutputFolder() + File.separator + outputFileName + ".tsv");
-			final List<String> lines = Files.readAllLines(qvalueTableFile.toPath());
-			final String[] header = lines.get(0).split("\t");
-			int numDiscoveriesIndex = -1;
-			for (int index = 0; index < header.length; index++) {
-				if (header[index].contains("# discoveries")) {
-					numDiscoveriesIndex = index;
-					break;
-				}
-			}
-			if (numDiscoveriesIndex == -1) {
-				throw new IllegalArgumentException(
-						"'# discoveries' column has not found in output file " + qvalueTableFile.getAbsolutePath());
-			}
 			// now keep all lines with qvalue<threshold
-			final List<String> linesToKeep = new ArrayList<String>();
-			for (int i = 1; i < lines.size(); i++) {
-				final String line = lines.get(i);
-				final int numDiscoveries = Integer.valueOf(line.split("\t")[numDiscoveriesIndex]);
-				if (numDiscoveries >= minNumberOfDiscoveries) {
-					linesToKeep.add(line);
-				}
-			}
+			final List<String> linesToKeep = getLinesWithMinimumDiscoveries(qvalueTableFile,
+					minNumberOfDiscoveries);
 			numSignificantSites.add(linesToKeep.size());
 			iteration++;
 			log.info("Iteration: " + iteration + ", average number of significant sites: "
@@ -325,6 +288,34 @@ public class QuantSiteCustomAnalysis {
 
 	}
 
+	/**
+	 * Streams the output file of the {@link QuantSiteOutputComparator}, splitting
+	 * each line only once
+	 * 
+	 * @param qvalueTableFile
+	 * @param minNumberOfDiscoveries
+	 * @return the lines with at least minNumberOfDiscoveries in the '#
+	 *         discoveries' column
+	 * @throws IOException
+	 */
+	private static List<String> getLinesWithMinimumDiscoveries(File qvalueTableFile, int minNumberOfDiscoveries)
+			throws IOException {
+		final List<String> ret = new ArrayList<String>();
+		try (TsvReader reader = new TsvReader(qvalueTableFile)) {
+			final int numDiscoveriesIndex = reader.getColumnIndexContaining("# discoveries");
+			if (numDiscoveriesIndex == -1) {
+				throw new IllegalArgumentException(
+						"'# discoveries' column has not found in output file " + qvalueTableFile.getAbsolutePath());
+			}
+			reader.forEachRow(row -> {
+				if (row.getInt(numDiscoveriesIndex) >= minNumberOfDiscoveries) {
+					ret.add(row.getLine());
+				}
+			});
+		}
+		return ret;
+	}
+
 	private static List<String> getRandomInputFileListFromSampleList(int numRandomSamples,
 			Map<String, InputParams> inputDataFilesPerCellLine) {
 		final Random rn = new Random();
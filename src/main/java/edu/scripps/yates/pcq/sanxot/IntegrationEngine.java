@@ -0,0 +1,23 @@
+package edu.scripps.yates.pcq.sanxot;
+
+/**
+ * Engines used to integrate the ratios in {@link SanxotRunner}: the external
+ * SanXot scripts, or the Java implementation in {@link JavaSanxot}
+ *
+ * @author salvador
+ *
+ */
+public enum IntegrationEngine {
+	SANXOT, JAVA;
+
+	public static String getPossibleValues() {
+		final StringBuilder sb = new StringBuilder();
+		for (final IntegrationEngine engine : IntegrationEngine.values()) {
+			if (!"".equals(sb.toString())) {
+				sb.append(", ");
+			}
+			sb.append(engine.name());
+		}
+		return sb.toString();
+	}
+}
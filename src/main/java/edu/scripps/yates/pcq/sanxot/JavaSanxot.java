@@ -0,0 +1,316 @@
+package edu.scripps.yates.pcq.sanxot;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.log4j.Logger;
+
+import edu.scripps.yates.census.analysis.QuantParameters;
+import edu.scripps.yates.census.analysis.wrappers.IntegrationResultWrapper;
+import edu.scripps.yates.census.analysis.wrappers.OutlierRemovalResultWrapper;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Replacement of the calls to the SanXot and SanXotSieve scripts made by
+ * {@link SanxotRunner}, that reads the same relationship and data files,
+ * integrates them in memory with a {@link WSPPIntegrator} and writes the same
+ * output files than the scripts, so that they can be read by
+ * {@link IntegrationResultWrapper} and {@link OutlierRemovalResultWrapper}.
+ *
+ * @author salvador
+ *
+ */
+public class JavaSanxot {
+	private final static Logger log = Logger.getLogger(JavaSanxot.class);
+	private static final String HIGHER_LEVEL_SUFFIX = "_higherLevel.xls";
+	private static final String LOWER_NORM_W_SUFFIX = "_lowerNormW.xls";
+	private static final String LOWER_NORM_V_SUFFIX = "_lowerNormV.xls";
+	private static final String OUT_STATS_SUFFIX = "_outStats.xls";
+	private static final String INFO_FILE_SUFFIX = "_infoFile.txt";
+	private static final String TAGGED_RELAT_SUFFIX = "_tagged.xls";
+	private static final String OUTLIER_TAG = "out";
+	// higher level element when there is not relationship file
+	private static final String ALL = "1";
+	private static final Pattern VARIANCE_PATTERN = Pattern.compile("^\\s*Variance\\s*=\\s*(\\S+)");
+
+	/**
+	 * Data of a relationship file and a data file, as arrays
+	 *
+	 * @author salvador
+	 *
+	 */
+	private static class IntegrationData {
+		private final List<String> lowerLevelIDs = new ArrayList<String>();
+		private final TDoubleArrayList log2Ratios = new TDoubleArrayList();
+		private final TDoubleArrayList weights = new TDoubleArrayList();
+		private final TIntArrayList groups = new TIntArrayList();
+		private final List<String> higherLevelIDs = new ArrayList<String>();
+
+		private WSPPIntegrator getIntegrator() {
+			return new WSPPIntegrator(log2Ratios.toArray(), weights.toArray(), groups.toArray(),
+					higherLevelIDs.size());
+		}
+	}
+
+	public static IntegrationResultWrapper integrate(File relatFile, File dataFile, File infoFile, String prefix,
+			Double forzedVariance, File workingFolder, QuantParameters quantParameters) throws IOException {
+		final long t = System.currentTimeMillis();
+		final IntegrationData data = readData(relatFile, dataFile);
+		final WSPPIntegrator integrator = data.getIntegrator();
+		if (forzedVariance != null) {
+			integrator.integrate(forzedVariance);
+		} else if (infoFile != null) {
+			integrator.integrate(readVariance(infoFile));
+		} else {
+			integrator.estimateVarianceAndIntegrate();
+		}
+		writeHigherLevel(data, integrator, getFile(workingFolder, prefix, HIGHER_LEVEL_SUFFIX));
+		writeLowerLevel(data, integrator, getFile(workingFolder, prefix, LOWER_NORM_W_SUFFIX), false);
+		writeLowerLevel(data, integrator, getFile(workingFolder, prefix, LOWER_NORM_V_SUFFIX), true);
+		writeOutStats(data, integrator, getFile(workingFolder, prefix, OUT_STATS_SUFFIX));
+		writeInfoFile(data, integrator, getFile(workingFolder, prefix, INFO_FILE_SUFFIX), relatFile, dataFile);
+		log.info(data.lowerLevelIDs.size() + " elements integrated into " + data.higherLevelIDs.size()
+				+ " elements in " + (System.currentTimeMillis() - t) + " ms");
+		return new IntegrationResultWrapper(workingFolder, prefix, -1, -1);
+	}
+
+	public static OutlierRemovalResultWrapper removeOutliers(File relatFile, File dataFile, File infoFile,
+			String prefix, File workingFolder, QuantParameters quantParameters) throws IOException {
+		final long t = System.currentTimeMillis();
+		final IntegrationData data = readData(relatFile, dataFile);
+		final WSPPIntegrator integrator = data.getIntegrator();
+		double variance;
+		if (infoFile != null) {
+			variance = readVariance(infoFile);
+		} else {
+			variance = integrator.estimateVarianceAndIntegrate();
+		}
+		final int numOutliers = integrator.removeOutliers(variance, quantParameters.getOutlierRemovalFDR());
+		final File taggedRelatFile = getFile(workingFolder, prefix, TAGGED_RELAT_SUFFIX);
+		final BufferedWriter writer = new BufferedWriter(new FileWriter(taggedRelatFile));
+		try {
+			writer.write("#idsup\tidinf\ttags\n");
+			for (int i = 0; i < data.lowerLevelIDs.size(); i++) {
+				writer.write(data.higherLevelIDs.get(data.groups.get(i)) + "\t" + data.lowerLevelIDs.get(i) + "\t"
+						+ (integrator.isOutlier(i) ? OUTLIER_TAG : "") + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		log.info(numOutliers + " outliers removed out of " + data.lowerLevelIDs.size() + " elements in "
+				+ (System.currentTimeMillis() - t) + " ms");
+		return new OutlierRemovalResultWrapper(workingFolder, prefix);
+	}
+
+	private static File getFile(File workingFolder, String prefix, String suffix) {
+		return new File(workingFolder.getAbsolutePath() + File.separator + prefix + suffix);
+	}
+
+	/**
+	 * Reads the data file and assigns each lower level element to its higher
+	 * level element in the relationship file, or to a single higher level
+	 * element if there is not relationship file. The relationships tagged as
+	 * outliers are ignored.
+	 *
+	 * @param relatFile
+	 * @param dataFile
+	 * @return
+	 * @throws IOException
+	 */
+	private static IntegrationData readData(File relatFile, File dataFile) throws IOException {
+		final TObjectIntHashMap<String> indexesByLowerLevelID = new TObjectIntHashMap<String>(10, 0.5f, -1);
+		final List<String> dataIDs = new ArrayList<String>();
+		final TDoubleArrayList dataLog2Ratios = new TDoubleArrayList();
+		final TDoubleArrayList dataWeights = new TDoubleArrayList();
+		for (final String[] split : readLines(dataFile)) {
+			if (split.length < 3) {
+				continue;
+			}
+			try {
+				final double log2Ratio = Double.valueOf(split[1]);
+				final double weight = Double.valueOf(split[2]);
+				if (Double.isNaN(log2Ratio) || Double.isInfinite(log2Ratio) || Double.isNaN(weight)) {
+					log.debug("Ignoring " + split[0] + " from " + FilenameUtils.getName(dataFile.getAbsolutePath()));
+					continue;
+				}
+				if (!indexesByLowerLevelID.containsKey(split[0])) {
+					indexesByLowerLevelID.put(split[0], dataIDs.size());
+					dataIDs.add(split[0]);
+					dataLog2Ratios.add(log2Ratio);
+					dataWeights.add(weight);
+				}
+			} catch (final NumberFormatException e) {
+				// header
+			}
+		}
+		final IntegrationData ret = new IntegrationData();
+		if (relatFile == null) {
+			ret.higherLevelIDs.add(ALL);
+			for (int i = 0; i < dataIDs.size(); i++) {
+				addLowerLevelElement(ret, dataIDs.get(i), dataLog2Ratios.get(i), dataWeights.get(i), 0);
+			}
+			return ret;
+		}
+		final TObjectIntHashMap<String> groupsByHigherLevelID = new TObjectIntHashMap<String>(10, 0.5f, -1);
+		for (final String[] split : readLines(relatFile)) {
+			if (split.length < 2 || split.length > 2 && OUTLIER_TAG.equals(split[2].trim())) {
+				continue;
+			}
+			final int index = indexesByLowerLevelID.get(split[1]);
+			if (index < 0) {
+				continue;
+			}
+			int group = groupsByHigherLevelID.get(split[0]);
+			if (group < 0) {
+				group = ret.higherLevelIDs.size();
+				groupsByHigherLevelID.put(split[0], group);
+				ret.higherLevelIDs.add(split[0]);
+			}
+			addLowerLevelElement(ret, split[1], dataLog2Ratios.get(index), dataWeights.get(index), group);
+		}
+		return ret;
+	}
+
+	private static void addLowerLevelElement(IntegrationData data, String id, double log2Ratio, double weight,
+			int group) {
+		data.lowerLevelIDs.add(id);
+		data.log2Ratios.add(log2Ratio);
+		data.weights.add(weight);
+		data.groups.add(group);
+	}
+
+	private static List<String[]> readLines(File file) throws IOException {
+		final List<String[]> ret = new ArrayList<String[]>();
+		final BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#") || "".equals(line.trim())) {
+					continue;
+				}
+				ret.add(line.split("\t"));
+			}
+		} finally {
+			reader.close();
+		}
+		return ret;
+	}
+
+	private static double readVariance(File infoFile) throws IOException {
+		final BufferedReader reader = new BufferedReader(new FileReader(infoFile));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final Matcher matcher = VARIANCE_PATTERN.matcher(line);
+				if (matcher.find()) {
+					return Double.valueOf(matcher.group(1));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		throw new IllegalArgumentException("Variance not found in " + infoFile.getAbsolutePath());
+	}
+
+	private static void writeHigherLevel(IntegrationData data, WSPPIntegrator integrator, File file)
+			throws IOException {
+		final BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			writer.write("#id\tX'\tV\n");
+			for (int group = 0; group < data.higherLevelIDs.size(); group++) {
+				if (integrator.getHigherLevelSize(group) == 0) {
+					continue;
+				}
+				writer.write(data.higherLevelIDs.get(group) + "\t" + integrator.getHigherLevelLog2Ratio(group) + "\t"
+						+ integrator.getHigherLevelWeight(group) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes the lower level elements with their normalized weights, and with
+	 * their log2 ratios or their deviations from their higher level elements
+	 *
+	 * @param data
+	 * @param integrator
+	 * @param file
+	 * @param deviations
+	 * @throws IOException
+	 */
+	private static void writeLowerLevel(IntegrationData data, WSPPIntegrator integrator, File file,
+			boolean deviations) throws IOException {
+		final BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			writer.write("#id\tX'\tV\n");
+			for (int i = 0; i < data.lowerLevelIDs.size(); i++) {
+				if (integrator.isOutlier(i)) {
+					continue;
+				}
+				double log2Ratio = data.log2Ratios.get(i);
+				if (deviations) {
+					log2Ratio -= integrator.getHigherLevelLog2Ratio(data.groups.get(i));
+				}
+				writer.write(data.lowerLevelIDs.get(i) + "\t" + log2Ratio + "\t" + integrator.getNormalizedWeight(i)
+						+ "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void writeOutStats(IntegrationData data, WSPPIntegrator integrator, File file)
+			throws IOException {
+		final BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			writer.write("#idsup\tX'sup\tVsup\tidinf\tX'inf\tVinf\tn\tZ\tFDR\ttags\n");
+			for (int i = 0; i < data.lowerLevelIDs.size(); i++) {
+				if (integrator.isOutlier(i)) {
+					continue;
+				}
+				final int group = data.groups.get(i);
+				final StringBuilder sb = new StringBuilder();
+				sb.append(data.higherLevelIDs.get(group)).append("\t");
+				sb.append(integrator.getHigherLevelLog2Ratio(group)).append("\t");
+				sb.append(integrator.getHigherLevelWeight(group)).append("\t");
+				sb.append(data.lowerLevelIDs.get(i)).append("\t");
+				sb.append(data.log2Ratios.get(i)).append("\t");
+				sb.append(integrator.getNormalizedWeight(i)).append("\t");
+				sb.append(integrator.getHigherLevelSize(group)).append("\t");
+				sb.append(integrator.getZValue(i)).append("\t");
+				sb.append(integrator.getFDR(i)).append("\t");
+				sb.append("\n");
+				writer.write(sb.toString());
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void writeInfoFile(IntegrationData data, WSPPIntegrator integrator, File file, File relatFile,
+			File dataFile) throws IOException {
+		final BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			writer.write("Integration performed in Java by " + JavaSanxot.class.getName() + "\n");
+			writer.write("Data file: " + dataFile.getAbsolutePath() + "\n");
+			writer.write("Relations file: " + (relatFile != null ? relatFile.getAbsolutePath() : "none") + "\n");
+			writer.write("Lower level elements: " + data.lowerLevelIDs.size() + "\n");
+			writer.write("Higher level elements: " + data.higherLevelIDs.size() + "\n");
+			writer.write("Variance = " + integrator.getVariance() + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -5,10 +5,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.ExecuteResultHandler;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.LogOutputStream;
+import org.apache.commons.exec.PumpStreamHandler;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.log4j.Logger;
 
@@ -31,7 +39,6 @@ import edu.scripps.yates.pcq.util.ExperimentFiles;
 import edu.scripps.yates.pcq.util.PCQUtils;
 import edu.scripps.yates.pcq.xgmml.util.ProteinNodeLabel;
 import edu.scripps.yates.utilities.exec.ProcessExecutor;
-import edu.scripps.yates.utilities.exec.ProcessExecutorHandler;
 
 public class SanxotRunner {
 	private final QuantAnalysis quantAnalysis;
@@ -112,34 +119,157 @@ public class SanxotRunner {
 		return quantAnalysis;
 	}
 
-	private static Long runCommand(CommandLine commandLine, long timeout)
+	private static boolean isJavaEngine() {
+		return ProteinClusterQuantParameters.getInstance().getIntegrationEngine() == IntegrationEngine.JAVA;
+	}
+
+	/**
+	 * A step of the integration of the ratios, that can be scheduled with
+	 * {@link SanxotRunner#supplyAsync(IntegrationStep, Executor)}
+	 *
+	 * @author salvador
+	 *
+	 * @param <T>
+	 */
+	@FunctionalInterface
+	public interface IntegrationStep<T> {
+		T run() throws IOException, InterruptedException, ExecutionException;
+	}
+
+	/**
+	 * Runs a step of the integration in the executor
+	 *
+	 * @param step
+	 * @param executor
+	 * @return a {@link CompletableFuture} completed with the result of the step,
+	 *         or exceptionally with the exception thrown by it
+	 */
+	public static <T> CompletableFuture<T> supplyAsync(IntegrationStep<T> step, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> call(step), executor);
+	}
+
+	/**
+	 * Runs a step of the integration, wrapping its checked exceptions in a
+	 * {@link CompletionException}, so that it can be used in the stages of a
+	 * {@link CompletableFuture}
+	 *
+	 * @param step
+	 * @return
+	 */
+	public static <T> T call(IntegrationStep<T> step) {
+		try {
+			return step.run();
+		} catch (final IOException | ExecutionException e) {
+			throw new CompletionException(e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Waits for the result of a {@link CompletableFuture} of the integration,
+	 * throwing the exception that made it fail if it is an {@link IOException}
+	 *
+	 * @param future
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static <T> T get(CompletableFuture<T> future)
 			throws IOException, InterruptedException, ExecutionException {
+		try {
+			return future.get();
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the command, completing the returned {@link CompletableFuture} with
+	 * the exit code from the {@link ExecuteResultHandler} of the process as soon
+	 * as it finishes, or with {@link ProcessExecutor#TIMEOUT_ERROR_CODE} if it is
+	 * killed after the timeout
+	 *
+	 * @param commandLine
+	 * @param timeout
+	 * @return
+	 * @throws IOException
+	 */
+	private static CompletableFuture<Long> runCommandAsync(CommandLine commandLine, long timeout)
+			throws IOException {
 		final String commandString = commandLine.toString();
 		log.info("Running: " + commandString);
 
-		final ProcessExecutorHandler handler = new ProcessExecutorHandler() {
+		final DefaultExecutor executor = new DefaultExecutor();
+		final ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
+		executor.setWatchdog(watchdog);
+		executor.setStreamHandler(new PumpStreamHandler(new LogOutputStream() {
 
 			@Override
-			public void onStandardOutput(String msg) {
-				log.debug("OUTPUT:" + msg);
+			protected void processLine(String line, int logLevel) {
+				log.debug("OUTPUT:" + line);
 
 			}
+		}, new LogOutputStream() {
 
 			@Override
-			public void onStandardError(String msg) {
-				log.error("ERROR:" + msg);
+			protected void processLine(String line, int logLevel) {
+				log.error("ERROR:" + line);
 
 			}
-		};
-		final Future<Long> runProcess = ProcessExecutor.runProcess(commandLine, handler, timeout);
-		while (!runProcess.isDone() && !runProcess.isCancelled()) {
-			Thread.sleep(1000);
-		}
-		final Long processExitCode = runProcess.get();
-		log.info("Process exitValue: " + processExitCode);
+		}));
+		final CompletableFuture<Long> processExitCode = new CompletableFuture<Long>();
+		executor.execute(commandLine, new ExecuteResultHandler() {
+
+			@Override
+			public void onProcessComplete(int exitValue) {
+				log.info("Process exitValue: " + exitValue);
+				processExitCode.complete(Long.valueOf(exitValue));
+			}
+
+			@Override
+			public void onProcessFailed(ExecuteException e) {
+				if (watchdog.killedProcess()) {
+					log.info("Process killed after the timeout of " + timeout + " ms");
+					processExitCode.complete(Long.valueOf(ProcessExecutor.TIMEOUT_ERROR_CODE));
+				} else if (e.getExitValue() != DefaultExecutor.INVALID_EXITVALUE) {
+					log.info("Process exitValue: " + e.getExitValue());
+					processExitCode.complete(Long.valueOf(e.getExitValue()));
+				} else {
+					// the process could not be started
+					processExitCode.completeExceptionally(e);
+				}
+			}
+		});
 		return processExitCode;
 	}
 
+	private static Long runCommand(CommandLine commandLine, long timeout)
+			throws IOException, InterruptedException, ExecutionException {
+		return get(runCommandAsync(commandLine, timeout));
+	}
+
+	public static CompletableFuture<IntegrationResultWrapper> integrateAsync(File relatFile, File dataFile,
+			File infoFile, String prefix, Double forzedVariance, File workingFolder, boolean checkRelationshipValidity,
+			QuantParameters quantParameters, Executor executor) {
+		return supplyAsync(() -> integrate(relatFile, dataFile, infoFile, prefix, forzedVariance, workingFolder,
+				checkRelationshipValidity, quantParameters), executor);
+	}
+
+	public static CompletableFuture<OutlierRemovalResultWrapper> removeOutliersAsync(File relatFile, File dataFile,
+			File infoFile, String prefix, File workingFolder, QuantParameters quantParameters, Executor executor) {
+		return supplyAsync(() -> removeOutliers(relatFile, dataFile, infoFile, prefix, workingFolder, quantParameters),
+				executor);
+	}
+
 	public static IntegrationResultWrapper integrate(File relatFile, File dataFile, File infoFile, String prefix,
 			Double forzedVariance, File workingFolder, boolean checkRelationshipValidity,
 			QuantParameters quantParameters) throws IOException, InterruptedException, ExecutionException {
@@ -149,6 +279,11 @@ public class SanxotRunner {
 					+ FilenameUtils.getName(relatFile.getAbsolutePath()) + " and "
 					+ FilenameUtils.getName(dataFile.getAbsolutePath()));
 		}
+		if (isJavaEngine()) {
+			log.info("Integrating data in Java...");
+			return JavaSanxot.integrate(relatFile, dataFile, infoFile, prefix, forzedVariance, workingFolder,
+					quantParameters);
+		}
 
 		final String msg = "Integrating data ...";
 		log.info(msg);
@@ -194,6 +329,9 @@ public class SanxotRunner {
 			throws IOException, InterruptedException, ExecutionException {
 		final String msg = "Removing outliers...";
 		log.info(msg);
+		if (isJavaEngine()) {
+			return JavaSanxot.removeOutliers(relatFile, dataFile, infoFile, prefix, workingFolder, quantParameters);
+		}
 		final CommandLine removeOutlierCommandLine = SanXotInterfaze.getRemoveOutliersCommandLine(relatFile, prefix,
 				dataFile, infoFile, workingFolder, quantParameters);
 
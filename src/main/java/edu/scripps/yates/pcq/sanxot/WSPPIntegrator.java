@@ -0,0 +1,320 @@
+package edu.scripps.yates.pcq.sanxot;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+/**
+ * Integration of lower level log2 ratios into higher level log2 ratios
+ * following the WSPP model (Navarro et al., J Proteome Res 2014), as done by
+ * the SanXot and SanXotSieve scripts, but working on arrays in memory.<br>
+ * Each lower level element i, with log2 ratio x<sub>i</sub> and weight
+ * w<sub>i</sub>, belongs to a higher level element j. Given the variance of
+ * the integration &sigma;<sup>2</sup>, the lower level element gets the
+ * weight W<sub>i</sub> = 1 / (1 / w<sub>i</sub> + &sigma;<sup>2</sup>), and
+ * the higher level element gets the weighted average of the log2 ratios
+ * X<sub>j</sub> and the weight W<sub>j</sub> = &Sigma; W<sub>i</sub>.<br>
+ * The variance is estimated as SanXot does, as the one that makes the variance
+ * of the standardized deviations equal to 1, that is, (1 / N) &Sigma;
+ * n<sub>j</sub> / (n<sub>j</sub> - 1) W<sub>i</sub> (x<sub>i</sub> -
+ * X<sub>j</sub>)<sup>2</sup> = 1, where the sum and N go over the lower level
+ * elements of the higher level elements with n<sub>j</sub> &gt; 1 elements.
+ * The outliers are the lower level elements whose standardized deviation has
+ * an FDR (Benjamini-Hochberg) lower than a threshold.<br>
+ * Lower level elements with a weight that is not positive carry no
+ * information: they get a normalized weight of 0 and an FDR of 1, and they
+ * are not counted in the number of tests of the Benjamini-Hochberg procedure.
+ *
+ * @author salvador
+ *
+ */
+public class WSPPIntegrator {
+	private static final NormalDistribution NORMAL = new NormalDistribution();
+	private static final int MAX_ITERATIONS = 200;
+	private static final double VARIANCE_TOLERANCE = 1e-12;
+	private final double[] log2Ratios;
+	private final double[] weights;
+	private final int[] groups;
+	private final int numGroups;
+	// lower level elements not removed as outliers
+	private final boolean[] included;
+	private double variance = 0.0;
+	private final double[] normalizedWeights;
+	private final double[] higherLevelLog2Ratios;
+	private final double[] higherLevelWeights;
+	private final int[] higherLevelSizes;
+	private final double[] zValues;
+	private final double[] fdrs;
+
+	/**
+	 *
+	 * @param log2Ratios the log2 ratios of the lower level elements
+	 * @param weights    the weights of the lower level elements
+	 * @param groups     the index of the higher level element of each lower
+	 *                   level element
+	 * @param numGroups  the number of higher level elements
+	 */
+	public WSPPIntegrator(double[] log2Ratios, double[] weights, int[] groups, int numGroups) {
+		if (log2Ratios.length != weights.length || log2Ratios.length != groups.length) {
+			throw new IllegalArgumentException("Log2 ratios, weights and groups must have the same length");
+		}
+		this.log2Ratios = log2Ratios;
+		this.weights = weights;
+		this.groups = groups;
+		this.numGroups = numGroups;
+		included = new boolean[log2Ratios.length];
+		Arrays.fill(included, true);
+		normalizedWeights = new double[log2Ratios.length];
+		higherLevelLog2Ratios = new double[numGroups];
+		higherLevelWeights = new double[numGroups];
+		higherLevelSizes = new int[numGroups];
+		zValues = new double[log2Ratios.length];
+		fdrs = new double[log2Ratios.length];
+	}
+
+	/**
+	 * Estimates the variance of the integration and integrates with it
+	 *
+	 * @return the variance
+	 */
+	public double estimateVarianceAndIntegrate() {
+		// elements with information in each higher level element
+		final int[] sizes = new int[numGroups];
+		for (int i = 0; i < log2Ratios.length; i++) {
+			if (hasInformation(i)) {
+				sizes[groups[i]]++;
+			}
+		}
+		if (getStandardizedVariance(0.0, sizes) <= 1.0) {
+			integrate(0.0);
+			return variance;
+		}
+		// the variance of the standardized deviations decreases with the
+		// variance of the integration
+		double low = 0.0;
+		double high = 1.0;
+		for (int iteration = 0; iteration < MAX_ITERATIONS
+				&& getStandardizedVariance(high, sizes) > 1.0; iteration++) {
+			low = high;
+			high *= 2;
+		}
+		for (int iteration = 0; iteration < MAX_ITERATIONS && high - low > VARIANCE_TOLERANCE; iteration++) {
+			final double middle = (low + high) / 2;
+			if (getStandardizedVariance(middle, sizes) > 1.0) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+		integrate((low + high) / 2);
+		return variance;
+	}
+
+	/**
+	 *
+	 * @param variance
+	 * @param sizes    the number of elements with information of each higher
+	 *                 level element
+	 * @return the variance of the standardized deviations, or 0 if no higher
+	 *         level element has more than one element
+	 */
+	private double getStandardizedVariance(double variance, int[] sizes) {
+		// the FDRs are not needed while fitting the variance
+		integrateRatios(variance);
+		double sum = 0.0;
+		int n = 0;
+		for (int i = 0; i < log2Ratios.length; i++) {
+			final int size = sizes[groups[i]];
+			if (size > 1 && hasInformation(i)) {
+				final double deviation = log2Ratios[i] - higherLevelLog2Ratios[groups[i]];
+				sum += size / (size - 1.0) * normalizedWeights[i] * deviation * deviation;
+				n++;
+			}
+		}
+		if (n == 0) {
+			return 0.0;
+		}
+		return sum / n;
+	}
+
+	private boolean hasInformation(int i) {
+		return included[i] && weights[i] > 0;
+	}
+
+	/**
+	 * Integrates the lower level elements that are not outliers using a given
+	 * variance, calculating the higher level log2 ratios and weights, and the
+	 * Z values and FDRs of the lower level elements
+	 *
+	 * @param variance
+	 */
+	public void integrate(double variance) {
+		integrateRatios(variance);
+		calculateFDRs();
+	}
+
+	private void integrateRatios(double variance) {
+		this.variance = variance;
+		Arrays.fill(higherLevelLog2Ratios, 0.0);
+		Arrays.fill(higherLevelWeights, 0.0);
+		Arrays.fill(higherLevelSizes, 0);
+		for (int i = 0; i < log2Ratios.length; i++) {
+			if (!included[i]) {
+				continue;
+			}
+			normalizedWeights[i] = weights[i] > 0 ? 1.0 / (1.0 / weights[i] + variance) : 0.0;
+			final int group = groups[i];
+			higherLevelLog2Ratios[group] += normalizedWeights[i] * log2Ratios[i];
+			higherLevelWeights[group] += normalizedWeights[i];
+			higherLevelSizes[group]++;
+		}
+		for (int group = 0; group < numGroups; group++) {
+			if (higherLevelWeights[group] > 0) {
+				higherLevelLog2Ratios[group] /= higherLevelWeights[group];
+			} else {
+				higherLevelLog2Ratios[group] = Double.NaN;
+			}
+		}
+	}
+
+	private void calculateFDRs() {
+		int numTested = 0;
+		final double[] pValues = new double[log2Ratios.length];
+		final double[] sortedPValues = new double[log2Ratios.length];
+		for (int i = 0; i < log2Ratios.length; i++) {
+			if (!included[i]) {
+				zValues[i] = Double.NaN;
+				fdrs[i] = Double.NaN;
+				continue;
+			}
+			if (normalizedWeights[i] <= 0) {
+				// not tested
+				zValues[i] = 0.0;
+				fdrs[i] = 1.0;
+				continue;
+			}
+			final int group = groups[i];
+			// variance of the deviation of the element from its higher level
+			// element, that includes it
+			final double deviationVariance = 1.0 / normalizedWeights[i] - 1.0 / higherLevelWeights[group];
+			if (deviationVariance > 0) {
+				zValues[i] = (log2Ratios[i] - higherLevelLog2Ratios[group]) / Math.sqrt(deviationVariance);
+			} else {
+				zValues[i] = 0.0;
+			}
+			pValues[i] = 2.0 * NORMAL.cumulativeProbability(-Math.abs(zValues[i]));
+			sortedPValues[numTested++] = pValues[i];
+		}
+		// Benjamini-Hochberg, where the FDR of a p-value is the minimum of p *
+		// N / rank from the last rank of that p-value up
+		Arrays.sort(sortedPValues, 0, numTested);
+		final double[] minFDRs = new double[numTested];
+		double minFDR = 1.0;
+		for (int rank = numTested; rank >= 1; rank--) {
+			minFDR = Math.min(minFDR, sortedPValues[rank - 1] * numTested / rank);
+			minFDRs[rank - 1] = minFDR;
+		}
+		for (int i = 0; i < log2Ratios.length; i++) {
+			if (Double.isNaN(pValues[i])) {
+				fdrs[i] = Double.NaN;
+			} else if (included[i] && normalizedWeights[i] > 0) {
+				fdrs[i] = minFDRs[getLastRank(sortedPValues, numTested, pValues[i]) - 1];
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of sorted values lower or equal than the value
+	 */
+	private static int getLastRank(double[] sortedValues, int length, double value) {
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (sortedValues[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Removes iteratively the outliers, that is, the lower level elements with
+	 * an FDR lower than the threshold, using the variance provided. In each
+	 * iteration, the most extreme outlier of each higher level element is
+	 * removed, and the data is integrated again.
+	 *
+	 * @param variance
+	 * @param fdrThreshold
+	 * @return the number of outliers removed
+	 */
+	public int removeOutliers(double variance, double fdrThreshold) {
+		int numOutliers = 0;
+		integrate(variance);
+		while (true) {
+			final int[] worstByGroup = new int[numGroups];
+			Arrays.fill(worstByGroup, -1);
+			boolean someOutlier = false;
+			for (int i = 0; i < log2Ratios.length; i++) {
+				if (included[i] && fdrs[i] < fdrThreshold) {
+					final int group = groups[i];
+					if (worstByGroup[group] == -1 || Math.abs(zValues[i]) > Math.abs(zValues[worstByGroup[group]])) {
+						worstByGroup[group] = i;
+						someOutlier = true;
+					}
+				}
+			}
+			if (!someOutlier) {
+				return numOutliers;
+			}
+			for (final int i : worstByGroup) {
+				if (i >= 0) {
+					included[i] = false;
+					numOutliers++;
+				}
+			}
+			integrate(variance);
+		}
+	}
+
+	public double getVariance() {
+		return variance;
+	}
+
+	public boolean isOutlier(int i) {
+		return !included[i];
+	}
+
+	public double getNormalizedWeight(int i) {
+		return normalizedWeights[i];
+	}
+
+	public double getZValue(int i) {
+		return zValues[i];
+	}
+
+	public double getFDR(int i) {
+		return fdrs[i];
+	}
+
+	public double getHigherLevelLog2Ratio(int group) {
+		return higherLevelLog2Ratios[group];
+	}
+
+	public double getHigherLevelWeight(int group) {
+		return higherLevelWeights[group];
+	}
+
+	/**
+	 *
+	 * @param group
+	 * @return the number of lower level elements integrated in the higher level
+	 *         element
+	 */
+	public int getHigherLevelSize(int group) {
+		return higherLevelSizes[group];
+	}
+}
@@ -0,0 +1,332 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Persistent cache of the peptide alignments that passed the alignment
+ * thresholds, stored in a memory-mapped file.<br>
+ * The file contains the thresholds used, the sequences that have been aligned
+ * against all the others (the known sequences), and the alignments between
+ * known sequences that passed the thresholds, sorted by the ordered pair of
+ * sequences. So, an alignment between two known sequences that is not in the
+ * cache didn't pass the thresholds and it doesn't have to be done again. Only
+ * the pairs of sequences are stored, since the alignments that passed the
+ * thresholds are done again to get their results.<br>
+ * New sequences have to be aligned against all the known sequences before
+ * being added with {@link #addSequence(String)}.
+ *
+ * @author salvador
+ *
+ */
+public class AlignmentCache {
+	private final static Logger log = Logger.getLogger(AlignmentCache.class);
+	private static final int MAGIC = 0x5043514c; // PCQL
+	private static final int VERSION = 2;
+	// magic, version, score, identity, max consecutive and number of sequences
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 4 + 4;
+	// key of the ordered pair of sequences
+	private static final int ALIGNMENT_RECORD_SIZE = 8;
+
+	private final File file;
+	private final int finalAlignmentScore;
+	private final double sequenceIdentity;
+	private final int minConsecutiveIdenticalAlignment;
+	private final List<String> sequences = new ArrayList<String>();
+	private final TObjectIntHashMap<String> indexesBySequence = new TObjectIntHashMap<String>(10, 0.5f, -1);
+	private final BitSet knownSequences = new BitSet();
+	// alignments read from the file, between the first sequences
+	private ByteBuffer storedAlignments;
+	private int numStoredAlignments = 0;
+	// new alignments
+	private final TLongArrayList newKeys = new TLongArrayList();
+	private boolean modified = false;
+
+	private AlignmentCache(File file, int finalAlignmentScore, double sequenceIdentity,
+			int minConsecutiveIdenticalAlignment) {
+		this.file = file;
+		this.finalAlignmentScore = finalAlignmentScore;
+		this.sequenceIdentity = sequenceIdentity;
+		this.minConsecutiveIdenticalAlignment = minConsecutiveIdenticalAlignment;
+	}
+
+	/**
+	 * Opens the cache stored in the file. If the file doesn't exist or it was
+	 * created with different thresholds, an empty cache is returned, that will
+	 * overwrite the file when saved.
+	 *
+	 * @param file
+	 * @param finalAlignmentScore
+	 * @param sequenceIdentity
+	 * @param minConsecutiveIdenticalAlignment
+	 * @return
+	 * @throws IOException
+	 */
+	public static AlignmentCache load(File file, int finalAlignmentScore, double sequenceIdentity,
+			int minConsecutiveIdenticalAlignment) throws IOException {
+		final AlignmentCache ret = new AlignmentCache(file, finalAlignmentScore, sequenceIdentity,
+				minConsecutiveIdenticalAlignment);
+		if (file.exists() && file.length() > 0) {
+			ret.read();
+		}
+		return ret;
+	}
+
+	private void read() throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// the mapping remains valid after closing the channel
+			if (channel.size() < HEADER_SIZE) {
+				log.warn(file.getAbsolutePath() + " is not a valid alignment cache file. It will be overwritten");
+				return;
+			}
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				log.warn(file.getAbsolutePath() + " is not a valid alignment cache file. It will be overwritten");
+				return;
+			}
+			final int score = buffer.getInt();
+			final double identity = buffer.getDouble();
+			final int consecutive = buffer.getInt();
+			if (score != finalAlignmentScore || Double.compare(identity, sequenceIdentity) != 0
+					|| consecutive != minConsecutiveIdenticalAlignment) {
+				log.info("Alignment cache " + file.getAbsolutePath()
+						+ " was created with different thresholds (minScore=" + score + ", minSeqIdentity="
+						+ identity + ", minConsecutiveAlignment=" + consecutive + "). It will be overwritten");
+				return;
+			}
+			final int numSequences = buffer.getInt();
+			try {
+				final byte[] bytes = new byte[Short.MAX_VALUE];
+				for (int i = 0; i < numSequences; i++) {
+					final int length = buffer.getShort();
+					buffer.get(bytes, 0, length);
+					final String sequence = new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+					indexesBySequence.put(sequence, i);
+					sequences.add(sequence);
+				}
+				final int numAlignments = buffer.getInt();
+				if ((long) numAlignments * ALIGNMENT_RECORD_SIZE > buffer.remaining()) {
+					throw new BufferUnderflowException();
+				}
+				numStoredAlignments = numAlignments;
+			} catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+				log.warn(file.getAbsolutePath() + " is truncated. It will be overwritten");
+				indexesBySequence.clear();
+				sequences.clear();
+				return;
+			}
+			knownSequences.set(0, numSequences);
+			storedAlignments = buffer.slice();
+			log.info(numStoredAlignments + " alignments between " + numSequences + " sequences read from "
+					+ file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 *
+	 * @param sequence
+	 * @return true if the sequence was aligned against all the other known
+	 *         sequences
+	 */
+	public boolean isKnown(String sequence) {
+		final int index = indexesBySequence.get(sequence);
+		return index >= 0 && knownSequences.get(index);
+	}
+
+	/**
+	 *
+	 * @param sequence1
+	 * @param sequence2
+	 * @return true if the alignment of the two sequences (in any order) was
+	 *         stored in the file
+	 */
+	public boolean isAlignmentPassingThresholds(String sequence1, String sequence2) {
+		final int index1 = indexesBySequence.get(sequence1);
+		final int index2 = indexesBySequence.get(sequence2);
+		if (index1 < 0 || index2 < 0) {
+			return false;
+		}
+		return findStoredAlignment(getKey(index1, index2)) >= 0 || findStoredAlignment(getKey(index2, index1)) >= 0;
+	}
+
+	private int findStoredAlignment(long key) {
+		int low = 0;
+		int high = numStoredAlignments - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final long middleKey = storedAlignments.getLong(middle * ALIGNMENT_RECORD_SIZE);
+			if (middleKey < key) {
+				low = middle + 1;
+			} else if (middleKey > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private static long getKey(int index1, int index2) {
+		return ((long) index1 << 32) | (index2 & 0xffffffffL);
+	}
+
+	private int getOrCreateIndex(String sequence) {
+		int index = indexesBySequence.get(sequence);
+		if (index < 0) {
+			index = sequences.size();
+			indexesBySequence.put(sequence, index);
+			sequences.add(sequence);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a new alignment that passed the thresholds
+	 *
+	 * @param sequence1
+	 * @param sequence2
+	 */
+	public void addAlignment(String sequence1, String sequence2) {
+		newKeys.add(getKey(getOrCreateIndex(sequence1), getOrCreateIndex(sequence2)));
+		modified = true;
+	}
+
+	/**
+	 * Adds a sequence as known, once it has been aligned against all the known
+	 * sequences
+	 *
+	 * @param sequence
+	 */
+	public void addSequence(String sequence) {
+		if (!isKnown(sequence)) {
+			knownSequences.set(getOrCreateIndex(sequence));
+			modified = true;
+		}
+	}
+
+	/**
+	 *
+	 * @return the sequences that were aligned against all the other known
+	 *         sequences
+	 */
+	public List<String> getKnownSequences() {
+		final List<String> ret = new ArrayList<String>(knownSequences.cardinality());
+		for (int index = knownSequences.nextSetBit(0); index >= 0; index = knownSequences.nextSetBit(index + 1)) {
+			ret.add(sequences.get(index));
+		}
+		return ret;
+	}
+
+	public boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Writes the known sequences and the alignments between them in the file.
+	 * The file is written in a new temporary file in the same folder first, that
+	 * then replaces the original one.
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		// new indexes, keeping the order, so that the ones read from the file
+		// don't change
+		final int[] newIndexes = new int[sequences.size()];
+		int numKnownSequences = 0;
+		for (int index = 0; index < newIndexes.length; index++) {
+			newIndexes[index] = knownSequences.get(index) ? numKnownSequences++ : -1;
+		}
+		// the keys of the alignments between known sequences, stored or new
+		final int numNewAlignments = newKeys.size();
+		final long[] keys = new long[numStoredAlignments + numNewAlignments];
+		int numAlignments = 0;
+		for (int i = 0; i < numStoredAlignments; i++) {
+			keys[numAlignments++] = storedAlignments.getLong(i * ALIGNMENT_RECORD_SIZE);
+		}
+		for (int i = 0; i < numNewAlignments; i++) {
+			final long key = newKeys.get(i);
+			final int index1 = newIndexes[(int) (key >>> 32)];
+			final int index2 = newIndexes[(int) key];
+			if (index1 >= 0 && index2 >= 0) {
+				keys[numAlignments++] = getKey(index1, index2);
+			}
+		}
+		Arrays.sort(keys, 0, numAlignments);
+		// remove repeated alignments
+		int numDifferentAlignments = 0;
+		for (int i = 0; i < numAlignments; i++) {
+			if (i == 0 || keys[i] != keys[i - 1]) {
+				keys[numDifferentAlignments++] = keys[i];
+			}
+		}
+
+		final File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			write(tmpFile, newIndexes, numKnownSequences, keys, numDifferentAlignments);
+		} catch (final IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+		try {
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (final IOException e) {
+			// some systems don't allow to replace a file that is mapped
+			log.warn("Alignment cache " + file.getAbsolutePath() + " cannot be updated: " + e.getMessage());
+			Files.deleteIfExists(tmpFile.toPath());
+			return;
+		}
+		modified = false;
+		log.info(numKnownSequences + " sequences and " + numDifferentAlignments + " alignments stored in "
+				+ file.getAbsolutePath());
+	}
+
+	private void write(File file, int[] newIndexes, int numKnownSequences, long[] keys, int numAlignments)
+			throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(finalAlignmentScore);
+			out.writeDouble(sequenceIdentity);
+			out.writeInt(minConsecutiveIdenticalAlignment);
+			out.writeInt(numKnownSequences);
+			for (int index = 0; index < newIndexes.length; index++) {
+				if (newIndexes[index] >= 0) {
+					final byte[] bytes = sequences.get(index).getBytes(StandardCharsets.ISO_8859_1);
+					out.writeShort(bytes.length);
+					out.write(bytes);
+				}
+			}
+			out.writeInt(numAlignments);
+			for (int i = 0; i < numAlignments; i++) {
+				out.writeLong(keys[i]);
+			}
+		}
+	}
+}
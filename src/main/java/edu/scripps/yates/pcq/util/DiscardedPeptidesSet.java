@@ -16,16 +16,61 @@ public class DiscardedPeptidesSet extends ArrayList<DiscardedPeptide> {
 	};
 
 	private static DiscardedPeptidesSet instance;
+	// buffers used by worker threads, so that the discarded peptides can be
+	// added to the instance in a deterministic order
+	private static final ThreadLocal<DiscardedPeptidesSet> buffers = new ThreadLocal<DiscardedPeptidesSet>();
 
 	private DiscardedPeptidesSet() {
 		super();
 	}
 
+	/**
+	 * Gets the set of discarded peptides of the analysis, or the buffer of the
+	 * current thread if {@link #startBuffering()} was called from it
+	 *
+	 * @return
+	 */
 	public static DiscardedPeptidesSet getInstance() {
-		if (instance == null) {
-			instance = new DiscardedPeptidesSet();
+		final DiscardedPeptidesSet buffer = buffers.get();
+		if (buffer != null) {
+			return buffer;
+		}
+		synchronized (DiscardedPeptidesSet.class) {
+			if (instance == null) {
+				instance = new DiscardedPeptidesSet();
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * Makes {@link #getInstance()} to return a new buffer when called from the
+	 * current thread, until {@link #stopBuffering()} is called. The buffer should
+	 * be then added to the instance with {@link #addBuffer(DiscardedPeptidesSet)}
+	 *
+	 * @return the buffer
+	 */
+	public static DiscardedPeptidesSet startBuffering() {
+		final DiscardedPeptidesSet buffer = new DiscardedPeptidesSet();
+		buffers.set(buffer);
+		return buffer;
+	}
+
+	public static void stopBuffering() {
+		buffers.remove();
+	}
+
+	/**
+	 * Adds the content of a buffer created by {@link #startBuffering()} to the
+	 * instance
+	 *
+	 * @param buffer
+	 */
+	public static void addBuffer(DiscardedPeptidesSet buffer) {
+		final DiscardedPeptidesSet instance = getInstance();
+		synchronized (instance) {
+			instance.addAll(buffer);
 		}
-		return instance;
 	}
 
 	public void add(QuantifiedPeptideInterface peptide, DISCARD_REASON reason) {
@@ -37,7 +82,9 @@ public class DiscardedPeptidesSet extends ArrayList<DiscardedPeptide> {
 		if (additionalDescription != null) {
 			d.setAdditionalDescription(additionalDescription);
 		}
-		add(d);
+		synchronized (this) {
+			add(d);
+		}
 	}
 
 }
@@ -0,0 +1,113 @@
+package edu.scripps.yates.pcq.util;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint-set forest (union-find) over consecutive integer ids, using path
+ * compression and union by rank. Ids are created with {@link #makeSet()} and
+ * the storage grows as needed.
+ *
+ * @author salvador
+ *
+ */
+public class DisjointSet {
+	private int[] parents;
+	private byte[] ranks;
+	private int size = 0;
+	private int numSets = 0;
+
+	public DisjointSet() {
+		this(16);
+	}
+
+	public DisjointSet(int initialCapacity) {
+		parents = new int[Math.max(1, initialCapacity)];
+		ranks = new byte[parents.length];
+	}
+
+	/**
+	 * Creates a new singleton set
+	 *
+	 * @return the id of the new element
+	 */
+	public int makeSet() {
+		if (size == parents.length) {
+			final int newCapacity = parents.length * 2;
+			parents = Arrays.copyOf(parents, newCapacity);
+			ranks = Arrays.copyOf(ranks, newCapacity);
+		}
+		final int id = size++;
+		parents[id] = id;
+		ranks[id] = 0;
+		numSets++;
+		return id;
+	}
+
+	/**
+	 * Gets the representative element of the set containing the element, and
+	 * compresses the path from the element to it
+	 *
+	 * @param id
+	 * @return
+	 */
+	public int find(int id) {
+		int root = id;
+		while (parents[root] != root) {
+			root = parents[root];
+		}
+		// path compression
+		while (parents[id] != root) {
+			final int next = parents[id];
+			parents[id] = root;
+			id = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Merges the sets containing both elements
+	 *
+	 * @param id1
+	 * @param id2
+	 * @return the representative of the merged set
+	 */
+	public int union(int id1, int id2) {
+		final int root1 = find(id1);
+		final int root2 = find(id2);
+		if (root1 == root2) {
+			return root1;
+		}
+		numSets--;
+		if (ranks[root1] < ranks[root2]) {
+			parents[root1] = root2;
+			return root2;
+		} else if (ranks[root1] > ranks[root2]) {
+			parents[root2] = root1;
+			return root1;
+		} else {
+			parents[root2] = root1;
+			ranks[root1]++;
+			return root1;
+		}
+	}
+
+	public boolean connected(int id1, int id2) {
+		return find(id1) == find(id2);
+	}
+
+	/**
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the number of disjoint sets
+	 */
+	public int getNumSets() {
+		return numSets;
+	}
+}
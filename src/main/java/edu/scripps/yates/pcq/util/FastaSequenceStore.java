@@ -0,0 +1,259 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.log4j.Logger;
+
+import com.compomics.dbtoolkit.io.implementations.FASTADBLoader;
+import com.compomics.util.protein.Protein;
+
+import edu.scripps.yates.utilities.fasta.FastaParser;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Store of the protein sequences of a FASTA file that keeps them out of the
+ * heap.<br>
+ * The first time a FASTA file is used, a binary copy of it is written next to
+ * it (or in the temporary folder if its folder is not writable), with the
+ * residues of all the proteins, one byte per residue, followed by a table with
+ * the accession, offset and length of each protein. The residues are memory
+ * mapped, so that the sequence of a protein is only read when it is requested,
+ * and the binary copy is written again if the FASTA file is modified.
+ *
+ * @author salvador
+ *
+ */
+public class FastaSequenceStore implements Closeable {
+	private final static Logger log = Logger.getLogger(FastaSequenceStore.class);
+	private static final int MAGIC = 0x50435153; // PCQS
+	private static final int VERSION = 1;
+	private static final String EXTENSION = ".pcqseq";
+	// magic, version, FASTA length, FASTA last modified and table offset
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+	private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] chunks;
+	private final TObjectIntHashMap<String> indexesByAcc = new TObjectIntHashMap<String>(10, 0.5f, -1);
+	private final TLongArrayList offsets = new TLongArrayList();
+	private final TIntArrayList lengths = new TIntArrayList();
+
+	private FastaSequenceStore(File storeFile) throws IOException {
+		file = new RandomAccessFile(storeFile, "r");
+		final FileChannel channel = file.getChannel();
+		file.seek(HEADER_SIZE - 8);
+		final long tableOffset = file.readLong();
+		// the residues are mapped in chunks because a single mapping cannot
+		// be larger than 2GB
+		final long residuesSize = tableOffset - HEADER_SIZE;
+		chunks = new MappedByteBuffer[(int) ((residuesSize + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE)];
+		for (int i = 0; i < chunks.length; i++) {
+			final long position = i * MAX_CHUNK_SIZE;
+			chunks[i] = channel.map(MapMode.READ_ONLY, HEADER_SIZE + position,
+					Math.min(MAX_CHUNK_SIZE, residuesSize - position));
+		}
+		channel.position(tableOffset);
+		final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel), 1024 * 1024));
+		final int numProteins = in.readInt();
+		for (int i = 0; i < numProteins; i++) {
+			indexesByAcc.put(in.readUTF(), i);
+			offsets.add(in.readLong());
+			lengths.add(in.readInt());
+		}
+	}
+
+	/**
+	 * Opens the store of the sequences of a FASTA file, creating it if it
+	 * doesn't exist or if the FASTA file has been modified after its creation
+	 *
+	 * @param fastaFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static FastaSequenceStore open(File fastaFile) throws IOException {
+		File storeFile = new File(fastaFile.getAbsolutePath() + EXTENSION);
+		if (!fastaFile.getAbsoluteFile().getParentFile().canWrite() && !storeFile.exists()) {
+			storeFile = new File(System.getProperty("java.io.tmpdir"), fastaFile.getName() + EXTENSION);
+		}
+		if (!isUpToDate(storeFile, fastaFile)) {
+			write(fastaFile, storeFile);
+		}
+		final FastaSequenceStore ret = new FastaSequenceStore(storeFile);
+		log.info(ret.size() + " protein sequences available from " + storeFile.getAbsolutePath());
+		return ret;
+	}
+
+	private static boolean isUpToDate(File storeFile, File fastaFile) throws IOException {
+		if (!storeFile.exists() || storeFile.length() < HEADER_SIZE) {
+			return false;
+		}
+		try (RandomAccessFile in = new RandomAccessFile(storeFile, "r")) {
+			return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == fastaFile.length()
+					&& in.readLong() == fastaFile.lastModified();
+		}
+	}
+
+	/**
+	 * Streams the FASTA file writing its residues and then the table of the
+	 * proteins in a temporary file that then replaces the store file
+	 *
+	 * @param fastaFile
+	 * @param storeFile
+	 * @throws IOException
+	 */
+	private static void write(File fastaFile, File storeFile) throws IOException {
+		log.info("Creating protein sequence store from FASTA file " + fastaFile.getAbsolutePath());
+		final File tmpFile = File.createTempFile(storeFile.getName(), ".tmp",
+				storeFile.getAbsoluteFile().getParentFile());
+		boolean moved = false;
+		try {
+			final TObjectIntHashMap<String> indexesByAcc = new TObjectIntHashMap<String>(10, 0.5f, -1);
+			final TLongArrayList offsets = new TLongArrayList();
+			final TIntArrayList lengths = new TIntArrayList();
+			long offset = 0l;
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile), 1024 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(fastaFile.length());
+				out.writeLong(fastaFile.lastModified());
+				// the offset of the table is written at the end
+				out.writeLong(0l);
+				final FASTADBLoader loader = new FASTADBLoader();
+				loader.load(fastaFile.getAbsolutePath());
+				Protein protein = null;
+				while ((protein = loader.nextProtein()) != null) {
+					final String acc = getAccession(protein.getHeader().getRawHeader());
+					final byte[] residues = protein.getSequence().getSequence().getBytes(StandardCharsets.ISO_8859_1);
+					out.write(residues);
+					final int index = indexesByAcc.get(acc);
+					if (index >= 0) {
+						// the last one is kept, as when they were kept in a map
+						offsets.set(index, offset);
+						lengths.set(index, residues.length);
+					} else {
+						indexesByAcc.put(acc, offsets.size());
+						offsets.add(offset);
+						lengths.add(residues.length);
+					}
+					offset += residues.length;
+				}
+				final String[] accs = new String[offsets.size()];
+				for (final Object acc : indexesByAcc.keys()) {
+					accs[indexesByAcc.get(acc)] = (String) acc;
+				}
+				out.writeInt(accs.length);
+				for (int i = 0; i < accs.length; i++) {
+					out.writeUTF(accs[i]);
+					out.writeLong(offsets.get(i));
+					out.writeInt(lengths.get(i));
+				}
+			}
+			try (RandomAccessFile out = new RandomAccessFile(tmpFile, "rw")) {
+				out.seek(HEADER_SIZE - 8);
+				out.writeLong(HEADER_SIZE + offset);
+			}
+			try {
+				Files.move(tmpFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			moved = true;
+		} finally {
+			if (!moved) {
+				tmpFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Gets the accession of a protein from its FASTA header, as PCQ uses it for
+	 * the protein sequences
+	 *
+	 * @param rawHeader
+	 * @return
+	 */
+	public static String getAccession(String rawHeader) {
+		final String acc = FastaParser.getACC(rawHeader).getAccession();
+		if (!FastaParser.isUniProtACC(acc) && !FastaParser.isReverse(acc) && !FastaParser.isContaminant(acc)) {
+			return FastaParser.getSPorTRAccession(rawHeader);
+		}
+		return acc;
+	}
+
+	/**
+	 *
+	 * @return the accessions of the proteins in the store
+	 */
+	public Collection<String> getAccessions() {
+		return Collections.unmodifiableSet(indexesByAcc.keySet());
+	}
+
+	public boolean contains(String acc) {
+		return indexesByAcc.containsKey(acc);
+	}
+
+	/**
+	 *
+	 * @param acc
+	 * @return the sequence of the protein, or null if it is not in the FASTA
+	 *         file
+	 */
+	public String getSequence(String acc) {
+		final int index = indexesByAcc.get(acc);
+		if (index < 0) {
+			return null;
+		}
+		final byte[] residues = new byte[lengths.get(index)];
+		long position = offsets.get(index);
+		int read = 0;
+		// the sequence may span two chunks
+		while (read < residues.length) {
+			final MappedByteBuffer chunk = chunks[(int) (position / MAX_CHUNK_SIZE)];
+			final int positionInChunk = (int) (position % MAX_CHUNK_SIZE);
+			final int length = Math.min(residues.length - read, chunk.capacity() - positionInChunk);
+			// duplicate, so that the store can be read by several threads
+			final ByteBuffer buffer = chunk.duplicate();
+			buffer.position(positionInChunk);
+			buffer.get(residues, read, length);
+			read += length;
+			position += length;
+		}
+		return new String(residues, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 *
+	 * @return the number of proteins in the store
+	 */
+	public int size() {
+		return offsets.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
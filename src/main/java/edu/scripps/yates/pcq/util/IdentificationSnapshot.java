@@ -0,0 +1,272 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import edu.scripps.yates.dtaselectparser.DTASelectParser;
+import edu.scripps.yates.pcq.model.NonQuantifiedProtein;
+import edu.scripps.yates.utilities.proteomicsmodel.PSM;
+import edu.scripps.yates.utilities.proteomicsmodel.Protein;
+import edu.scripps.yates.utilities.sequence.PTMInPeptide;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.THashSet;
+
+/**
+ * The identifications read by a {@link DTASelectParser}, together with the
+ * options to wrap them into a {@link NonQuantParser}.<br>
+ * Neither the parser nor its PSMs and proteins are kept: the values of each PSM
+ * are copied into a {@link PSMRecord}, and the ones of each protein into a
+ * {@link NonQuantifiedProtein} that is not linked to any PSM, so that the
+ * snapshot can be shared by several runs through the {@link ParsedInputCache}.
+ * The index of the protein sequences and the Uniprot retriever are not kept
+ * either, since they are cached by {@link PCQUtils}.
+ *
+ * @author salvador
+ *
+ */
+public class IdentificationSnapshot {
+	// estimated heap of the objects of the snapshot, without their strings
+	private static final int PSM_RECORD_SIZE = 160;
+	private static final int PTM_IN_PEPTIDE_SIZE = 64;
+	private static final int PROTEIN_SIZE = 1024;
+	private final List<PSMRecord> psms;
+	private final List<NonQuantifiedProtein> proteins;
+	private final List<String> inputFilePathes;
+	private final Set<String> uniprotAccSet;
+	private final String decoyRegexp;
+	private final String uniprotVersion;
+	private final boolean ignoreNotFoundPeptidesInDB;
+	private final boolean ignoreTaxonomies;
+	private final boolean retrieveFastaIsoforms;
+	private final boolean ignoreACCFormat;
+	private final long estimatedSizeInBytes;
+
+	/**
+	 * The values of an identified {@link PSM}, with the indexes of its proteins
+	 * in {@link IdentificationSnapshot#getProteins()}
+	 *
+	 * @author salvador
+	 *
+	 */
+	public static class PSMRecord {
+		private final String fullSequence;
+		private final String sequence;
+		private final Integer scanNumber;
+		private final Integer chargeState;
+		private final String runId;
+		private final Float calcMH;
+		private final Float experimentalMH;
+		private final boolean containsPTMs;
+		private final List<PTMInPeptide> ptmsInPeptide;
+		private final Float deltaCn;
+		private final Float xCorr;
+		private final int[] proteinIndexes;
+
+		private PSMRecord(PSM psm, int[] proteinIndexes) {
+			fullSequence = psm.getFullSequence();
+			sequence = psm.getSequence();
+			scanNumber = Integer.valueOf(psm.getScanNumber());
+			chargeState = psm.getChargeState();
+			runId = psm.getMSRun().getRunId();
+			calcMH = psm.getCalcMH();
+			experimentalMH = psm.getExperimentalMH();
+			containsPTMs = psm.containsPTMs();
+			final List<PTMInPeptide> ptmsInPeptide = psm.getPTMsInPeptide();
+			this.ptmsInPeptide = ptmsInPeptide != null
+					? Collections.unmodifiableList(new ArrayList<PTMInPeptide>(ptmsInPeptide))
+					: null;
+			deltaCn = psm.getDeltaCn();
+			xCorr = psm.getXCorr();
+			this.proteinIndexes = proteinIndexes;
+		}
+
+		public String getFullSequence() {
+			return fullSequence;
+		}
+
+		public String getSequence() {
+			return sequence;
+		}
+
+		public Integer getScanNumber() {
+			return scanNumber;
+		}
+
+		public Integer getChargeState() {
+			return chargeState;
+		}
+
+		public String getRunId() {
+			return runId;
+		}
+
+		public Float getCalcMH() {
+			return calcMH;
+		}
+
+		public Float getExperimentalMH() {
+			return experimentalMH;
+		}
+
+		public boolean containsPTMs() {
+			return containsPTMs;
+		}
+
+		public List<PTMInPeptide> getPTMsInPeptide() {
+			return ptmsInPeptide;
+		}
+
+		public Float getDeltaCn() {
+			return deltaCn;
+		}
+
+		public Float getXCorr() {
+			return xCorr;
+		}
+
+		public int getNumProteins() {
+			return proteinIndexes.length;
+		}
+
+		/**
+		 *
+		 * @param i
+		 * @return the index of the i-th protein of the PSM in
+		 *         {@link IdentificationSnapshot#getProteins()}
+		 */
+		public int getProteinIndex(int i) {
+			return proteinIndexes[i];
+		}
+
+		private long getEstimatedSizeInBytes() {
+			long size = PSM_RECORD_SIZE + getEstimatedSizeInBytes(fullSequence) + getEstimatedSizeInBytes(sequence)
+					+ 4 * proteinIndexes.length;
+			if (ptmsInPeptide != null) {
+				size += PTM_IN_PEPTIDE_SIZE * ptmsInPeptide.size();
+			}
+			return size;
+		}
+	}
+
+	/**
+	 *
+	 * @param parser                     the parser of the input files, that is
+	 *                                   read here and not kept
+	 * @param decoyRegexp
+	 * @param uniprotVersion
+	 * @param ignoreNotFoundPeptidesInDB
+	 * @param ignoreTaxonomies
+	 * @param retrieveFastaIsoforms
+	 * @param ignoreACCFormat
+	 * @throws IOException
+	 */
+	public IdentificationSnapshot(DTASelectParser parser, String decoyRegexp, String uniprotVersion,
+			boolean ignoreNotFoundPeptidesInDB, boolean ignoreTaxonomies, boolean retrieveFastaIsoforms,
+			boolean ignoreACCFormat) throws IOException {
+		final List<PSMRecord> psms = new ArrayList<PSMRecord>();
+		final List<NonQuantifiedProtein> proteins = new ArrayList<NonQuantifiedProtein>();
+		final TObjectIntHashMap<String> proteinIndexesByAcc = new TObjectIntHashMap<String>(10, 0.5f, -1);
+		long estimatedSizeInBytes = 0l;
+		for (final PSM psm : parser.getPSMsByPSMID().values()) {
+			final TIntArrayList proteinIndexes = new TIntArrayList();
+			for (final Protein protein : psm.getProteins()) {
+				int proteinIndex = proteinIndexesByAcc.get(protein.getAccession());
+				if (proteinIndex == -1) {
+					proteinIndex = proteins.size();
+					final NonQuantifiedProtein proteinValues = new NonQuantifiedProtein(protein, ignoreTaxonomies);
+					proteins.add(proteinValues);
+					proteinIndexesByAcc.put(protein.getAccession(), proteinIndex);
+					estimatedSizeInBytes += PROTEIN_SIZE + getEstimatedSizeInBytes(proteinValues.getAccession())
+							+ getEstimatedSizeInBytes(proteinValues.getDescription());
+				}
+				proteinIndexes.add(proteinIndex);
+			}
+			final PSMRecord psmRecord = new PSMRecord(psm, proteinIndexes.toArray());
+			psms.add(psmRecord);
+			estimatedSizeInBytes += psmRecord.getEstimatedSizeInBytes();
+		}
+		this.psms = Collections.unmodifiableList(psms);
+		this.proteins = Collections.unmodifiableList(proteins);
+		final List<String> inputFilePathes = new ArrayList<String>();
+		for (final String inputFilePath : parser.getInputFilePathes()) {
+			inputFilePathes.add(inputFilePath);
+		}
+		this.inputFilePathes = Collections.unmodifiableList(inputFilePathes);
+		uniprotAccSet = Collections.unmodifiableSet(new THashSet<String>(parser.getUniprotAccSet()));
+		for (final String uniprotAcc : uniprotAccSet) {
+			estimatedSizeInBytes += getEstimatedSizeInBytes(uniprotAcc);
+		}
+		this.decoyRegexp = decoyRegexp;
+		this.uniprotVersion = uniprotVersion;
+		this.ignoreNotFoundPeptidesInDB = ignoreNotFoundPeptidesInDB;
+		this.ignoreTaxonomies = ignoreTaxonomies;
+		this.retrieveFastaIsoforms = retrieveFastaIsoforms;
+		this.ignoreACCFormat = ignoreACCFormat;
+		this.estimatedSizeInBytes = estimatedSizeInBytes;
+	}
+
+	private static long getEstimatedSizeInBytes(String string) {
+		if (string == null) {
+			return 0l;
+		}
+		return 40 + 2 * string.length();
+	}
+
+	public List<PSMRecord> getPSMs() {
+		return psms;
+	}
+
+	/**
+	 *
+	 * @return the values of the proteins of the PSMs, that must not be
+	 *         modified
+	 */
+	public List<NonQuantifiedProtein> getProteins() {
+		return proteins;
+	}
+
+	public List<String> getInputFilePathes() {
+		return inputFilePathes;
+	}
+
+	public Set<String> getUniprotAccSet() {
+		return uniprotAccSet;
+	}
+
+	public String getDecoyRegexp() {
+		return decoyRegexp;
+	}
+
+	public String getUniprotVersion() {
+		return uniprotVersion;
+	}
+
+	public boolean isIgnoreNotFoundPeptidesInDB() {
+		return ignoreNotFoundPeptidesInDB;
+	}
+
+	public boolean isIgnoreTaxonomies() {
+		return ignoreTaxonomies;
+	}
+
+	public boolean isRetrieveFastaIsoforms() {
+		return retrieveFastaIsoforms;
+	}
+
+	public boolean isIgnoreACCFormat() {
+		return ignoreACCFormat;
+	}
+
+	/**
+	 *
+	 * @return an estimation of the heap used by the snapshot, from the number
+	 *         of PSMs and proteins and the length of their strings
+	 */
+	public long getEstimatedSizeInBytes() {
+		return estimatedSizeInBytes;
+	}
+}
@@ -0,0 +1,107 @@
+package edu.scripps.yates.pcq.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of values computed from objects whose state can change, like
+ * nodes and peptides, keyed by the identity of the objects instead of by their
+ * hashCode, so that different objects never share a value. The least recently
+ * used values are evicted when the cache is full, and the value of an object
+ * has to be invalidated when the object changes.
+ *
+ * @author salvador
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class IdentityCache<K, V> {
+	private final String name;
+	private final int maxSize;
+	private final LinkedHashMap<IdentityKey<K>, V> valuesByKey;
+	private long hits = 0l;
+	private long misses = 0l;
+
+	private static class IdentityKey<K> {
+		private final K object;
+
+		private IdentityKey(K object) {
+			this.object = object;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(object);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IdentityKey && ((IdentityKey<?>) obj).object == object;
+		}
+	}
+
+	/**
+	 *
+	 * @param name    the name of the cache, for the statistics
+	 * @param maxSize the maximum number of values in the cache
+	 */
+	public IdentityCache(String name, int maxSize) {
+		this.name = name;
+		this.maxSize = maxSize;
+		valuesByKey = new LinkedHashMap<IdentityKey<K>, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<IdentityKey<K>, V> eldest) {
+				return size() > IdentityCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 *
+	 * @param object
+	 * @return the value of the object, or null if it is not in the cache
+	 */
+	public synchronized V get(K object) {
+		final V ret = valuesByKey.get(new IdentityKey<K>(object));
+		if (ret != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return ret;
+	}
+
+	public synchronized void put(K object, V value) {
+		valuesByKey.put(new IdentityKey<K>(object), value);
+	}
+
+	/**
+	 * Removes the value of an object that has changed
+	 *
+	 * @param object
+	 */
+	public synchronized void invalidate(K object) {
+		valuesByKey.remove(new IdentityKey<K>(object));
+	}
+
+	public synchronized void clear() {
+		valuesByKey.clear();
+		hits = 0l;
+		misses = 0l;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return name + " cache: " + valuesByKey.size() + " values, " + hits + " hits, " + misses + " misses";
+	}
+}
@@ -1,12 +1,13 @@
 package edu.scripps.yates.pcq.util;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.PatternSyntaxException;
 
 import org.apache.log4j.Logger;
 
+import edu.scripps.yates.annotations.uniprot.UniprotProteinLocalRetriever;
 import edu.scripps.yates.census.read.AbstractQuantParser;
 import edu.scripps.yates.census.read.model.QuantifiedPeptide;
 import edu.scripps.yates.census.read.model.QuantifiedProteinFromDBIndexEntry;
@@ -14,32 +15,39 @@ import edu.scripps.yates.census.read.model.StaticQuantMaps;
 import edu.scripps.yates.census.read.model.interfaces.QuantifiedPSMInterface;
 import edu.scripps.yates.census.read.model.interfaces.QuantifiedPeptideInterface;
 import edu.scripps.yates.census.read.model.interfaces.QuantifiedProteinInterface;
+import edu.scripps.yates.dbindex.DBIndexImpl;
 import edu.scripps.yates.dbindex.util.PeptideNotFoundInDBIndexException;
-import edu.scripps.yates.dtaselectparser.DTASelectParser;
 import edu.scripps.yates.pcq.model.NonQuantifiedPSM;
 import edu.scripps.yates.pcq.model.NonQuantifiedProtein;
+import edu.scripps.yates.pcq.util.IdentificationSnapshot.PSMRecord;
 import edu.scripps.yates.utilities.fasta.dbindex.DBIndexStoreException;
 import edu.scripps.yates.utilities.fasta.dbindex.IndexedProtein;
 import edu.scripps.yates.utilities.progresscounter.ProgressCounter;
 import edu.scripps.yates.utilities.progresscounter.ProgressPrintingType;
-import edu.scripps.yates.utilities.proteomicsmodel.PSM;
-import edu.scripps.yates.utilities.proteomicsmodel.Protein;
 import edu.scripps.yates.utilities.proteomicsmodel.utils.KeyUtils;
 
 public class NonQuantParser extends AbstractQuantParser {
 	private final static Logger log = Logger.getLogger(NonQuantParser.class);
-	private final DTASelectParser dtaSelectParser;
-
-	public NonQuantParser(DTASelectParser dtaSelectParser) throws PatternSyntaxException, IOException {
-		this.dtaSelectParser = dtaSelectParser;
-		enableProteinMergingBySecondaryAccessions(dtaSelectParser.getUniprotProteinLocalRetriever(),
-				dtaSelectParser.getUniprotVersion());
-		setDbIndex(dtaSelectParser.getDBIndex());
-		setDecoyPattern(dtaSelectParser.getDecoyPattern());
-		setIgnoreNotFoundPeptidesInDB(dtaSelectParser.isIgnoreNotFoundPeptidesInDB());
-		setIgnoreTaxonomies(dtaSelectParser.isIgnoreTaxonomies());
-		setRetrieveFastaIsoforms(dtaSelectParser.isRetrieveFastaIsoforms());
-		setIgnoreACCFormat(dtaSelectParser.isIgnoreACCFormat());
+	private final IdentificationSnapshot identifications;
+
+	/**
+	 *
+	 * @param identifications
+	 * @param dbIndex         the index used to read the identifications, or null
+	 * @param uplr
+	 * @throws PatternSyntaxException
+	 * @throws IOException
+	 */
+	public NonQuantParser(IdentificationSnapshot identifications, DBIndexImpl dbIndex,
+			UniprotProteinLocalRetriever uplr) throws PatternSyntaxException, IOException {
+		this.identifications = identifications;
+		enableProteinMergingBySecondaryAccessions(uplr, identifications.getUniprotVersion());
+		setDbIndex(dbIndex);
+		setDecoyPattern(identifications.getDecoyRegexp());
+		setIgnoreNotFoundPeptidesInDB(identifications.isIgnoreNotFoundPeptidesInDB());
+		setIgnoreTaxonomies(identifications.isIgnoreTaxonomies());
+		setRetrieveFastaIsoforms(identifications.isRetrieveFastaIsoforms());
+		setIgnoreACCFormat(identifications.isIgnoreACCFormat());
 		// do not clear static maps, in order to get the same objects than a
 		// previous quantparser
 		super.clearStaticMapsBeforeReading = false;
@@ -50,11 +58,11 @@ public class NonQuantParser extends AbstractQuantParser {
 	protected void process() {
 		try {
 			processed = false;
-			final Map<String, PSM> psms = dtaSelectParser.getPSMsByPSMID();
+			final List<PSMRecord> psms = identifications.getPSMs();
 			// wrapping dtaselect psms to PCQ
 			log.info("Wrapping " + psms.size() + " PSMs from DTASelect parser into PCQ");
 			final ProgressCounter counter = new ProgressCounter(psms.size(), ProgressPrintingType.PERCENTAGE_STEPS, 0);
-			for (final PSM psm : psms.values()) {
+			for (final PSMRecord psm : psms) {
 				counter.increment();
 				final String printIfNecessary = counter.printIfNecessary();
 				if (!"".equals(printIfNecessary)) {
@@ -72,13 +80,13 @@ public class NonQuantParser extends AbstractQuantParser {
 
 	}
 
-	private void processPSM(PSM psm) throws IOException, DBIndexStoreException {
+	private void processPSM(PSMRecord psm) throws IOException, DBIndexStoreException {
 
-		final String experimentKey = psm.getMSRun().getRunId();
+		final String experimentKey = psm.getRunId();
 
 		QuantifiedPSMInterface quantifiedPSM = new NonQuantifiedPSM(psm, isDistinguishModifiedSequences(),
 				isChargeSensible());
-		for (final String inputFileName : dtaSelectParser.getInputFilePathes()) {
+		for (final String inputFileName : identifications.getInputFilePathes()) {
 			quantifiedPSM.getFileNames().add(inputFileName);
 		}
 		final String psmKey = KeyUtils.getInstance().getSpectrumKey(quantifiedPSM, isDistinguishModifiedSequences(),
@@ -154,8 +162,8 @@ public class NonQuantParser extends AbstractQuantParser {
 
 			}
 		}
-		final Set<Protein> proteins = psm.getProteins();
-		for (final Protein protein : proteins) {
+		for (int i = 0; i < psm.getNumProteins(); i++) {
+			final NonQuantifiedProtein protein = identifications.getProteins().get(psm.getProteinIndex(i));
 			final String proteinKey = protein.getAccession();
 			QuantifiedProteinInterface quantifiedProtein = null;
 			if (StaticQuantMaps.proteinMap.containsKey(proteinKey)) {
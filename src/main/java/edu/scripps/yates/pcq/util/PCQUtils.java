@@ -32,7 +32,6 @@ import edu.scripps.yates.census.read.model.IsoRatio;
 import edu.scripps.yates.census.read.model.IsobaricQuantifiedPSM;
 import edu.scripps.yates.census.read.model.IsobaricQuantifiedPeptide;
 import edu.scripps.yates.census.read.model.QuantifiedPSM;
-import edu.scripps.yates.census.read.model.QuantifiedPeptide;
 import edu.scripps.yates.census.read.model.RatioScore;
 import edu.scripps.yates.census.read.model.StaticQuantMaps;
 import edu.scripps.yates.census.read.model.interfaces.QuantParser;
@@ -56,8 +55,6 @@ import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
 import edu.scripps.yates.pcq.xgmml.util.AlignedPeptides;
 import edu.scripps.yates.pcq.xgmml.util.AlignmentSet;
 import edu.scripps.yates.proteoform_dbindex.ProteoformDBIndexInterface;
-import edu.scripps.yates.utilities.alignment.nwalign.NWAlign;
-import edu.scripps.yates.utilities.alignment.nwalign.NWResult;
 import edu.scripps.yates.utilities.annotations.uniprot.UniprotEntryUtil;
 import edu.scripps.yates.utilities.annotations.uniprot.xml.Entry;
 import edu.scripps.yates.utilities.annotations.uniprot.xml.GeneNameType;
@@ -66,8 +63,6 @@ import edu.scripps.yates.utilities.annotations.uniprot.xml.OrganismNameType;
 import edu.scripps.yates.utilities.annotations.uniprot.xml.OrganismType;
 import edu.scripps.yates.utilities.fasta.dbindex.DBIndexSearchParams;
 import edu.scripps.yates.utilities.maths.Maths;
-import edu.scripps.yates.utilities.progresscounter.ProgressCounter;
-import edu.scripps.yates.utilities.progresscounter.ProgressPrintingType;
 import edu.scripps.yates.utilities.proteomicsmodel.enums.AggregationLevel;
 import edu.scripps.yates.utilities.proteomicsmodel.utils.ModelUtils;
 import edu.scripps.yates.utilities.remote.RemoteSSHFileReference;
@@ -81,8 +76,8 @@ import edu.scripps.yates.utilities.util.Pair;
 import gnu.trove.TDoubleCollection;
 import gnu.trove.list.TDoubleList;
 import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.THashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.hash.THashSet;
 import gnu.trove.set.hash.TIntHashSet;
 
@@ -98,140 +93,186 @@ public class PCQUtils {
 	public static final String FDR_CONFIDENCE_SCORE_NAME = "FDR";
 	private static Map<String, QuantParser> quantParsersByFileNamesKey = new THashMap<String, QuantParser>();
 	private static Map<String, DTASelectParser> dtaSelectParsersByFileNamesKey = new THashMap<String, DTASelectParser>();
-	private static TIntObjectHashMap<Set<String>> cachedProteinNodeKeysStringsByQuantifiedPeptide = new TIntObjectHashMap<Set<String>>();
+	// maximum number of values in each of the caches of the analysis
+	static final int CACHE_SIZE = 500000;
+	private static final IdentityCache<QuantifiedPeptideInterface, Set<String>> proteinKeysByPeptideCache = new IdentityCache<QuantifiedPeptideInterface, Set<String>>(
+			"Protein keys by peptide", CACHE_SIZE);
+	private final static IdentityCache<PCQPeptideNode, String> proteinNodeAccessionStringByPeptideNodeCache = new IdentityCache<PCQPeptideNode, String>(
+			"Protein node accessions by peptide node", CACHE_SIZE);
+	private static final ThreadLocal<RatioStatistics> ratioStatistics = ThreadLocal.withInitial(RatioStatistics::new);
 	public static final ProteinSequences proteinSequences = new ProteinSequences();
 	public static String[] PTM_CODES = { "*", "@", "^", "&", "#", "%", "!" };
-	private static Map<Double, String> ptmCodesByDeltaMass = new THashMap<Double, String>();
+	private static final Map<Double, String> ptmCodesByDeltaMass = new THashMap<Double, String>();
+	private static PeptideProteinIndex peptideProteinIndex;
 
-	public static String getPTMCodeByDeltaMass(double delta) {
-		if (!ptmCodesByDeltaMass.containsKey(delta)) {
-			// look for a new one
-			final Collection<String> usedPTMCodes = ptmCodesByDeltaMass.values();
-			for (final String PTM_CODE : PTM_CODES) {
-				if (!usedPTMCodes.contains(PTM_CODE)) {
-					ptmCodesByDeltaMass.put(delta, PTM_CODE);
-					break;
-				}
-			}
-		}
-		return ptmCodesByDeltaMass.get(delta);
+	/**
+	 * Clears the caches of the analysis, to be called when an analysis starts
+	 */
+	public static void clearCaches() {
+		proteinKeysByPeptideCache.clear();
+		proteinNodeAccessionStringByPeptideNodeCache.clear();
 	}
 
-	public static Map<Double, String> getPTMCodesByDeltaMass() {
-		return ptmCodesByDeltaMass;
+	/**
+	 * Removes the cached values of a peptide node whose protein nodes have
+	 * changed, and of its peptides
+	 *
+	 * @param peptideNode
+	 */
+	public static void invalidateCaches(PCQPeptideNode peptideNode) {
+		proteinNodeAccessionStringByPeptideNodeCache.invalidate(peptideNode);
+		for (final QuantifiedPeptideInterface peptide : peptideNode.getQuantifiedPeptides()) {
+			proteinKeysByPeptideCache.invalidate(peptide);
+		}
 	}
 
-	public static AlignmentSet alignPeptides(List<QuantifiedPeptideInterface> peptideList, QuantCondition cond1,
-			QuantCondition cond2, FileWriter alignmentLogFile) throws IOException {
-		final AlignmentSet ret = new AlignmentSet();
-		boolean someAlignmentPassThresholds = false;
-		long totalAligments = 0;
-		try {
-			final int finalAlignmentScore = ProteinClusterQuantParameters.getInstance().getFinalAlignmentScore();
-			int maxAlignmentScore = -Integer.MAX_VALUE;
-			final double sequenceIdentity = ProteinClusterQuantParameters.getInstance().getSequenceIdentity();
-			double maxSeqIdentity = -Double.MAX_VALUE;
-			final int minConsecutiveIdenticalAlignment = ProteinClusterQuantParameters.getInstance()
-					.getMinConsecutiveIdenticalAlignment();
-			int maxConsecutiveIdenticalAlignment = -Integer.MAX_VALUE;
-			log.info("Aligning " + peptideList.size() + " peptides between them");
-			log.info("Using minScore=" + finalAlignmentScore + ", minSeqIdentity=" + sequenceIdentity
-					+ ", minConsecutiveAlignment=" + minConsecutiveIdenticalAlignment);
-			final ProgressCounter counter = new ProgressCounter(peptideList.size(),
-					ProgressPrintingType.PERCENTAGE_STEPS, 0);
-			for (int i = 0; i < peptideList.size(); i++) {
-				counter.increment();
-				final QuantifiedPeptideInterface pep1 = peptideList.get(i);
-				final String printIfNecessary = counter.printIfNecessary();
-				if (printIfNecessary != null && !"".equals(printIfNecessary)) {
-					log.info("Aligning Peptides " + printIfNecessary);
-				}
-
-				for (int j = i + 1; j < peptideList.size(); j++) {
-					totalAligments++;
-					final QuantifiedPeptideInterface pep2 = peptideList.get(j);
-					final NWResult alignment = NWAlign.needlemanWunsch(pep1.getSequence(), pep2.getSequence(), -11, -1);
-					maxAlignmentScore = maxAlignmentScore < alignment.getFinalAlignmentScore()
-							? alignment.getFinalAlignmentScore()
-							: maxAlignmentScore;
-					maxSeqIdentity = maxSeqIdentity < alignment.getSequenceIdentity() ? alignment.getSequenceIdentity()
-							: maxSeqIdentity;
-					maxConsecutiveIdenticalAlignment = maxConsecutiveIdenticalAlignment < alignment
-							.getMaxConsecutiveIdenticalAlignment() ? alignment.getMaxConsecutiveIdenticalAlignment()
-									: maxConsecutiveIdenticalAlignment;
-
-					if ((alignment.getFinalAlignmentScore() >= finalAlignmentScore
-							&& alignment.getSequenceIdentity() >= sequenceIdentity)
-							&& alignment.getMaxConsecutiveIdenticalAlignment() >= minConsecutiveIdenticalAlignment) {
-						someAlignmentPassThresholds = true;
-						// store aligment
-						ret.addAlignment(new AlignedPeptides(alignment, pep1, pep2));
-						// print pep1 and pep2
-						alignmentLogFile.append(pep1.getSequence() + "\t");
-						alignmentLogFile.append(pep2.getSequence() + "\t");
-						Double ratio1 = null;
-						if (pep1 instanceof IsobaricQuantifiedPeptide) {
-							ratio1 = ((IsobaricQuantifiedPeptide) pep1).getIonCountRatio(cond1, cond2)
-									.getLog2Ratio(cond1, cond2);
-						} else if (pep1 instanceof QuantifiedPeptide) {
-							ratio1 = ((QuantifiedPeptide) pep1).getConsensusRatio(cond1, cond2).getLog2Ratio(cond1,
-									cond2);
-						}
-						if (ratio1 == Double.NEGATIVE_INFINITY) {
-							alignmentLogFile.append("NEG_INF" + "\t");
-						} else if (ratio1 == Double.POSITIVE_INFINITY) {
-							alignmentLogFile.append("POS_INF" + "\t");
-						} else {
-							alignmentLogFile.append(ratio1 + "\t");
-						}
-						Double ratio2 = null;
-						if (pep2 instanceof IsobaricQuantifiedPeptide) {
-							ratio2 = ((IsobaricQuantifiedPeptide) pep2).getIonCountRatio(cond1, cond2)
-									.getLog2Ratio(cond1, cond2);
-						} else if (pep2 instanceof QuantifiedPeptide) {
-							ratio2 = ((QuantifiedPeptide) pep2).getConsensusRatio(cond1, cond2).getLog2Ratio(cond1,
-									cond2);
-						}
-						if (ratio2 == Double.NEGATIVE_INFINITY) {
-							alignmentLogFile.append("NEG_INF" + "\t");
-						} else if (ratio2 == Double.POSITIVE_INFINITY) {
-							alignmentLogFile.append("POS_INF" + "\t");
-						} else {
-							alignmentLogFile.append(ratio2 + "\t");
-						}
+	/**
+	 *
+	 * @return the hits and misses of the caches of the analysis
+	 */
+	public static String getCacheStatistics() {
+		return proteinKeysByPeptideCache + "; " + proteinNodeAccessionStringByPeptideNodeCache;
+	}
 
-						alignmentLogFile.append(alignment.getSequenceIdentity() + "\t");
-						alignmentLogFile.append("1" + "\n");
-						alignmentLogFile.flush();
+	/**
+	 *
+	 * @return the index of the peptides in the protein sequences of the run, or
+	 *         null if it was not created
+	 */
+	public static PeptideProteinIndex getPeptideProteinIndex() {
+		return peptideProteinIndex;
+	}
 
-						/*
-						 * // prints p1 and pep2 System.out.print(quantifiedProtein.getAccession() +
-						 * "\t"); System.out.print(pep2.getSequence() + "\t"); System.out.print("1" +
-						 * "\t"); System.out.print("0" + "\t"); log.info("1");
-						 */
+	public static void setPeptideProteinIndex(PeptideProteinIndex index) {
+		peptideProteinIndex = index;
+	}
 
-						// }
-					}
+	/**
+	 *
+	 * @param peptide
+	 * @return the index of the run, if the peptide and the sequences of all its
+	 *         proteins are in it, or null otherwise
+	 */
+	private static PeptideProteinIndex getPeptideProteinIndex(QuantifiedPeptideInterface peptide) {
+		final PeptideProteinIndex index = peptideProteinIndex;
+		if (index == null || !index.containsPeptide(peptide.getSequence())) {
+			return null;
+		}
+		for (final QuantifiedProteinInterface protein : peptide.getQuantifiedProteins()) {
+			if (!index.containsProtein(protein.getAccession())) {
+				return null;
+			}
+		}
+		return index;
+	}
 
+	/**
+	 * Gets the positions of the quantified sites of a peptide in its proteins,
+	 * from the {@link PeptideProteinIndex} of the run if the peptide and its
+	 * proteins are indexed, or searching the peptide in the sequences of its
+	 * proteins otherwise
+	 *
+	 * @param peptide
+	 * @param quantifiedAAs
+	 * @param uplr
+	 * @return the positions in the proteins by each position of a quantified
+	 *         site in the peptide
+	 */
+	public static Map<PositionInPeptide, List<PositionInProtein>> getPositionsInProteinsForQuantifiedAAs(
+			QuantifiedPeptideInterface peptide, char[] quantifiedAAs, UniprotProteinLocalRetriever uplr) {
+		final PeptideProteinIndex index = getPeptideProteinIndex(peptide);
+		if (index == null) {
+			return peptide.getProteinKeysByPeptideKeysForQuantifiedAAs(quantifiedAAs, uplr, proteinSequences);
+		}
+		final String sequence = peptide.getSequence();
+		final Map<PositionInPeptide, List<PositionInProtein>> ret = new THashMap<PositionInPeptide, List<PositionInProtein>>();
+		for (int i = 0; i < sequence.length(); i++) {
+			final char aa = sequence.charAt(i);
+			if (!containsAny(String.valueOf(aa), quantifiedAAs)) {
+				continue;
+			}
+			final List<PositionInProtein> positionsInProteins = new ArrayList<PositionInProtein>();
+			for (final QuantifiedProteinInterface protein : peptide.getQuantifiedProteins()) {
+				final TIntArrayList starts = index.getPositions(sequence, protein.getAccession());
+				for (int j = 0; j < starts.size(); j++) {
+					positionsInProteins.add(new PositionInProtein(starts.get(j) + i, aa, protein.getAccession()));
 				}
 			}
-			if (!someAlignmentPassThresholds) {
-				log.info("None of the aligments passed the thresholds: minAlignmentScore=" + finalAlignmentScore
-						+ ", minSeqIdentity=" + sequenceIdentity + ", minConsecutiveAlignment="
-						+ minConsecutiveIdenticalAlignment);
-				log.info("Better values were: minAlignmentScore=" + maxAlignmentScore + ", minSeqIdentity="
-						+ maxSeqIdentity + ", minConsecutiveAlignment=" + maxConsecutiveIdenticalAlignment);
+			if (!positionsInProteins.isEmpty()) {
+				ret.put(new PositionInPeptide(i + 1, aa, sequence), positionsInProteins);
 			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the positions of the PTMs of a peptide in its proteins, from the
+	 * {@link PeptideProteinIndex} of the run if the peptide and its proteins
+	 * are indexed, or searching the peptide in the sequences of its proteins
+	 * otherwise
+	 *
+	 * @param peptide
+	 * @param uplr
+	 * @return
+	 */
+	public static List<PTMInProtein> getPTMsInProteins(QuantifiedPeptideInterface peptide,
+			UniprotProteinLocalRetriever uplr) {
+		final PeptideProteinIndex index = getPeptideProteinIndex(peptide);
+		if (index == null) {
+			return peptide.getPTMsInProtein(uplr, proteinSequences);
+		}
+		final List<PTMInProtein> ret = new ArrayList<PTMInProtein>();
+		final List<PTMInPeptide> ptmsInPeptide = peptide.getPTMsInPeptide();
+		if (ptmsInPeptide == null || ptmsInPeptide.isEmpty()) {
 			return ret;
-		} finally {
-			if (ret.getNumAligments() > 0) {
-				log.info(ret.getNumAligments() + " aligments passed the threshold out of " + totalAligments);
+		}
+		for (final QuantifiedProteinInterface protein : peptide.getQuantifiedProteins()) {
+			final TIntArrayList starts = index.getPositions(peptide.getSequence(), protein.getAccession());
+			for (int j = 0; j < starts.size(); j++) {
+				for (final PTMInPeptide ptmInPeptide : ptmsInPeptide) {
+					ret.add(new PTMInProtein(starts.get(j) + ptmInPeptide.getPosition() - 1, ptmInPeptide.getAa(),
+							protein.getAccession(), ptmInPeptide.getDeltaMass()));
+				}
 			}
-			if (alignmentLogFile != null) {
-				alignmentLogFile.close();
+		}
+		return ret;
+	}
+
+	public static String getPTMCodeByDeltaMass(double delta) {
+		// called from the threads writing the output tables
+		synchronized (ptmCodesByDeltaMass) {
+			if (!ptmCodesByDeltaMass.containsKey(delta)) {
+				// look for a new one
+				final Collection<String> usedPTMCodes = ptmCodesByDeltaMass.values();
+				for (final String PTM_CODE : PTM_CODES) {
+					if (!usedPTMCodes.contains(PTM_CODE)) {
+						ptmCodesByDeltaMass.put(delta, PTM_CODE);
+						break;
+					}
+				}
 			}
+			return ptmCodesByDeltaMass.get(delta);
 		}
+	}
 
+	public static Map<Double, String> getPTMCodesByDeltaMass() {
+		return ptmCodesByDeltaMass;
+	}
+
+	/**
+	 * Aligns the peptides between them using a {@link PeptideAligner}
+	 * 
+	 * @param peptideList
+	 * @param cond1
+	 * @param cond2
+	 * @param alignmentLogFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static AlignmentSet alignPeptides(List<QuantifiedPeptideInterface> peptideList, QuantCondition cond1,
+			QuantCondition cond2, FileWriter alignmentLogFile) throws IOException {
+		return new PeptideAligner(ProteinClusterQuantParameters.getInstance()).alignPeptides(peptideList, cond1,
+				cond2, alignmentLogFile);
 	}
 
 	// merges the clusters if there is a similar peptide pair between the two
@@ -342,7 +383,6 @@ public class PCQUtils {
 		if (!forceCreation && dtaSelectParsersByFileNamesKey.containsKey(fileNamesKey)) {
 			return dtaSelectParsersByFileNamesKey.get(fileNamesKey);
 		}
-
 		final DTASelectParser parser = new DTASelectParser(xmlFiles);
 		try {
 			parser.setRetrieveFastaIsoforms(lookForProteoforms);
@@ -358,7 +398,6 @@ public class PCQUtils {
 			}
 			parser.enableProteinMergingBySecondaryAccessions(
 					getUniprotProteinLocalRetrieverByFolder(uniprotReleasesFolder), uniprotVersion);
-
 			return parser;
 		} finally {
 			addDTASelectParserToStaticMap(fileNamesKey, parser);
@@ -617,12 +656,14 @@ public class PCQUtils {
 		if (uniprotReleasesFolder == null) {
 			return null;
 		}
-		if (!uplrMap.containsKey(uniprotReleasesFolder.getAbsolutePath())) {
-			final UniprotProteinLocalRetriever uplr = new UniprotProteinLocalRetriever(uniprotReleasesFolder, true,
-					true, true);
-			uplrMap.put(uniprotReleasesFolder.getAbsolutePath(), uplr);
+		synchronized (uplrMap) {
+			if (!uplrMap.containsKey(uniprotReleasesFolder.getAbsolutePath())) {
+				final UniprotProteinLocalRetriever uplr = new UniprotProteinLocalRetriever(uniprotReleasesFolder, true,
+						true, true);
+				uplrMap.put(uniprotReleasesFolder.getAbsolutePath(), uplr);
+			}
+			return uplrMap.get(uniprotReleasesFolder.getAbsolutePath());
 		}
-		return uplrMap.get(uniprotReleasesFolder.getAbsolutePath());
 	}
 
 	private static CensusOutParser getCensusOutParserUsingMongoDBIndex(String mongoDBURI, String mongoMassDBName,
@@ -1115,8 +1156,6 @@ public class PCQUtils {
 		return map;
 	}
 
-	private final static TIntObjectHashMap<String> cachedProteinNodeAccessionStringsByPeptideNode = new TIntObjectHashMap<String>();
-
 	/**
 	 * Gets the proteinNodeAccessionString from a peptideNode's proteinNode set,
 	 * which is cached to speed up the process
@@ -1125,12 +1164,14 @@ public class PCQUtils {
 	 * @return
 	 */
 	private static String getProteinNodeAccessionString(PCQPeptideNode peptideNode) {
-		if (!cachedProteinNodeAccessionStringsByPeptideNode.containsKey(peptideNode.hashCode())) {
-			final String proteinAccKey = PCQUtils.getProteinNodeAccessionString(peptideNode.getProteinNodes());
-			cachedProteinNodeAccessionStringsByPeptideNode.put(peptideNode.hashCode(), proteinAccKey);
-			return proteinAccKey;
+		final IdentityCache<PCQPeptideNode, String> cache = proteinNodeAccessionStringByPeptideNodeCache;
+		final String cachedProteinAccKey = cache.get(peptideNode);
+		if (cachedProteinAccKey != null) {
+			return cachedProteinAccKey;
 		}
-		return cachedProteinNodeAccessionStringsByPeptideNode.get(peptideNode.hashCode());
+		final String proteinAccKey = PCQUtils.getProteinNodeAccessionString(peptideNode.getProteinNodes());
+		cache.put(peptideNode, proteinAccKey);
+		return proteinAccKey;
 	}
 
 	/**
@@ -1231,6 +1272,29 @@ public class PCQUtils {
 		}
 	}
 
+	/**
+	 * Checks to see if the list has both ratios and infinities in it. Returns true
+	 * if mixed. Returns false if only one kind. NaN values are ignored.
+	 *
+	 * @param ratios
+	 * @return
+	 */
+	public static boolean hasRatiosAndINF(TDoubleArrayList ratios) {
+		int counterINF = 0;
+		int counterRatio = 0;
+		for (int i = 0; i < ratios.size(); i++) {
+			final double ratio = ratios.getQuick(i);
+			if (!Double.isNaN(ratio)) {
+				if (Double.isInfinite(ratio)) {
+					counterINF++;
+				} else {
+					counterRatio++;
+				}
+			}
+		}
+		return counterINF > 0 && counterRatio > 0;
+	}
+
 	/**
 	 * Gets a list of all the infinities from the original list of ratios. If the
 	 * ratio is null, it is ignored.
@@ -1310,7 +1374,8 @@ public class PCQUtils {
 	public static Double areAllINFValuesSame(TDoubleArrayList ratios) {
 		int posCount = 0;
 		int negCount = 0;
-		for (final double ratio : ratios.toArray()) {
+		for (int i = 0; i < ratios.size(); i++) {
+			final double ratio = ratios.getQuick(i);
 			if (Double.compare(Double.POSITIVE_INFINITY, ratio) == 0) {
 				posCount++;
 			}
@@ -1611,20 +1676,20 @@ public class PCQUtils {
 	// }
 	// return ProteinPair.getConsensusRatio(pepRatioList);
 	// }
-	public static String getGeneNameString(Map<String, Entry> annotatedProteins, ProteinCluster cluster,
+	public static String getGeneNameString(Map<String, ProteinAnnotation> annotatedProteins, ProteinCluster cluster,
 			Set<String> validTaxonomies, boolean onlyFirst, boolean skipDiscarded) {
 		return getGeneNameString(annotatedProteins, getProteinMap(cluster.getProteinNodes(), skipDiscarded),
 				validTaxonomies, onlyFirst);
 	}
 
-	public static String getGeneNameString(Map<String, Entry> annotatedProteins,
+	public static String getGeneNameString(Map<String, ProteinAnnotation> annotatedProteins,
 			Collection<PCQProteinNode> proteinNodes, Set<String> validTaxonomies, boolean onlyFirst,
 			boolean skipDiscarded) {
 		return getGeneNameString(annotatedProteins, getProteinMap(proteinNodes, skipDiscarded), validTaxonomies,
 				onlyFirst);
 	}
 
-	public static String getGeneNameString(Map<String, Entry> annotatedProteins, PCQProteinNode proteinNode,
+	public static String getGeneNameString(Map<String, ProteinAnnotation> annotatedProteins, PCQProteinNode proteinNode,
 			Set<String> validTaxonomies, boolean onlyFirst, boolean skipDiscarded) {
 		return getGeneNameString(annotatedProteins, getProteinMapByProteinAccession(proteinNode, skipDiscarded),
 				validTaxonomies, onlyFirst);
@@ -1659,7 +1724,7 @@ public class PCQUtils {
 		return map;
 	}
 
-	public static String getSpeciesString(Map<String, Entry> annotatedProteins, Set<PCQProteinNode> proteinNodeSet,
+	public static String getSpeciesString(Map<String, ProteinAnnotation> annotatedProteins, Set<PCQProteinNode> proteinNodeSet,
 			Set<String> validTaxonomies, boolean skipDiscarded) {
 
 		final Set<String> set = new THashSet<String>();
@@ -1681,7 +1746,7 @@ public class PCQUtils {
 			// int index = 0;
 			for (final String acc : accs) {
 				if (annotatedProteins != null && annotatedProteins.containsKey(acc)) {
-					final String taxon = getTaxonomy(acc, annotatedProteins.get(acc).getOrganism());
+					final String taxon = annotatedProteins.get(acc).getTaxonomy();
 					if (taxon != null) {
 						boolean valid = false;
 						if (validTaxonomies != null && !validTaxonomies.isEmpty()) {
@@ -1719,7 +1784,7 @@ public class PCQUtils {
 		return sb.toString();
 	}
 
-	public static String getGeneNameString(Map<String, Entry> annotatedProteins,
+	public static String getGeneNameString(Map<String, ProteinAnnotation> annotatedProteins,
 			Map<String, PCQProteinNode> proteinNodeMap, Set<String> validTaxonomies, boolean onlyFirst) {
 
 		final Set<String> set = new THashSet<String>();
@@ -1738,7 +1803,7 @@ public class PCQUtils {
 			// int index = 0;
 			for (final String acc : accs) {
 				if (annotatedProteins != null && annotatedProteins.containsKey(acc)) {
-					final String taxon = getTaxonomy(acc, annotatedProteins.get(acc).getOrganism());
+					final String taxon = annotatedProteins.get(acc).getTaxonomy();
 					if (taxon != null) {
 						boolean valid = false;
 						if (validTaxonomies != null && !validTaxonomies.isEmpty()) {
@@ -1755,7 +1820,7 @@ public class PCQUtils {
 						}
 					}
 
-					final String geneName = getGeneName(annotatedProteins.get(acc).getGene());
+					final String geneName = annotatedProteins.get(acc).getGeneName();
 					set.add(geneName);
 				} else {
 					// log.warn(acc + " not annotated");
@@ -1784,7 +1849,7 @@ public class PCQUtils {
 		return sb.toString();
 	}
 
-	private static String getTaxonomy(String acc, OrganismType organism) {
+	static String getTaxonomy(String acc, OrganismType organism) {
 		if (organism != null && acc != null) {
 			if (organism.getName() != null) {
 				for (final OrganismNameType organismType : organism.getName()) {
@@ -1800,7 +1865,7 @@ public class PCQUtils {
 		return null;
 	}
 
-	private static String getGeneName(List<GeneType> gene) {
+	static String getGeneName(List<GeneType> gene) {
 		for (final GeneType geneType : gene) {
 			for (final GeneNameType geneName : geneType.getName()) {
 				if (geneName.getType().equals("primary"))
@@ -1877,17 +1942,45 @@ public class PCQUtils {
 		return false;
 	}
 
-	private static Set<String> getKeys(QuantifiedPeptideInterface peptide1) {
-		if (!cachedProteinNodeKeysStringsByQuantifiedPeptide.containsKey(peptide1.hashCode())) {
-			if (peptide1.containsPTMs()) {
-				log.info(peptide1);
+	/**
+	 * Gets a canonical signature of the set of proteins of a peptide, made by
+	 * the sorted keys of the proteins, so that two peptides share all their
+	 * proteins (as in
+	 * {@link #peptidesShareAllProteins(QuantifiedPeptideInterface, QuantifiedPeptideInterface)})
+	 * if and only if they have the same signature
+	 * 
+	 * @param peptide
+	 * @return
+	 */
+	public static String getProteinKeysSignature(QuantifiedPeptideInterface peptide) {
+		final List<String> keys = new ArrayList<String>(getKeys(peptide));
+		if (keys.size() == 1) {
+			return keys.get(0);
+		}
+		Collections.sort(keys);
+		final StringBuilder sb = new StringBuilder();
+		for (final String key : keys) {
+			if (sb.length() > 0) {
+				sb.append('\n');
 			}
-			final Set<QuantifiedProteinInterface> quantifiedProteins = peptide1.getQuantifiedProteins();
-			final Set<String> accs = getKeys(quantifiedProteins);
-			cachedProteinNodeKeysStringsByQuantifiedPeptide.put(peptide1.hashCode(), accs);
-			return accs;
+			sb.append(key);
 		}
-		return cachedProteinNodeKeysStringsByQuantifiedPeptide.get(peptide1.hashCode());
+		return sb.toString();
+	}
+
+	private static Set<String> getKeys(QuantifiedPeptideInterface peptide1) {
+		final IdentityCache<QuantifiedPeptideInterface, Set<String>> cache = proteinKeysByPeptideCache;
+		final Set<String> cachedAccs = cache.get(peptide1);
+		if (cachedAccs != null) {
+			return cachedAccs;
+		}
+		if (peptide1.containsPTMs()) {
+			log.info(peptide1);
+		}
+		final Set<QuantifiedProteinInterface> quantifiedProteins = peptide1.getQuantifiedProteins();
+		final Set<String> accs = getKeys(quantifiedProteins);
+		cache.put(peptide1, accs);
+		return accs;
 	}
 
 	private static Set<String> getKeys(Set<QuantifiedProteinInterface> proteins) {
@@ -1902,6 +1995,9 @@ public class PCQUtils {
 		if (peptideNode.hashCode() == peptideNode2.hashCode()) {
 			return peptideNode;
 		}
+		// the merged nodes are replaced by the new one
+		invalidateCaches(peptideNode);
+		invalidateCaches(peptideNode2);
 		final Set<QuantifiedPeptideInterface> peptideCollection = new THashSet<QuantifiedPeptideInterface>();
 		peptideCollection.addAll(peptideNode.getQuantifiedPeptides());
 		peptideCollection.addAll(peptideNode2.getQuantifiedPeptides());
@@ -2032,6 +2128,84 @@ public class PCQUtils {
 		}
 	}
 
+	/**
+	 * Gets the identifications of the input files, from the
+	 * {@link ParsedInputCache}, if it is enabled, if they have been already read
+	 * by a previous run with the same options
+	 *
+	 * @param params
+	 * @param useFasta
+	 * @param peptideInclusionList
+	 * @return null if there are no identification input files
+	 * @throws IOException
+	 */
+	public static IdentificationSnapshot getIdentificationSnapshot(ProteinClusterQuantParameters params,
+			boolean useFasta, Set<String> peptideInclusionList) throws IOException {
+		final String[] fileNames = params.getIdentificationInputFileNamesArray();
+		if (fileNames == null || fileNames.length == 0) {
+			return null;
+		}
+		final File[] inputFiles = new File[fileNames.length];
+		for (int i = 0; i < fileNames.length; i++) {
+			inputFiles[i] = new File(params.getInputFileFolder().getAbsolutePath() + File.separator + fileNames[i]);
+		}
+		final boolean useMongoDB = params.getMongoDBURI() != null && useFasta;
+		final ParsedInputCache parsedInputCache = ParsedInputCache.getInstance();
+		if (!parsedInputCache.isEnabled()) {
+			return new IdentificationSnapshot(getDTASelectParser(params, fileNames, useFasta, peptideInclusionList, true),
+					params.getDecoyRegexp(), params.getUniprotVersion(), params.isIgnoreNotFoundPeptidesInDB(),
+					params.ignoreTaxonomies(), params.isLookForProteoforms(), params.ignoreACCFormat());
+		}
+		final String key = ParsedInputCache.getKey(inputFiles,
+				params.getFastaFile() != null ? ParsedInputCache.getKey(new File[] { params.getFastaFile() }) : null,
+				String.valueOf(params.getEnzymeArray()), params.getMissedCleavages(), params.isSemiCleavage(),
+				useMongoDB ? params.getMongoDBURI() + "|" + params.getMongoMassDBName() + "|"
+						+ params.getMongoSeqDBName() + "|" + params.getMongoProtDBName() : null,
+				params.getUniprotReleasesFolder(), params.getUniprotVersion(), params.getDecoyRegexp(),
+				params.isIgnoreNotFoundPeptidesInDB(), params.getPeptideFilterRegexp(), params.isLookForProteoforms(),
+				useFasta, ParsedInputCache.getDigest(peptideInclusionList), params.ignoreTaxonomies(),
+				params.ignoreACCFormat());
+		IdentificationSnapshot snapshot = parsedInputCache.getIdentificationSnapshot(key);
+		if (snapshot == null) {
+			final DTASelectParser parser = getDTASelectParser(params, fileNames, useFasta, peptideInclusionList,
+					true);
+			snapshot = new IdentificationSnapshot(parser, params.getDecoyRegexp(), params.getUniprotVersion(),
+					params.isIgnoreNotFoundPeptidesInDB(), params.ignoreTaxonomies(), params.isLookForProteoforms(),
+					params.ignoreACCFormat());
+			parsedInputCache.putIdentificationSnapshot(key, snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Gets a {@link NonQuantParser} of the identifications, with the same index
+	 * of the protein sequences than the one used to read them
+	 *
+	 * @param params
+	 * @param identifications
+	 * @param useFasta
+	 * @param peptideInclusionList
+	 * @return
+	 * @throws IOException
+	 */
+	public static NonQuantParser getNonQuantParser(ProteinClusterQuantParameters params,
+			IdentificationSnapshot identifications, boolean useFasta, Set<String> peptideInclusionList)
+			throws IOException {
+		DBIndexImpl dbIndex = null;
+		if (params.getMongoDBURI() != null && useFasta) {
+			dbIndex = getMongoDBIndex(params.getMongoDBURI(), params.getMongoMassDBName(), params.getMongoSeqDBName(),
+					params.getMongoProtDBName(), params.getPeptideFilterRegexp(), params.getUniprotVersion(),
+					params.getDecoyRegexp());
+		} else if (useFasta) {
+			dbIndex = getFastaDBIndex(params.getFastaFile(), params.getEnzymeArray(), params.getMissedCleavages(),
+					params.isSemiCleavage(), params.getPeptideFilterRegexp(), params.getUniprotReleasesFolder(),
+					params.getUniprotVersion(), params.isLookForProteoforms(), params.getDecoyRegexp(),
+					peptideInclusionList);
+		}
+		return new NonQuantParser(identifications, dbIndex,
+				getUniprotProteinLocalRetrieverByFolder(params.getUniprotReleasesFolder()));
+	}
+
 	public static QuantParser getQuantParser(ProteinClusterQuantParameters params,
 			Map<QuantCondition, QuantificationLabel> labelsByConditions, String inputFileName, boolean usefasta,
 			Set<String> peptideInclusionList) throws FileNotFoundException {
@@ -2128,6 +2302,35 @@ public class PCQUtils {
 		return ret;
 	}
 
+	/**
+	 * Gets a canonical signature of the set of peptides of a collection of
+	 * proteins, made by the sorted keys of the peptides, so that two
+	 * collections of proteins share all their peptides (as in
+	 * {@link #proteinsShareAllPeptides(Collection, Collection)}) if and only if
+	 * they have the same signature
+	 * 
+	 * @param proteins
+	 * @return
+	 */
+	public static String getPeptideKeysSignature(Collection<QuantifiedProteinInterface> proteins) {
+		final Set<String> keySet = new THashSet<String>();
+		for (final QuantifiedProteinInterface protein : proteins) {
+			for (final QuantifiedPeptideInterface peptide : protein.getQuantifiedPeptides()) {
+				keySet.add(peptide.getKey());
+			}
+		}
+		final List<String> keys = new ArrayList<String>(keySet);
+		Collections.sort(keys);
+		final StringBuilder sb = new StringBuilder();
+		for (final String key : keys) {
+			if (sb.length() > 0) {
+				sb.append('\n');
+			}
+			sb.append(key);
+		}
+		return sb.toString();
+	}
+
 	public static boolean proteinsShareAllPeptides(Collection<QuantifiedProteinInterface> proteins1,
 			Collection<QuantifiedProteinInterface> proteins2) {
 		if (proteins1.size() == 1 && proteins2.size() == 1) {
@@ -2374,6 +2577,29 @@ public class PCQUtils {
 		}
 	}
 
+	/**
+	 * Gets the {@link RatioStatistics} of the log2 values of the ratios, using
+	 * the {@link RatioStatistics} of the current thread, so the results have to
+	 * be read before calling this method again
+	 *
+	 * @param ratios
+	 * @param cond1
+	 * @param cond2
+	 * @param useMayorityRule
+	 * @return
+	 */
+	private static RatioStatistics getRatioStatistics(Collection<QuantRatio> ratios, QuantCondition cond1,
+			QuantCondition cond2, boolean useMayorityRule) {
+		final RatioStatistics statistics = ratioStatistics.get();
+		statistics.clear();
+		for (final QuantRatio ratio : ratios) {
+			if (ratio != null) {
+				statistics.add(ratio.getLog2Ratio(cond1, cond2));
+			}
+		}
+		return statistics.compute(useMayorityRule);
+	}
+
 	public static Double stdevOfRatiosTakingIntoAccountInfinitiesAndNans(Collection<QuantRatio> ratios,
 			QuantCondition cond1, QuantCondition cond2, boolean useMayorityRule) {
 		final TDoubleList ratioValues = new TDoubleArrayList();
@@ -2698,24 +2924,20 @@ public class PCQUtils {
 			}
 			return ret;
 		}
-		final Pair<Double, Integer> finalValue = PCQUtils.averageOfRatiosTakingIntoAccountInfinitiesAndNans(toAverage,
-				cond1, cond2, params.isUseMayorityRule());
-		if (finalValue != null) {
-			final CensusRatio censusRatio = new CensusRatio(finalValue.getFirstelement(), true, cond1, cond2,
+		final RatioStatistics statistics = getRatioStatistics(toAverage, cond1, cond2, params.isUseMayorityRule());
+		if (!statistics.isEmpty()) {
+			final CensusRatio censusRatio = new CensusRatio(statistics.getAverage(), true, cond1, cond2,
 					AggregationLevel.PEPTIDE_NODE, avgRatioDescription);
-			censusRatio.setNumMeasurements(finalValue.getSecondElement());
+			censusRatio.setNumMeasurements(statistics.getNumMeasurements());
 			if (quantifiedSitePositionInPeptideList.size() == 1) {
 				censusRatio.addQuantifiedSitePositionInPeptide(quantifiedSitePositionInPeptideList.get(0));
 				censusRatio.setQuantifiedAA(quantifiedSitePositionInPeptideList.get(0).getAa());
 			}
 			if (!Double.isNaN(censusRatio.getValue())) {
-				final Double stdev = PCQUtils.stdevOfRatiosTakingIntoAccountInfinitiesAndNans(toAverage, cond1, cond2,
-						params.isUseMayorityRule());
-				if (stdev != null) {
-					censusRatio.setRatioScore(new RatioScore(String.valueOf(stdev), "STDEV",
-							"Standard deviation of ratios", "Standard deviation of the ratios averaged"));
-					censusRatio.setStandardDeviationOfLog2Ratio(stdev);
-				}
+				final double stdev = statistics.getStdev();
+				censusRatio.setRatioScore(new RatioScore(String.valueOf(stdev), "STDEV",
+						"Standard deviation of ratios", "Standard deviation of the ratios averaged"));
+				censusRatio.setStandardDeviationOfLog2Ratio(stdev);
 			}
 
 			return censusRatio;
@@ -2756,19 +2978,16 @@ public class PCQUtils {
 				}
 			}
 		}
-		final Pair<Double, Integer> finalValue = PCQUtils.averageOfRatiosTakingIntoAccountInfinitiesAndNans(toAverage,
-				cond1, cond2, ProteinClusterQuantParameters.getInstance().isUseMayorityRule());
-		if (finalValue != null) {
-			final CensusRatio censusRatio = new CensusRatio(finalValue.getFirstelement(), true, cond1, cond2,
+		final RatioStatistics statistics = getRatioStatistics(toAverage, cond1, cond2,
+				ProteinClusterQuantParameters.getInstance().isUseMayorityRule());
+		if (!statistics.isEmpty()) {
+			final CensusRatio censusRatio = new CensusRatio(statistics.getAverage(), true, cond1, cond2,
 					AggregationLevel.PEPTIDE_NODE, "Avg ratios for site");
-			censusRatio.setNumMeasurements(finalValue.getSecondElement());
-			final Double stdev = PCQUtils.stdevOfRatiosTakingIntoAccountInfinitiesAndNans(toAverage, cond1, cond2,
-					ProteinClusterQuantParameters.getInstance().isUseMayorityRule());
-			if (stdev != null) {
-				censusRatio.setRatioScore(new RatioScore(String.valueOf(stdev), "STDEV", "Standard deviation of ratios",
-						"Standard deviation of the ratios averaged"));
-				censusRatio.setStandardDeviationOfLog2Ratio(stdev);
-			}
+			censusRatio.setNumMeasurements(statistics.getNumMeasurements());
+			final double stdev = statistics.getStdev();
+			censusRatio.setRatioScore(new RatioScore(String.valueOf(stdev), "STDEV", "Standard deviation of ratios",
+					"Standard deviation of the ratios averaged"));
+			censusRatio.setStandardDeviationOfLog2Ratio(stdev);
 			if (!positionsInPeptide.isEmpty()) {
 				for (final PositionInPeptide positionInPeptide : positionsInPeptide) {
 					censusRatio.addQuantifiedSitePositionInPeptide(positionInPeptide);
@@ -2810,19 +3029,16 @@ public class PCQUtils {
 				}
 			}
 		}
-		final Pair<Double, Integer> finalValue = PCQUtils.averageOfRatiosTakingIntoAccountInfinitiesAndNans(toAverage,
-				cond1, cond2, ProteinClusterQuantParameters.getInstance().isUseMayorityRule());
-		if (finalValue != null) {
-			final CensusRatio censusRatio = new CensusRatio(finalValue.getFirstelement(), true, cond1, cond2,
+		final RatioStatistics statistics = getRatioStatistics(toAverage, cond1, cond2,
+				ProteinClusterQuantParameters.getInstance().isUseMayorityRule());
+		if (!statistics.isEmpty()) {
+			final CensusRatio censusRatio = new CensusRatio(statistics.getAverage(), true, cond1, cond2,
 					AggregationLevel.PEPTIDE_NODE, "Avg Ri ratios for site");
-			censusRatio.setNumMeasurements(finalValue.getSecondElement());
-			final Double stdev = PCQUtils.stdevOfRatiosTakingIntoAccountInfinitiesAndNans(toAverage, cond1, cond2,
-					ProteinClusterQuantParameters.getInstance().isUseMayorityRule());
-			if (stdev != null) {
-				censusRatio.setRatioScore(new RatioScore(String.valueOf(stdev), "STDEV", "Standard deviation of ratios",
-						"Standard deviation of the ratios averaged"));
-				censusRatio.setStandardDeviationOfLog2Ratio(stdev);
-			}
+			censusRatio.setNumMeasurements(statistics.getNumMeasurements());
+			final double stdev = statistics.getStdev();
+			censusRatio.setRatioScore(new RatioScore(String.valueOf(stdev), "STDEV", "Standard deviation of ratios",
+					"Standard deviation of the ratios averaged"));
+			censusRatio.setStandardDeviationOfLog2Ratio(stdev);
 			return censusRatio;
 		}
 		return CensusRatio.getNaNRatio(cond1, cond2, AggregationLevel.PEPTIDE_NODE, "RATIO");
@@ -2846,13 +3062,12 @@ public class PCQUtils {
 	 * @param cond1
 	 * @param cond2
 	 * @param skipDiscarded
-	 * @return
+	 * @param toAverage     the list where the values are added
 	 **/
-	public static List<Double> getIndividualRepresentativeLog2ValuesForEachPeptideForProteinPairAnalysis(
-			Collection<PCQPeptideNode> peptideNodes, QuantCondition cond1, QuantCondition cond2,
-			boolean skipDiscarded) {
+	public static void addIndividualRepresentativeLog2ValuesForEachPeptideForProteinPairAnalysis(
+			Collection<PCQPeptideNode> peptideNodes, QuantCondition cond1, QuantCondition cond2, boolean skipDiscarded,
+			TDoubleArrayList toAverage) {
 
-		final List<Double> toAverage = new ArrayList<Double>();
 		// ISOTOPOLOGUES
 		if (ProteinClusterQuantParameters.getInstance().getAnalysisInputType() == AnalysisInputType.CENSUS_CHRO) {
 
@@ -2866,7 +3081,7 @@ public class PCQUtils {
 							final Set<IsoRatio> nonInfinityIsoRatios = ((IsobaricQuantifiedPSM) psm)
 									.getNonInfinityIsoRatios();
 							for (final IsoRatio isoRatio : nonInfinityIsoRatios) {
-								toAverage.add(isoRatio.getLog2Ratio(cond1, cond2));
+								addLog2Value(toAverage, isoRatio.getLog2Ratio(cond1, cond2));
 							}
 						}
 					}
@@ -2879,7 +3094,7 @@ public class PCQUtils {
 					final Set<QuantifiedPeptideInterface> peptides = peptideNode.getQuantifiedPeptides();
 					for (final QuantifiedPeptideInterface peptide : peptides) {
 						if (peptide instanceof IsobaricQuantifiedPeptide) {
-							toAverage.add(QuantUtils
+							addLog2Value(toAverage, QuantUtils
 									.getIonCountRatioForPeptide((IsobaricQuantifiedPeptide) peptide, cond1, cond2)
 									.getLog2Ratio(cond1, cond2));
 						}
@@ -2896,7 +3111,7 @@ public class PCQUtils {
 					if (psm instanceof QuantifiedPSM) {
 						final QuantRatio validRatio = QuantUtils.getRepresentativeRatio(psm);
 						if (validRatio != null) {
-							toAverage.add(validRatio.getLog2Ratio(cond1, cond2));
+							addLog2Value(toAverage, validRatio.getLog2Ratio(cond1, cond2));
 						}
 					} else {
 						throw new IllegalArgumentException(
@@ -2906,7 +3121,12 @@ public class PCQUtils {
 			}
 
 		}
-		return toAverage;
+	}
+
+	private static void addLog2Value(TDoubleArrayList log2Values, Double log2Value) {
+		if (log2Value != null) {
+			log2Values.add(log2Value);
+		}
 	}
 
 	/**
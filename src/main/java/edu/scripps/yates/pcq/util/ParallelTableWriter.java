@@ -0,0 +1,197 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes several text tables at the same time.<br>
+ * The rows of the tables are got one table after the other, in the calling
+ * thread, because getting them reads and initializes the shared model of the
+ * analysis. Then each table is written by its own thread, that submits the
+ * formatting of chunks of consecutive rows to a {@link ForkJoinPool} shared by
+ * all the tables, and writes the formatted chunks in the order of the rows
+ * through a buffered writer. Only a few chunks per formatting thread are kept
+ * in memory at a time.<br>
+ * An error writing a table doesn't stop the other tables, but the partial file
+ * of the table is deleted and the error is thrown once all the tables are
+ * finished.
+ *
+ * @author salvador
+ *
+ */
+public class ParallelTableWriter {
+	private final static Logger log = Logger.getLogger(ParallelTableWriter.class);
+	private static final int CHUNK_SIZE = 500;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private final int numThreads;
+	private final List<Table<?>> tables = new ArrayList<Table<?>>();
+
+	/**
+	 * Appends the text of a row to the table, including the line separators
+	 *
+	 * @param <T>
+	 */
+	@FunctionalInterface
+	public interface RowFormatter<T> {
+		void format(T row, StringBuilder out);
+	}
+
+	private static class Table<T> {
+		private final File file;
+		private final String header;
+		private final Callable<? extends List<T>> rows;
+		private final RowFormatter<T> formatter;
+		private List<T> rowList;
+		private long bytes;
+		private long time;
+		private int numRows;
+
+		private Table(File file, String header, Callable<? extends List<T>> rows, RowFormatter<T> formatter) {
+			this.file = file;
+			this.header = header;
+			this.rows = rows;
+			this.formatter = formatter;
+		}
+
+		private void getRows() throws Exception {
+			final long t1 = System.currentTimeMillis();
+			rowList = rows.call();
+			numRows = rowList.size();
+			time = System.currentTimeMillis() - t1;
+		}
+
+		private void write(ForkJoinPool pool, int maxPendingChunks) throws Exception {
+			final long t1 = System.currentTimeMillis();
+			try (BufferedWriter out = new BufferedWriter(new FileWriter(file), BUFFER_SIZE)) {
+				out.write(header);
+				final Deque<Future<String>> pendingChunks = new ArrayDeque<Future<String>>();
+				for (int from = 0; from < rowList.size(); from += CHUNK_SIZE) {
+					if (pendingChunks.size() >= maxPendingChunks) {
+						out.write(pendingChunks.removeFirst().get());
+					}
+					final List<T> chunk = rowList.subList(from, Math.min(from + CHUNK_SIZE, rowList.size()));
+					pendingChunks.addLast(pool.submit(() -> format(chunk)));
+				}
+				while (!pendingChunks.isEmpty()) {
+					out.write(pendingChunks.removeFirst().get());
+				}
+			}
+			bytes = file.length();
+			time += System.currentTimeMillis() - t1;
+			rowList = null;
+		}
+
+		private String format(List<T> chunk) {
+			final StringBuilder sb = new StringBuilder();
+			for (final T row : chunk) {
+				formatter.format(row, sb);
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 *
+	 * @param numThreads number of threads formatting the rows of all the tables
+	 */
+	public ParallelTableWriter(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Adds a table to be written by {@link #write()}
+	 *
+	 * @param file
+	 * @param header    the text before the rows, including its line separators
+	 * @param rows      gets the rows of the table, in order. It is called from
+	 *                  the thread calling {@link #write()}, before any table is
+	 *                  written.
+	 * @param formatter
+	 */
+	public <T> void addTable(File file, String header, Callable<? extends List<T>> rows, RowFormatter<T> formatter) {
+		tables.add(new Table<T>(file, header, rows, formatter));
+	}
+
+	/**
+	 * Gets the rows of all the tables, one table after the other, and then
+	 * writes all the tables at the same time, logging the bytes written and the
+	 * time of each one
+	 *
+	 * @throws IOException if the rows of a table cannot be got, if a table
+	 *                     cannot be written, in which case its partial file is
+	 *                     deleted, or if interrupted while waiting for the tables
+	 */
+	public void write() throws IOException {
+		if (tables.isEmpty()) {
+			return;
+		}
+		final long t1 = System.currentTimeMillis();
+		try {
+			for (final Table<?> table : tables) {
+				try {
+					table.getRows();
+				} catch (final Exception e) {
+					throw new IOException("Error getting the rows of " + table.file.getAbsolutePath() + ": "
+							+ e.getMessage(), e);
+				}
+			}
+			log.info("Writing " + tables.size() + " tables using " + numThreads + " threads");
+			final ExecutorService tableWriters = Executors.newFixedThreadPool(tables.size());
+			final ForkJoinPool pool = new ForkJoinPool(numThreads);
+			try {
+				final List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (final Table<?> table : tables) {
+					futures.add(tableWriters.submit(() -> {
+						table.write(pool, numThreads * 4);
+						return null;
+					}));
+				}
+				IOException error = null;
+				for (int i = 0; i < tables.size(); i++) {
+					final Table<?> table = tables.get(i);
+					try {
+						futures.get(i).get();
+						log.info(table.file.getName() + ": " + table.numRows + " rows, " + table.bytes
+								+ " bytes written in " + table.time + " ms");
+					} catch (final ExecutionException e) {
+						log.error("Error writing " + table.file.getAbsolutePath() + ": " + e.getCause().getMessage(),
+								e.getCause());
+						if (table.file.exists() && !table.file.delete()) {
+							log.warn("Partial file " + table.file.getAbsolutePath() + " cannot be deleted");
+						}
+						if (error == null) {
+							error = new IOException("Error writing " + table.file.getAbsolutePath() + ": "
+									+ e.getCause().getMessage(), e.getCause());
+						}
+					}
+				}
+				if (error != null) {
+					throw error;
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while writing the output tables", e);
+			} finally {
+				tableWriters.shutdownNow();
+				pool.shutdownNow();
+			}
+		} finally {
+			tables.clear();
+		}
+		log.info("Tables written in " + (System.currentTimeMillis() - t1) + " ms");
+	}
+}
@@ -0,0 +1,188 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Process-wide cache of parsed input files, shared by the runs of a batch and
+ * by the iterations of the analyses that run PCQ over the same files several
+ * times.<br>
+ * The identifications are cached as {@link IdentificationSnapshot}s, that are
+ * only read by the {@link NonQuantParser} of each run, so they can be reused by
+ * later runs without reading the files again. The census quantification
+ * parsers are not cached, because their peptides and proteins are linked to
+ * the ones of each run and PCQ modifies them during the analysis. The
+ * snapshots are keyed by the path, size and modification time of the files and
+ * by the parser options, and the least recently used ones are evicted when the
+ * heap of the snapshots, estimated from their content, exceeds the size of the
+ * cache.
+ *
+ * @author salvador
+ *
+ */
+public class ParsedInputCache {
+	private final static Logger log = Logger.getLogger(ParsedInputCache.class);
+	private static ParsedInputCache instance;
+	private final LinkedHashMap<String, CachedSnapshot> snapshotsByKey = new LinkedHashMap<String, CachedSnapshot>(
+			16, 0.75f, true);
+	private long maxSizeInBytes = 0l;
+	private long sizeInBytes = 0l;
+	private int hits = 0;
+	private int misses = 0;
+
+	private static class CachedSnapshot {
+		private final IdentificationSnapshot snapshot;
+		private final long sizeInBytes;
+
+		private CachedSnapshot(IdentificationSnapshot snapshot, long sizeInBytes) {
+			this.snapshot = snapshot;
+			this.sizeInBytes = sizeInBytes;
+		}
+	}
+
+	private ParsedInputCache() {
+	}
+
+	public static synchronized ParsedInputCache getInstance() {
+		if (instance == null) {
+			instance = new ParsedInputCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Sets the maximum size of the cache, evicting the least recently used
+	 * snapshots if needed. A size of 0 disables the cache
+	 *
+	 * @param maxSizeInMB
+	 */
+	public synchronized void setMaxSizeInMB(long maxSizeInMB) {
+		maxSizeInBytes = maxSizeInMB * 1024 * 1024;
+		evict();
+	}
+
+	public synchronized boolean isEnabled() {
+		return maxSizeInBytes > 0;
+	}
+
+	/**
+	 * Gets the key of some input files parsed with some options
+	 *
+	 * @param files
+	 * @param options the options of the parser that affect the parsed model
+	 * @return
+	 */
+	public static String getKey(File[] files, Object... options) {
+		final StringBuilder sb = new StringBuilder();
+		for (final File file : files) {
+			sb.append(file.getAbsolutePath()).append('|').append(file.length()).append('|')
+					.append(file.lastModified()).append('\n');
+		}
+		for (final Object option : options) {
+			sb.append(option).append('|');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets a digest of the content of a collection of strings, that doesn't
+	 * depend on the order of the collection, to be used as an option of a key
+	 *
+	 * @param strings
+	 * @return the SHA-1 of the sorted strings, or null if the collection is null
+	 */
+	public static String getDigest(Collection<String> strings) {
+		if (strings == null) {
+			return null;
+		}
+		final List<String> sortedStrings = new ArrayList<String>(strings);
+		Collections.sort(sortedStrings);
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (final String string : sortedStrings) {
+				digest.update(string.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+			final StringBuilder sb = new StringBuilder();
+			for (final byte b : digest.digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return the snapshot stored with that key, or null if it is not in the
+	 *         cache
+	 */
+	public synchronized IdentificationSnapshot getIdentificationSnapshot(String key) {
+		final CachedSnapshot cachedSnapshot = snapshotsByKey.get(key);
+		if (cachedSnapshot == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		log.info("Reusing parsed input files (" + hits + " hits, " + misses + " misses)");
+		return cachedSnapshot.snapshot;
+	}
+
+	/**
+	 * Stores a snapshot of some input files, if the cache is enabled and the
+	 * snapshot fits in it
+	 *
+	 * @param key
+	 * @param snapshot
+	 */
+	public synchronized void putIdentificationSnapshot(String key, IdentificationSnapshot snapshot) {
+		if (!isEnabled()) {
+			return;
+		}
+		final long snapshotSize = snapshot.getEstimatedSizeInBytes();
+		if (snapshotSize > maxSizeInBytes) {
+			log.info("Parsed input files are too large to be cached");
+			return;
+		}
+		final CachedSnapshot previous = snapshotsByKey.put(key, new CachedSnapshot(snapshot, snapshotSize));
+		if (previous != null) {
+			sizeInBytes -= previous.sizeInBytes;
+		}
+		sizeInBytes += snapshotSize;
+		evict();
+	}
+
+	private void evict() {
+		final Iterator<Map.Entry<String, CachedSnapshot>> iterator = snapshotsByKey.entrySet().iterator();
+		while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+			sizeInBytes -= iterator.next().getValue().sizeInBytes;
+			iterator.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		snapshotsByKey.clear();
+		sizeInBytes = 0l;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,381 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import edu.scripps.yates.census.analysis.QuantCondition;
+import edu.scripps.yates.census.read.model.IsobaricQuantifiedPeptide;
+import edu.scripps.yates.census.read.model.QuantifiedPeptide;
+import edu.scripps.yates.census.read.model.interfaces.QuantifiedPeptideInterface;
+import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
+import edu.scripps.yates.pcq.xgmml.util.AlignedPeptides;
+import edu.scripps.yates.pcq.xgmml.util.AlignmentSet;
+import edu.scripps.yates.utilities.alignment.nwalign.NWAlign;
+import edu.scripps.yates.utilities.alignment.nwalign.NWResult;
+import edu.scripps.yates.utilities.progresscounter.ProgressCounter;
+import edu.scripps.yates.utilities.progresscounter.ProgressPrintingType;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * Aligns peptides between them with the Needleman-Wunsch algorithm.<br>
+ * An alignment can only have a number of consecutive identical aminoacids
+ * greater or equal than the minimum consecutive identical alignment if both
+ * sequences share a subsequence of that length, so only the pairs of peptides
+ * sharing a k-mer of that length (found in an index of the k-mers of all the
+ * peptides) are aligned.<br>
+ * The alignments of each peptide are done in a {@link ForkJoinPool} of
+ * {@link ProteinClusterQuantParameters#getNumThreads()} threads, and they are
+ * stored and written in the alignment log file by the calling thread, in the
+ * same order than aligning all the pairs of peptides one after the other.<br>
+ * If {@link ProteinClusterQuantParameters#getAlignmentCacheFile()} is set, the
+ * alignments between sequences already aligned in previous runs are taken
+ * from an {@link AlignmentCache}, and the new sequences are also aligned
+ * against the sequences of the cache that are not in the run, so that they
+ * can be added to it.
+ *
+ * @author salvador
+ *
+ */
+public class PeptideAligner {
+	private final static Logger log = Logger.getLogger(PeptideAligner.class);
+	private final int finalAlignmentScore;
+	private final double sequenceIdentity;
+	private final int minConsecutiveIdenticalAlignment;
+	private final int numThreads;
+	private final File alignmentCacheFile;
+	private AlignmentCache cache;
+	// the sequences of the peptides, followed by the sequences of the cache
+	// that are not in the peptides if some peptide is not in the cache
+	private String[] sequences;
+	private boolean[] knownSequences;
+	private int numPeptides;
+	private Map<String, TIntArrayList> peptideIndexesByKmer;
+
+	public PeptideAligner(ProteinClusterQuantParameters params) {
+		finalAlignmentScore = params.getFinalAlignmentScore();
+		sequenceIdentity = params.getSequenceIdentity();
+		minConsecutiveIdenticalAlignment = params.getMinConsecutiveIdenticalAlignment();
+		numThreads = params.getNumThreads();
+		alignmentCacheFile = params.getAlignmentCacheFile();
+	}
+
+	/**
+	 * Alignments of a peptide with the peptides after it in the list
+	 *
+	 * @author salvador
+	 *
+	 */
+	private static class PeptideAlignments {
+		private final List<NWResult> alignments = new ArrayList<NWResult>();
+		private final TIntArrayList alignedPeptideIndexes = new TIntArrayList();
+		private int numAlignments = 0;
+		private int numCachedAlignments = 0;
+		private int maxAlignmentScore = -Integer.MAX_VALUE;
+		private double maxSeqIdentity = -Double.MAX_VALUE;
+		private int maxConsecutiveIdenticalAlignment = -Integer.MAX_VALUE;
+	}
+
+	public AlignmentSet alignPeptides(List<QuantifiedPeptideInterface> peptideList, QuantCondition cond1,
+			QuantCondition cond2, FileWriter alignmentLogFile) throws IOException {
+		final AlignmentSet ret = new AlignmentSet();
+		boolean someAlignmentPassThresholds = false;
+		long totalAligments = 0;
+		long totalCachedAlignments = 0;
+		ForkJoinPool pool = null;
+		try {
+			int maxAlignmentScore = -Integer.MAX_VALUE;
+			double maxSeqIdentity = -Double.MAX_VALUE;
+			int maxConsecutiveIdenticalAlignment = -Integer.MAX_VALUE;
+			log.info("Aligning " + peptideList.size() + " peptides between them");
+			log.info("Using minScore=" + finalAlignmentScore + ", minSeqIdentity=" + sequenceIdentity
+					+ ", minConsecutiveAlignment=" + minConsecutiveIdenticalAlignment);
+			loadSequences(peptideList);
+			indexKmers();
+			final List<NWResult> alignmentsToCache = new ArrayList<NWResult>();
+			final TIntArrayList sequenceIndexesToCache = new TIntArrayList();
+
+			final List<Future<PeptideAlignments>> futures = new ArrayList<Future<PeptideAlignments>>();
+			if (numThreads > 1) {
+				log.info("Using " + numThreads + " threads");
+				pool = new ForkJoinPool(numThreads);
+				for (int i = 0; i < numPeptides; i++) {
+					final int index = i;
+					futures.add(pool.submit(() -> align(index)));
+				}
+			}
+			final ProgressCounter counter = new ProgressCounter(peptideList.size(),
+					ProgressPrintingType.PERCENTAGE_STEPS, 0);
+			for (int i = 0; i < numPeptides; i++) {
+				counter.increment();
+				final String printIfNecessary = counter.printIfNecessary();
+				if (printIfNecessary != null && !"".equals(printIfNecessary)) {
+					log.info("Aligning Peptides " + printIfNecessary);
+				}
+				final PeptideAlignments peptideAlignments = pool != null ? futures.get(i).get() : align(i);
+				futures.set(i, null);
+				totalAligments += peptideAlignments.numAlignments;
+				totalCachedAlignments += peptideAlignments.numCachedAlignments;
+				maxAlignmentScore = Math.max(maxAlignmentScore, peptideAlignments.maxAlignmentScore);
+				maxSeqIdentity = Math.max(maxSeqIdentity, peptideAlignments.maxSeqIdentity);
+				maxConsecutiveIdenticalAlignment = Math.max(maxConsecutiveIdenticalAlignment,
+						peptideAlignments.maxConsecutiveIdenticalAlignment);
+
+				final QuantifiedPeptideInterface pep1 = peptideList.get(i);
+				for (int k = 0; k < peptideAlignments.alignments.size(); k++) {
+					final NWResult alignment = peptideAlignments.alignments.get(k);
+					final int index2 = peptideAlignments.alignedPeptideIndexes.get(k);
+					if (cache != null && (!knownSequences[i] || !knownSequences[index2])) {
+						alignmentsToCache.add(alignment);
+						sequenceIndexesToCache.add(i);
+						sequenceIndexesToCache.add(index2);
+					}
+					if (index2 >= numPeptides) {
+						// only aligned to be stored in the cache
+						continue;
+					}
+					someAlignmentPassThresholds = true;
+					final QuantifiedPeptideInterface pep2 = peptideList.get(index2);
+					// store aligment
+					ret.addAlignment(new AlignedPeptides(alignment, pep1, pep2));
+					writeAlignment(alignmentLogFile, alignment, pep1, pep2, cond1, cond2);
+				}
+			}
+			if (cache != null) {
+				updateCache(alignmentsToCache, sequenceIndexesToCache);
+			}
+			if (!someAlignmentPassThresholds) {
+				log.info("None of the aligments passed the thresholds: minAlignmentScore=" + finalAlignmentScore
+						+ ", minSeqIdentity=" + sequenceIdentity + ", minConsecutiveAlignment="
+						+ minConsecutiveIdenticalAlignment);
+				log.info("Better values of the aligned pairs were: minAlignmentScore=" + maxAlignmentScore
+						+ ", minSeqIdentity=" + maxSeqIdentity + ", minConsecutiveAlignment="
+						+ maxConsecutiveIdenticalAlignment);
+			}
+			return ret;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while aligning peptides", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Error while aligning peptides", e.getCause());
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+			}
+			sequences = null;
+			knownSequences = null;
+			peptideIndexesByKmer = null;
+			cache = null;
+			if (ret.getNumAligments() > 0) {
+				log.info(ret.getNumAligments() + " aligments passed the threshold out of " + totalAligments);
+			}
+			if (totalCachedAlignments > 0) {
+				log.info(totalCachedAlignments + " alignments were not done because they were in the cache");
+			}
+			if (alignmentLogFile != null) {
+				alignmentLogFile.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Loads the sequences of the peptides and, if there is a cache and some of
+	 * them is not in it, the other sequences in the cache
+	 *
+	 * @param peptideList
+	 * @throws IOException
+	 */
+	private void loadSequences(List<QuantifiedPeptideInterface> peptideList) throws IOException {
+		numPeptides = peptideList.size();
+		final List<String> sequenceList = new ArrayList<String>();
+		for (final QuantifiedPeptideInterface peptide : peptideList) {
+			sequenceList.add(peptide.getSequence());
+		}
+		if (alignmentCacheFile != null) {
+			cache = AlignmentCache.load(alignmentCacheFile, finalAlignmentScore, sequenceIdentity,
+					minConsecutiveIdenticalAlignment);
+			boolean allKnown = true;
+			for (final String sequence : sequenceList) {
+				if (!cache.isKnown(sequence)) {
+					allKnown = false;
+					break;
+				}
+			}
+			if (!allKnown) {
+				final Set<String> sequenceSet = new THashSet<String>(sequenceList);
+				for (final String sequence : cache.getKnownSequences()) {
+					if (!sequenceSet.contains(sequence)) {
+						sequenceList.add(sequence);
+					}
+				}
+			}
+		}
+		sequences = sequenceList.toArray(new String[sequenceList.size()]);
+		knownSequences = new boolean[sequences.length];
+		if (cache != null) {
+			for (int i = 0; i < sequences.length; i++) {
+				knownSequences[i] = cache.isKnown(sequences[i]);
+			}
+		}
+	}
+
+	/**
+	 * Adds the new alignments to the cache and the sequences of the peptides,
+	 * that now have been aligned against all the known sequences
+	 *
+	 * @param alignments
+	 * @param sequenceIndexes
+	 * @throws IOException
+	 */
+	private void updateCache(List<NWResult> alignments, TIntArrayList sequenceIndexes) throws IOException {
+		for (int i = 0; i < alignments.size(); i++) {
+			cache.addAlignment(sequences[sequenceIndexes.get(2 * i)], sequences[sequenceIndexes.get(2 * i + 1)]);
+		}
+		for (int i = 0; i < numPeptides; i++) {
+			cache.addSequence(sequences[i]);
+		}
+		if (cache.isModified()) {
+			cache.save();
+		}
+	}
+
+	/**
+	 * Builds the index of the peptides by the k-mers of their sequences, being k
+	 * the minimum consecutive identical alignment. It is not built if that
+	 * parameter is not positive, so that all the pairs are aligned.
+	 */
+	private void indexKmers() {
+		if (minConsecutiveIdenticalAlignment < 1) {
+			return;
+		}
+		final int k = minConsecutiveIdenticalAlignment;
+		peptideIndexesByKmer = new THashMap<String, TIntArrayList>();
+		for (int i = 0; i < sequences.length; i++) {
+			final String sequence = sequences[i];
+			for (int start = 0; start + k <= sequence.length(); start++) {
+				final String kmer = sequence.substring(start, start + k);
+				TIntArrayList indexes = peptideIndexesByKmer.get(kmer);
+				if (indexes == null) {
+					indexes = new TIntArrayList();
+					peptideIndexesByKmer.put(kmer, indexes);
+				}
+				// the indexes are sorted, so a repeated kmer in the same
+				// sequence is always the last one
+				if (indexes.isEmpty() || indexes.get(indexes.size() - 1) != i) {
+					indexes.add(i);
+				}
+			}
+		}
+		log.info(peptideIndexesByKmer.size() + " " + k + "-mers indexed");
+	}
+
+	/**
+	 * Gets the sorted indexes of the peptides after the one at the index that
+	 * can pass the minimum consecutive identical alignment threshold
+	 *
+	 * @param index
+	 * @return
+	 */
+	private int[] getCandidates(int index) {
+		if (peptideIndexesByKmer == null) {
+			final int[] ret = new int[sequences.length - index - 1];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = index + 1 + i;
+			}
+			return ret;
+		}
+		final int k = minConsecutiveIdenticalAlignment;
+		final String sequence = sequences[index];
+		final TIntHashSet candidates = new TIntHashSet();
+		for (int start = 0; start + k <= sequence.length(); start++) {
+			final TIntArrayList indexes = peptideIndexesByKmer.get(sequence.substring(start, start + k));
+			int position = indexes.binarySearch(index);
+			// the index is always there
+			for (position++; position < indexes.size(); position++) {
+				candidates.add(indexes.get(position));
+			}
+		}
+		final int[] ret = candidates.toArray();
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	private PeptideAlignments align(int index) {
+		final PeptideAlignments ret = new PeptideAlignments();
+		final String sequence1 = sequences[index];
+		for (final int index2 : getCandidates(index)) {
+			if (index2 >= numPeptides && knownSequences[index]) {
+				// sequences not in the peptides are only aligned against the
+				// new sequences
+				continue;
+			}
+			if (knownSequences[index] && knownSequences[index2]) {
+				// the result is in the cache, but the alignment is done
+				// again if it passed the thresholds to get it
+				if (!cache.isAlignmentPassingThresholds(sequence1, sequences[index2])) {
+					ret.numCachedAlignments++;
+					continue;
+				}
+			}
+			ret.numAlignments++;
+			final NWResult alignment = NWAlign.needlemanWunsch(sequence1, sequences[index2], -11, -1);
+			ret.maxAlignmentScore = Math.max(ret.maxAlignmentScore, alignment.getFinalAlignmentScore());
+			ret.maxSeqIdentity = Math.max(ret.maxSeqIdentity, alignment.getSequenceIdentity());
+			ret.maxConsecutiveIdenticalAlignment = Math.max(ret.maxConsecutiveIdenticalAlignment,
+					alignment.getMaxConsecutiveIdenticalAlignment());
+
+			if ((alignment.getFinalAlignmentScore() >= finalAlignmentScore
+					&& alignment.getSequenceIdentity() >= sequenceIdentity)
+					&& alignment.getMaxConsecutiveIdenticalAlignment() >= minConsecutiveIdenticalAlignment) {
+				ret.alignments.add(alignment);
+				ret.alignedPeptideIndexes.add(index2);
+			}
+		}
+		return ret;
+	}
+
+	private void writeAlignment(FileWriter alignmentLogFile, NWResult alignment, QuantifiedPeptideInterface pep1,
+			QuantifiedPeptideInterface pep2, QuantCondition cond1, QuantCondition cond2) throws IOException {
+		// print pep1 and pep2
+		alignmentLogFile.append(pep1.getSequence() + "\t");
+		alignmentLogFile.append(pep2.getSequence() + "\t");
+		alignmentLogFile.append(getLog2RatioString(pep1, cond1, cond2) + "\t");
+		alignmentLogFile.append(getLog2RatioString(pep2, cond1, cond2) + "\t");
+		alignmentLogFile.append(alignment.getSequenceIdentity() + "\t");
+		alignmentLogFile.append("1" + "\n");
+		alignmentLogFile.flush();
+	}
+
+	private String getLog2RatioString(QuantifiedPeptideInterface peptide, QuantCondition cond1,
+			QuantCondition cond2) {
+		Double ratio = null;
+		if (peptide instanceof IsobaricQuantifiedPeptide) {
+			ratio = ((IsobaricQuantifiedPeptide) peptide).getIonCountRatio(cond1, cond2).getLog2Ratio(cond1, cond2);
+		} else if (peptide instanceof QuantifiedPeptide) {
+			ratio = ((QuantifiedPeptide) peptide).getConsensusRatio(cond1, cond2).getLog2Ratio(cond1, cond2);
+		}
+		if (ratio == Double.NEGATIVE_INFINITY) {
+			return "NEG_INF";
+		} else if (ratio == Double.POSITIVE_INFINITY) {
+			return "POS_INF";
+		}
+		return String.valueOf(ratio);
+	}
+}
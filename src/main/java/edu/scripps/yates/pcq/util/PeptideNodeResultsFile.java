@@ -0,0 +1,391 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Binary and columnar copy of the results of the peptide nodes of a PCQ run,
+ * so that they can be read without parsing the text tables.<br>
+ * The file has a header with the number of rows and strings, followed by each
+ * int column, each double column, each string column (as indexes in a
+ * dictionary of strings, or -1 for null), the rows sorted by node key, and the
+ * dictionary of strings (their offsets and their UTF-8 bytes). Each column is
+ * memory mapped, so that the values are only read when they are requested, and
+ * the file can be read by several threads.
+ *
+ * @author salvador
+ *
+ */
+public class PeptideNodeResultsFile implements Closeable {
+	private final static Logger log = Logger.getLogger(PeptideNodeResultsFile.class);
+	private static final int MAGIC = 0x50435152; // PCQR
+	private static final int VERSION = 2;
+	public static final String EXTENSION = ".pcqres";
+	// magic, version, number of rows, number of strings and dictionary size
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+
+	public enum StringColumn {
+		NODE_KEY, SEQUENCE, PROTEINS, GENES, QUANT_POSITIONS_IN_PEPTIDE
+	};
+
+	/**
+	 * LOG2_RATIO and RATIO are the representative ratio of the peptide node, as
+	 * in the peptide node table, and FINAL_LOG2_RATIO and FINAL_RATIO are the
+	 * ones of the final table, that are the integrated ratio when the ratios are
+	 * integrated
+	 *
+	 * @author salvador
+	 *
+	 */
+	public enum DoubleColumn {
+		LOG2_RATIO, RATIO, STDEV, FDR, VARIANCE, FINAL_LOG2_RATIO, FINAL_RATIO
+	};
+
+	public enum IntColumn {
+		NUM_PSMS, NUM_PEPTIDES, NUM_MEASUREMENTS, UNIQUE, FILTERED
+	};
+
+	private final RandomAccessFile file;
+	private final int numRows;
+	private final IntBuffer[] intColumns = new IntBuffer[IntColumn.values().length];
+	private final DoubleBuffer[] doubleColumns = new DoubleBuffer[DoubleColumn.values().length];
+	private final IntBuffer[] stringColumns = new IntBuffer[StringColumn.values().length];
+	private final IntBuffer rowsByNodeKey;
+	private final IntBuffer stringOffsets;
+	private final MappedByteBuffer strings;
+
+	private PeptideNodeResultsFile(File resultsFile) throws IOException {
+		file = new RandomAccessFile(resultsFile, "r");
+		try {
+			if (file.length() < HEADER_SIZE || file.readInt() != MAGIC) {
+				throw new IOException(resultsFile.getAbsolutePath() + " is not a PCQ peptide node results file");
+			}
+			final int version = file.readInt();
+			if (version != VERSION) {
+				throw new IOException("Version " + version + " of " + resultsFile.getAbsolutePath()
+						+ " is not supported. Supported version is " + VERSION);
+			}
+			numRows = file.readInt();
+			final int numStrings = file.readInt();
+			final long dictionarySize = file.readLong();
+			final FileChannel channel = file.getChannel();
+			long position = HEADER_SIZE;
+			for (int i = 0; i < intColumns.length; i++) {
+				intColumns[i] = channel.map(MapMode.READ_ONLY, position, numRows * 4l).asIntBuffer();
+				position += numRows * 4l;
+			}
+			for (int i = 0; i < doubleColumns.length; i++) {
+				doubleColumns[i] = channel.map(MapMode.READ_ONLY, position, numRows * 8l).asDoubleBuffer();
+				position += numRows * 8l;
+			}
+			for (int i = 0; i < stringColumns.length; i++) {
+				stringColumns[i] = channel.map(MapMode.READ_ONLY, position, numRows * 4l).asIntBuffer();
+				position += numRows * 4l;
+			}
+			rowsByNodeKey = channel.map(MapMode.READ_ONLY, position, numRows * 4l).asIntBuffer();
+			position += numRows * 4l;
+			stringOffsets = channel.map(MapMode.READ_ONLY, position, (numStrings + 1) * 4l).asIntBuffer();
+			position += (numStrings + 1) * 4l;
+			strings = channel.map(MapMode.READ_ONLY, position, dictionarySize);
+		} catch (final IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a file written by {@link Writer#write(File)}
+	 *
+	 * @param resultsFile
+	 * @return
+	 * @throws IOException if the file is not a peptide node results file or if
+	 *                     it cannot be read
+	 */
+	public static PeptideNodeResultsFile open(File resultsFile) throws IOException {
+		final PeptideNodeResultsFile ret = new PeptideNodeResultsFile(resultsFile);
+		log.info(ret.getNumRows() + " peptide nodes available from " + resultsFile.getAbsolutePath());
+		return ret;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return true if the name of the file has the extension of the peptide node
+	 *         results files
+	 */
+	public static boolean isPeptideNodeResultsFile(File file) {
+		return file.getName().toLowerCase().endsWith(EXTENSION);
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public int getInt(IntColumn column, int row) {
+		return intColumns[column.ordinal()].get(row);
+	}
+
+	public double getDouble(DoubleColumn column, int row) {
+		return doubleColumns[column.ordinal()].get(row);
+	}
+
+	/**
+	 *
+	 * @param column
+	 * @param row
+	 * @return the value, that can be null
+	 */
+	public String getString(StringColumn column, int row) {
+		return getString(stringColumns[column.ordinal()].get(row));
+	}
+
+	public boolean getBoolean(IntColumn column, int row) {
+		return getInt(column, row) != 0;
+	}
+
+	private String getString(int id) {
+		if (id < 0) {
+			return null;
+		}
+		final int offset = stringOffsets.get(id);
+		final byte[] bytes = new byte[stringOffsets.get(id + 1) - offset];
+		// duplicate, so that the file can be read by several threads
+		final ByteBuffer buffer = strings.duplicate();
+		buffer.position(offset);
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Looks for the row of a node key with a binary search over the rows sorted
+	 * by node key
+	 *
+	 * @param nodeKey
+	 * @return the row of the node key, or -1 if it is not in the file
+	 */
+	public int getRow(String nodeKey) {
+		int low = 0;
+		int high = numRows - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int row = rowsByNodeKey.get(middle);
+			final int comparison = getString(StringColumn.NODE_KEY, row).compareTo(nodeKey);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return row;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Collects the rows of a {@link PeptideNodeResultsFile} and writes it. The
+	 * values not set are null for the strings, NaN for the doubles and 0 for
+	 * the ints.
+	 *
+	 * @author salvador
+	 *
+	 */
+	public static class Writer {
+		private final TObjectIntHashMap<String> idsByString = new TObjectIntHashMap<String>(10, 0.5f, -1);
+		private final List<String> strings = new ArrayList<String>();
+		private final TIntArrayList[] intColumns = new TIntArrayList[IntColumn.values().length];
+		private final TDoubleArrayList[] doubleColumns = new TDoubleArrayList[DoubleColumn.values().length];
+		private final TIntArrayList[] stringColumns = new TIntArrayList[StringColumn.values().length];
+		private int numRows = 0;
+
+		public Writer() {
+			for (int i = 0; i < intColumns.length; i++) {
+				intColumns[i] = new TIntArrayList();
+			}
+			for (int i = 0; i < doubleColumns.length; i++) {
+				doubleColumns[i] = new TDoubleArrayList();
+			}
+			for (int i = 0; i < stringColumns.length; i++) {
+				stringColumns[i] = new TIntArrayList();
+			}
+		}
+
+		/**
+		 * Adds a row, that will be the one in which the values are set
+		 *
+		 * @param nodeKey
+		 */
+		public void addRow(String nodeKey) {
+			if (nodeKey == null) {
+				throw new IllegalArgumentException("The node key of a row cannot be null");
+			}
+			for (final TIntArrayList column : intColumns) {
+				column.add(0);
+			}
+			for (final TDoubleArrayList column : doubleColumns) {
+				column.add(Double.NaN);
+			}
+			for (final TIntArrayList column : stringColumns) {
+				column.add(-1);
+			}
+			numRows++;
+			set(StringColumn.NODE_KEY, nodeKey);
+		}
+
+		public void set(IntColumn column, int value) {
+			intColumns[column.ordinal()].set(getLastRow(), value);
+		}
+
+		public void set(IntColumn column, boolean value) {
+			set(column, value ? 1 : 0);
+		}
+
+		/**
+		 *
+		 * @param column
+		 * @param value if null, NaN is written
+		 */
+		public void set(DoubleColumn column, Double value) {
+			doubleColumns[column.ordinal()].set(getLastRow(), value != null ? value : Double.NaN);
+		}
+
+		public void set(StringColumn column, String value) {
+			if (column == StringColumn.NODE_KEY && value == null) {
+				throw new IllegalArgumentException("The node key of a row cannot be null");
+			}
+			stringColumns[column.ordinal()].set(getLastRow(), getStringID(value));
+		}
+
+		private int getLastRow() {
+			if (numRows == 0) {
+				throw new IllegalStateException("A row has to be added before setting its values");
+			}
+			return numRows - 1;
+		}
+
+		private int getStringID(String value) {
+			if (value == null) {
+				return -1;
+			}
+			int id = idsByString.get(value);
+			if (id < 0) {
+				id = strings.size();
+				idsByString.put(value, id);
+				strings.add(value);
+			}
+			return id;
+		}
+
+		public int getNumRows() {
+			return numRows;
+		}
+
+		/**
+		 * Writes the rows in a temporary file that then replaces the file
+		 *
+		 * @param resultsFile
+		 * @throws IOException
+		 */
+		public void write(File resultsFile) throws IOException {
+			final long t1 = System.currentTimeMillis();
+			final byte[][] bytes = new byte[strings.size()][];
+			long dictionarySize = 0l;
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+				dictionarySize += bytes[i].length;
+			}
+			if (dictionarySize > Integer.MAX_VALUE) {
+				throw new IOException("The strings of the peptide node results cannot take more than 2GB");
+			}
+			final Integer[] rowsByNodeKey = new Integer[numRows];
+			for (int row = 0; row < numRows; row++) {
+				rowsByNodeKey[row] = row;
+			}
+			final TIntArrayList nodeKeys = stringColumns[StringColumn.NODE_KEY.ordinal()];
+			Arrays.sort(rowsByNodeKey, Comparator.comparing(row -> strings.get(nodeKeys.get(row))));
+
+			final File tmpFile = File.createTempFile(resultsFile.getName(), ".tmp",
+					resultsFile.getAbsoluteFile().getParentFile());
+			boolean moved = false;
+			try {
+				try (DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(tmpFile), 1024 * 1024))) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeInt(numRows);
+					out.writeInt(strings.size());
+					out.writeLong(dictionarySize);
+					for (final TIntArrayList column : intColumns) {
+						for (int row = 0; row < numRows; row++) {
+							out.writeInt(column.get(row));
+						}
+					}
+					for (final TDoubleArrayList column : doubleColumns) {
+						for (int row = 0; row < numRows; row++) {
+							out.writeDouble(column.get(row));
+						}
+					}
+					for (final TIntArrayList column : stringColumns) {
+						for (int row = 0; row < numRows; row++) {
+							out.writeInt(column.get(row));
+						}
+					}
+					for (final Integer row : rowsByNodeKey) {
+						out.writeInt(row);
+					}
+					int offset = 0;
+					for (final byte[] string : bytes) {
+						out.writeInt(offset);
+						offset += string.length;
+					}
+					out.writeInt(offset);
+					for (final byte[] string : bytes) {
+						out.write(string);
+					}
+				}
+				try {
+					Files.move(tmpFile.toPath(), resultsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} catch (final AtomicMoveNotSupportedException e) {
+					Files.move(tmpFile.toPath(), resultsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				moved = true;
+			} finally {
+				if (!moved) {
+					tmpFile.delete();
+				}
+			}
+			log.info(numRows + " peptide nodes written to " + resultsFile.getAbsolutePath() + " ("
+					+ resultsFile.length() + " bytes) in " + (System.currentTimeMillis() - t1) + " ms");
+		}
+	}
+}
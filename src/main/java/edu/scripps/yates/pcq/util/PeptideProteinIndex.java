@@ -0,0 +1,454 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Index of the positions of the peptides of a run in the protein sequences.
+ * <br>
+ * The positions of the peptides are found with an Aho-Corasick automaton of the
+ * peptide sequences, that scans every protein sequence only once, so that
+ * getting the positions of a peptide takes a time proportional to its
+ * occurrences, instead of searching it in the sequences of its proteins.<br>
+ * The index can be stored in a file, together with a checksum of the protein
+ * sequences (the size and last modification time of the FASTA file, when they
+ * come from one), so that it can be reused by other runs on the same protein
+ * sequences, that only have to index the peptides that are not in the file.
+ *
+ * @author salvador
+ *
+ */
+public class PeptideProteinIndex {
+	private final static Logger log = Logger.getLogger(PeptideProteinIndex.class);
+	private static final int MAGIC = 0x50435149; // PCQI
+	private static final int VERSION = 2;
+	// letters A-Z plus any other character
+	private static final int ALPHABET_SIZE = 27;
+
+	private final Function<String, String> proteinSequencesByAcc;
+	private final String checksum;
+	private final List<String> accessions = new ArrayList<String>();
+	private final TObjectIntHashMap<String> proteinIndexesByAcc = new TObjectIntHashMap<String>(10, 0.5f, -1);
+	private final TObjectIntHashMap<String> peptideIndexesBySequence = new TObjectIntHashMap<String>(10, 0.5f, -1);
+	// protein index and 1-based position of each occurrence of each peptide
+	private final List<TIntArrayList> occurrences = new ArrayList<TIntArrayList>();
+	private boolean modified = false;
+
+	/**
+	 *
+	 * @param proteinAccs           the accessions of the protein sequences
+	 * @param proteinSequencesByAcc gets the sequence of each accession
+	 * @param checksum              the checksum of the protein sequences, or
+	 *                              null if the index is not going to be stored
+	 */
+	public PeptideProteinIndex(Collection<String> proteinAccs, Function<String, String> proteinSequencesByAcc,
+			String checksum) {
+		this.proteinSequencesByAcc = proteinSequencesByAcc;
+		this.checksum = checksum;
+		accessions.addAll(proteinAccs);
+		Collections.sort(accessions);
+		for (int i = 0; i < accessions.size(); i++) {
+			proteinIndexesByAcc.put(accessions.get(i), i);
+		}
+	}
+
+	/**
+	 * Creates the index of the protein sequences, reading the peptides already
+	 * indexed from the file, if it exists and it was created with the same
+	 * protein sequences
+	 *
+	 * @param file
+	 * @param proteinAccs
+	 * @param proteinSequencesByAcc
+	 * @param checksum              the checksum of the protein sequences
+	 * @return
+	 * @throws IOException
+	 */
+	public static PeptideProteinIndex load(File file, Collection<String> proteinAccs,
+			Function<String, String> proteinSequencesByAcc, String checksum) throws IOException {
+		final PeptideProteinIndex ret = new PeptideProteinIndex(proteinAccs, proteinSequencesByAcc, checksum);
+		if (file.exists() && file.length() > 0) {
+			ret.read(file);
+		}
+		return ret;
+	}
+
+	/**
+	 *
+	 * @param fastaFile
+	 * @return a checksum made of the size and the last modification time of the
+	 *         FASTA file, like the one of the {@link FastaSequenceStore}, so that
+	 *         the file doesn't have to be read
+	 */
+	public static String getChecksum(File fastaFile) {
+		return fastaFile.length() + "_" + fastaFile.lastModified();
+	}
+
+	/**
+	 *
+	 * @param proteinSequencesByAcc
+	 * @return the SHA-1 checksum of the accessions and sequences, sorted by
+	 *         accession
+	 */
+	public static String getChecksum(Map<String, String> proteinSequencesByAcc) {
+		final MessageDigest digest = getSHA1Digest();
+		final List<String> sortedAccs = new ArrayList<String>(proteinSequencesByAcc.keySet());
+		Collections.sort(sortedAccs);
+		for (final String acc : sortedAccs) {
+			digest.update(acc.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\t');
+			digest.update(proteinSequencesByAcc.get(acc).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest getSHA1Digest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		final StringBuilder sb = new StringBuilder();
+		for (final byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private void read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), 1024 * 1024))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.warn(file.getAbsolutePath() + " is not a valid protein sequence index file. It will be overwritten");
+				return;
+			}
+			if (!in.readUTF().equals(checksum)) {
+				log.info("Protein sequence index " + file.getAbsolutePath()
+						+ " was created with different protein sequences. It will be overwritten");
+				return;
+			}
+			final int numPeptides = in.readInt();
+			for (int i = 0; i < numPeptides; i++) {
+				final String sequence = in.readUTF();
+				final int numOccurrences = in.readInt();
+				final TIntArrayList peptideOccurrences = new TIntArrayList(numOccurrences * 2);
+				for (int j = 0; j < numOccurrences * 2; j++) {
+					peptideOccurrences.add(in.readInt());
+				}
+				peptideIndexesBySequence.put(sequence, occurrences.size());
+				occurrences.add(peptideOccurrences);
+			}
+			log.info(numPeptides + " peptides read from protein sequence index " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Indexes the peptides that are not already in the index, scanning all the
+	 * protein sequences once
+	 *
+	 * @param peptideSequences
+	 */
+	public void index(Collection<String> peptideSequences) {
+		final List<String> newSequences = new ArrayList<String>();
+		for (final String sequence : peptideSequences) {
+			if (!peptideIndexesBySequence.containsKey(sequence) && !"".equals(sequence)) {
+				peptideIndexesBySequence.put(sequence, occurrences.size());
+				occurrences.add(new TIntArrayList());
+				newSequences.add(sequence);
+			}
+		}
+		if (newSequences.isEmpty()) {
+			return;
+		}
+		log.info("Indexing " + newSequences.size() + " peptides in " + accessions.size() + " protein sequences");
+		final Automaton automaton = new Automaton(newSequences);
+		for (int proteinIndex = 0; proteinIndex < accessions.size(); proteinIndex++) {
+			final String proteinSequence = proteinSequencesByAcc.apply(accessions.get(proteinIndex));
+			if (proteinSequence == null) {
+				continue;
+			}
+			int state = 0;
+			for (int i = 0; i < proteinSequence.length(); i++) {
+				state = automaton.next(state, proteinSequence.charAt(i));
+				for (int output = automaton.getOutputState(state); output > 0; output = automaton.outputLinks
+						.get(output)) {
+					final String peptideSequence = newSequences.get(automaton.patterns.get(output));
+					final TIntArrayList peptideOccurrences = occurrences
+							.get(peptideIndexesBySequence.get(peptideSequence));
+					peptideOccurrences.add(proteinIndex);
+					peptideOccurrences.add(i - peptideSequence.length() + 2);
+				}
+			}
+		}
+		modified = true;
+	}
+
+	/**
+	 *
+	 * @param peptideSequence
+	 * @return true if the peptide was indexed
+	 */
+	public boolean containsPeptide(String peptideSequence) {
+		return peptideIndexesBySequence.containsKey(peptideSequence);
+	}
+
+	/**
+	 *
+	 * @param acc
+	 * @return true if the sequence of the protein is in the index
+	 */
+	public boolean containsProtein(String acc) {
+		return proteinIndexesByAcc.containsKey(acc);
+	}
+
+	/**
+	 *
+	 * @param peptideSequence
+	 * @param acc
+	 * @return the 1-based positions of the peptide in the sequence of the protein
+	 */
+	public TIntArrayList getPositions(String peptideSequence, String acc) {
+		final TIntArrayList ret = new TIntArrayList();
+		final int peptideIndex = peptideIndexesBySequence.get(peptideSequence);
+		final int proteinIndex = proteinIndexesByAcc.get(acc);
+		if (peptideIndex >= 0 && proteinIndex >= 0) {
+			final TIntArrayList peptideOccurrences = occurrences.get(peptideIndex);
+			for (int i = 0; i < peptideOccurrences.size(); i += 2) {
+				if (peptideOccurrences.get(i) == proteinIndex) {
+					ret.add(peptideOccurrences.get(i + 1));
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 *
+	 * @param peptideSequence
+	 * @return the accessions of the proteins in which the peptide is found
+	 */
+	public List<String> getProteins(String peptideSequence) {
+		final List<String> ret = new ArrayList<String>();
+		final int peptideIndex = peptideIndexesBySequence.get(peptideSequence);
+		if (peptideIndex >= 0) {
+			final TIntArrayList peptideOccurrences = occurrences.get(peptideIndex);
+			for (int i = 0; i < peptideOccurrences.size(); i += 2) {
+				final String acc = accessions.get(peptideOccurrences.get(i));
+				if (ret.isEmpty() || !ret.get(ret.size() - 1).equals(acc)) {
+					ret.add(acc);
+				}
+			}
+		}
+		return ret;
+	}
+
+	public boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Writes the index in the file. The file is written in a new temporary file
+	 * in the same folder first, that then replaces the original one.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		if (checksum == null) {
+			throw new IllegalStateException("The index cannot be stored without the checksum of the protein sequences");
+		}
+		final File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean moved = false;
+		try {
+			write(tmpFile);
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			moved = true;
+		} finally {
+			if (!moved) {
+				tmpFile.delete();
+			}
+		}
+		modified = false;
+		log.info(peptideIndexesBySequence.size() + " peptides stored in protein sequence index "
+				+ file.getAbsolutePath());
+	}
+
+	private void write(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(checksum);
+			out.writeInt(peptideIndexesBySequence.size());
+			for (final Object sequence : peptideIndexesBySequence.keys()) {
+				out.writeUTF((String) sequence);
+				final TIntArrayList peptideOccurrences = occurrences
+						.get(peptideIndexesBySequence.get(sequence));
+				out.writeInt(peptideOccurrences.size() / 2);
+				for (int i = 0; i < peptideOccurrences.size(); i++) {
+					out.writeInt(peptideOccurrences.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Aho-Corasick automaton of a set of sequences. The transitions are stored
+	 * by state and character in a single map, and the failure transitions are
+	 * resolved while scanning.
+	 *
+	 * @author salvador
+	 *
+	 */
+	private static class Automaton {
+		private final TLongIntHashMap transitions = new TLongIntHashMap(10, 0.5f, -1l, -1);
+		private final TIntArrayList failureLinks = new TIntArrayList();
+		// the pattern ending in each state, or -1
+		private final TIntArrayList patterns = new TIntArrayList();
+		// the next state with a pattern following the failure links, or 0
+		private final TIntArrayList outputLinks = new TIntArrayList();
+
+		private Automaton(List<String> sequences) {
+			addState();
+			for (int patternIndex = 0; patternIndex < sequences.size(); patternIndex++) {
+				final String sequence = sequences.get(patternIndex);
+				int state = 0;
+				for (int i = 0; i < sequence.length(); i++) {
+					final long key = getKey(state, sequence.charAt(i));
+					int next = transitions.get(key);
+					if (next < 0) {
+						next = addState();
+						transitions.put(key, next);
+					}
+					state = next;
+				}
+				patterns.set(state, patternIndex);
+			}
+			// breadth first, so that the failure links of the shorter prefixes
+			// are set before
+			final TIntArrayList queue = new TIntArrayList();
+			final List<TIntArrayList> children = getChildren();
+			for (int c = 0; c < ALPHABET_SIZE; c++) {
+				final int child = transitions.get(getKey(0, c));
+				if (child > 0) {
+					queue.add(child);
+				}
+			}
+			for (int head = 0; head < queue.size(); head++) {
+				final int state = queue.get(head);
+				final TIntArrayList stateChildren = children.get(state);
+				for (int i = 0; i < stateChildren.size(); i += 2) {
+					final int c = stateChildren.get(i);
+					final int child = stateChildren.get(i + 1);
+					int failure = failureLinks.get(state);
+					while (failure > 0 && transitions.get(getKey(failure, c)) < 0) {
+						failure = failureLinks.get(failure);
+					}
+					final int failureNext = transitions.get(getKey(failure, c));
+					failureLinks.set(child, failureNext >= 0 ? failureNext : 0);
+					final int childFailure = failureLinks.get(child);
+					outputLinks.set(child,
+							patterns.get(childFailure) >= 0 ? childFailure : outputLinks.get(childFailure));
+					queue.add(child);
+				}
+			}
+		}
+
+		private int addState() {
+			failureLinks.add(0);
+			patterns.add(-1);
+			outputLinks.add(0);
+			return patterns.size() - 1;
+		}
+
+		/**
+		 *
+		 * @return the character and state of the children of each state
+		 */
+		private List<TIntArrayList> getChildren() {
+			final List<TIntArrayList> ret = new ArrayList<TIntArrayList>(patterns.size());
+			for (int state = 0; state < patterns.size(); state++) {
+				ret.add(new TIntArrayList(2));
+			}
+			for (final long key : transitions.keys()) {
+				final int state = (int) (key / ALPHABET_SIZE);
+				ret.get(state).add((int) (key % ALPHABET_SIZE));
+				ret.get(state).add(transitions.get(key));
+			}
+			return ret;
+		}
+
+		private int next(int state, char aa) {
+			final int c = getCode(aa);
+			while (true) {
+				final int next = transitions.get(getKey(state, c));
+				if (next >= 0) {
+					return next;
+				}
+				if (state == 0) {
+					return 0;
+				}
+				state = failureLinks.get(state);
+			}
+		}
+
+		/**
+		 *
+		 * @param state
+		 * @return the state, if a pattern ends in it, or the next state with a
+		 *         pattern following the failure links, or 0
+		 */
+		private int getOutputState(int state) {
+			return patterns.get(state) >= 0 ? state : outputLinks.get(state);
+		}
+
+		private static long getKey(int state, char aa) {
+			return getKey(state, getCode(aa));
+		}
+
+		private static long getKey(int state, int code) {
+			return (long) state * ALPHABET_SIZE + code;
+		}
+
+		private static int getCode(char aa) {
+			final char upperCase = Character.toUpperCase(aa);
+			if (upperCase >= 'A' && upperCase <= 'Z') {
+				return upperCase - 'A';
+			}
+			return ALPHABET_SIZE - 1;
+		}
+	}
+}
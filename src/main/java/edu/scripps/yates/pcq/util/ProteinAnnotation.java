@@ -0,0 +1,82 @@
+package edu.scripps.yates.pcq.util;
+
+import edu.scripps.yates.utilities.annotations.uniprot.UniprotEntryUtil;
+import edu.scripps.yates.utilities.annotations.uniprot.xml.Entry;
+
+/**
+ * The annotations of a UniprotKB entry used by PCQ: its name, primary gene
+ * name, taxonomy, description and sequence
+ *
+ * @author salvador
+ *
+ */
+public class ProteinAnnotation {
+	private final String accession;
+	private final String name;
+	private final String geneName;
+	private final String taxonomy;
+	private final String description;
+	private final String sequence;
+
+	public ProteinAnnotation(String accession, String name, String geneName, String taxonomy, String description,
+			String sequence) {
+		this.accession = accession;
+		this.name = name;
+		this.geneName = geneName;
+		this.taxonomy = taxonomy;
+		this.description = description;
+		this.sequence = sequence;
+	}
+
+	/**
+	 *
+	 * @param accession
+	 * @param entry
+	 * @return the annotations of the entry
+	 */
+	public static ProteinAnnotation from(String accession, Entry entry) {
+		String name = null;
+		if (entry.getName() != null && !entry.getName().isEmpty()) {
+			name = entry.getName().get(0);
+		}
+		return new ProteinAnnotation(accession, name, PCQUtils.getGeneName(entry.getGene()),
+				PCQUtils.getTaxonomy(accession, entry.getOrganism()), UniprotEntryUtil.getProteinDescription(entry),
+				UniprotEntryUtil.getProteinSequence(entry));
+	}
+
+	public String getAccession() {
+		return accession;
+	}
+
+	/**
+	 *
+	 * @return the name of the entry, that is the Uniprot ID, like ALDOA_HUMAN
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 *
+	 * @return the primary gene name
+	 */
+	public String getGeneName() {
+		return geneName;
+	}
+
+	/**
+	 *
+	 * @return the scientific name of the organism
+	 */
+	public String getTaxonomy() {
+		return taxonomy;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getSequence() {
+		return sequence;
+	}
+}
@@ -0,0 +1,210 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.scripps.yates.annotations.uniprot.UniprotProteinLocalRetriever;
+import edu.scripps.yates.utilities.annotations.uniprot.xml.Entry;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+
+/**
+ * Cache of the {@link ProteinAnnotation}s of a UniprotKB release, stored in the
+ * UniprotKB releases folder, so that the full entries are only retrieved for
+ * the proteins that were not annotated by previous runs.<br>
+ * The entries not in the cache are retrieved in batches, and only their
+ * {@link ProteinAnnotation}s are kept, so that the full entries of a batch can
+ * be released before retrieving the next one. The accessions that are not
+ * found in the release are also stored, so that they are not requested again.
+ * <br>
+ * The annotations of the latest release (when no release is specified) are not
+ * stored, since the release can change between runs.
+ *
+ * @author salvador
+ *
+ */
+public class ProteinAnnotationCache {
+	private final static Logger log = Logger.getLogger(ProteinAnnotationCache.class);
+	private static final int MAGIC = 0x5043514e; // PCQN
+	private static final int VERSION = 2;
+	private static final int BATCH_SIZE = 500;
+	private final File file;
+	private final String uniprotVersion;
+	private final Map<String, ProteinAnnotation> annotationsByAcc = new THashMap<String, ProteinAnnotation>();
+	// accessions without entry in the release
+	private final Set<String> notFoundAccs = new THashSet<String>();
+	private boolean modified = false;
+
+	private ProteinAnnotationCache(File uniprotReleasesFolder, String uniprotVersion) {
+		this.uniprotVersion = uniprotVersion;
+		if (uniprotVersion != null) {
+			file = new File(uniprotReleasesFolder, "pcq_annotations_" + uniprotVersion + ".cache");
+		} else {
+			file = null;
+		}
+	}
+
+	/**
+	 * Gets the annotations of the proteins, retrieving the ones that are not in
+	 * the cache of the release
+	 *
+	 * @param uplr
+	 * @param uniprotReleasesFolder
+	 * @param uniprotVersion        the release, or null for the latest one
+	 * @param accs
+	 * @return the annotations by accession of the proteins annotated
+	 * @throws IOException
+	 */
+	public static Map<String, ProteinAnnotation> getAnnotations(UniprotProteinLocalRetriever uplr,
+			File uniprotReleasesFolder, String uniprotVersion, Collection<String> accs) throws IOException {
+		final ProteinAnnotationCache cache = new ProteinAnnotationCache(uniprotReleasesFolder, uniprotVersion);
+		cache.read();
+		final List<String> missingAccs = new ArrayList<String>();
+		for (final String acc : accs) {
+			if (!cache.annotationsByAcc.containsKey(acc) && !cache.notFoundAccs.contains(acc)) {
+				missingAccs.add(acc);
+			}
+		}
+		if (!missingAccs.isEmpty()) {
+			cache.retrieve(uplr, missingAccs);
+		}
+		if (cache.modified) {
+			cache.write();
+		}
+		final Map<String, ProteinAnnotation> ret = new THashMap<String, ProteinAnnotation>();
+		for (final String acc : accs) {
+			final ProteinAnnotation annotation = cache.annotationsByAcc.get(acc);
+			if (annotation != null) {
+				ret.put(acc, annotation);
+			}
+		}
+		return ret;
+	}
+
+	private void retrieve(UniprotProteinLocalRetriever uplr, List<String> accs) throws IOException {
+		log.info("Retrieving UniprotKB annotations of " + accs.size() + " proteins not in the annotation cache");
+		for (int from = 0; from < accs.size(); from += BATCH_SIZE) {
+			final Set<String> batch = new THashSet<String>(accs.subList(from, Math.min(from + BATCH_SIZE, accs.size())));
+			final Map<String, Entry> entries = uplr.getAnnotatedProteins(uniprotVersion, batch);
+			for (final String acc : batch) {
+				final Entry entry = entries.get(acc);
+				if (entry != null) {
+					annotationsByAcc.put(acc, ProteinAnnotation.from(acc, entry));
+				} else {
+					notFoundAccs.add(acc);
+				}
+			}
+			modified = true;
+		}
+	}
+
+	private void read() throws IOException {
+		if (file == null || !file.exists()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), 1024 * 1024))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !uniprotVersion.equals(in.readUTF())) {
+				log.warn(file.getAbsolutePath() + " is not a valid annotation cache. It will be overwritten");
+				return;
+			}
+			final int numAnnotations = in.readInt();
+			for (int i = 0; i < numAnnotations; i++) {
+				final String acc = in.readUTF();
+				annotationsByAcc.put(acc, new ProteinAnnotation(acc, readString(in), readString(in), readString(in),
+						readString(in), readString(in)));
+			}
+			final int numNotFoundAccs = in.readInt();
+			for (int i = 0; i < numNotFoundAccs; i++) {
+				notFoundAccs.add(in.readUTF());
+			}
+		} catch (final EOFException e) {
+			log.warn(file.getAbsolutePath() + " is truncated. It will be overwritten");
+			annotationsByAcc.clear();
+			notFoundAccs.clear();
+			return;
+		}
+		log.info(annotationsByAcc.size() + " UniprotKB annotations and " + notFoundAccs.size()
+				+ " accessions not found read from " + file.getAbsolutePath());
+	}
+
+	private void write() throws IOException {
+		if (file == null) {
+			return;
+		}
+		final File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean moved = false;
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile), 1024 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(uniprotVersion);
+				out.writeInt(annotationsByAcc.size());
+				for (final ProteinAnnotation annotation : annotationsByAcc.values()) {
+					out.writeUTF(annotation.getAccession());
+					writeString(out, annotation.getName());
+					writeString(out, annotation.getGeneName());
+					writeString(out, annotation.getTaxonomy());
+					writeString(out, annotation.getDescription());
+					writeString(out, annotation.getSequence());
+				}
+				out.writeInt(notFoundAccs.size());
+				for (final String acc : notFoundAccs) {
+					out.writeUTF(acc);
+				}
+			}
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			moved = true;
+		} finally {
+			if (!moved) {
+				tmpFile.delete();
+			}
+		}
+		modified = false;
+	}
+
+	// strings may be null and longer than the 64KB allowed by writeUTF
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+			return;
+		}
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,226 @@
+package edu.scripps.yates.pcq.util;
+
+import java.util.Arrays;
+
+import gnu.trove.list.TDoubleList;
+
+/**
+ * Average and standard deviation of a set of log2 ratio values, following the
+ * same rules than
+ * {@link PCQUtils#averageTakingIntoAccountInfinitiesAndNans(TDoubleList, boolean)}
+ * and
+ * {@link PCQUtils#stdevTakingIntoAccountInfinitiesAndNans(TDoubleList, boolean)}
+ * for the infinities and NaNs, but without creating intermediate lists.<br>
+ * The values are classified as +INF, -INF, NaN or finite in a single pass, and
+ * the finite values are visited again only to get their standard
+ * deviation.<br>
+ * An instance keeps the results of the last computation and a buffer of values
+ * that is reused, so it is not thread safe and it is meant to be reused by the
+ * same thread.
+ *
+ * @author salvador
+ *
+ */
+public class RatioStatistics {
+	private double[] buffer = new double[16];
+	private int bufferSize = 0;
+	// results of the last computation
+	private int numValues;
+	private int numPositiveInfinities;
+	private int numNegativeInfinities;
+	private int numNaNs;
+	private int numFinite;
+	private double average;
+	private int numMeasurements;
+	private double stdev;
+
+	/**
+	 * Clears the values added with {@link #add(double)}
+	 */
+	public void clear() {
+		bufferSize = 0;
+	}
+
+	public void add(double log2Ratio) {
+		if (bufferSize == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		buffer[bufferSize++] = log2Ratio;
+	}
+
+	/**
+	 * Computes the statistics of the values added with {@link #add(double)}
+	 *
+	 * @param useMayorityRule
+	 * @return this object
+	 */
+	public RatioStatistics compute(boolean useMayorityRule) {
+		return compute(buffer, bufferSize, useMayorityRule);
+	}
+
+	/**
+	 * Computes the statistics of the first length values of the array
+	 *
+	 * @param log2Ratios
+	 * @param length
+	 * @param useMayorityRule
+	 * @return this object
+	 */
+	public RatioStatistics compute(double[] log2Ratios, int length, boolean useMayorityRule) {
+		numValues = length;
+		numPositiveInfinities = 0;
+		numNegativeInfinities = 0;
+		numNaNs = 0;
+		numFinite = 0;
+		double sum = 0.0;
+		boolean allSame = true;
+		for (int i = 0; i < length; i++) {
+			final double value = log2Ratios[i];
+			if (value == Double.POSITIVE_INFINITY) {
+				numPositiveInfinities++;
+			} else if (value == Double.NEGATIVE_INFINITY) {
+				numNegativeInfinities++;
+			} else if (Double.isNaN(value)) {
+				numNaNs++;
+			} else {
+				numFinite++;
+				sum += value;
+			}
+			if (allSame && Double.compare(value, log2Ratios[0]) != 0) {
+				allSame = false;
+			}
+		}
+		final double finiteMean = sum / numFinite;
+		stdev = Double.NaN;
+		if (length == 0) {
+			average = Double.NaN;
+			numMeasurements = 0;
+			return this;
+		}
+		final double first = log2Ratios[0];
+		if (allSame && (Double.isInfinite(first) || first == Double.MAX_VALUE || first == -Double.MAX_VALUE)) {
+			// all infinities of the same sign
+			setResult(first, length, first);
+			return this;
+		}
+		if (allSame && Double.isNaN(first)) {
+			setResult(Double.NaN, length, Double.NaN);
+			return this;
+		}
+		if (!useMayorityRule) {
+			setFiniteResult(log2Ratios, length, finiteMean);
+			return this;
+		}
+		// the average of the most frequent ratio, either non infinity or
+		// infinity
+		final int numInfinities = numPositiveInfinities + numNegativeInfinities;
+		if (numInfinities <= numFinite) {
+			setFiniteResult(log2Ratios, length, finiteMean);
+		} else if (numNegativeInfinities == 0) {
+			setResult(Double.POSITIVE_INFINITY, numInfinities, Double.POSITIVE_INFINITY);
+		} else if (numPositiveInfinities == 0) {
+			setResult(Double.NEGATIVE_INFINITY, numInfinities, Double.NEGATIVE_INFINITY);
+		} else if (numPositiveInfinities > numNegativeInfinities) {
+			// mix of +INF and -INF (and maybe nonINF)
+			if (numPositiveInfinities > numFinite) {
+				setResult(Double.POSITIVE_INFINITY, numPositiveInfinities, Double.POSITIVE_INFINITY);
+			} else if (numPositiveInfinities < numFinite || finiteMean > 0) {
+				// +INF<=nonINF, take average of nonINF if > 0
+				setFiniteResult(log2Ratios, length, finiteMean);
+			} else {
+				setResult(Double.NaN, numPositiveInfinities + numFinite, Double.NaN);
+			}
+		} else if (numNegativeInfinities > numPositiveInfinities) {
+			if (numNegativeInfinities > numFinite) {
+				setResult(Double.NEGATIVE_INFINITY, numNegativeInfinities, Double.NaN);
+			} else if (numNegativeInfinities < numFinite || finiteMean < 0) {
+				// -INF<=nonINF, take average of nonINF if < 0
+				setFiniteResult(log2Ratios, length, finiteMean);
+			} else {
+				setResult(Double.NaN, numFinite + numNegativeInfinities, Double.NaN);
+			}
+		} else if (numFinite > numNegativeInfinities) {
+			// as many +INF than -INF, and less than nonINF
+			setFiniteResult(log2Ratios, length, finiteMean);
+		} else if (numPositiveInfinities == numFinite && finiteMean > 4.0) {
+			setResult(Double.POSITIVE_INFINITY, numPositiveInfinities + numFinite, Double.NaN);
+		} else if (numNegativeInfinities == numFinite && finiteMean < -4.0) {
+			setResult(Double.NEGATIVE_INFINITY, numNegativeInfinities + numFinite, Double.NaN);
+		} else {
+			setResult(Double.NaN, numInfinities, Double.NaN);
+		}
+		return this;
+	}
+
+	private void setResult(double average, int numMeasurements, double stdev) {
+		this.average = average;
+		this.numMeasurements = numMeasurements;
+		this.stdev = stdev;
+	}
+
+	/**
+	 * Sets the average and the sample standard deviation of the finite values
+	 */
+	private void setFiniteResult(double[] log2Ratios, int length, double finiteMean) {
+		average = finiteMean;
+		numMeasurements = numFinite;
+		if (numFinite == 0) {
+			stdev = Double.NaN;
+			return;
+		}
+		double sumOfSquares = 0.0;
+		for (int i = 0; i < length; i++) {
+			final double value = log2Ratios[i];
+			if (!Double.isInfinite(value) && !Double.isNaN(value)) {
+				sumOfSquares += (value - finiteMean) * (value - finiteMean);
+			}
+		}
+		stdev = Math.sqrt(sumOfSquares / (numFinite - 1));
+	}
+
+	/**
+	 *
+	 * @return true if the last computation was over no values, in which case
+	 *         {@link PCQUtils#averageTakingIntoAccountInfinitiesAndNans(TDoubleList, boolean)}
+	 *         returns null
+	 */
+	public boolean isEmpty() {
+		return numValues == 0;
+	}
+
+	public double getAverage() {
+		return average;
+	}
+
+	/**
+	 *
+	 * @return the number of values used to calculate the average
+	 */
+	public int getNumMeasurements() {
+		return numMeasurements;
+	}
+
+	public double getStdev() {
+		return stdev;
+	}
+
+	public int getNumValues() {
+		return numValues;
+	}
+
+	public int getNumPositiveInfinities() {
+		return numPositiveInfinities;
+	}
+
+	public int getNumNegativeInfinities() {
+		return numNegativeInfinities;
+	}
+
+	public int getNumNaNs() {
+		return numNaNs;
+	}
+
+	public int getNumFinite() {
+		return numFinite;
+	}
+}
@@ -0,0 +1,384 @@
+package edu.scripps.yates.pcq.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Reads a tab separated file with a header line, one line at a time, so that
+ * the file doesn't need to fit in memory.<br>
+ * Each line is split only once, keeping the limits of its columns, and the
+ * values of the columns are read from the line without creating a
+ * {@link String} per column. The columns are found by the name in the header,
+ * instead of by their position.
+ *
+ * @author salvador
+ *
+ */
+public class TsvReader implements Closeable {
+	private static final char SEPARATOR = '\t';
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	// the largest mantissa that is exactly represented by a double
+	private static final long MAX_EXACT_MANTISSA = 1l << 53;
+	private final File file;
+	private final BufferedReader reader;
+	private final List<String> headers;
+	private final TObjectIntHashMap<String> indexesByHeader = new TObjectIntHashMap<String>(10, 0.5f, -1);
+	private final Row row = new Row();
+
+	/**
+	 * Handles each row of the file
+	 *
+	 * @author salvador
+	 *
+	 */
+	@FunctionalInterface
+	public interface RowHandler {
+		void handle(Row row) throws IOException;
+	}
+
+	/**
+	 * Opens the file and reads its header
+	 *
+	 * @param file
+	 * @throws IOException if the file cannot be read or it is empty
+	 */
+	public TsvReader(File file) throws IOException {
+		this.file = file;
+		reader = new BufferedReader(new FileReader(file));
+		final String headerLine = reader.readLine();
+		if (headerLine == null) {
+			reader.close();
+			throw new IOException("File " + file.getAbsolutePath() + " is empty");
+		}
+		row.set(headerLine, 1);
+		final List<String> headers = new ArrayList<String>(row.getNumColumns());
+		for (int column = 0; column < row.getNumColumns(); column++) {
+			final String header = row.getString(column);
+			headers.add(header);
+			// the first column with the same name is the one used
+			if (!indexesByHeader.containsKey(header)) {
+				indexesByHeader.put(header, column);
+			}
+		}
+		this.headers = Collections.unmodifiableList(headers);
+	}
+
+	/**
+	 * Reads all the rows of a file
+	 *
+	 * @param file
+	 * @param handler
+	 * @throws IOException
+	 */
+	public static void forEachRow(File file, RowHandler handler) throws IOException {
+		try (TsvReader reader = new TsvReader(file)) {
+			reader.forEachRow(handler);
+		}
+	}
+
+	public List<String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 *
+	 * @param header
+	 * @return the index of the first column with that header, or -1 if there is
+	 *         not such column
+	 */
+	public int getColumnIndex(String header) {
+		return indexesByHeader.get(header);
+	}
+
+	/**
+	 *
+	 * @param text
+	 * @return the index of the first column with a header that contains the
+	 *         text, or -1 if there is not such column
+	 */
+	public int getColumnIndexContaining(String text) {
+		for (int column = 0; column < headers.size(); column++) {
+			if (headers.get(column).contains(text)) {
+				return column;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @param header
+	 * @return the index of the first column with that header
+	 * @throws IllegalArgumentException if there is not such column
+	 */
+	public int getRequiredColumnIndex(String header) {
+		final int index = getColumnIndex(header);
+		if (index < 0) {
+			throw new IllegalArgumentException(
+					"'" + header + "' column has not found in file " + file.getAbsolutePath());
+		}
+		return index;
+	}
+
+	/**
+	 * Reads the next line
+	 *
+	 * @return the row of the line, that is reused for the next lines, or null if
+	 *         there are no more lines
+	 * @throws IOException
+	 */
+	public Row next() throws IOException {
+		final String line = reader.readLine();
+		if (line == null) {
+			return null;
+		}
+		row.set(line, row.getLineNumber() + 1);
+		return row;
+	}
+
+	/**
+	 * Reads all the remaining rows
+	 *
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void forEachRow(RowHandler handler) throws IOException {
+		Row next;
+		while ((next = next()) != null) {
+			handler.handle(next);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * A line of the file, with the limits of its columns.<br>
+	 * The columns after the last one of the line are empty.
+	 *
+	 * @author salvador
+	 *
+	 */
+	public static class Row {
+		private String line;
+		private int lineNumber = 0;
+		private int[] starts = new int[16];
+		private int[] ends = new int[16];
+		private int numColumns;
+
+		private void set(String line, int lineNumber) {
+			this.line = line;
+			this.lineNumber = lineNumber;
+			numColumns = 0;
+			int start = 0;
+			while (true) {
+				final int end = line.indexOf(SEPARATOR, start);
+				if (numColumns == starts.length) {
+					starts = Arrays.copyOf(starts, numColumns * 2);
+					ends = Arrays.copyOf(ends, numColumns * 2);
+				}
+				starts[numColumns] = start;
+				ends[numColumns] = end < 0 ? line.length() : end;
+				numColumns++;
+				if (end < 0) {
+					break;
+				}
+				start = end + 1;
+			}
+		}
+
+		/**
+		 *
+		 * @return the whole line, without the line separator
+		 */
+		public String getLine() {
+			return line;
+		}
+
+		/**
+		 *
+		 * @return the number of the line in the file, starting by 1 for the
+		 *         header
+		 */
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		public int getNumColumns() {
+			return numColumns;
+		}
+
+		/**
+		 *
+		 * @param column
+		 * @return a view of the value of the column in the line, without copying
+		 *         it
+		 */
+		public CharSequence get(int column) {
+			if (column >= numColumns) {
+				return "";
+			}
+			return CharBuffer.wrap(line, starts[column], ends[column]);
+		}
+
+		public String getString(int column) {
+			if (column >= numColumns) {
+				return "";
+			}
+			return line.substring(starts[column], ends[column]);
+		}
+
+		public boolean isEmpty(int column) {
+			return column >= numColumns || starts[column] == ends[column];
+		}
+
+		/**
+		 *
+		 * @param column
+		 * @return the value of the column parsed as
+		 *         {@link Integer#parseInt(String)} does
+		 * @throws NumberFormatException
+		 */
+		public int getInt(int column) {
+			if (column < numColumns) {
+				int position = starts[column];
+				final int end = ends[column];
+				final boolean negative = position < end && line.charAt(position) == '-';
+				if (position < end && (negative || line.charAt(position) == '+')) {
+					position++;
+				}
+				// up to 9 digits cannot overflow
+				if (position < end && end - position <= 9) {
+					int value = 0;
+					for (; position < end; position++) {
+						final int digit = line.charAt(position) - '0';
+						if (digit < 0 || digit > 9) {
+							break;
+						}
+						value = value * 10 + digit;
+					}
+					if (position == end) {
+						return negative ? -value : value;
+					}
+				}
+			}
+			// let Integer parse the rest, and throw the same exceptions
+			return Integer.parseInt(getString(column));
+		}
+
+		/**
+		 * Parses decimal numbers with up to 15 significant digits directly from
+		 * the line, with the same result than {@link Double#parseDouble(String)},
+		 * and the rest (exponents out of range, infinities, NaNs...) with
+		 * {@link Double#parseDouble(String)}.<br>
+		 * A leading apostrophe, as the one written by
+		 * {@link PCQUtils#escapeInfinity(Double)}, is ignored.
+		 *
+		 * @param column
+		 * @return
+		 * @throws NumberFormatException
+		 */
+		public double getDouble(int column) {
+			if (column >= numColumns) {
+				// as Double.parseDouble("")
+				throw new NumberFormatException("empty String");
+			}
+			int start = starts[column];
+			final int end = ends[column];
+			if (start < end && line.charAt(start) == '\'') {
+				start++;
+			}
+			final double value = parseSimpleDouble(line, start, end);
+			if (!Double.isNaN(value)) {
+				return value;
+			}
+			return Double.parseDouble(line.substring(start, end));
+		}
+
+		/**
+		 * Parses [+-]digits[.digits][(e|E)[+-]digits] when the digits fit in the
+		 * mantissa of a double and the power of ten is exact, in which case a
+		 * single multiplication or division is correctly rounded
+		 *
+		 * @return the value, or NaN if it cannot be parsed here
+		 */
+		private static double parseSimpleDouble(String text, int start, int end) {
+			int position = start;
+			final boolean negative = position < end && text.charAt(position) == '-';
+			if (position < end && (negative || text.charAt(position) == '+')) {
+				position++;
+			}
+			long mantissa = 0l;
+			int numDigits = 0;
+			int numDecimals = 0;
+			boolean decimals = false;
+			boolean anyDigit = false;
+			for (; position < end; position++) {
+				final char c = text.charAt(position);
+				if (c >= '0' && c <= '9') {
+					anyDigit = true;
+					mantissa = mantissa * 10 + (c - '0');
+					if (mantissa > 0) {
+						numDigits++;
+					}
+					if (decimals) {
+						numDecimals++;
+					}
+					if (numDigits > 15) {
+						return Double.NaN;
+					}
+				} else if (c == '.' && !decimals) {
+					decimals = true;
+				} else {
+					break;
+				}
+			}
+			if (!anyDigit) {
+				return Double.NaN;
+			}
+			int exponent = -numDecimals;
+			if (position < end) {
+				final char c = text.charAt(position);
+				if (c != 'e' && c != 'E') {
+					return Double.NaN;
+				}
+				position++;
+				final boolean negativeExponent = position < end && text.charAt(position) == '-';
+				if (position < end && (negativeExponent || text.charAt(position) == '+')) {
+					position++;
+				}
+				if (position == end || end - position > 3) {
+					return Double.NaN;
+				}
+				int exponentValue = 0;
+				for (; position < end; position++) {
+					final int digit = text.charAt(position) - '0';
+					if (digit < 0 || digit > 9) {
+						return Double.NaN;
+					}
+					exponentValue = exponentValue * 10 + digit;
+				}
+				exponent += negativeExponent ? -exponentValue : exponentValue;
+			}
+			if (mantissa >= MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+				return Double.NaN;
+			}
+			final double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+					: mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+	}
+}
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -19,11 +20,16 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.PropertyException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.log4j.Logger;
 
@@ -43,6 +49,7 @@ import edu.scripps.yates.pcq.model.ProteinPair;
 import edu.scripps.yates.pcq.params.ProteinClusterQuantParameters;
 import edu.scripps.yates.pcq.util.AnalysisInputType;
 import edu.scripps.yates.pcq.util.PCQUtils;
+import edu.scripps.yates.pcq.util.ProteinAnnotation;
 import edu.scripps.yates.pcq.xgmml.jaxb.Graph;
 import edu.scripps.yates.pcq.xgmml.jaxb.Graph.Att;
 import edu.scripps.yates.pcq.xgmml.jaxb.Graph.Edge;
@@ -56,6 +63,7 @@ import edu.scripps.yates.pcq.xgmml.util.UniprotAnnotationColumn;
 import edu.scripps.yates.utilities.alignment.nwalign.NWResult;
 import edu.scripps.yates.utilities.annotations.uniprot.xml.Entry;
 import edu.scripps.yates.utilities.colors.ColorGenerator;
+import edu.scripps.yates.utilities.fasta.FastaParser;
 import edu.scripps.yates.utilities.proteomicsmodel.Score;
 import edu.scripps.yates.utilities.sequence.PositionInPeptide;
 import edu.scripps.yates.utilities.util.Pair;
@@ -75,12 +83,21 @@ public class XgmmlExporter {
 	private final static ObjectFactory factory = new ObjectFactory();
 	private final static DecimalFormat formatter = new DecimalFormat("#.#");
 	private final static DecimalFormat formatter3Decimals = new DecimalFormat("#.###");
+	// fragments rendered and not written yet by the views
+	private final static int MAX_PENDING_FRAGMENTS = 256;
 
 	private ColorManager colorManager;
 	private final Map<String, Node> visitedPeptideKeys = new THashMap<String, Node>();
 	private final Map<PCQProteinNode, Node> visitedProteinNodes = new THashMap<PCQProteinNode, Node>();
 	private final Map<String, Edge> edgesIDs = new THashMap<String, Edge>();
-	private Map<String, Entry> annotatedProteins;
+	// keys of the nodes and edges of the cluster being exported, that are
+	// forgotten once they are written by a XgmmlStreamWriter
+	private final List<String> clusterPeptideKeys = new ArrayList<String>();
+	private final List<PCQProteinNode> clusterProteinNodes = new ArrayList<PCQProteinNode>();
+	private final List<String> clusterEdgeIDs = new ArrayList<String>();
+	private Map<String, ProteinAnnotation> annotatedProteins;
+	// full entries, only retrieved for the uniprot annotation columns
+	private Map<String, Entry> annotationColumnEntries = Collections.emptyMap();
 	private static final String PCQ_ID = "PCQ_ID";
 	private static final String COUNT_RATIO = "countRatio";
 	private static final String FINAL_RATIO = "finalRatio";
@@ -101,6 +118,80 @@ public class XgmmlExporter {
 		SOLID, DASHED
 	};
 
+	/**
+	 * A XGMML file with the clusters of the network that it shows, written by a
+	 * single thread in
+	 * {@link XgmmlExporter#exportViewsInOnePass(List, Collection, QuantCondition, QuantCondition, ColorManager)}
+	 *
+	 * @author salvador
+	 *
+	 */
+	private static class XgmmlView {
+		private final File file;
+		private final String label;
+		private final String description;
+		// null for all the clusters
+		private final Set<ProteinCluster> clusters;
+		private XgmmlStreamWriter writer;
+		private ExecutorService executor;
+		private volatile IOException error;
+		// whether some node of the view has a finite ratio
+		private boolean scaleColors;
+
+		private XgmmlView(File file, String label, String description, Set<ProteinCluster> clusters) {
+			this.file = file;
+			this.label = label;
+			this.description = description;
+			this.clusters = clusters;
+		}
+
+		private void open(String header) throws IOException {
+			writer = new XgmmlStreamWriter(file, header);
+			executor = Executors.newSingleThreadExecutor();
+		}
+
+		/**
+		 * Writes the fragments in the thread of the view, in the same order than
+		 * they are submitted, and releases a permit when written
+		 */
+		private void write(String nodes, String edges, Semaphore pendingFragments) {
+			executor.execute(() -> {
+				try {
+					if (error == null) {
+						writer.writeFragments(nodes, edges);
+					}
+				} catch (final IOException e) {
+					error = e;
+				} finally {
+					pendingFragments.release();
+				}
+			});
+		}
+
+		/**
+		 * Waits for the pending fragments and closes the file
+		 *
+		 * @throws IOException if some fragment could not be written
+		 */
+		private void close() throws IOException {
+			if (executor != null) {
+				executor.shutdown();
+				try {
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					executor.shutdownNow();
+				}
+			}
+			if (writer != null) {
+				writer.close();
+			}
+			if (error != null) {
+				throw new IOException("Error writing " + file.getAbsolutePath(), error);
+			}
+		}
+	}
+
 	private static JAXBContext getJAXBContext() throws JAXBException {
 		if (context == null) {
 			context = JAXBContext.newInstance(Graph.class);
@@ -147,6 +238,128 @@ public class XgmmlExporter {
 		return file;
 	}
 
+	/**
+	 * Creates the same file than
+	 * {@link #exportToGmmlFromProteinClustersUsingNodes(File, String, Collection, QuantCondition, QuantCondition, ColorManager)}
+	 * but writing the nodes and edges of each cluster as soon as the cluster is
+	 * processed, so that only the keys of the visited nodes and edges are kept in
+	 * memory.
+	 *
+	 * @param outputFile
+	 * @param label
+	 * @param clusters
+	 * @param condition1
+	 * @param condition2
+	 * @param colorManager
+	 * @return
+	 * @throws JAXBException
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	protected File streamGmmlFromProteinClustersUsingNodes(File outputFile, String label,
+			Collection<ProteinCluster> clusters, QuantCondition condition1, QuantCondition condition2,
+			ColorManager colorManager) throws JAXBException, IOException, XMLStreamException {
+		cond1 = condition1;
+		cond2 = condition2;
+		this.colorManager = colorManager;
+		// as scaleColors, that doesn't change any color when no node has a
+		// finite ratio
+		final boolean scaleColors = clusters != null && someNodeHasFiniteRatio(clusters);
+		resetVisitedKeys();
+		final Graph graph = initializeGraph(label);
+		try (XgmmlStreamWriter writer = new XgmmlStreamWriter(outputFile, getHeader(graph, label))) {
+			if (clusters != null) {
+				for (final ProteinCluster proteinCluster : clusters) {
+					createNodesAndEdgesFromProteinClusterUsingNodes(proteinCluster, graph);
+					for (final Node node : graph.getNode()) {
+						if (scaleColors) {
+							scaleColor(node);
+						}
+						writer.writeNode(node);
+					}
+					for (final Edge edge : graph.getEdge()) {
+						writer.writeEdge(edge);
+					}
+					forgetClusterNodesAndEdges(graph);
+				}
+			}
+		}
+		return outputFile;
+	}
+
+	/**
+	 * Creates the nodes of the clusters, without writing them, until one of them
+	 * has a finite ratio, so that it is known whether the colors have to be
+	 * scaled before the first node is written.<br>
+	 * The visited keys and the edge counter are restored afterwards.
+	 *
+	 * @param clusters
+	 * @return true if some node of the clusters has a finite ratio
+	 */
+	private boolean someNodeHasFiniteRatio(Collection<ProteinCluster> clusters) {
+		final int firstEdgeCounter = edgeCounter;
+		resetVisitedKeys();
+		final Graph graph = factory.createGraph();
+		try {
+			for (final ProteinCluster proteinCluster : clusters) {
+				createNodesAndEdgesFromProteinClusterUsingNodes(proteinCluster, graph);
+				if (hasFiniteRatio(graph.getNode())) {
+					return true;
+				}
+				forgetClusterNodesAndEdges(graph);
+			}
+			return false;
+		} finally {
+			resetVisitedKeys();
+			edgeCounter = firstEdgeCounter;
+		}
+	}
+
+	private void addPeptideNode(Graph graph, String key, Node node) {
+		graph.getNode().add(node);
+		visitedPeptideKeys.put(key, node);
+		clusterPeptideKeys.add(key);
+	}
+
+	private void addProteinNode(Graph graph, PCQProteinNode proteinNode, Node node) {
+		graph.getNode().add(node);
+		visitedProteinNodes.put(proteinNode, node);
+		clusterProteinNodes.add(proteinNode);
+	}
+
+	private void addEdge(Graph graph, String edgeID, String edgeID2, Edge edge) {
+		graph.getEdge().add(edge);
+		edgesIDs.put(edgeID, edge);
+		clusterEdgeIDs.add(edgeID);
+		if (edgeID2 != null) {
+			edgesIDs.put(edgeID2, edge);
+			clusterEdgeIDs.add(edgeID2);
+		}
+	}
+
+	/**
+	 * Removes the nodes and edges of the cluster already written from the graph,
+	 * keeping their keys as visited, without node or edge
+	 *
+	 * @param graph
+	 */
+	private void forgetClusterNodesAndEdges(Graph graph) {
+		graph.getNode().clear();
+		graph.getEdge().clear();
+		for (final String key : clusterPeptideKeys) {
+			visitedPeptideKeys.put(key, null);
+		}
+		for (final PCQProteinNode proteinNode : clusterProteinNodes) {
+			visitedProteinNodes.put(proteinNode, null);
+		}
+		for (final String edgeID : clusterEdgeIDs) {
+			edgesIDs.put(edgeID, null);
+		}
+		clusterPeptideKeys.clear();
+		clusterProteinNodes.clear();
+		clusterEdgeIDs.clear();
+	}
+
 	/**
 	 * Scale all colors of the peptide nodes according to input parameters settings.
 	 * See parameters: minimumRatioForColor, maximumRatioForColor,
@@ -154,14 +367,21 @@ public class XgmmlExporter {
 	 * @param graph
 	 */
 	private void scaleColors(Graph graph) {
-
 		final List<Node> nodes = graph.getNode();
-		Double max = -Double.MAX_VALUE;
-		Double min = Double.MAX_VALUE;
-		final ProteinClusterQuantParameters params = ProteinClusterQuantParameters.getInstance();
-		final double minimumRatioForColor = params.getMinimumRatioForColor();
-		final double maximumRatioForColor = params.getMaximumRatioForColor();
+		if (!hasFiniteRatio(nodes)) {
+			return;
+		}
+		for (final Node node2 : nodes) {
+			scaleColor(node2);
+		}
+	}
 
+	/**
+	 *
+	 * @param nodes
+	 * @return true if some of the nodes has a ratio that is not infinite or NaN
+	 */
+	private boolean hasFiniteRatio(Collection<Node> nodes) {
 		for (final Node node2 : nodes) {
 			try {
 				double ratio = 0.0;
@@ -183,98 +403,100 @@ public class XgmmlExporter {
 				if (valid && !Double.isNaN(ratio) && !Double.isInfinite(ratio)
 						&& Double.compare(ratio, Double.MAX_VALUE) != 0
 						&& Double.compare(ratio, -Double.MAX_VALUE) != 0) {
-					if (ratio < min) {
-						min = ratio;
-					}
-					if (ratio > max) {
-						max = ratio;
-					}
+					return true;
 				}
 			} catch (final NumberFormatException e) {
 
 			}
 		}
-		if (Double.compare(max, -Double.MAX_VALUE) == 0 || Double.compare(min, Double.MAX_VALUE) == 0) {
-			return;
-		}
+		return false;
+	}
+
+	/**
+	 * Scales the color of a node, once it is known that the graph has some node
+	 * with a finite ratio
+	 *
+	 * @param node2
+	 */
+	private void scaleColor(Node node2) {
+		final ProteinClusterQuantParameters params = ProteinClusterQuantParameters.getInstance();
+		final double minimumRatioForColor = params.getMinimumRatioForColor();
+		final double maximumRatioForColor = params.getMaximumRatioForColor();
 		// if (max > maximumRatioForColor) {
-		max = maximumRatioForColor;
+		final double max = maximumRatioForColor;
 		// }
 		// if (min < minimumRatioForColor) {
-		min = minimumRatioForColor;
+		double min = minimumRatioForColor;
 		// }
 		if (min > max) {
 			min = max;
 		}
-		for (final Node node2 : nodes) {
-			try {
-				boolean isFiltered = false;
-				double ratio = 0.0;
-				boolean valid = false;
-				boolean significantlyRegulated = false;
-				for (final edu.scripps.yates.pcq.xgmml.jaxb.Graph.Node.Att att : node2.getAtt()) {
-					for (final String ratioAttribute : ratioAttributes) {
-						if (att.getName().equals(ratioAttribute)) {
-							ratio = Double.valueOf(att.getValue());
-							valid = true;
-							break;
-						}
-					}
-					if (att.getName().equals(SIGNIFICANTLY_REGULATED_ATTRIBUTE)) {
-						if (att.getValue().equals("1")) {
-							significantlyRegulated = true;
-						}
-					}
-					if (att.getName().equals(IS_FILTERED)) {
-						if (att.getValue().equals("1")) {
-							isFiltered = true;
-						}
-					}
-
-					if (valid) {
+		try {
+			boolean isFiltered = false;
+			double ratio = 0.0;
+			boolean valid = false;
+			boolean significantlyRegulated = false;
+			for (final edu.scripps.yates.pcq.xgmml.jaxb.Graph.Node.Att att : node2.getAtt()) {
+				for (final String ratioAttribute : ratioAttributes) {
+					if (att.getName().equals(ratioAttribute)) {
+						ratio = Double.valueOf(att.getValue());
+						valid = true;
 						break;
 					}
 				}
-				if (valid) {
-					if (isFiltered) {
-						if (params.getColorNonRegulated() != null) {
-							node2.getGraphics().setFill(ColorGenerator.getHexString(params.getColorNonRegulated()));
-						}
-						continue;
+				if (att.getName().equals(SIGNIFICANTLY_REGULATED_ATTRIBUTE)) {
+					if (att.getValue().equals("1")) {
+						significantlyRegulated = true;
 					}
-					if (!significantlyRegulated && params.getColorNonRegulated() != null) {
-						final Color color = params.getColorNonRegulated();
-						node2.getGraphics().setFill(ColorGenerator.getHexString(color));
-					} else {
-						if (Double.compare(Double.POSITIVE_INFINITY, ratio) == 0) {
-							ratio = max;
-						} else if (Double.compare(Double.NEGATIVE_INFINITY, ratio) == 0) {
-							ratio = min;
-						} else if (ratio < minimumRatioForColor) {
-							ratio = min;
-						} else if (ratio > maximumRatioForColor) {
-							ratio = max;
-						} else if (Double.isNaN(ratio)) {
-							// skip it
-							continue;
-						}
-						// this is a peptide
-						final Color color = ColorGenerator.getColor(ratio, min, max, params.getColorRatioMin(),
-								params.getColorRatioMax());
-
-						node2.getGraphics().setFill(ColorGenerator.getHexString(color));
+				}
+				if (att.getName().equals(IS_FILTERED)) {
+					if (att.getValue().equals("1")) {
+						isFiltered = true;
 					}
-				} else {
+				}
+
+				if (valid) {
+					break;
+				}
+			}
+			if (valid) {
+				if (isFiltered) {
 					if (params.getColorNonRegulated() != null) {
 						node2.getGraphics().setFill(ColorGenerator.getHexString(params.getColorNonRegulated()));
 					}
+					return;
 				}
+				if (!significantlyRegulated && params.getColorNonRegulated() != null) {
+					final Color color = params.getColorNonRegulated();
+					node2.getGraphics().setFill(ColorGenerator.getHexString(color));
+				} else {
+					if (Double.compare(Double.POSITIVE_INFINITY, ratio) == 0) {
+						ratio = max;
+					} else if (Double.compare(Double.NEGATIVE_INFINITY, ratio) == 0) {
+						ratio = min;
+					} else if (ratio < minimumRatioForColor) {
+						ratio = min;
+					} else if (ratio > maximumRatioForColor) {
+						ratio = max;
+					} else if (Double.isNaN(ratio)) {
+						// skip it
+						return;
+					}
+					// this is a peptide
+					final Color color = ColorGenerator.getColor(ratio, min, max, params.getColorRatioMin(),
+							params.getColorRatioMax());
 
-			} catch (final NumberFormatException e) {
-
+					node2.getGraphics().setFill(ColorGenerator.getHexString(color));
+				}
+			} else {
+				if (params.getColorNonRegulated() != null) {
+					node2.getGraphics().setFill(ColorGenerator.getHexString(params.getColorNonRegulated()));
+				}
 			}
-		}
 
+		} catch (final NumberFormatException e) {
+
+		}
 	}
 
 	private Graph initializeGraph(String label) {
@@ -293,9 +515,45 @@ public class XgmmlExporter {
 		visitedPeptideKeys.clear();
 		visitedProteinNodes.clear();
 		edgesIDs.clear();
+		clusterPeptideKeys.clear();
+		clusterProteinNodes.clear();
+		clusterEdgeIDs.clear();
+	}
+
+	private static String getGraphStartTag(String label) {
+		return "<graph id=\"1\" label=\"" + label
+				+ "\" directed=\"1\" cy:documentVersion=\"3.0\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:cy=\"http://www.cytoscape.org\" xmlns=\"http://www.cs.rpi.edu/XGMML\">";
 	}
 
-	private void fixHeader(File file, String label) {
+	/**
+	 *
+	 * @param graph a graph without nodes and edges
+	 * @param label
+	 * @return the lines of the graph marshalled by JAXB, with the graph start tag
+	 *         fixed as in {@link #fixHeader(File, String)}, until the graph end
+	 *         tag, not included
+	 * @throws JAXBException
+	 */
+	static String getHeader(Graph graph, String label) throws JAXBException {
+		final StringWriter marshalledGraph = new StringWriter();
+		createMarshaller().marshal(graph, marshalledGraph);
+		final StringBuilder ret = new StringBuilder();
+		boolean sustitute = true;
+		for (final String line : marshalledGraph.toString().split("\r?\n")) {
+			if (line.trim().startsWith("</graph>")) {
+				break;
+			}
+			if (sustitute && line.trim().startsWith("<graph")) {
+				ret.append(getGraphStartTag(label)).append("\n");
+				sustitute = false;
+			} else {
+				ret.append(line).append("\n");
+			}
+		}
+		return ret.toString();
+	}
+
+	static void fixHeader(File file, String label) {
 		String line;
 		BufferedReader br = null;
 		File outFile = null;
@@ -313,8 +571,7 @@ public class XgmmlExporter {
 			while ((line = br.readLine()) != null) {
 				String newLine = line;
 				if (sustitute && line.trim().startsWith("<graph")) {
-					newLine = "<graph id=\"1\" label=\"" + label
-							+ "\" directed=\"1\" cy:documentVersion=\"3.0\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:cy=\"http://www.cytoscape.org\" xmlns=\"http://www.cs.rpi.edu/XGMML\">";
+					newLine = getGraphStartTag(label);
 					sustitute = false;
 				}
 				bw.write(newLine + "\n");
@@ -386,8 +643,7 @@ public class XgmmlExporter {
 					final String tooltip = getHtml(getTooltipFromAlignment(alignmentResult));
 					final Edge edge = createEdge(++edgeCounter, null, tooltip, attributes3, peptideNode.getKey(),
 							peptideNode2.getKey(), colorManager.getAlignedPeptidesEdgeColor());
-					graph.getEdge().add(edge);
-					edgesIDs.put(edgeID, edge);
+					addEdge(graph, edgeID, null, edge);
 				}
 
 			}
@@ -484,8 +740,7 @@ public class XgmmlExporter {
 									uniquePeptideNode_U1, cond1, cond2, null, true), cond1, cond2));
 					final Node node = createNodeFromPeptideNode(nodeID, label,
 							getPeptideNodeTooltip(label, uniquePeptideNode_U1), uniquePeptideNode_U1, outlineColorU1);
-					graph.getNode().add(node);
-					visitedPeptideKeys.put(nodeID, node);
+					addPeptideNode(graph, nodeID, node);
 				}
 				// set highLight color anyway
 				if (outlineColorU1.equals(colorManager.getHighlightColor())) {
@@ -496,8 +751,7 @@ public class XgmmlExporter {
 			// P1 protein1
 			if (!visitedProteinNodes.containsKey(proteinNode1)) {
 				final Node node = createNodeFromProteinNode(proteinNode1, classification2Cases, outlineColorP1);
-				graph.getNode().add(node);
-				visitedProteinNodes.put(proteinNode1, node);
+				addProteinNode(graph, proteinNode1, node);
 			}
 			// set highLight color anyway
 			if (outlineColorP1.equals(colorManager.getHighlightColor())) {
@@ -516,9 +770,7 @@ public class XgmmlExporter {
 							null, classification2Cases);
 					final Edge edge = createEdge(++edgeCounter, null, null, attributes3, uniquePeptideNode_U1.getKey(),
 							getUniqueID(proteinNode1), edgeColorU1);
-					graph.getEdge().add(edge);
-					edgesIDs.put(edgeID, edge);
-					edgesIDs.put(edgeID2, edge);
+					addEdge(graph, edgeID, edgeID2, edge);
 				}
 				updateCasesForEdge(edgesIDs.get(edgeID), edgeColorU1, classification2Cases);
 			}
@@ -541,8 +793,7 @@ public class XgmmlExporter {
 					final Node node = createNodeFromPeptideNode(nodeID, label,
 							getPeptideNodeTooltip(label, sharedPeptideNode_S12), sharedPeptideNode_S12,
 							outlineColorS12);
-					graph.getNode().add(node);
-					visitedPeptideKeys.put(sharedSequenceString_S12, node);
+					addPeptideNode(graph, sharedSequenceString_S12, node);
 				}
 				// set highLight color anyway
 				if (outlineColorS12.equals(colorManager.getHighlightColor())) {
@@ -561,9 +812,7 @@ public class XgmmlExporter {
 
 					final Edge edge = createEdge(++edgeCounter, null, null, attributes, getUniqueID(proteinNode1),
 							sharedPeptideNode_S12.getKey(), edgeColorS1);
-					graph.getEdge().add(edge);
-					edgesIDs.put(edgeID, edge);
-					edgesIDs.put(edgeID2, edge);
+					addEdge(graph, edgeID, edgeID2, edge);
 				}
 				updateCasesForEdge(edgesIDs.get(edgeID), edgeColorS1, classification2Cases);
 
@@ -577,9 +826,7 @@ public class XgmmlExporter {
 								sharedPepRatio, null, classification2Cases);
 						final Edge edge = createEdge(++edgeCounter, null, null, attributes2, getUniqueID(proteinNode2),
 								sharedPeptideNode_S12.getKey(), edgeColorS2);
-						graph.getEdge().add(edge);
-						edgesIDs.put(edgeID, edge);
-						edgesIDs.put(edgeID2, edge);
+						addEdge(graph, edgeID, edgeID2, edge);
 					}
 					updateCasesForEdge(edgesIDs.get(edgeID), edgeColorS2, classification2Cases);
 
@@ -591,8 +838,7 @@ public class XgmmlExporter {
 		if (proteinNode2 != null) {
 			if (!visitedProteinNodes.containsKey(proteinNode2)) {
 				final Node node = createNodeFromProteinNode(proteinNode2, classification2Cases, outlineColorP2);
-				graph.getNode().add(node);
-				visitedProteinNodes.put(proteinNode2, node);
+				addProteinNode(graph, proteinNode2, node);
 			}
 			// set highLight color anyway
 			if (outlineColorP2.equals(colorManager.getHighlightColor())) {
@@ -615,8 +861,7 @@ public class XgmmlExporter {
 							cond1, cond2));
 					final Node node = createNodeFromPeptideNode(nodeID, label,
 							getPeptideNodeTooltip(label, uniquePeptides_U2), uniquePeptides_U2, outlineColorU2);
-					graph.getNode().add(node);
-					visitedPeptideKeys.put(peptidesSequenceString_U2, node);
+					addPeptideNode(graph, peptidesSequenceString_U2, node);
 				}
 				// set highLight color anyway
 				if (outlineColorU2.equals(colorManager.getHighlightColor())) {
@@ -636,9 +881,7 @@ public class XgmmlExporter {
 							null, classification2Cases);
 					final Edge edge = createEdge(++edgeCounter, null, null, attributes4, getUniqueID(proteinNode2),
 							uniquePeptides_U2.getKey(), edgeColorU2);
-					graph.getEdge().add(edge);
-					edgesIDs.put(edgeID, edge);
-					edgesIDs.put(edgeID2, edge);
+					addEdge(graph, edgeID, edgeID2, edge);
 				}
 				updateCasesForEdge(edgesIDs.get(edgeID), edgeColorU2, classification2Cases);
 
@@ -648,6 +891,10 @@ public class XgmmlExporter {
 	}
 
 	private void updateCasesForEdge(Edge edge, Color fillColor, Collection<Classification2Case> classification2Cases) {
+		if (edge == null) {
+			// already written by a XgmmlStreamWriter
+			return;
+		}
 		if (fillColor != null && fillColor.equals(colorManager.getHighlightColor())) {
 			edge.getGraphics().setFill(ColorGenerator.getHexString(fillColor));
 		}
@@ -811,6 +1058,10 @@ public class XgmmlExporter {
 	}
 
 	private void setNodeOutlineColor(Node node, Color outlineColor) {
+		if (node == null) {
+			// already written by a XgmmlStreamWriter
+			return;
+		}
 		node.getGraphics().setOutline(ColorGenerator.getHexString(outlineColor));
 	}
 
@@ -1328,7 +1579,7 @@ public class XgmmlExporter {
 				for (final QuantifiedProteinInterface protein : proteinNode.getQuantifiedProteins()) {
 
 					final List<String> valuesForProtein = uniprotAnnotationColumn
-							.getValuesForProtein(protein.getAccession(), annotatedProteins);
+							.getValuesForProtein(protein.getAccession(), annotationColumnEntries);
 					for (final String value : valuesForProtein) {
 						if (!valuesForProteinNode.contains(value)) {
 							valuesForProteinNode.add(value);
@@ -1520,11 +1771,11 @@ public class XgmmlExporter {
 	 */
 	private String getProteinNameFromUniprot(String acc) {
 
-		final Map<String, Entry> annotatedProteins = getAnnotatedProtein(acc);
+		final Map<String, ProteinAnnotation> annotatedProteins = getAnnotatedProtein(acc);
 		if (annotatedProteins.containsKey(acc)) {
-			final Entry entry = annotatedProteins.get(acc);
-			if (entry != null && entry.getName() != null && !entry.getName().isEmpty()) {
-				final String proteinName = entry.getName().get(0);
+			final ProteinAnnotation annotation = annotatedProteins.get(acc);
+			if (annotation != null && annotation.getName() != null) {
+				final String proteinName = annotation.getName();
 				if (proteinName.contains("obsolete")) {
 					return acc;
 				}
@@ -1781,7 +2032,7 @@ public class XgmmlExporter {
 		return ret;
 	}
 
-	private File createFile(Graph graph, File outputFile) throws JAXBException {
+	private static Marshaller createMarshaller() throws JAXBException {
 		final Marshaller marshaller = getJAXBContext().createMarshaller();
 
 		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, new Boolean(true));
@@ -1790,12 +2041,17 @@ public class XgmmlExporter {
 		} catch (final PropertyException e) {
 			marshaller.setProperty("com.sun.xml.internal.bind.indentString", "\t");
 		}
+		return marshaller;
+	}
+
+	static File createFile(Graph graph, File outputFile) throws JAXBException {
+		final Marshaller marshaller = createMarshaller();
 		marshaller.marshal(graph, outputFile);
 		log.debug(outputFile.getAbsolutePath() + " created");
 		return outputFile;
 	}
 
-	private Map<String, Entry> getAnnotatedProtein(String accession) {
+	private Map<String, ProteinAnnotation> getAnnotatedProtein(String accession) {
 		final Set<String> accs = new THashSet<String>();
 		if (accession.contains(PCQUtils.PROTEIN_ACC_SEPARATOR)) {
 			final String[] split = accession.split(PCQUtils.PROTEIN_ACC_SEPARATOR);
@@ -1805,7 +2061,7 @@ public class XgmmlExporter {
 		} else {
 			accs.add(accession);
 		}
-		final Map<String, Entry> ret = new THashMap<String, Entry>();
+		final Map<String, ProteinAnnotation> ret = new THashMap<String, ProteinAnnotation>();
 		for (final String string : accs) {
 			if (annotatedProteins != null && annotatedProteins.containsKey(string)) {
 				ret.put(string, annotatedProteins.get(string));
@@ -1818,79 +2074,241 @@ public class XgmmlExporter {
 	/**
 	 * @param annotatedProteins the annotatedProteins to set
 	 */
-	public void setAnnotatedProteins(Map<String, Entry> annotatedProteins) {
+	public void setAnnotatedProteins(Map<String, ProteinAnnotation> annotatedProteins) {
 		this.annotatedProteins = annotatedProteins;
 	}
 
+	/**
+	 * Retrieves the full UniprotKB entries of the proteins of the clusters,
+	 * which are only needed if there are uniprot annotation columns
+	 *
+	 * @param clusterCollection
+	 */
+	private void loadAnnotationColumnEntries(Collection<ProteinCluster> clusterCollection) {
+		final ProteinClusterQuantParameters params = ProteinClusterQuantParameters.getInstance();
+		if (params.getUniprotAnnotationColumns().isEmpty() || params.getUniprotReleasesFolder() == null) {
+			return;
+		}
+		final Set<String> accs = new THashSet<String>();
+		for (final ProteinCluster cluster : clusterCollection) {
+			for (final PCQProteinNode proteinNode : cluster.getProteinNodes()) {
+				for (final QuantifiedProteinInterface protein : proteinNode.getQuantifiedProteins()) {
+					final String uniProtACC = FastaParser.getUniProtACC(protein.getAccession());
+					if (uniProtACC != null) {
+						accs.add(uniProtACC);
+					}
+				}
+			}
+		}
+		annotationColumnEntries = PCQUtils.getUniprotProteinLocalRetrieverByFolder(params.getUniprotReleasesFolder())
+				.getAnnotatedProteins(params.getUniprotVersion(), accs);
+	}
+
 	public void exportToXGMMLUsingNodes(Collection<ProteinCluster> clusterCollection,
-			Map<String, Entry> annotatedProteins, QuantCondition condition1, QuantCondition condition2) {
+			Map<String, ProteinAnnotation> annotatedProteins, QuantCondition condition1, QuantCondition condition2) {
 		setAnnotatedProteins(annotatedProteins);
+		loadAnnotationColumnEntries(clusterCollection);
 
 		final ProteinClusterQuantParameters params = ProteinClusterQuantParameters.getInstance();
 		final ColorManager colorManager = params.getColorManager();
-		final File outputFileFolder = params.getTemporalOutputFolder();
-		final String outputPrefix = params.getOutputPrefix();
-		final String outputSuffix = params.getOutputSuffix();
 
 		log.info("Creating XGMML files for Cytoscape...");
 		try {
-			log.info("Creating XGMML for the entire network...");
-			// export the total network
-			final File xgmmlOutPutFile = new File(outputFileFolder.getAbsolutePath() + File.separator + outputPrefix
-					+ "_cytoscape_ALL_" + outputSuffix + ".xgmml");
-			exportToGmmlFromProteinClustersUsingNodes(xgmmlOutPutFile, outputPrefix + "_" + outputSuffix,
-					clusterCollection, condition1, condition2, colorManager);
-
-			// fdr
-			final Double fdrThreshold = params.getSignificantFDRThreshold();
-			log.info("Creating XGMML for the cluster containing a peptide node that is significantly changing...");
-			final Set<ProteinCluster> significantlyRegulatedProteinClusters = getSignificantlyRegulatedProteinClusters(
-					clusterCollection, fdrThreshold);
-			if (!significantlyRegulatedProteinClusters.isEmpty()) {
-				String fdrText = "";
-				if (params.isPerformRatioIntegration() && params.getSignificantFDRThreshold() != null) {
-					fdrText = params.getSignificantFDRThreshold() + "_";
-				}
-				final String fileName = outputFileFolder.getAbsolutePath() + File.separator + outputPrefix
-						+ "_cytoscape_Significants_" + fdrText + outputSuffix + ".xgmml";
-
-				final File xgmmlOutPutFileFDR = new File(fileName);
-				exportToGmmlFromProteinClustersUsingNodes(xgmmlOutPutFileFDR,
-						outputPrefix + "_FDR" + fdrThreshold + "_" + outputSuffix,
-						significantlyRegulatedProteinClusters, condition1, condition2, colorManager);
-			}
-
-			if (params.isApplyClassificationsByProteinPair()) {
-				if (params.isCollapseIndistinguishablePeptides() && params.isCollapseIndistinguishableProteins()) {
-					// classification 2
-					final Map<Classification2Case, Set<ProteinCluster>> proteinPairsByClassification2 = getProteinClustersByClassification2(
-							clusterCollection);
-					final Classification2Case[] cases2 = Classification2Case.values();
-					for (final Classification2Case case2 : cases2) {
-						if (case2 == Classification2Case.CASE6) {
-							// skip
-							continue;
-						}
-						if (proteinPairsByClassification2.containsKey(case2)) {
-							log.info("Creating XGMML for case " + case2.getCaseID() + "(" + case2.getExplanation()
-									+ ")...");
-							final File xgmmlOutPutFile2 = new File(
-									outputFileFolder.getAbsolutePath() + File.separator + outputPrefix + "_cytoscape_"
-											+ case2.getCaseID() + "-" + case2.name() + "_" + outputSuffix + ".xgmml");
-							exportToGmmlFromProteinClustersUsingNodes(xgmmlOutPutFile2,
-									outputPrefix + "_" + case2.getCaseID() + "-" + case2.name() + "_" + outputSuffix,
-									proteinPairsByClassification2.get(case2), condition1, condition2, colorManager);
-						}
-					}
+			final List<XgmmlView> views = getViews(clusterCollection, condition1, condition2);
+			if (params.isSinglePassXGMMLExport()) {
+				exportViewsInOnePass(views, clusterCollection, condition1, condition2, colorManager);
+			} else {
+				for (final XgmmlView view : views) {
+					log.info("Creating XGMML for " + view.description + "...");
+					streamGmmlFromProteinClustersUsingNodes(view.file, view.label,
+							view.clusters != null ? view.clusters : clusterCollection, condition1, condition2,
+							colorManager);
 				}
 			}
-		} catch (final JAXBException e) {
+		} catch (final JAXBException | IOException | XMLStreamException e) {
 			e.printStackTrace();
 			log.error(e.getMessage());
 		}
 
 	}
 
+	/**
+	 * Gets the XGMML files to create: the entire network, the clusters containing
+	 * a peptide node that is significantly changing and the clusters of each
+	 * classification case
+	 *
+	 * @param clusterCollection
+	 * @param condition1
+	 * @param condition2
+	 * @return
+	 */
+	private List<XgmmlView> getViews(Collection<ProteinCluster> clusterCollection, QuantCondition condition1,
+			QuantCondition condition2) {
+		final ProteinClusterQuantParameters params = ProteinClusterQuantParameters.getInstance();
+		final File outputFileFolder = params.getTemporalOutputFolder();
+		final String outputPrefix = params.getOutputPrefix();
+		final String outputSuffix = params.getOutputSuffix();
+		// needed by getSignificantlyRegulatedProteinClusters
+		cond1 = condition1;
+		cond2 = condition2;
+		final List<XgmmlView> ret = new ArrayList<XgmmlView>();
+
+		// export the total network
+		final File xgmmlOutPutFile = new File(outputFileFolder.getAbsolutePath() + File.separator + outputPrefix
+				+ "_cytoscape_ALL_" + outputSuffix + ".xgmml");
+		ret.add(new XgmmlView(xgmmlOutPutFile, outputPrefix + "_" + outputSuffix, "the entire network", null));
+
+		// fdr
+		final Double fdrThreshold = params.getSignificantFDRThreshold();
+		final Set<ProteinCluster> significantlyRegulatedProteinClusters = getSignificantlyRegulatedProteinClusters(
+				clusterCollection, fdrThreshold);
+		if (!significantlyRegulatedProteinClusters.isEmpty()) {
+			String fdrText = "";
+			if (params.isPerformRatioIntegration() && params.getSignificantFDRThreshold() != null) {
+				fdrText = params.getSignificantFDRThreshold() + "_";
+			}
+			final String fileName = outputFileFolder.getAbsolutePath() + File.separator + outputPrefix
+					+ "_cytoscape_Significants_" + fdrText + outputSuffix + ".xgmml";
+			ret.add(new XgmmlView(new File(fileName), outputPrefix + "_FDR" + fdrThreshold + "_" + outputSuffix,
+					"the cluster containing a peptide node that is significantly changing",
+					significantlyRegulatedProteinClusters));
+		}
+
+		if (params.isApplyClassificationsByProteinPair()) {
+			if (params.isCollapseIndistinguishablePeptides() && params.isCollapseIndistinguishableProteins()) {
+				// classification 2
+				final Map<Classification2Case, Set<ProteinCluster>> proteinPairsByClassification2 = getProteinClustersByClassification2(
+						clusterCollection);
+				final Classification2Case[] cases2 = Classification2Case.values();
+				for (final Classification2Case case2 : cases2) {
+					if (case2 == Classification2Case.CASE6) {
+						// skip
+						continue;
+					}
+					if (proteinPairsByClassification2.containsKey(case2)) {
+						final File xgmmlOutPutFile2 = new File(
+								outputFileFolder.getAbsolutePath() + File.separator + outputPrefix + "_cytoscape_"
+										+ case2.getCaseID() + "-" + case2.name() + "_" + outputSuffix + ".xgmml");
+						ret.add(new XgmmlView(xgmmlOutPutFile2,
+								outputPrefix + "_" + case2.getCaseID() + "-" + case2.name() + "_" + outputSuffix,
+								"case " + case2.getCaseID() + "(" + case2.getExplanation() + ")",
+								proteinPairsByClassification2.get(case2)));
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Creates the same files than
+	 * {@link #streamGmmlFromProteinClustersUsingNodes(File, String, Collection, QuantCondition, QuantCondition, ColorManager)}
+	 * for each view, but in a single traversal of the clusters: the nodes and
+	 * edges of each cluster are created and rendered as text only once, and the
+	 * text is written to the files of all the views containing the cluster, each
+	 * file by its own thread.<br>
+	 * As in
+	 * {@link #streamGmmlFromProteinClustersUsingNodes(File, String, Collection, QuantCondition, QuantCondition, ColorManager)},
+	 * the colors are not scaled in the views in which no node has a finite
+	 * ratio, which is known before the traversal. The nodes of the clusters in
+	 * views with and without scaled colors are rendered both ways.
+	 *
+	 * @param views
+	 * @param clusterCollection
+	 * @param condition1
+	 * @param condition2
+	 * @param colorManager
+	 * @throws JAXBException
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void exportViewsInOnePass(List<XgmmlView> views, Collection<ProteinCluster> clusterCollection,
+			QuantCondition condition1, QuantCondition condition2, ColorManager colorManager)
+			throws JAXBException, IOException, XMLStreamException {
+		final long t1 = System.currentTimeMillis();
+		log.info("Creating " + views.size() + " XGMML files in a single pass over " + clusterCollection.size()
+				+ " clusters...");
+		resetVisitedKeys();
+		cond1 = condition1;
+		cond2 = condition2;
+		this.colorManager = colorManager;
+		for (final XgmmlView view : views) {
+			view.scaleColors = someNodeHasFiniteRatio(view.clusters != null ? view.clusters : clusterCollection);
+		}
+		final Graph graph = factory.createGraph();
+		final XgmmlStreamWriter.FragmentRenderer renderer = new XgmmlStreamWriter.FragmentRenderer();
+		final Semaphore pendingFragments = new Semaphore(MAX_PENDING_FRAGMENTS);
+		IOException closeError = null;
+		try {
+			for (final XgmmlView view : views) {
+				view.open(getHeader(initializeGraph(view.label), view.label));
+			}
+			final List<XgmmlView> clusterViews = new ArrayList<XgmmlView>();
+			for (final ProteinCluster proteinCluster : clusterCollection) {
+				clusterViews.clear();
+				for (final XgmmlView view : views) {
+					if (view.clusters == null || view.clusters.contains(proteinCluster)) {
+						clusterViews.add(view);
+					}
+				}
+				if (clusterViews.isEmpty()) {
+					continue;
+				}
+				createNodesAndEdgesFromProteinClusterUsingNodes(proteinCluster, graph);
+				boolean scaledViews = false;
+				boolean unscaledViews = false;
+				for (final XgmmlView view : clusterViews) {
+					if (view.scaleColors) {
+						scaledViews = true;
+					} else {
+						unscaledViews = true;
+					}
+				}
+				String unscaledNodes = null;
+				if (unscaledViews) {
+					for (final Node node : graph.getNode()) {
+						renderer.renderNode(node);
+					}
+					unscaledNodes = renderer.getFragment();
+				}
+				String scaledNodes = null;
+				if (scaledViews) {
+					for (final Node node : graph.getNode()) {
+						scaleColor(node);
+						renderer.renderNode(node);
+					}
+					scaledNodes = renderer.getFragment();
+				}
+				for (final Edge edge : graph.getEdge()) {
+					renderer.renderEdge(edge);
+				}
+				final String edges = renderer.getFragment();
+				forgetClusterNodesAndEdges(graph);
+				for (final XgmmlView view : clusterViews) {
+					pendingFragments.acquire();
+					view.write(view.scaleColors ? scaledNodes : unscaledNodes, edges, pendingFragments);
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the XGMML files", e);
+		} finally {
+			for (final XgmmlView view : views) {
+				try {
+					view.close();
+				} catch (final IOException e) {
+					if (closeError == null) {
+						closeError = e;
+					}
+				}
+			}
+		}
+		if (closeError != null) {
+			throw closeError;
+		}
+		log.info(views.size() + " XGMML files created in " + (System.currentTimeMillis() - t1) + " ms");
+	}
+
 	/**
 	 * Get significantly regulated protein clusters, that is, the ones having at
 	 * least one peptide node with FDR less or equals to the input parameter
@@ -0,0 +1,273 @@
+package edu.scripps.yates.pcq.xgmml;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import edu.scripps.yates.pcq.xgmml.jaxb.Graph;
+import edu.scripps.yates.pcq.xgmml.jaxb.Graph.Edge;
+import edu.scripps.yates.pcq.xgmml.jaxb.Graph.Node;
+
+/**
+ * Writes a XGMML file node by node and edge by edge through a
+ * {@link XMLStreamWriter}, with the same layout than the one of the
+ * {@link Graph} marshalled by JAXB with formatted output and tabs, so that the
+ * nodes and edges don't need to be kept in memory.<br>
+ * The nodes are written directly to the file and the edges to a temporal file
+ * in the same folder, which is appended after the nodes when closing, because
+ * in the {@link Graph} all the nodes go before all the edges.
+ *
+ * @author salvador
+ *
+ */
+class XgmmlStreamWriter implements Closeable {
+	private static final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+	private final File edgesFile;
+	private final Writer nodesWriter;
+	private final Writer edgesWriter;
+	private final XMLStreamWriter nodesXMLWriter;
+	private final XMLStreamWriter edgesXMLWriter;
+	private boolean closed = false;
+	// something written through the XMLStreamWriters and maybe not flushed yet
+	private boolean pendingXML = false;
+
+	/**
+	 * Renders nodes and edges as text, so that the same text can be written to
+	 * several files with {@link XgmmlStreamWriter#writeFragments(String, String)}
+	 *
+	 * @author salvador
+	 *
+	 */
+	static class FragmentRenderer {
+		private final StringWriter buffer = new StringWriter();
+		private final XMLStreamWriter out;
+
+		FragmentRenderer() throws XMLStreamException {
+			out = xmlOutputFactory.createXMLStreamWriter(buffer);
+		}
+
+		void renderNode(Node node) throws XMLStreamException {
+			writeNode(out, node);
+		}
+
+		void renderEdge(Edge edge) throws XMLStreamException {
+			writeEdge(out, edge);
+		}
+
+		/**
+		 *
+		 * @return the text of the nodes and edges rendered since the last call
+		 * @throws XMLStreamException
+		 */
+		String getFragment() throws XMLStreamException {
+			out.flush();
+			final String ret = buffer.toString();
+			buffer.getBuffer().setLength(0);
+			return ret;
+		}
+	}
+
+	/**
+	 *
+	 * @param outputFile
+	 * @param header     the beginning of the file, until the graph graphics
+	 *                   element, included
+	 * @throws IOException
+	 */
+	XgmmlStreamWriter(File outputFile, String header) throws IOException {
+		edgesFile = File.createTempFile("PCQ_cytoscape_edges", ".xml", outputFile.getAbsoluteFile().getParentFile());
+		edgesFile.deleteOnExit();
+		nodesWriter = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8));
+		nodesWriter.write(header);
+		edgesWriter = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(edgesFile), StandardCharsets.UTF_8));
+		try {
+			nodesXMLWriter = xmlOutputFactory.createXMLStreamWriter(nodesWriter);
+			edgesXMLWriter = xmlOutputFactory.createXMLStreamWriter(edgesWriter);
+		} catch (final XMLStreamException e) {
+			nodesWriter.close();
+			edgesWriter.close();
+			throw new IOException(e);
+		}
+	}
+
+	public void writeNode(Node node) throws XMLStreamException {
+		pendingXML = true;
+		writeNode(nodesXMLWriter, node);
+	}
+
+	public void writeEdge(Edge edge) throws XMLStreamException {
+		pendingXML = true;
+		writeEdge(edgesXMLWriter, edge);
+	}
+
+	/**
+	 * Writes nodes and edges rendered by a {@link FragmentRenderer}
+	 *
+	 * @param nodes
+	 * @param edges
+	 * @throws IOException
+	 */
+	public void writeFragments(String nodes, String edges) throws IOException {
+		flushXML();
+		nodesWriter.write(nodes);
+		edgesWriter.write(edges);
+	}
+
+	private void flushXML() throws IOException {
+		if (pendingXML) {
+			try {
+				nodesXMLWriter.flush();
+				edgesXMLWriter.flush();
+			} catch (final XMLStreamException e) {
+				throw new IOException(e);
+			}
+			pendingXML = false;
+		}
+	}
+
+	static void writeNode(XMLStreamWriter out, Node node) throws XMLStreamException {
+		final boolean empty = node.getAtt().isEmpty() && node.getGraphics() == null;
+		out.writeCharacters("\t");
+		startElement(out, "node", empty);
+		writeAttribute(out, "id", node.getId());
+		writeAttribute(out, "label", node.getLabel());
+		for (final Node.Att att : node.getAtt()) {
+			out.writeCharacters("\n\t\t");
+			out.writeEmptyElement("att");
+			writeAttribute(out, "name", att.getName());
+			writeAttribute(out, "value", att.getValue());
+			writeAttribute(out, "type", att.getType());
+			writeAttribute(out, "cy:type", att.getCyType());
+		}
+		final Node.Graphics graphics = node.getGraphics();
+		if (graphics != null) {
+			out.writeCharacters("\n\t\t");
+			startElement(out, "graphics", graphics.getAtt().isEmpty());
+			writeAttribute(out, "type", graphics.getType());
+			writeAttribute(out, "h", graphics.getH());
+			writeAttribute(out, "w", graphics.getW());
+			writeAttribute(out, "width", graphics.getWidth());
+			writeAttribute(out, "outline", graphics.getOutline());
+			writeAttribute(out, "fill", graphics.getFill());
+			if (!graphics.getAtt().isEmpty()) {
+				for (final Node.Graphics.Att att : graphics.getAtt()) {
+					out.writeCharacters("\n\t\t\t");
+					out.writeEmptyElement("att");
+					writeAttribute(out, "name", att.getName());
+					writeAttribute(out, "value", att.getValue());
+					writeAttribute(out, "type", att.getType());
+				}
+				out.writeCharacters("\n\t\t");
+				out.writeEndElement();
+			}
+		}
+		endElement(out, empty);
+	}
+
+	static void writeEdge(XMLStreamWriter out, Edge edge) throws XMLStreamException {
+		final boolean empty = edge.getAtt().isEmpty() && edge.getGraphics() == null;
+		out.writeCharacters("\t");
+		startElement(out, "edge", empty);
+		writeAttribute(out, "id", edge.getId());
+		writeAttribute(out, "label", edge.getLabel());
+		writeAttribute(out, "source", edge.getSource());
+		writeAttribute(out, "target", edge.getTarget());
+		for (final Edge.Att att : edge.getAtt()) {
+			out.writeCharacters("\n\t\t");
+			out.writeEmptyElement("att");
+			writeAttribute(out, "name", att.getName());
+			writeAttribute(out, "value", att.getValue());
+			writeAttribute(out, "type", att.getType());
+		}
+		final Edge.Graphics graphics = edge.getGraphics();
+		if (graphics != null) {
+			out.writeCharacters("\n\t\t");
+			startElement(out, "graphics", graphics.getAtt().isEmpty());
+			writeAttribute(out, "fill", graphics.getFill());
+			writeAttribute(out, "width", graphics.getWidth());
+			if (!graphics.getAtt().isEmpty()) {
+				for (final Edge.Graphics.Att att : graphics.getAtt()) {
+					out.writeCharacters("\n\t\t\t");
+					out.writeEmptyElement("att");
+					writeAttribute(out, "name", att.getName());
+					writeAttribute(out, "value", att.getValue());
+					writeAttribute(out, "type", att.getType());
+				}
+				out.writeCharacters("\n\t\t");
+				out.writeEndElement();
+			}
+		}
+		endElement(out, empty);
+	}
+
+	/**
+	 * JAXB writes the elements without children as empty elements
+	 */
+	private static void startElement(XMLStreamWriter out, String name, boolean empty) throws XMLStreamException {
+		if (empty) {
+			out.writeEmptyElement(name);
+		} else {
+			out.writeStartElement(name);
+		}
+	}
+
+	private static void endElement(XMLStreamWriter out, boolean empty) throws XMLStreamException {
+		if (!empty) {
+			out.writeCharacters("\n\t");
+			out.writeEndElement();
+		}
+		out.writeCharacters("\n");
+	}
+
+	private static void writeAttribute(XMLStreamWriter out, String name, Object value) throws XMLStreamException {
+		// JAXB doesn't write the null attributes
+		if (value != null) {
+			out.writeAttribute(name, value.toString());
+		}
+	}
+
+	/**
+	 * Appends the edges after the nodes and closes the graph and the file
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			try {
+				flushXML();
+			} finally {
+				edgesWriter.close();
+			}
+			try (BufferedReader edges = new BufferedReader(
+					new InputStreamReader(new FileInputStream(edgesFile), StandardCharsets.UTF_8))) {
+				final char[] buffer = new char[64 * 1024];
+				int read;
+				while ((read = edges.read(buffer)) != -1) {
+					nodesWriter.write(buffer, 0, read);
+				}
+			}
+			nodesWriter.write("</graph>\n");
+		} finally {
+			nodesWriter.close();
+			edgesFile.delete();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package edu.scripps.yates.pcq.sanxot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the {@link WSPPIntegrator} against results that follow from the
+ * variance equation of SanXot. With the same weight w in all the lower level
+ * elements, the equation gives 1 / w + &sigma;<sup>2</sup> = (1 / N) &Sigma;
+ * n<sub>j</sub> / (n<sub>j</sub> - 1) SS<sub>j</sub>, where SS<sub>j</sub> is
+ * the sum of squared deviations of the higher level element j.
+ *
+ * @author salvador
+ *
+ */
+public class WSPPIntegratorTest {
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testVarianceOfOnePair() {
+		// SS = 2, n = 2, N = 2: 1 + variance = 2
+		final WSPPIntegrator integrator = new WSPPIntegrator(new double[] { 1.0, -1.0 }, new double[] { 1.0, 1.0 },
+				new int[] { 0, 0 }, 1);
+		assertEquals(1.0, integrator.estimateVarianceAndIntegrate(), DELTA);
+		assertEquals(0.0, integrator.getHigherLevelLog2Ratio(0), DELTA);
+		assertEquals(1.0, integrator.getHigherLevelWeight(0), DELTA);
+		assertEquals(0.5, integrator.getNormalizedWeight(0), DELTA);
+	}
+
+	@Test
+	public void testVarianceWithDifferentSizes() {
+		// (2 / 1 * 2 + 3 / 2 * 8) / 5 = 3.2 = 1 + variance
+		final WSPPIntegrator integrator = new WSPPIntegrator(new double[] { 1.0, -1.0, 2.0, 0.0, -2.0, 5.0 },
+				new double[] { 1.0, 1.0, 1.0, 1.0, 1.0, 1.0 }, new int[] { 0, 0, 1, 1, 1, 2 }, 3);
+		assertEquals(2.2, integrator.estimateVarianceAndIntegrate(), DELTA);
+		assertEquals(0.0, integrator.getHigherLevelLog2Ratio(1), DELTA);
+		assertEquals(5.0, integrator.getHigherLevelLog2Ratio(2), DELTA);
+		assertEquals(3, integrator.getHigherLevelSize(1));
+	}
+
+	@Test
+	public void testVarianceBelowMeasurementError() {
+		final WSPPIntegrator integrator = new WSPPIntegrator(new double[] { 0.1, -0.1 }, new double[] { 1.0, 1.0 },
+				new int[] { 0, 0 }, 1);
+		assertEquals(0.0, integrator.estimateVarianceAndIntegrate(), 0.0);
+	}
+
+	@Test
+	public void testZeroWeight() {
+		// the element with weight 0 doesn't change the variance nor the ratio
+		final WSPPIntegrator integrator = new WSPPIntegrator(new double[] { 1.0, -1.0, 100.0, 2.0, 0.0, -2.0 },
+				new double[] { 1.0, 1.0, 0.0, 1.0, 1.0, 1.0 }, new int[] { 0, 0, 0, 1, 1, 1 }, 2);
+		assertEquals(2.2, integrator.estimateVarianceAndIntegrate(), DELTA);
+		assertEquals(0.0, integrator.getHigherLevelLog2Ratio(0), DELTA);
+		assertEquals(0.0, integrator.getNormalizedWeight(2), 0.0);
+		assertEquals(1.0, integrator.getFDR(2), 0.0);
+		for (int i = 0; i < 6; i++) {
+			assertFalse(Double.isNaN(integrator.getZValue(i)));
+			assertFalse(Double.isNaN(integrator.getFDR(i)));
+		}
+	}
+
+	@Test
+	public void testZeroWeightNotCountedInFDRs() {
+		// the same elements, with and without other three of weight 0, with
+		// FDRs lower than 1 that depend on the number of tests
+		final double[] log2Ratios = new double[] { 0.0, 0.1, -0.1, 0.2, -0.2, 0.0, 0.5 };
+		final double[] weights = new double[] { 100, 100, 100, 100, 100, 100, 100 };
+		final WSPPIntegrator integrator = new WSPPIntegrator(log2Ratios, weights, new int[7], 1);
+		integrator.integrate(0.0);
+		final WSPPIntegrator integratorWithZeroWeights = new WSPPIntegrator(
+				new double[] { 0.0, 0.1, -0.1, 0.2, -0.2, 0.0, 0.5, 5.0, -5.0, 0.0 },
+				new double[] { 100, 100, 100, 100, 100, 100, 100, 0, 0, 0 }, new int[10], 1);
+		integratorWithZeroWeights.integrate(0.0);
+		for (int i = 0; i < log2Ratios.length; i++) {
+			assertEquals(integrator.getZValue(i), integratorWithZeroWeights.getZValue(i), DELTA);
+			assertEquals(integrator.getFDR(i), integratorWithZeroWeights.getFDR(i), DELTA);
+		}
+		for (int i = log2Ratios.length; i < 10; i++) {
+			assertEquals(0.0, integratorWithZeroWeights.getZValue(i), 0.0);
+			assertEquals(1.0, integratorWithZeroWeights.getFDR(i), 0.0);
+		}
+		// only elements of weight 0
+		final WSPPIntegrator integratorOfZeroWeights = new WSPPIntegrator(new double[] { 1.0, -1.0 },
+				new double[] { 0.0, 0.0 }, new int[2], 1);
+		integratorOfZeroWeights.integrate(0.0);
+		assertEquals(1.0, integratorOfZeroWeights.getFDR(0), 0.0);
+		assertEquals(1.0, integratorOfZeroWeights.getFDR(1), 0.0);
+	}
+
+	@Test
+	public void testFDRs() {
+		final double[] log2Ratios = new double[] { 0.0, 0.1, -0.1, 0.2, -0.2, 0.0, 8.0 };
+		final double[] weights = new double[] { 100, 100, 100, 100, 100, 100, 100 };
+		final WSPPIntegrator integrator = new WSPPIntegrator(log2Ratios, weights, new int[7], 1);
+		integrator.integrate(0.0);
+		// Benjamini-Hochberg: the FDR doesn't decrease with the p-value
+		for (int i = 0; i < log2Ratios.length; i++) {
+			for (int j = 0; j < log2Ratios.length; j++) {
+				if (Math.abs(integrator.getZValue(i)) > Math.abs(integrator.getZValue(j))) {
+					assertTrue(integrator.getFDR(i) <= integrator.getFDR(j));
+				}
+			}
+		}
+		assertEquals(1, integrator.removeOutliers(0.0, 0.01));
+		assertTrue(integrator.isOutlier(6));
+		// equal deviations get the same FDR
+		assertEquals(integrator.getFDR(1), integrator.getFDR(2), 0.0);
+	}
+}
@@ -0,0 +1,162 @@
+package edu.scripps.yates.pcq.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.DoubleColumn;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.IntColumn;
+import edu.scripps.yates.pcq.util.PeptideNodeResultsFile.StringColumn;
+
+/**
+ * Checks that the values of every column of the rows written by a
+ * {@link PeptideNodeResultsFile.Writer} are the ones read from the
+ * {@link PeptideNodeResultsFile}, and that the rows are found by their node
+ * key.
+ *
+ * @author salvador
+ *
+ */
+public class PeptideNodeResultsFileTest {
+	// not sorted, so that the rows by node key are not the rows
+	private static final String[] NODE_KEYS = { "PEPTIDEK", "AAAK_P12345", "ZZR", "MPEPTIDE\u00b5R", "GGK" };
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		final File resultsFile = File.createTempFile("results", PeptideNodeResultsFile.EXTENSION);
+		try {
+			final PeptideNodeResultsFile.Writer writer = new PeptideNodeResultsFile.Writer();
+			for (int row = 0; row < NODE_KEYS.length; row++) {
+				writer.addRow(NODE_KEYS[row]);
+				// the last row keeps the default values
+				if (row < NODE_KEYS.length - 1) {
+					for (final StringColumn column : StringColumn.values()) {
+						if (column != StringColumn.NODE_KEY) {
+							writer.set(column, getString(column, row));
+						}
+					}
+					for (final DoubleColumn column : DoubleColumn.values()) {
+						writer.set(column, getDouble(column, row));
+					}
+					for (final IntColumn column : IntColumn.values()) {
+						writer.set(column, getInt(column, row));
+					}
+				}
+			}
+			assertEquals(NODE_KEYS.length, writer.getNumRows());
+			writer.write(resultsFile);
+			assertTrue(PeptideNodeResultsFile.isPeptideNodeResultsFile(resultsFile));
+
+			try (PeptideNodeResultsFile results = PeptideNodeResultsFile.open(resultsFile)) {
+				assertEquals(NODE_KEYS.length, results.getNumRows());
+				for (int row = 0; row < NODE_KEYS.length - 1; row++) {
+					assertEquals(NODE_KEYS[row], results.getString(StringColumn.NODE_KEY, row));
+					for (final StringColumn column : StringColumn.values()) {
+						if (column != StringColumn.NODE_KEY) {
+							assertEquals(getString(column, row), results.getString(column, row));
+						}
+					}
+					for (final DoubleColumn column : DoubleColumn.values()) {
+						// null is written as NaN
+						final Double value = getDouble(column, row);
+						assertEquals(value != null ? value : Double.NaN, results.getDouble(column, row), 0.0);
+					}
+					for (final IntColumn column : IntColumn.values()) {
+						assertEquals(getInt(column, row), results.getInt(column, row));
+					}
+				}
+				final int lastRow = NODE_KEYS.length - 1;
+				assertEquals(NODE_KEYS[lastRow], results.getString(StringColumn.NODE_KEY, lastRow));
+				for (final StringColumn column : StringColumn.values()) {
+					if (column != StringColumn.NODE_KEY) {
+						assertNull(results.getString(column, lastRow));
+					}
+				}
+				for (final DoubleColumn column : DoubleColumn.values()) {
+					assertTrue(Double.isNaN(results.getDouble(column, lastRow)));
+				}
+				for (final IntColumn column : IntColumn.values()) {
+					assertEquals(0, results.getInt(column, lastRow));
+					assertFalse(results.getBoolean(column, lastRow));
+				}
+
+				for (int row = 0; row < NODE_KEYS.length; row++) {
+					assertEquals(row, results.getRow(NODE_KEYS[row]));
+				}
+				// before the first, between two and after the last node keys
+				assertEquals(-1, results.getRow("A"));
+				assertEquals(-1, results.getRow("PEPTIDE"));
+				assertEquals(-1, results.getRow("ZZZ"));
+			}
+		} finally {
+			resultsFile.delete();
+		}
+	}
+
+	@Test
+	public void testEmptyFile() throws IOException {
+		final File resultsFile = File.createTempFile("results", PeptideNodeResultsFile.EXTENSION);
+		try {
+			new PeptideNodeResultsFile.Writer().write(resultsFile);
+			try (PeptideNodeResultsFile results = PeptideNodeResultsFile.open(resultsFile)) {
+				assertEquals(0, results.getNumRows());
+				assertEquals(-1, results.getRow("PEPTIDEK"));
+			}
+		} finally {
+			resultsFile.delete();
+		}
+	}
+
+	@Test
+	public void testNotAResultsFile() throws IOException {
+		final File resultsFile = File.createTempFile("results", PeptideNodeResultsFile.EXTENSION);
+		try {
+			Files.write(resultsFile.toPath(), "SEQUENCE\tRATIO\n".getBytes(StandardCharsets.UTF_8));
+			try (PeptideNodeResultsFile results = PeptideNodeResultsFile.open(resultsFile)) {
+				fail("A text file should not be opened");
+			} catch (final IOException e) {
+				// expected
+			}
+		} finally {
+			resultsFile.delete();
+		}
+	}
+
+	private static String getString(StringColumn column, int row) {
+		if (row == 1 && column == StringColumn.GENES) {
+			return null;
+		}
+		if (column == StringColumn.PROTEINS) {
+			// the same string in several rows
+			return "P12345#Q67890";
+		}
+		return column.name().toLowerCase() + "_" + row + "_\u00e9";
+	}
+
+	private static Double getDouble(DoubleColumn column, int row) {
+		switch (row) {
+		case 0:
+			return Double.POSITIVE_INFINITY;
+		case 1:
+			return column == DoubleColumn.FDR ? null : Double.NEGATIVE_INFINITY;
+		default:
+			return -1.5 * row + column.ordinal() / 3.0;
+		}
+	}
+
+	private static int getInt(IntColumn column, int row) {
+		if (column == IntColumn.UNIQUE || column == IntColumn.FILTERED) {
+			return row % 2;
+		}
+		return 10 * row + column.ordinal() - 5;
+	}
+}
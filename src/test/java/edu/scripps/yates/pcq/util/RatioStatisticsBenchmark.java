@@ -0,0 +1,114 @@
+package edu.scripps.yates.pcq.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.scripps.yates.utilities.util.Pair;
+import gnu.trove.list.array.TDoubleArrayList;
+
+/**
+ * JMH benchmark that compares the time of {@link RatioStatistics} with the one
+ * of
+ * {@link PCQUtils#averageTakingIntoAccountInfinitiesAndNans(gnu.trove.list.TDoubleList, boolean)}
+ * plus
+ * {@link PCQUtils#stdevTakingIntoAccountInfinitiesAndNans(gnu.trove.list.TDoubleList, boolean)}
+ * over random sets of log2 ratios like the ones of the peptide nodes: mostly a
+ * few finite values, with some infinities and NaNs, and some sets mostly made
+ * of infinities.<br>
+ * Each operation processes all the ratio sets. That both give the same results
+ * is checked by {@link RatioStatisticsTest}.
+ *
+ * @author salvador
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RatioStatisticsBenchmark {
+	@Param({ "10000" })
+	private int numSets;
+	@Param({ "true", "false" })
+	private boolean useMayorityRule;
+	private double[][] ratioSets;
+	private TDoubleArrayList[] ratioLists;
+	private RatioStatistics statistics;
+
+	@Setup
+	public void setup() {
+		ratioSets = createRatioSets(numSets, 1234l);
+		ratioLists = new TDoubleArrayList[numSets];
+		for (int i = 0; i < numSets; i++) {
+			ratioLists[i] = TDoubleArrayList.wrap(ratioSets[i]);
+		}
+		statistics = new RatioStatistics();
+	}
+
+	/**
+	 * Creates random sets of log2 ratios
+	 *
+	 * @param numSets
+	 * @param seed
+	 * @return
+	 */
+	public static double[][] createRatioSets(int numSets, long seed) {
+		final Random random = new Random(seed);
+		final double[][] ratioSets = new double[numSets][];
+		for (int i = 0; i < numSets; i++) {
+			final int size = 1 + (int) Math.min(40, Math.abs(random.nextGaussian() * 6));
+			// one in ten sets is mostly infinities
+			final double infinityProbability = random.nextInt(10) == 0 ? 0.7 : 0.1;
+			final double[] ratios = new double[size];
+			for (int j = 0; j < size; j++) {
+				final double p = random.nextDouble();
+				if (p < infinityProbability / 2) {
+					ratios[j] = Double.POSITIVE_INFINITY;
+				} else if (p < infinityProbability) {
+					ratios[j] = Double.NEGATIVE_INFINITY;
+				} else if (p < infinityProbability + 0.05) {
+					ratios[j] = Double.NaN;
+				} else {
+					ratios[j] = random.nextGaussian() * 1.5;
+				}
+			}
+			ratioSets[i] = ratios;
+		}
+		return ratioSets;
+	}
+
+	@Benchmark
+	public void pcqUtils(Blackhole blackhole) {
+		for (final TDoubleArrayList ratios : ratioLists) {
+			final Pair<Double, Integer> average = PCQUtils.averageTakingIntoAccountInfinitiesAndNans(ratios,
+					useMayorityRule);
+			blackhole.consume(average.getFirstelement());
+			blackhole.consume(average.getSecondElement());
+			blackhole.consume(PCQUtils.stdevTakingIntoAccountInfinitiesAndNans(ratios, useMayorityRule));
+		}
+	}
+
+	@Benchmark
+	public void ratioStatistics(Blackhole blackhole) {
+		for (final double[] ratios : ratioSets) {
+			statistics.compute(ratios, ratios.length, useMayorityRule);
+			blackhole.consume(statistics.getAverage());
+			blackhole.consume(statistics.getNumMeasurements());
+			blackhole.consume(statistics.getStdev());
+		}
+	}
+}
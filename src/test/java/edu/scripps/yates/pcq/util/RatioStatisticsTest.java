@@ -0,0 +1,46 @@
+package edu.scripps.yates.pcq.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.scripps.yates.utilities.util.Pair;
+import gnu.trove.list.array.TDoubleArrayList;
+
+/**
+ * Checks that {@link RatioStatistics} gives the same results than
+ * {@link PCQUtils#averageTakingIntoAccountInfinitiesAndNans(gnu.trove.list.TDoubleList, boolean)}
+ * and
+ * {@link PCQUtils#stdevTakingIntoAccountInfinitiesAndNans(gnu.trove.list.TDoubleList, boolean)}
+ * on the ratio sets of {@link RatioStatisticsBenchmark}
+ *
+ * @author salvador
+ *
+ */
+public class RatioStatisticsTest {
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testSameResultsWithMayorityRule() {
+		checkSameResults(true);
+	}
+
+	@Test
+	public void testSameResultsWithoutMayorityRule() {
+		checkSameResults(false);
+	}
+
+	private void checkSameResults(boolean useMayorityRule) {
+		final RatioStatistics statistics = new RatioStatistics();
+		for (final double[] ratios : RatioStatisticsBenchmark.createRatioSets(10000, 1234l)) {
+			final TDoubleArrayList ratioList = TDoubleArrayList.wrap(ratios);
+			final Pair<Double, Integer> average = PCQUtils.averageTakingIntoAccountInfinitiesAndNans(ratioList,
+					useMayorityRule);
+			final double stdev = PCQUtils.stdevTakingIntoAccountInfinitiesAndNans(ratioList, useMayorityRule);
+			statistics.compute(ratios, ratios.length, useMayorityRule);
+			assertEquals(average.getFirstelement(), statistics.getAverage(), DELTA);
+			assertEquals(average.getSecondElement().intValue(), statistics.getNumMeasurements());
+			assertEquals(stdev, statistics.getStdev(), DELTA);
+		}
+	}
+}
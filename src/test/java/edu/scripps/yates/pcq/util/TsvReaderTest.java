@@ -0,0 +1,208 @@
+package edu.scripps.yates.pcq.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link TsvReader.Row#getDouble(int)} and
+ * {@link TsvReader.Row#getInt(int)} give the same values than
+ * {@link Double#parseDouble(String)} and {@link Integer#parseInt(String)}, and
+ * throw a {@link NumberFormatException} for the same values, both on values
+ * that are parsed directly from the line and on values that are left to the
+ * JDK.
+ *
+ * @author salvador
+ *
+ */
+public class TsvReaderTest {
+	private static final String[] DOUBLES = { "0", "-0", "+0", "0.0", "-0.0", "1", "-1", "+1", "1.5", "-1.5", ".5",
+			"-.5", "5.", "007", "0.000123", "123.456", "-98765.4321", "3.141592653589793", "0.1", "0.2", "0.3",
+			// signs and exponents
+			"1e0", "1E5", "1e+5", "1e-5", "-1.5e-3", "+2.5E+10", "1e22", "1e23", "1e-22", "1e-23", "9.99e-21",
+			"1.7976931348623157e308", "1e309", "-1e309", "4.9e-324", "1e-400", "1e0005", "12345e-27",
+			// long mantissas, that do not fit in the 15 digits parsed directly
+			"123456789012345", "1234567890123456", "12345678901234567890", "0.123456789012345",
+			"0.1234567890123456789", "9007199254740993", "9007199254740991", "999999999999999e22",
+			"0.00000000000000000001", "0.000000000000000000000000001", "100000000000000000000000",
+			// NaN and infinities, also as written by PCQUtils.escapeInfinity
+			"NaN", "-NaN", "+NaN", "Infinity", "-Infinity", "+Infinity", "'Infinity", "'-Infinity", "'1.5",
+			// accepted by Double.parseDouble
+			" 1.5", "1.5 ", "1.5d", "1.5f", "1.5D", "0x1p3", "-0x1.8p1",
+			// malformed
+			"", "'", "-", "+", ".", "-.", "e5", "1e", "1e+", "1e-", "1.5.2", "1..5", "--1", "+-1", "1-", "1e5.5",
+			"1ee5", "abc", "1,5", "inf", "nan", "1.5x", "'-", "''1" };
+	private static final String[] INTS = { "0", "-0", "+0", "1", "-1", "+1", "007", "-007", "123456789",
+			"-123456789", "1234567890", "-1234567890", "2147483647", "-2147483648", "2147483648", "-2147483649",
+			"99999999999", "000000000001",
+			// malformed
+			"", "-", "+", "--1", "+-1", "1-", "1.5", "1e3", " 1", "1 ", "abc", "12a", "a12", "0x10", "NaN",
+			"Infinity" };
+
+	@Test
+	public void testGetDouble() throws IOException {
+		checkSameDoubles(DOUBLES);
+	}
+
+	@Test
+	public void testGetDoubleOfRandomValues() throws IOException {
+		checkSameDoubles(createRandomValues("0123456789.eE+-", 10000, 1234l));
+	}
+
+	@Test
+	public void testGetInt() throws IOException {
+		checkSameInts(INTS);
+	}
+
+	@Test
+	public void testGetIntOfRandomValues() throws IOException {
+		checkSameInts(createRandomValues("0123456789+-", 10000, 1234l));
+	}
+
+	@Test
+	public void testColumnsAfterTheLastOne() throws IOException {
+		final File file = createFile(new String[] { "1.5" });
+		try (TsvReader reader = new TsvReader(file)) {
+			final TsvReader.Row row = reader.next();
+			assertNotNull(row);
+			assertEquals(1, row.getNumColumns());
+			try {
+				row.getDouble(1);
+				fail("An empty column should not be parsed as a double");
+			} catch (final NumberFormatException e) {
+				// expected
+			}
+			try {
+				row.getInt(1);
+				fail("An empty column should not be parsed as an int");
+			} catch (final NumberFormatException e) {
+				// expected
+			}
+			assertNull(reader.next());
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void checkSameDoubles(String[] values) throws IOException {
+		final File file = createFile(values);
+		try (TsvReader reader = new TsvReader(file)) {
+			final TsvReader.Row row = reader.next();
+			assertEquals(values.length, row.getNumColumns());
+			for (int column = 0; column < values.length; column++) {
+				// the apostrophe written before the infinities is ignored
+				final String value = values[column].startsWith("'") ? values[column].substring(1) : values[column];
+				Double expected = null;
+				try {
+					expected = Double.parseDouble(value);
+				} catch (final NumberFormatException e) {
+					// it has to throw it too
+				}
+				try {
+					final double actual = row.getDouble(column);
+					if (expected == null) {
+						fail("'" + values[column] + "' should not be parsed, but it is parsed as " + actual);
+					}
+					// compared by their bits, to distinguish -0.0 from 0.0
+					assertEquals(values[column], Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+				} catch (final NumberFormatException e) {
+					if (expected != null) {
+						fail("'" + values[column] + "' should be parsed as " + expected);
+					}
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void checkSameInts(String[] values) throws IOException {
+		final File file = createFile(values);
+		try (TsvReader reader = new TsvReader(file)) {
+			final TsvReader.Row row = reader.next();
+			assertEquals(values.length, row.getNumColumns());
+			for (int column = 0; column < values.length; column++) {
+				Integer expected = null;
+				try {
+					expected = Integer.parseInt(values[column]);
+				} catch (final NumberFormatException e) {
+					// it has to throw it too
+				}
+				try {
+					final int actual = row.getInt(column);
+					if (expected == null) {
+						fail("'" + values[column] + "' should not be parsed, but it is parsed as " + actual);
+					}
+					assertEquals(values[column], expected.intValue(), actual);
+				} catch (final NumberFormatException e) {
+					if (expected != null) {
+						fail("'" + values[column] + "' should be parsed as " + expected);
+					}
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Creates values of up to 20 characters from the alphabet, most of them
+	 * valid numbers
+	 *
+	 * @param alphabet
+	 * @param numValues
+	 * @param seed
+	 * @return
+	 */
+	private static String[] createRandomValues(String alphabet, int numValues, long seed) {
+		final Random random = new Random(seed);
+		final String[] values = new String[numValues];
+		for (int i = 0; i < numValues; i++) {
+			final StringBuilder sb = new StringBuilder();
+			if (random.nextBoolean()) {
+				sb.append(random.nextBoolean() ? '-' : '+');
+			}
+			final int length = 1 + random.nextInt(20);
+			for (int j = 0; j < length; j++) {
+				// mostly digits
+				if (random.nextInt(10) < 8) {
+					sb.append((char) ('0' + random.nextInt(10)));
+				} else {
+					sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+				}
+			}
+			values[i] = sb.toString();
+		}
+		return values;
+	}
+
+	/**
+	 * Creates a file with a header and one row with the values
+	 *
+	 * @param values
+	 * @return
+	 * @throws IOException
+	 */
+	private static File createFile(String[] values) throws IOException {
+		final List<String> headers = new ArrayList<String>();
+		for (int column = 0; column < values.length; column++) {
+			headers.add("column" + column);
+		}
+		final File file = File.createTempFile("values", ".tsv");
+		Files.write(file.toPath(), Arrays.asList(String.join("\t", headers), String.join("\t", values)),
+				StandardCharsets.UTF_8);
+		return file;
+	}
+}
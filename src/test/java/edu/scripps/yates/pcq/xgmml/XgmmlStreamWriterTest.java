@@ -0,0 +1,196 @@
+package edu.scripps.yates.pcq.xgmml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import edu.scripps.yates.pcq.xgmml.jaxb.Graph;
+import edu.scripps.yates.pcq.xgmml.jaxb.Graph.Edge;
+import edu.scripps.yates.pcq.xgmml.jaxb.Graph.Node;
+import edu.scripps.yates.pcq.xgmml.jaxb.ObjectFactory;
+
+/**
+ * Checks that a graph written by a {@link XgmmlStreamWriter} is the same file
+ * than the one marshalled by JAXB in
+ * {@link XgmmlExporter#createFile(Graph, File)} and
+ * {@link XgmmlExporter#fixHeader(File, String)}, on a graph with two clusters
+ * like the ones created by the {@link XgmmlExporter}. The nodes and edges of
+ * the first cluster are written one by one, and the ones of the second cluster
+ * as fragments rendered by a {@link XgmmlStreamWriter.FragmentRenderer}.
+ *
+ * @author salvador
+ *
+ */
+public class XgmmlStreamWriterTest {
+	private static final String LABEL = "PCQ_test";
+	private final ObjectFactory factory = new ObjectFactory();
+
+	@Test
+	public void testSameFileThanJAXB() throws Exception {
+		final File expectedFile = File.createTempFile("expected", ".xgmml");
+		final File streamedFile = File.createTempFile("streamed", ".xgmml");
+		try {
+			final Graph graph = createGraph();
+			final Node[] cluster1Nodes = { createProteinNode("P12345"), createProteinNode("Q67890"),
+					createPeptideNode("PEPTIDEK", "1.5"), createPeptideNode("SHAREDPEPTIDER", "-0.25") };
+			final Edge[] cluster1Edges = { createEdge(1, "P12345", "PEPTIDEK"),
+					createEdge(2, "P12345", "SHAREDPEPTIDER"), createEdge(3, "Q67890", "SHAREDPEPTIDER") };
+			// a node without attributes or graphics and an edge without
+			// attributes, that are written as empty elements
+			final Node emptyNode = factory.createGraphNode();
+			emptyNode.setId("EMPTY");
+			emptyNode.setLabel("EMPTY");
+			final Edge emptyEdge = factory.createGraphEdge();
+			emptyEdge.setId(5);
+			emptyEdge.setSource("A00001");
+			emptyEdge.setTarget("EMPTY");
+			final Node[] cluster2Nodes = { createProteinNode("A00001"), createPeptideNode("OTHERK", "Infinity"),
+					emptyNode };
+			final Edge[] cluster2Edges = { createEdge(4, "A00001", "OTHERK"), emptyEdge };
+
+			// the header is marshalled from the graph without nodes and edges
+			final String header = XgmmlExporter.getHeader(graph, LABEL);
+			try (XgmmlStreamWriter writer = new XgmmlStreamWriter(streamedFile, header)) {
+				for (final Node node : cluster1Nodes) {
+					writer.writeNode(node);
+				}
+				for (final Edge edge : cluster1Edges) {
+					writer.writeEdge(edge);
+				}
+				final XgmmlStreamWriter.FragmentRenderer renderer = new XgmmlStreamWriter.FragmentRenderer();
+				for (final Node node : cluster2Nodes) {
+					renderer.renderNode(node);
+				}
+				final String nodes = renderer.getFragment();
+				for (final Edge edge : cluster2Edges) {
+					renderer.renderEdge(edge);
+				}
+				writer.writeFragments(nodes, renderer.getFragment());
+			}
+
+			for (final Node node : cluster1Nodes) {
+				graph.getNode().add(node);
+			}
+			for (final Node node : cluster2Nodes) {
+				graph.getNode().add(node);
+			}
+			for (final Edge edge : cluster1Edges) {
+				graph.getEdge().add(edge);
+			}
+			for (final Edge edge : cluster2Edges) {
+				graph.getEdge().add(edge);
+			}
+			XgmmlExporter.createFile(graph, expectedFile);
+			XgmmlExporter.fixHeader(expectedFile, LABEL);
+
+			assertEquals(read(expectedFile), read(streamedFile));
+		} finally {
+			expectedFile.delete();
+			streamedFile.delete();
+		}
+	}
+
+	private static String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private Graph createGraph() {
+		final Graph graph = factory.createGraph();
+		graph.setId(1);
+		graph.setLabel(LABEL);
+		final Graph.Att att = factory.createGraphAtt();
+		att.setName("selected");
+		att.setValue("1");
+		att.setType("boolean");
+		graph.getAtt().add(att);
+		final Graph.Graphics graphics = factory.createGraphGraphics();
+		final Graph.Graphics.Att graphicsAtt = factory.createGraphGraphicsAtt();
+		graphicsAtt.setName("NETWORK_TITLE");
+		graphicsAtt.setValue(LABEL);
+		graphicsAtt.setType("string");
+		graphics.getAtt().add(graphicsAtt);
+		graph.setGraphics(graphics);
+		return graph;
+	}
+
+	private Node createProteinNode(String acc) {
+		final Node node = factory.createGraphNode();
+		node.setId(acc);
+		node.setLabel(acc);
+		node.getAtt().add(createNodeAtt("isProtein", "1", "integer", "Integer"));
+		node.getAtt().add(createNodeAtt("Species", "Homo sapiens", "string", "String"));
+		final Node.Graphics graphics = factory.createGraphNodeGraphics();
+		graphics.setType("RECTANGLE");
+		graphics.setH(30);
+		graphics.setW(70);
+		graphics.setWidth(2);
+		graphics.setOutline("#000000");
+		graphics.setFill("#C0C0C0");
+		graphics.getAtt().add(createNodeGraphicsAtt("NODE_LABEL", acc));
+		graphics.getAtt().add(createNodeGraphicsAtt("NODE_TOOLTIP",
+				"<html><b>Protein:</b> " + acc + "<br>Description with \"quotes\" & symbols > \u00b5</html>"));
+		node.setGraphics(graphics);
+		return node;
+	}
+
+	private Node createPeptideNode(String sequence, String log2Ratio) {
+		final Node node = factory.createGraphNode();
+		node.setId(sequence);
+		node.setLabel(sequence);
+		node.getAtt().add(createNodeAtt("finalRatio", log2Ratio, "real", "Double"));
+		node.getAtt().add(createNodeAtt("PeptideSequences", sequence, "string", "String"));
+		final Node.Graphics graphics = factory.createGraphNodeGraphics();
+		graphics.setType("ELLIPSE");
+		graphics.setH(30);
+		graphics.setW(30);
+		graphics.setOutline("#000000");
+		graphics.setFill("#00FFFF");
+		graphics.getAtt().add(createNodeGraphicsAtt("NODE_LABEL", log2Ratio + "*"));
+		node.setGraphics(graphics);
+		return node;
+	}
+
+	private Node.Att createNodeAtt(String name, String value, String type, String cyType) {
+		final Node.Att att = factory.createGraphNodeAtt();
+		att.setName(name);
+		att.setValue(value);
+		att.setType(type);
+		att.setCyType(cyType);
+		return att;
+	}
+
+	private Node.Graphics.Att createNodeGraphicsAtt(String name, String value) {
+		final Node.Graphics.Att att = factory.createGraphNodeGraphicsAtt();
+		att.setName(name);
+		att.setValue(value);
+		att.setType("string");
+		return att;
+	}
+
+	private Edge createEdge(int id, String source, String target) {
+		final Edge edge = factory.createGraphEdge();
+		edge.setId(id);
+		edge.setLabel(source + " (pp) " + target);
+		edge.setSource(source);
+		edge.setTarget(target);
+		final Edge.Att att = factory.createGraphEdgeAtt();
+		att.setName("interaction");
+		att.setValue("pp");
+		att.setType("string");
+		edge.getAtt().add(att);
+		final Edge.Graphics graphics = factory.createGraphEdgeGraphics();
+		graphics.setFill("#000000");
+		graphics.setWidth(1);
+		final Edge.Graphics.Att graphicsAtt = factory.createGraphEdgeGraphicsAtt();
+		graphicsAtt.setName("EDGE_TOOLTIP");
+		graphicsAtt.setValue("<html>" + source + " &lt;-&gt; " + target + "</html>");
+		graphicsAtt.setType("string");
+		graphics.getAtt().add(graphicsAtt);
+		edge.setGraphics(graphics);
+		return edge;
+	}
+}